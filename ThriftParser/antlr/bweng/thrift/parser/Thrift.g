@@ -30,8 +30,62 @@ package bweng.thrift.parser;
 package bweng.thrift.parser;
 }
 
+@members {
+    private ThriftDiagnostics diagnostics_;
+    private String source_;
+
+    /**
+     * Reports syntax errors to the diagnostics instead of stderr.
+     * @param source The file name used in the diagnostics.
+     */
+    public void setDiagnostics( ThriftDiagnostics diagnostics, String source )
+    {
+        diagnostics_ = diagnostics;
+        source_ = source;
+    }
+
+    @Override
+    public void displayRecognitionError( String[] tokenNames, RecognitionException e )
+    {
+        if ( diagnostics_ != null )
+            diagnostics_.error( source_, e.line-1, e.charPositionInLine, getErrorMessage( e, tokenNames ) );
+        else
+            super.displayRecognitionError( tokenNames, e );
+    }
+
+    /**
+     * Leaves the error recovery mode after the caller has resynchronized the input.
+     */
+    public void endErrorRecovery()
+    {
+        state.errorRecovery = false;
+    }
+}
+
 @lexer::members {
     public static final int COMMENTS = 2;
+
+    private ThriftDiagnostics diagnostics_;
+    private String source_;
+
+    /**
+     * Reports lexer errors to the diagnostics instead of stderr.
+     * @param source The file name used in the diagnostics.
+     */
+    public void setDiagnostics( ThriftDiagnostics diagnostics, String source )
+    {
+        diagnostics_ = diagnostics;
+        source_ = source;
+    }
+
+    @Override
+    public void displayRecognitionError( String[] tokenNames, RecognitionException e )
+    {
+        if ( diagnostics_ != null )
+            diagnostics_.error( source_, e.line-1, e.charPositionInLine, getErrorMessage( e, tokenNames ) );
+        else
+            super.displayRecognitionError( tokenNames, e );
+    }
 }
 
 INCLUDE : 'include' ;
@@ -0,0 +1,334 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+import bweng.thrift.parser.bench.Benchmark;
+import bweng.thrift.parser.bench.BenchmarkRunner;
+import bweng.thrift.parser.bench.ThriftCorpusGenerator;
+import bweng.thrift.parser.model.ThriftDocument;
+import bweng.thrift.parser.protocol.ThriftProtocolBenchmarks;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.CommonTokenStream;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenSource;
+import org.antlr.runtime.tree.CommonTree;
+
+/**
+ * Benchmarks of the single phases of the parser, on generated corpora of different sizes,
+ * and of the protocol decoder, see {@link ThriftProtocolBenchmarks}.<p>
+ * Options (in addition to the options of {@link BenchmarkRunner}):
+ * <pre>
+ * -sizes N,N,...  Number of files of the corpora (default 1,10,100)
+ * </pre>
+ * Run with "ant bench -Dbench.args=...".
+ */
+public final class ThriftParserBenchmarks
+{
+    private ThriftParserBenchmarks()
+    {
+    }
+
+    /**
+     * A corpus of thrift files with a root document that includes all others.
+     */
+    static final class Corpus
+    {
+        Path dir_;
+        Path root_;
+        Path zip_;
+        final List<Path> files_ = new ArrayList<>();
+        final List<byte[]> contents_ = new ArrayList<>();
+        final List<String> texts_ = new ArrayList<>();
+        long bytes_;
+
+        String getName( int i )
+        {
+            return ThriftModelGenerator.getDocumentName( files_.get(i).toString() );
+        }
+    }
+
+    /**
+     * Token source that replays a list of tokens.
+     */
+    static final class ListTokenSource implements TokenSource
+    {
+        private final List<Token> tokens_;
+        private int p_;
+
+        ListTokenSource( List<Token> tokens )
+        {
+            tokens_ = tokens;
+        }
+
+        @Override
+        public Token nextToken()
+        {
+            return tokens_.get( Math.min( p_++, tokens_.size()-1 ) );
+        }
+
+        @Override
+        public String getSourceName()
+        {
+            return "tokens";
+        }
+    }
+
+    public static void main( String[] args ) throws Exception
+    {
+        int[] sizes = { 1, 10, 100 };
+        for ( int i=0 ; i<args.length-1 ; ++i )
+        {
+            if ( "-sizes".equals(args[i]) )
+            {
+                String[] s = args[i+1].split(",");
+                sizes = new int[s.length];
+                for ( int j=0 ; j<s.length ; ++j )
+                    sizes[j] = Integer.parseInt( s[j].trim() );
+            }
+        }
+
+        List<Corpus> corpora = new ArrayList<>();
+        try
+        {
+            List<Benchmark> benchmarks = new ArrayList<>();
+            for ( int size : sizes )
+            {
+                Corpus c = createCorpus( size );
+                corpora.add( c );
+                addBenchmarks( benchmarks, c, String.valueOf(size) );
+            }
+            ThriftProtocolBenchmarks.addBenchmarks( benchmarks, 1000 );
+            new BenchmarkRunner( args ).run( benchmarks );
+        }
+        finally
+        {
+            for ( Corpus c : corpora )
+                delete( c.dir_ );
+        }
+    }
+
+    static void addBenchmarks( List<Benchmark> benchmarks, final Corpus c, String param )
+    {
+        benchmarks.add( new Benchmark( "detectCharset", param )
+        {
+            @Override
+            public long getBytesPerOperation() { return c.bytes_; }
+
+            @Override
+            public Object run()
+            {
+                Object r = null;
+                for ( byte[] b : c.contents_ )
+                    r = ThriftModelGenerator.detectCharset( b, b.length );
+                return r;
+            }
+        });
+
+        benchmarks.add( new Benchmark( "lexer", param )
+        {
+            @Override
+            public long getBytesPerOperation() { return c.bytes_; }
+
+            @Override
+            public Object run()
+            {
+                int n = 0;
+                for ( String t : c.texts_ )
+                {
+                    ThriftLexer lex = new ThriftLexer( new ANTLRStringStream(t) );
+                    while ( lex.nextToken().getType() != Token.EOF )
+                        ++n;
+                }
+                return n;
+            }
+        });
+
+        benchmarks.add( new Benchmark( "parser.document", param )
+        {
+            final List<List<Token>> tokens_ = new ArrayList<>();
+
+            @Override
+            public long getBytesPerOperation() { return c.bytes_; }
+
+            @Override
+            public void setUp()
+            {
+                for ( String t : c.texts_ )
+                    tokens_.add( lex( t ) );
+            }
+
+            @Override
+            public Object run() throws Exception
+            {
+                Object r = null;
+                for ( List<Token> t : tokens_ )
+                    r = new ThriftParser( new CommonTokenStream( new ListTokenSource(t) ) ).document().getTree();
+                return r;
+            }
+        });
+
+        benchmarks.add( new Benchmark( "gen_document", param )
+        {
+            final List<CommonTree> trees_ = new ArrayList<>();
+            final List<ThriftCommentTokenSource> comments_ = new ArrayList<>();
+            final List<ThriftCommentTokenSource> copies_ = new ArrayList<>();
+            final ThriftModelGenerator gen_ = new ThriftModelGenerator();
+
+            @Override
+            public long getBytesPerOperation() { return c.bytes_; }
+
+            @Override
+            public void setUp() throws Exception
+            {
+                for ( String t : c.texts_ )
+                {
+                    ThriftCommentTokenSource cs = new ThriftCommentTokenSource(
+                            new ListTokenSource( lex(t) ), ThriftLexer.DEFAULT_TOKEN_CHANNEL, ThriftLexer.COMMENT );
+                    trees_.add( (CommonTree)new ThriftParser( new CommonTokenStream(cs) ).document().getTree() );
+                    comments_.add( cs );
+                }
+            }
+
+            @Override
+            public void prepare()
+            {
+                // The generator consumes the collected comments.
+                copies_.clear();
+                for ( ThriftCommentTokenSource cs : comments_ )
+                    copies_.add( cs.copyComments() );
+            }
+
+            @Override
+            public Object run()
+            {
+                Object r = null;
+                for ( int i=0 ; i<trees_.size() ; ++i )
+                    r = gen_.generateModel( c.getName(i), trees_.get(i), copies_.get(i) );
+                return r;
+            }
+        });
+
+        benchmarks.add( new Benchmark( "loadIncludes", param )
+        {
+            final ThriftModelGenerator gen_ = new ThriftModelGenerator();
+            ThriftDocument root_;
+
+            @Override
+            public long getBytesPerOperation() { return c.bytes_; }
+
+            @Override
+            public void prepare() throws Exception
+            {
+                root_ = gen_.loadDocument( c.root_ );
+            }
+
+            @Override
+            public Object run()
+            {
+                gen_.loadIncludes( root_, true );
+                return root_;
+            }
+        });
+
+        benchmarks.add( new Benchmark( "loadZipArchive", param )
+        {
+            final ThriftModelGenerator gen_ = new ThriftModelGenerator();
+
+            @Override
+            public long getBytesPerOperation() { return c.bytes_; }
+
+            @Override
+            public Object run() throws Exception
+            {
+                return gen_.loadZipArchive( c.zip_ );
+            }
+        });
+    }
+
+    // Lexes all tokens of all channels, including EOF.
+    static List<Token> lex( String text )
+    {
+        List<Token> tokens = new ArrayList<>();
+        ThriftLexer lex = new ThriftLexer( new ANTLRStringStream(text) );
+        Token t;
+        do
+        {
+            t = lex.nextToken();
+            tokens.add( t );
+        }
+        while ( t.getType() != Token.EOF );
+        return tokens;
+    }
+
+    /**
+     * Creates a corpus in a temporary directory, see {@link ThriftCorpusGenerator}.
+     * @param files Number of files.
+     */
+    static Corpus createCorpus( int files ) throws IOException
+    {
+        Corpus c = new Corpus();
+        c.dir_ = Files.createTempDirectory( "thrift-bench-" );
+
+        ThriftCorpusGenerator g = new ThriftCorpusGenerator();
+        g.files_ = files;
+        g.fanIn_ = Math.max( 1, files/2 );
+        List<Path> written = g.generate( c.dir_ );
+        c.root_ = written.remove( written.size()-1 );
+
+        for ( Path f : written )
+        {
+            byte[] content = Files.readAllBytes( f );
+            c.files_.add( f );
+            c.contents_.add( content );
+            c.texts_.add( new String( content, StandardCharsets.UTF_8 ) );
+            c.bytes_ += content.length;
+        }
+
+        c.zip_ = c.dir_.resolve( "corpus.zip" );
+        try ( ZipOutputStream zo = new ZipOutputStream( Files.newOutputStream( c.zip_ ) ) )
+        {
+            for ( int i=0 ; i<c.files_.size() ; ++i )
+            {
+                zo.putNextEntry( new ZipEntry( c.dir_.relativize( c.files_.get(i) ).toString() ) );
+                zo.write( c.contents_.get(i) );
+                zo.closeEntry();
+            }
+        }
+        return c;
+    }
+
+    static void delete( Path dir ) throws IOException
+    {
+        if ( dir == null || !Files.exists(dir) )
+            return;
+        Files.walkFileTree( dir, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile( Path file, BasicFileAttributes attrs ) throws IOException
+            {
+                Files.delete( file );
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory( Path d, IOException exc ) throws IOException
+            {
+                Files.delete( d );
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,66 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.bench;
+
+/**
+ * One benchmark, executed by {@link BenchmarkRunner}.<p>
+ * Only {@link #run()} is measured. Its result is consumed by the runner, so
+ * the JIT can't remove the work.
+ */
+public abstract class Benchmark
+{
+    private final String name_;
+    private final String param_;
+
+    /**
+     * @param name Name of the benchmark.
+     * @param param Parameter of this instance, e.g. the corpus size.
+     */
+    protected Benchmark( String name, String param )
+    {
+        name_ = name;
+        param_ = param;
+    }
+
+    public final String getName()
+    {
+        return name_;
+    }
+
+    public final String getParam()
+    {
+        return param_;
+    }
+
+    /**
+     * Number of input bytes processed by one operation, used to calculate MB/s.
+     * @return The bytes or 0 if not applicable.
+     */
+    public long getBytesPerOperation()
+    {
+        return 0;
+    }
+
+    /** Called once before warm-up. */
+    public void setUp() throws Exception
+    {
+    }
+
+    /** Called before each operation, not measured. */
+    public void prepare() throws Exception
+    {
+    }
+
+    /**
+     * Executes one operation.
+     * @return Some result of the operation.
+     */
+    public abstract Object run() throws Exception;
+
+    /** Called once after measurement. */
+    public void tearDown() throws Exception
+    {
+    }
+}
@@ -0,0 +1,198 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.bench;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal benchmark harness with warm-up and measurement iterations.<p>
+ * Reports throughput, time per operation and the allocation rate of the
+ * measuring thread, plus the number and time of garbage collections.
+ * Options:
+ * <pre>
+ * -wi N      Warm-up iterations (default 3)
+ * -i N       Measurement iterations (default 5)
+ * -time MS   Minimum time per iteration in ms (default 1000)
+ * -filter RE Only benchmarks whose name matches the regular expression
+ * -csv FILE  Writes the results as CSV
+ * </pre>
+ */
+public final class BenchmarkRunner
+{
+    private int warmupIterations_ = 3;
+    private int iterations_ = 5;
+    private long iterationNs_ = 1000L*1000000L;
+    private Pattern filter_;
+    private String csvFile_;
+
+    private final List<String> csv_ = new ArrayList<>();
+    private final PrintStream out_ = System.out;
+
+    // Sink for benchmark results.
+    private volatile int sink_;
+
+    /**
+     * Creates a runner.
+     * @param args Options, see class description. Unknown options are ignored.
+     */
+    public BenchmarkRunner( String[] args )
+    {
+        for ( int i=0 ; i<args.length-1 ; ++i )
+        {
+            final String a = args[i];
+            if ( "-wi".equals(a) )           warmupIterations_ = Integer.parseInt( args[++i] );
+            else if ( "-i".equals(a) )       iterations_ = Math.max( 1, Integer.parseInt( args[++i] ) );
+            else if ( "-time".equals(a) )    iterationNs_ = Long.parseLong( args[++i] )*1000000L;
+            else if ( "-filter".equals(a) )  filter_ = Pattern.compile( args[++i] );
+            else if ( "-csv".equals(a) )     csvFile_ = args[++i];
+        }
+    }
+
+    /**
+     * Runs all benchmarks and prints the results.
+     */
+    public void run( List<Benchmark> benchmarks ) throws Exception
+    {
+        out_.println( String.format( Locale.ROOT, "%-22s %8s %12s %8s %12s %9s %14s %10s %6s %8s",
+                "Benchmark", "Param", "ops/s", "+-", "ms/op", "MB/s", "alloc B/op", "alloc MB/s", "GCs", "GC ms" ) );
+        csv_.clear();
+        csv_.add( "benchmark,param,ops_per_s,error,ms_per_op,mb_per_s,alloc_bytes_per_op,alloc_mb_per_s,gc_count,gc_ms" );
+
+        for ( Benchmark b : benchmarks )
+        {
+            if ( filter_ != null && !filter_.matcher( b.getName() ).find() )
+                continue;
+            run( b );
+        }
+        if ( csvFile_ != null )
+            Files.write( Paths.get(csvFile_), csv_, StandardCharsets.UTF_8 );
+    }
+
+    private void run( Benchmark b ) throws Exception
+    {
+        b.setUp();
+        try
+        {
+            for ( int i=0 ; i<warmupIterations_ ; ++i )
+                iteration( b );
+
+            final long gcCount0 = gcCount();
+            final long gcTime0 = gcTime();
+            double[] opsPerS = new double[iterations_];
+            long ops = 0;
+            long ns = 0;
+            long alloc = 0;
+            for ( int i=0 ; i<iterations_ ; ++i )
+            {
+                long[] r = iteration( b );
+                ops += r[0];
+                ns += r[1];
+                alloc = ( r[2] < 0 ) ? -1 : alloc + r[2];
+                opsPerS[i] = r[0] * 1e9 / r[1];
+            }
+            report( b, opsPerS, ops, ns, alloc, gcCount()-gcCount0, gcTime()-gcTime0 );
+        }
+        finally
+        {
+            b.tearDown();
+        }
+    }
+
+    // Executes operations until the iteration time is reached. Returns operations, measured ns and allocated bytes.
+    private long[] iteration( Benchmark b ) throws Exception
+    {
+        long ops = 0;
+        long ns = 0;
+        long alloc = 0;
+        int sink = 0;
+        final long end = System.nanoTime() + iterationNs_;
+        do
+        {
+            b.prepare();
+            final long a0 = allocatedBytes();
+            final long t0 = System.nanoTime();
+            Object o = b.run();
+            final long t1 = System.nanoTime();
+            final long a1 = allocatedBytes();
+            sink += System.identityHashCode( o );
+            ns += t1 - t0;
+            alloc = ( a0 < 0 ) ? -1 : alloc + (a1 - a0);
+            ++ops;
+        }
+        while ( System.nanoTime() < end );
+        sink_ += sink;
+        return new long[] { ops, ns, alloc };
+    }
+
+    private void report( Benchmark b, double[] opsPerS, long ops, long ns, long alloc, long gcs, long gcMs )
+    {
+        double mean = 0;
+        for ( double v : opsPerS ) mean += v;
+        mean /= opsPerS.length;
+        double var = 0;
+        for ( double v : opsPerS ) var += (v-mean)*(v-mean);
+        final double err = opsPerS.length > 1 ? Math.sqrt( var/(opsPerS.length-1) ) : 0;
+
+        final double msPerOp = ns / 1e6 / ops;
+        final double mbPerS = b.getBytesPerOperation() * ops / (1024.0*1024.0) / (ns/1e9);
+        final double allocPerOp = alloc < 0 ? -1 : (double)alloc / ops;
+        final double allocMbPerS = alloc < 0 ? -1 : alloc / (1024.0*1024.0) / (ns/1e9);
+
+        out_.println( String.format( Locale.ROOT, "%-22s %8s %12.2f %8.2f %12.4f %9.2f %14.0f %10.1f %6d %8d",
+                b.getName(), b.getParam(), mean, err, msPerOp, mbPerS, allocPerOp, allocMbPerS, gcs, gcMs ) );
+        csv_.add( String.format( Locale.ROOT, "%s,%s,%.3f,%.3f,%.5f,%.3f,%.0f,%.2f,%d,%d",
+                b.getName(), b.getParam(), mean, err, msPerOp, mbPerS, allocPerOp, allocMbPerS, gcs, gcMs ) );
+    }
+
+    // Bytes allocated by the current thread or -1 if not supported by the VM.
+    private static long allocatedBytes()
+    {
+        if ( !ALLOCATION_SUPPORTED )
+            return -1;
+
+        ThreadMXBean tb = ManagementFactory.getThreadMXBean();
+        if ( tb instanceof com.sun.management.ThreadMXBean )
+        {
+            com.sun.management.ThreadMXBean stb = (com.sun.management.ThreadMXBean)tb;
+            return stb.getThreadAllocatedBytes( Thread.currentThread().getId() );
+        }
+        return -1;
+    }
+
+    private final static boolean ALLOCATION_SUPPORTED;
+    static
+    {
+        ThreadMXBean tb = ManagementFactory.getThreadMXBean();
+        ALLOCATION_SUPPORTED = ( tb instanceof com.sun.management.ThreadMXBean )
+                && ((com.sun.management.ThreadMXBean)tb).isThreadAllocatedMemorySupported()
+                && ((com.sun.management.ThreadMXBean)tb).isThreadAllocatedMemoryEnabled();
+    }
+
+    private static long gcCount()
+    {
+        long c = 0;
+        for ( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() )
+            c += Math.max( 0, gc.getCollectionCount() );
+        return c;
+    }
+
+    private static long gcTime()
+    {
+        long t = 0;
+        for ( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() )
+            t += Math.max( 0, gc.getCollectionTime() );
+        return t;
+    }
+}
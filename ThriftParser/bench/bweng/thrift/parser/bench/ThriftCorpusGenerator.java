@@ -0,0 +1,427 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.bench;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Writes synthetic trees of thrift documents for benchmarks and stress tests.<p>
+ * The output only depends on the settings and the seed. All constructs of the
+ * grammar are used: includes, all namespace forms, DAI packages, constants, typedef chains,
+ * enums, senums, structs, unions, exceptions, services with extends hierarchies, all function
+ * modes, field ids, requiredness, default values, annotations, all base types, containers with
+ * cpp_type, service pointers and all comment styles.<br>
+ * Files are placed in sub-directories of 100 files, includes are relative to the root
+ * directory, so the include lookup has to walk up the directories.
+ * Types of included files are referenced by their fully qualified name.
+ * A document "all.thrift" in the root directory includes all files.
+ */
+public final class ThriftCorpusGenerator
+{
+    /** Seed of the random generator. */
+    public long seed_ = 4711;
+    /** Number of files. */
+    public int files_ = 100;
+    /** Number of includes of earlier files per file. */
+    public int fanOut_ = 3;
+    /** Number of "hub" files, the first files of the corpus, that are included by many others. */
+    public int hubs_ = 2;
+    /** Number of files that include each hub file. */
+    public int fanIn_ = 50;
+    /** Nesting depth of packages per file. */
+    public int packageDepth_ = 2;
+    /** Structs per file. */
+    public int structs_ = 10;
+    /** Fields per struct. */
+    public int fields_ = 8;
+    /** Enums per file. */
+    public int enums_ = 2;
+    /** Values per enum. */
+    public int enumValues_ = 6;
+    /** Length of the typedef chain per file. */
+    public int typedefChain_ = 3;
+    /** Depth of the service extends hierarchy per file. */
+    public int serviceDepth_ = 2;
+    /** Functions per service. */
+    public int functions_ = 5;
+    /** Probability of a comment before each element, 0..1. */
+    public double commentDensity_ = 0.5;
+
+    private final static String[] BASE_TYPES =
+    {
+        "bool", "byte", "int8", "i16", "int16", "i32", "int32", "i64", "int64",
+        "uint8", "uint16", "uint32", "uint64", "float", "double", "string", "binary"
+    };
+
+    private final static String[] FUNCTION_MODES =
+    {
+        "", "", "", "oneway ", "event ", "async ", "deferred ", "propertygsc ", "propertygs ", "propertygc "
+    };
+
+    private Random rnd_;
+    private StringBuilder sb_;
+    private int fileIndex_;
+    private List<Integer> visible_;
+
+    /**
+     * Multiplies all counts that define the size of the corpus.
+     * @param factor E.g. 10 for a corpus of 10 times the size.
+     */
+    public void scale( int factor )
+    {
+        files_ *= factor;
+        fanIn_ *= factor;
+    }
+
+    /**
+     * Gets the relative path of a file.
+     */
+    public static String getFileName( int i )
+    {
+        return String.format( "g%03d/file%05d.thrift", i/100, i );
+    }
+
+    /**
+     * Writes the corpus.
+     * @param dir The root directory. Created if needed.
+     * @return The written files, the root document "all.thrift" last.
+     */
+    public List<Path> generate( Path dir ) throws IOException
+    {
+        rnd_ = new Random( seed_ );
+        List<Path> written = new ArrayList<>( files_+1 );
+
+        // Which files include which hub.
+        List<TreeSet<Integer>> hubIncludes = new ArrayList<>();
+        for ( int i=0 ; i<files_ ; ++i )
+            hubIncludes.add( new TreeSet<Integer>() );
+        final int hubs = Math.min( hubs_, files_ );
+        for ( int h=0 ; h<hubs ; ++h )
+        {
+            for ( int k=0 ; k<fanIn_ && files_ > hubs ; ++k )
+                hubIncludes.get( hubs + rnd_.nextInt( files_-hubs ) ).add( h );
+        }
+
+        StringBuilder all = new StringBuilder();
+        all.append( "// Includes all files of the corpus.\n" );
+        for ( int i=0 ; i<files_ ; ++i )
+        {
+            TreeSet<Integer> includes = hubIncludes.get(i);
+            for ( int k=0 ; k<fanOut_ && i > 0 ; ++k )
+                includes.add( rnd_.nextInt( i ) );
+
+            Path f = dir.resolve( getFileName(i) );
+            Files.createDirectories( f.getParent() );
+            Files.write( f, generateFile( i, includes ).getBytes( StandardCharsets.UTF_8 ) );
+            written.add( f );
+            all.append( "include \"" ).append( getFileName(i) ).append( "\"\n" );
+        }
+        Path root = dir.resolve( "all.thrift" );
+        Files.createDirectories( dir );
+        Files.write( root, all.toString().getBytes( StandardCharsets.UTF_8 ) );
+        written.add( root );
+        return written;
+    }
+
+    /**
+     * Generates the content of one file.
+     * @param i Index of the file.
+     * @param includes Indices of the included files.
+     */
+    String generateFile( int i, TreeSet<Integer> includes )
+    {
+        sb_ = new StringBuilder( 4096 );
+        fileIndex_ = i;
+        visible_ = new ArrayList<>( includes );
+
+        sb_.append( "/*\n * Generated file " ).append( i ).append( "\n */\n" );
+        for ( int inc : includes )
+            sb_.append( "include \"" ).append( getFileName(inc) ).append( "\"\n" );
+        sb_.append( "cpp_include \"<vector>\"\n" );
+        sb_.append( "namespace java gen.f" ).append( i ).append( '\n' );
+        sb_.append( "namespace * gen.f" ).append( i ).append( '\n' );
+        sb_.append( "namespace cpp 'gen_f" ).append( i ).append( "'\n" );
+        sb_.append( "cpp_namespace gen_f" ).append( i ).append( '\n' );
+        sb_.append( "php_namespace gen_f" ).append( i ).append( "\n\n" );
+
+        String indent = "";
+        for ( int d=0 ; d<packageDepth_ ; ++d )
+        {
+            comment( indent, "Package level " + d );
+            sb_.append( indent ).append( "package " ).append( d == 0 ? "f"+i : "n"+d ).append( " {\n" );
+            indent += "  ";
+        }
+
+        generateConstants( indent );
+        for ( int e=0 ; e<enums_ ; ++e )
+            generateEnum( indent, e );
+        comment( indent, "String enumeration" );
+        sb_.append( indent ).append( "senum SE { \"a\", \"b\"; 'c' }\n\n" );
+        for ( int s=0 ; s<structs_ ; ++s )
+            generateStruct( indent, "struct", "S"+s );
+        generateStruct( indent, "union", "U" );
+        comment( indent, "Error of file " + i );
+        sb_.append( indent ).append( "exception X { 1: required string message, 2: i32 code = -1 } (java.final = \"true\")\n\n" );
+        for ( int t=0 ; t<typedefChain_ ; ++t )
+        {
+            comment( indent, null );
+            sb_.append( indent ).append( "typedef " )
+               .append( t == 0 ? (structs_ > 0 ? "S0" : "i32") : "T"+(t-1) ).append( " T" ).append( t ).append( '\n' );
+        }
+        sb_.append( '\n' );
+        for ( int s=0 ; s<serviceDepth_ ; ++s )
+            generateService( indent, s );
+
+        for ( int d=packageDepth_-1 ; d>=0 ; --d )
+        {
+            indent = indent.substring( 2 );
+            sb_.append( indent ).append( d == 0 ? "}\n" : "};\n" );
+        }
+        return sb_.toString();
+    }
+
+    // Name of the package of a file, used for fully qualified names.
+    private String getPackage( int file )
+    {
+        StringBuilder p = new StringBuilder();
+        for ( int d=0 ; d<packageDepth_ ; ++d )
+        {
+            if ( d > 0 ) p.append( '.' );
+            p.append( d == 0 ? "f"+file : "n"+d );
+        }
+        return p.toString();
+    }
+
+    // Fully qualified name of a type or service of a file.
+    private String getFullName( int file, String name )
+    {
+        final String p = getPackage( file );
+        return p.isEmpty() ? "file" + String.format( "%05d", file ) + "." + name : p + "." + name;
+    }
+
+    private String qualify( int file, String name )
+    {
+        return ( file == fileIndex_ ) ? name : getFullName( file, name );
+    }
+
+    private void comment( String indent, String text )
+    {
+        if ( rnd_.nextDouble() >= commentDensity_ )
+            return;
+        if ( text == null ) text = "Element " + rnd_.nextInt( 1000 );
+        switch ( rnd_.nextInt( 5 ) )
+        {
+            case 0:
+                sb_.append( indent ).append( "/**\n" ).append( indent ).append( " * " ).append( text ).append( '\n' )
+                   .append( indent ).append( " * @version " ).append( rnd_.nextInt(5) ).append( '.' ).append( rnd_.nextInt(10) ).append( '\n' )
+                   .append( indent ).append( " */\n" );
+                break;
+            case 1:
+                sb_.append( indent ).append( "// " ).append( text ).append( '\n' );
+                break;
+            case 2:
+                sb_.append( indent ).append( "# " ).append( text ).append( '\n' );
+                break;
+            case 3:
+                sb_.append( indent ).append( "/* " ).append( text ).append( " @deprecated */\n" );
+                break;
+            default:
+                sb_.append( indent ).append( "/** " ).append( text ).append( "\n" )
+                   .append( indent ).append( "  @owner team" ).append( rnd_.nextInt(10) ).append( " */\n" );
+                break;
+        }
+    }
+
+    private void generateConstants( String indent )
+    {
+        comment( indent, "Constants" );
+        sb_.append( indent ).append( "const i32 C_INT = " ).append( rnd_.nextInt(1000)-500 ).append( ";\n" );
+        sb_.append( indent ).append( "const i64 C_HEX = 0x" ).append( Integer.toHexString( rnd_.nextInt(0xFFFF) ) ).append( '\n' );
+        sb_.append( indent ).append( "const double C_DOUBLE = 3.25e2,\n" );
+        sb_.append( indent ).append( "const string C_STRING = \"text " ).append( fileIndex_ ).append( "\"\n" );
+        sb_.append( indent ).append( "const list<i32> C_LIST = [ 1, 2; 3 ]\n" );
+        sb_.append( indent ).append( "const map<string,i32> C_MAP = { \"a\": 1, 'b': 2 }\n" );
+        sb_.append( indent ).append( "const i32 C_REF = C_INT\n\n" );
+    }
+
+    private void generateEnum( String indent, int e )
+    {
+        comment( indent, "Enum " + e );
+        sb_.append( indent ).append( "enum Enum" ).append( e ).append( " {\n" );
+        int value = 0;
+        for ( int v=0 ; v<enumValues_ ; ++v )
+        {
+            sb_.append( indent ).append( "  V" ).append( v );
+            switch ( rnd_.nextInt( 4 ) )
+            {
+                case 0:
+                    value += 1 + rnd_.nextInt( 10 );
+                    sb_.append( " = " ).append( value );
+                    break;
+                case 1:
+                    value += 1 + rnd_.nextInt( 10 );
+                    sb_.append( " = 0x" ).append( Integer.toHexString( value ) );
+                    break;
+            }
+            ++value;
+            sb_.append( rnd_.nextBoolean() ? ",\n" : "\n" );
+        }
+        sb_.append( indent ).append( "}\n\n" );
+    }
+
+    private void generateStruct( String indent, String keyword, String name )
+    {
+        comment( indent, keyword + " " + name );
+        sb_.append( indent ).append( keyword ).append( ' ' ).append( name ).append( " {\n" );
+        for ( int f=0 ; f<fields_ ; ++f )
+        {
+            comment( indent + "  ", null );
+            sb_.append( indent ).append( "  " );
+            generateField( f+1, "f"+f, !"union".equals(keyword) );
+            sb_.append( rnd_.nextInt(3) == 0 ? ";\n" : ",\n" );
+        }
+        sb_.append( indent ).append( '}' );
+        if ( rnd_.nextInt( 4 ) == 0 )
+            sb_.append( " ( final, java.annotations = \"@Generated\", version = 2 )" );
+        sb_.append( "\n\n" );
+    }
+
+    private void generateField( int id, String name, boolean requiredness )
+    {
+        if ( rnd_.nextInt( 10 ) > 0 )
+            sb_.append( id ).append( ": " );
+        if ( requiredness )
+        {
+            switch ( rnd_.nextInt( 3 ) )
+            {
+                case 0: sb_.append( "required " ); break;
+                case 1: sb_.append( "optional " ); break;
+            }
+        }
+        final String type = randomType( 0 );
+        sb_.append( type ).append( ' ' ).append( name );
+        if ( rnd_.nextInt( 5 ) == 0 )
+        {
+            if ( type.startsWith( "i" ) || type.startsWith( "int" ) )
+                sb_.append( " = " ).append( rnd_.nextInt( 100 ) );
+            else if ( type.equals( "string" ) )
+                sb_.append( " = \"default\"" );
+        }
+        if ( rnd_.nextInt( 8 ) == 0 )
+            sb_.append( " ( deprecated = \"true\" )" );
+    }
+
+    private String randomType( int depth )
+    {
+        final int r = rnd_.nextInt( depth > 1 ? 6 : 10 );
+        switch ( r )
+        {
+            case 0: case 1: case 2:
+                return BASE_TYPES[ rnd_.nextInt( BASE_TYPES.length ) ];
+            case 3:
+                return structs_ > 0 ? "S" + rnd_.nextInt( structs_ ) : "i32";
+            case 4:
+                return enums_ > 0 ? "Enum" + rnd_.nextInt( enums_ ) : "string";
+            case 5:
+                if ( !visible_.isEmpty() && structs_ > 0 )
+                    return qualify( visible_.get( rnd_.nextInt( visible_.size() ) ), "S" + rnd_.nextInt( structs_ ) );
+                return typedefChain_ > 0 ? "T" + (typedefChain_-1) : "binary";
+            case 6:
+                return rnd_.nextBoolean() ? "list<" + randomType( depth+1 ) + ">"
+                                          : "list<" + randomType( depth+1 ) + "> cpp_type \"std::vector\"";
+            case 7:
+                return rnd_.nextBoolean() ? "set<" + randomType( depth+1 ) + ">"
+                                          : "set cpp_type \"std::set\" <" + randomType( depth+1 ) + ">";
+            case 8:
+                return "map<" + BASE_TYPES[ rnd_.nextInt( BASE_TYPES.length ) ] + "," + randomType( depth+1 ) + ">";
+            default:
+                return serviceDepth_ > 0 ? "Service0*" : "i64";
+        }
+    }
+
+    private void generateService( String indent, int s )
+    {
+        comment( indent, "Service " + s );
+        sb_.append( indent ).append( "service Service" ).append( s );
+        if ( s > 0 )
+            sb_.append( " extends " ).append( getFullName( fileIndex_, "Service" + (s-1) ) );
+        else if ( !visible_.isEmpty() && serviceDepth_ > 0 )
+            sb_.append( " extends " ).append( qualify( visible_.get( rnd_.nextInt( visible_.size() ) ), "Service0" ) );
+        sb_.append( " {\n" );
+        for ( int f=0 ; f<functions_ ; ++f )
+        {
+            comment( indent + "  ", null );
+            final String mode = FUNCTION_MODES[ rnd_.nextInt( FUNCTION_MODES.length ) ];
+            sb_.append( indent ).append( "  " ).append( mode )
+               .append( mode.startsWith("oneway") || mode.startsWith("event") || rnd_.nextInt(4) == 0 ? "void" : randomType( 0 ) )
+               .append( " call" ).append( f ).append( "( " );
+            final int params = rnd_.nextInt( 4 );
+            for ( int p=0 ; p<params ; ++p )
+            {
+                if ( p > 0 ) sb_.append( ", " );
+                generateField( p+1, "p"+p, false );
+            }
+            sb_.append( " )" );
+            if ( rnd_.nextInt( 3 ) == 0 )
+                sb_.append( " throws ( 1: X error )" );
+            if ( rnd_.nextInt( 10 ) == 0 )
+                sb_.append( " ( timeout = 100 )" );
+            sb_.append( rnd_.nextBoolean() ? ",\n" : "\n" );
+        }
+        sb_.append( indent ).append( "}\n\n" );
+    }
+
+    /**
+     * Writes a corpus.<br>
+     * Options: -out DIR, -seed N, -scale N and -NAME N for each setting, e.g. "-files 1000".
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        ThriftCorpusGenerator g = new ThriftCorpusGenerator();
+        Path out = Paths.get( "corpus" );
+        int scale = 1;
+        for ( int i=0 ; i<args.length-1 ; i+=2 )
+        {
+            final String a = args[i];
+            final String v = args[i+1];
+            switch ( a )
+            {
+                case "-out":            out = Paths.get( v ); break;
+                case "-seed":           g.seed_ = Long.parseLong( v ); break;
+                case "-scale":          scale = Integer.parseInt( v ); break;
+                case "-files":          g.files_ = Integer.parseInt( v ); break;
+                case "-fanout":         g.fanOut_ = Integer.parseInt( v ); break;
+                case "-hubs":           g.hubs_ = Integer.parseInt( v ); break;
+                case "-fanin":          g.fanIn_ = Integer.parseInt( v ); break;
+                case "-depth":          g.packageDepth_ = Integer.parseInt( v ); break;
+                case "-structs":        g.structs_ = Integer.parseInt( v ); break;
+                case "-fields":         g.fields_ = Integer.parseInt( v ); break;
+                case "-enums":          g.enums_ = Integer.parseInt( v ); break;
+                case "-enumvalues":     g.enumValues_ = Integer.parseInt( v ); break;
+                case "-typedefs":       g.typedefChain_ = Integer.parseInt( v ); break;
+                case "-services":       g.serviceDepth_ = Integer.parseInt( v ); break;
+                case "-functions":      g.functions_ = Integer.parseInt( v ); break;
+                case "-comments":       g.commentDensity_ = Double.parseDouble( v ); break;
+                default:
+                    System.err.println( "Unknown option " + a );
+                    System.exit( -1 );
+            }
+        }
+        g.scale( scale );
+        List<Path> files = g.generate( out );
+        long bytes = 0;
+        for ( Path f : files )
+            bytes += Files.size( f );
+        System.out.println( "Wrote " + files.size() + " files, " + bytes + " bytes to " + out );
+    }
+}
@@ -0,0 +1,288 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.protocol;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Hand-written equivalent of the classes the Thrift compiler generates for the
+ * benchmark schema of {@link ThriftProtocolBenchmarks}, as baseline of the decoder.<p>
+ * read() follows the generated code: a switch on the field id, boxed collections,
+ * strings created from the buffer and binaries copied, the same as the Thrift
+ * library does on a memory transport. The primitives are read by the same
+ * protocol readers as {@link ThriftDecoder} uses, so only the decoding differs.
+ */
+final class GeneratedStructs
+{
+    private GeneratedStructs()
+    {
+    }
+
+    static String readString( ThriftProtocolReader iprot ) throws IOException
+    {
+        final int n = iprot.readBinaryLength();
+        final ByteBuffer in = iprot.in_;
+        final String s = new String( in.array(), in.arrayOffset() + in.position(), n, StandardCharsets.UTF_8 );
+        ((Buffer)in).position( in.position() + n );
+        return s;
+    }
+
+    static ByteBuffer readBinary( ThriftProtocolReader iprot ) throws IOException
+    {
+        final byte[] b = new byte[ iprot.readBinaryLength() ];
+        iprot.in_.get( b );
+        return ByteBuffer.wrap( b );
+    }
+
+    /**
+     * struct Point { 1: double x, 2: double y }
+     */
+    static final class Point
+    {
+        double x;
+        double y;
+        byte isset_;
+
+        void read( ThriftProtocolReader iprot ) throws IOException
+        {
+            iprot.readStructBegin();
+            int type;
+            while ( (type = iprot.readFieldBegin()) != ThriftWireType.STOP )
+            {
+                switch ( iprot.fieldId_ )
+                {
+                    case 1:
+                        if ( type == ThriftWireType.DOUBLE ) { x = iprot.readDouble(); isset_ |= 1; }
+                        else iprot.skip( type, 0 );
+                        break;
+                    case 2:
+                        if ( type == ThriftWireType.DOUBLE ) { y = iprot.readDouble(); isset_ |= 2; }
+                        else iprot.skip( type, 0 );
+                        break;
+                    default:
+                        iprot.skip( type, 0 );
+                        break;
+                }
+            }
+            iprot.readStructEnd();
+        }
+
+        void write( ThriftPayloadWriter oprot )
+        {
+            oprot.writeStructBegin();
+            oprot.writeFieldBegin( ThriftWireType.DOUBLE, 1 );
+            oprot.writeDouble( x );
+            oprot.writeFieldBegin( ThriftWireType.DOUBLE, 2 );
+            oprot.writeDouble( y );
+            oprot.writeStructEnd();
+        }
+    }
+
+    /**
+     * struct Event, see {@link ThriftProtocolBenchmarks#SCHEMA}.
+     */
+    static final class Event
+    {
+        long timestamp;
+        int user;
+        String name;
+        boolean flag;
+        int kind;
+        List<Integer> codes;
+        Map<String, Long> counters;
+        Point position;
+        List<Point> path;
+        ByteBuffer payload;
+        short shard;
+        short isset_;
+
+        void read( ThriftProtocolReader iprot ) throws IOException
+        {
+            iprot.readStructBegin();
+            int type;
+            while ( (type = iprot.readFieldBegin()) != ThriftWireType.STOP )
+            {
+                switch ( iprot.fieldId_ )
+                {
+                    case 1:
+                        if ( type == ThriftWireType.I64 ) { timestamp = iprot.readI64(); isset_ |= 1; }
+                        else iprot.skip( type, 0 );
+                        break;
+                    case 2:
+                        if ( type == ThriftWireType.I32 ) { user = iprot.readI32(); isset_ |= 2; }
+                        else iprot.skip( type, 0 );
+                        break;
+                    case 3:
+                        if ( type == ThriftWireType.STRING ) name = readString( iprot );
+                        else iprot.skip( type, 0 );
+                        break;
+                    case 4:
+                        if ( type == ThriftWireType.BOOL ) { flag = iprot.readBool(); isset_ |= 4; }
+                        else iprot.skip( type, 0 );
+                        break;
+                    case 5:
+                        if ( type == ThriftWireType.I32 ) { kind = iprot.readI32(); isset_ |= 8; }
+                        else iprot.skip( type, 0 );
+                        break;
+                    case 6:
+                        if ( type == ThriftWireType.LIST )
+                        {
+                            final int n = iprot.readListBegin();
+                            codes = new ArrayList<>( n );
+                            for ( int i=0 ; i<n ; ++i )
+                                codes.add( iprot.readI32() );
+                        }
+                        else iprot.skip( type, 0 );
+                        break;
+                    case 7:
+                        if ( type == ThriftWireType.MAP )
+                        {
+                            final int n = iprot.readMapBegin();
+                            counters = new HashMap<>( 2*n );
+                            for ( int i=0 ; i<n ; ++i )
+                            {
+                                final String k = readString( iprot );
+                                counters.put( k, iprot.readI64() );
+                            }
+                        }
+                        else iprot.skip( type, 0 );
+                        break;
+                    case 8:
+                        if ( type == ThriftWireType.STRUCT )
+                        {
+                            position = new Point();
+                            position.read( iprot );
+                        }
+                        else iprot.skip( type, 0 );
+                        break;
+                    case 9:
+                        if ( type == ThriftWireType.LIST )
+                        {
+                            final int n = iprot.readListBegin();
+                            path = new ArrayList<>( n );
+                            for ( int i=0 ; i<n ; ++i )
+                            {
+                                final Point p = new Point();
+                                p.read( iprot );
+                                path.add( p );
+                            }
+                        }
+                        else iprot.skip( type, 0 );
+                        break;
+                    case 10:
+                        if ( type == ThriftWireType.STRING ) payload = readBinary( iprot );
+                        else iprot.skip( type, 0 );
+                        break;
+                    case 11:
+                        if ( type == ThriftWireType.I16 ) { shard = iprot.readI16(); isset_ |= 16; }
+                        else iprot.skip( type, 0 );
+                        break;
+                    default:
+                        iprot.skip( type, 0 );
+                        break;
+                }
+            }
+            iprot.readStructEnd();
+        }
+
+        void write( ThriftPayloadWriter oprot )
+        {
+            oprot.writeStructBegin();
+            oprot.writeFieldBegin( ThriftWireType.I64, 1 );
+            oprot.writeI64( timestamp );
+            oprot.writeFieldBegin( ThriftWireType.I32, 2 );
+            oprot.writeI32( user );
+            oprot.writeFieldBegin( ThriftWireType.STRING, 3 );
+            oprot.writeString( name );
+            if ( (isset_ & 4) != 0 )
+            {
+                oprot.writeFieldBegin( ThriftWireType.BOOL, 4 );
+                oprot.writeBool( flag );
+            }
+            oprot.writeFieldBegin( ThriftWireType.I32, 5 );
+            oprot.writeI32( kind );
+            oprot.writeFieldBegin( ThriftWireType.LIST, 6 );
+            oprot.writeListBegin( ThriftWireType.I32, codes.size() );
+            for ( int c : codes )
+                oprot.writeI32( c );
+            oprot.writeFieldBegin( ThriftWireType.MAP, 7 );
+            oprot.writeMapBegin( ThriftWireType.STRING, ThriftWireType.I64, counters.size() );
+            for ( Map.Entry<String, Long> e : counters.entrySet() )
+            {
+                oprot.writeString( e.getKey() );
+                oprot.writeI64( e.getValue() );
+            }
+            oprot.writeFieldBegin( ThriftWireType.STRUCT, 8 );
+            position.write( oprot );
+            oprot.writeFieldBegin( ThriftWireType.LIST, 9 );
+            oprot.writeListBegin( ThriftWireType.STRUCT, path.size() );
+            for ( Point p : path )
+                p.write( oprot );
+            if ( payload != null )
+            {
+                oprot.writeFieldBegin( ThriftWireType.STRING, 10 );
+                final byte[] b = new byte[ payload.remaining() ];
+                payload.duplicate().get( b );
+                oprot.writeBinary( b );
+            }
+            oprot.writeFieldBegin( ThriftWireType.I16, 11 );
+            oprot.writeI16( shard );
+            oprot.writeStructEnd();
+        }
+
+        static Point randomPoint( Random rnd )
+        {
+            final Point p = new Point();
+            p.x = rnd.nextDouble()*1000.0;
+            p.y = rnd.nextDouble()*1000.0;
+            p.isset_ = 3;
+            return p;
+        }
+
+        /**
+         * Creates an event with random content and sizes typical of a capture.
+         */
+        static Event random( Random rnd )
+        {
+            final Event e = new Event();
+            e.timestamp = 1500000000000L + rnd.nextInt( 1000000000 );
+            e.user = rnd.nextInt( 1000000 );
+            e.name = "event." + rnd.nextInt( 1000 ) + ".ü";
+            if ( rnd.nextBoolean() )
+            {
+                e.flag = rnd.nextBoolean();
+                e.isset_ |= 4;
+            }
+            e.kind = 1 + rnd.nextInt( 3 );
+            e.codes = new ArrayList<>();
+            for ( int i = rnd.nextInt( 9 ) ; i>0 ; --i )
+                e.codes.add( rnd.nextInt() >> rnd.nextInt( 32 ) );
+            e.counters = new HashMap<>();
+            for ( int i = rnd.nextInt( 5 ) ; i>0 ; --i )
+                e.counters.put( "counter" + rnd.nextInt( 100 ), (long)rnd.nextInt( 100000 ) );
+            e.position = randomPoint( rnd );
+            e.path = new ArrayList<>();
+            for ( int i = rnd.nextInt( 7 ) ; i>0 ; --i )
+                e.path.add( randomPoint( rnd ) );
+            if ( rnd.nextInt( 10 ) < 3 )
+            {
+                final byte[] b = new byte[ 16 + rnd.nextInt( 48 ) ];
+                rnd.nextBytes( b );
+                e.payload = ByteBuffer.wrap( b );
+            }
+            e.shard = (short)rnd.nextInt( 256 );
+            e.isset_ |= 1 | 2 | 8 | 16;
+            return e;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writer of TBinaryProtocol and TCompactProtocol, to create payloads for the benchmarks.
+ * Same calls as TProtocol of the Thrift libraries.
+ */
+final class ThriftPayloadWriter
+{
+    // Compact types by wire type.
+    private final static byte[] COMPACT = new byte[16];
+    static
+    {
+        COMPACT[ThriftWireType.BOOL]   = 1;
+        COMPACT[ThriftWireType.BYTE]   = 3;
+        COMPACT[ThriftWireType.I16]    = 4;
+        COMPACT[ThriftWireType.I32]    = 5;
+        COMPACT[ThriftWireType.I64]    = 6;
+        COMPACT[ThriftWireType.DOUBLE] = 7;
+        COMPACT[ThriftWireType.STRING] = 8;
+        COMPACT[ThriftWireType.LIST]   = 9;
+        COMPACT[ThriftWireType.SET]    = 10;
+        COMPACT[ThriftWireType.MAP]    = 11;
+        COMPACT[ThriftWireType.STRUCT] = 12;
+    }
+
+    private final boolean compact_;
+    private byte[] buf_ = new byte[1024];
+    private int size_;
+
+    private final int[] lastIds_ = new int[64];
+    private int depth_;
+    private int lastId_;
+    private int boolFieldId_ = -1;
+
+    ThriftPayloadWriter( ThriftProtocol protocol )
+    {
+        compact_ = ( protocol == ThriftProtocol.COMPACT );
+    }
+
+    ByteBuffer toBuffer()
+    {
+        return ByteBuffer.wrap( Arrays.copyOf( buf_, size_ ) );
+    }
+
+    int size()
+    {
+        return size_;
+    }
+
+    private void put( int b )
+    {
+        if ( size_ == buf_.length )
+            buf_ = Arrays.copyOf( buf_, 2*size_ );
+        buf_[size_++] = (byte)b;
+    }
+
+    private void putBigEndian( long v, int bytes )
+    {
+        for ( int i=bytes-1 ; i>=0 ; --i )
+            put( (int)(v >>> (8*i)) );
+    }
+
+    private void putVarint( long v )
+    {
+        while ( (v & ~0x7FL) != 0 )
+        {
+            put( (int)((v & 0x7F) | 0x80) );
+            v >>>= 7;
+        }
+        put( (int)v );
+    }
+
+    private static long zigzag( long v )
+    {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    void writeStructBegin()
+    {
+        if ( compact_ )
+        {
+            lastIds_[depth_++] = lastId_;
+            lastId_ = 0;
+        }
+    }
+
+    void writeStructEnd()
+    {
+        put( ThriftWireType.STOP );
+        if ( compact_ )
+            lastId_ = lastIds_[--depth_];
+    }
+
+    void writeFieldBegin( int type, int id )
+    {
+        if ( !compact_ )
+        {
+            put( type );
+            putBigEndian( id, 2 );
+        }
+        else if ( type == ThriftWireType.BOOL )
+            boolFieldId_ = id;
+        else
+            writeCompactFieldHeader( COMPACT[type], id );
+    }
+
+    private void writeCompactFieldHeader( int ct, int id )
+    {
+        if ( id > lastId_ && id - lastId_ <= 15 )
+            put( ((id - lastId_) << 4) | ct );
+        else
+        {
+            put( ct );
+            putVarint( zigzag( (short)id ) & 0xFFFFFFFFL );
+        }
+        lastId_ = id;
+    }
+
+    void writeBool( boolean v )
+    {
+        if ( compact_ && boolFieldId_ >= 0 )
+        {
+            writeCompactFieldHeader( v ? 1 : 2, boolFieldId_ );
+            boolFieldId_ = -1;
+        }
+        else
+            put( compact_ ? ( v ? 1 : 2 ) : ( v ? 1 : 0 ) );
+    }
+
+    void writeByte( byte v )
+    {
+        put( v );
+    }
+
+    void writeI16( short v )
+    {
+        if ( compact_ ) putVarint( zigzag( v ) & 0xFFFFFFFFL ); else putBigEndian( v, 2 );
+    }
+
+    void writeI32( int v )
+    {
+        if ( compact_ ) putVarint( zigzag( v ) & 0xFFFFFFFFL ); else putBigEndian( v, 4 );
+    }
+
+    void writeI64( long v )
+    {
+        if ( compact_ ) putVarint( zigzag( v ) ); else putBigEndian( v, 8 );
+    }
+
+    void writeDouble( double d )
+    {
+        final long v = Double.doubleToRawLongBits( d );
+        if ( compact_ ) putBigEndian( Long.reverseBytes( v ), 8 ); else putBigEndian( v, 8 );
+    }
+
+    void writeBinary( byte[] b )
+    {
+        if ( compact_ ) putVarint( b.length ); else putBigEndian( b.length, 4 );
+        for ( byte x : b )
+            put( x );
+    }
+
+    void writeString( String s )
+    {
+        writeBinary( s.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    void writeListBegin( int elementType, int size )
+    {
+        if ( !compact_ )
+        {
+            put( elementType );
+            putBigEndian( size, 4 );
+        }
+        else if ( size < 15 )
+            put( (size << 4) | COMPACT[elementType] );
+        else
+        {
+            put( 0xF0 | COMPACT[elementType] );
+            putVarint( size );
+        }
+    }
+
+    void writeMapBegin( int keyType, int valueType, int size )
+    {
+        if ( !compact_ )
+        {
+            put( keyType );
+            put( valueType );
+            putBigEndian( size, 4 );
+        }
+        else
+        {
+            putVarint( size );
+            if ( size > 0 )
+                put( (COMPACT[keyType] << 4) | COMPACT[valueType] );
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.protocol;
+
+import bweng.thrift.parser.ThriftModelGenerator;
+import bweng.thrift.parser.bench.Benchmark;
+import bweng.thrift.parser.model.ThriftDocument;
+import bweng.thrift.parser.model.ThriftType;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks of {@link ThriftDecoder} and {@link ThriftStructView} against the
+ * hand-written equivalent of generated code in {@link GeneratedStructs}, on a
+ * stream of random events.
+ */
+public final class ThriftProtocolBenchmarks
+{
+    static final String SCHEMA =
+        "enum Kind { CLICK = 1, VIEW = 2, PURCHASE = 3 }\n" +
+        "struct Point { 1: double x, 2: double y }\n" +
+        "struct Event {\n" +
+        "  1: i64 timestamp,\n" +
+        "  2: i32 user,\n" +
+        "  3: string name,\n" +
+        "  4: optional bool flag,\n" +
+        "  5: Kind kind,\n" +
+        "  6: list<i32> codes,\n" +
+        "  7: map<string,i64> counters,\n" +
+        "  8: Point position,\n" +
+        "  9: list<Point> path,\n" +
+        "  10: optional binary payload,\n" +
+        "  11: i16 shard\n" +
+        "}\n";
+
+    private ThriftProtocolBenchmarks()
+    {
+    }
+
+    /**
+     * Loads the Event type of the schema.
+     */
+    static ThriftType loadEventType() throws IOException
+    {
+        final Path file = Files.createTempFile( "bench", ".thrift" );
+        try
+        {
+            Files.write( file, SCHEMA.getBytes( StandardCharsets.UTF_8 ) );
+            final ThriftModelGenerator gen = new ThriftModelGenerator();
+            final ThriftDocument doc = gen.loadDocument( file );
+            gen.loadIncludes( doc, true );
+            for ( ThriftType t : doc.all_types_.values() )
+                if ( "Event".equals( t.name_ ) ) return t;
+            throw new IOException( "Event not found" );
+        }
+        finally
+        {
+            Files.delete( file );
+        }
+    }
+
+    /**
+     * Encodes a stream of random events.
+     */
+    static ByteBuffer createStream( ThriftProtocol protocol, int messages )
+    {
+        final Random rnd = new Random( 4711 );
+        final ThriftPayloadWriter w = new ThriftPayloadWriter( protocol );
+        for ( int i=0 ; i<messages ; ++i )
+            GeneratedStructs.Event.random( rnd ).write( w );
+        return w.toBuffer();
+    }
+
+    public static void addBenchmarks( List<Benchmark> benchmarks, final int messages ) throws IOException
+    {
+        final ThriftType event = loadEventType();
+        final String param = String.valueOf( messages );
+        for ( final ThriftProtocol protocol : ThriftProtocol.values() )
+        {
+            final ByteBuffer stream = createStream( protocol, messages );
+            final String suffix = "." + protocol.name().toLowerCase();
+
+            benchmarks.add( new Benchmark( "decode" + suffix, param )
+            {
+                final ThriftDecoder decoder_ = new ThriftDecoder( event, protocol );
+                final ThriftStructValue value_ = decoder_.newValue();
+
+                @Override
+                public long getBytesPerOperation() { return stream.limit(); }
+
+                @Override
+                public Object run() throws Exception
+                {
+                    ((Buffer)stream).rewind();
+                    long r = 0;
+                    while ( stream.hasRemaining() )
+                    {
+                        decoder_.decode( stream, value_ );
+                        r += value_.getI64( 1 );
+                    }
+                    return r;
+                }
+            });
+
+            benchmarks.add( new Benchmark( "decode.new" + suffix, param )
+            {
+                final ThriftDecoder decoder_ = new ThriftDecoder( event, protocol );
+
+                @Override
+                public long getBytesPerOperation() { return stream.limit(); }
+
+                @Override
+                public Object run() throws Exception
+                {
+                    ((Buffer)stream).rewind();
+                    long r = 0;
+                    while ( stream.hasRemaining() )
+                        r += decoder_.decode( stream ).getI64( 1 );
+                    return r;
+                }
+            });
+
+            if ( protocol == ThriftProtocol.BINARY )
+            {
+                // Routing: reads a few fields of each message, the length finds the next one.
+                benchmarks.add( new Benchmark( "view" + suffix, param )
+                {
+                    final ThriftStructView view_ = new ThriftStructView( event );
+
+                    @Override
+                    public long getBytesPerOperation() { return stream.limit(); }
+
+                    @Override
+                    public Object run() throws Exception
+                    {
+                        long r = 0;
+                        for ( int p = 0 ; p < stream.limit() ; p += view_.getLength() )
+                        {
+                            view_.wrap( stream, p );
+                            if ( view_.getI32( 5 ) == 3 )
+                                r += view_.getI32( 2 ) + (long)view_.getStruct( 8 ).getDouble( 1 );
+                        }
+                        return r;
+                    }
+                });
+            }
+
+            benchmarks.add( new Benchmark( "generated" + suffix, param )
+            {
+                final ThriftProtocolReader reader_ = ThriftProtocolReader.create( protocol );
+
+                @Override
+                public long getBytesPerOperation() { return stream.limit(); }
+
+                @Override
+                public Object run() throws Exception
+                {
+                    ((Buffer)stream).rewind();
+                    reader_.reset( stream );
+                    long r = 0;
+                    while ( stream.hasRemaining() )
+                    {
+                        final GeneratedStructs.Event e = new GeneratedStructs.Event();
+                        e.read( reader_ );
+                        r += e.timestamp;
+                    }
+                    return r;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Reads the matching entries of a zip-archive or jar, optionally also of
+ * nested archives.<p>
+ * The entries are read into one buffer that is reused for all entries and only
+ * grows to the size of the largest entry. The handler gets the buffer itself and
+ * must not keep it. All files and streams are closed before {@link #read} returns.
+ */
+final class ThriftArchiveReader
+{
+    /**
+     * Receives the content of the entries.
+     */
+    interface EntryHandler
+    {
+        /**
+         * Called for each matching entry.
+         * @param source Name of the entry for diagnostics, e.g. "a.jar!/b.jar!/c.thrift".
+         * @param content The reused buffer, valid until the method returns.
+         * @param length Number of valid bytes in the buffer.
+         */
+        void entry( String source, byte[] content, int length ) throws IOException;
+    }
+
+    // Limit for nested archives, protects against recursive archives.
+    private final static int MAX_NESTING = 4;
+
+    // Largest entry that can be read into an array.
+    private final static int MAX_ENTRY_SIZE = Integer.MAX_VALUE - 16;
+
+    private final Pattern regex_;
+    private final boolean nested_;
+    private byte[] buffer_ = new byte[16*1024];
+
+    /**
+     * @param regex Filter for the entry names, null to read all entries.
+     * @param nested If true, entries with extension ".jar" or ".zip" are read as nested archives.
+     */
+    ThriftArchiveReader( Pattern regex, boolean nested )
+    {
+        regex_ = regex;
+        nested_ = nested;
+    }
+
+    /**
+     * Reads all matching entries of the archive.
+     * Archives on the default file system are opened with random access, others,
+     * e.g. inside a jar file system, are streamed.
+     */
+    void read( Path archive, EntryHandler handler ) throws IOException
+    {
+        final String source = archive.toString();
+        if ( archive.getFileSystem() == FileSystems.getDefault() )
+        {
+            try ( ZipFile zf = new ZipFile( archive.toFile() ) )
+            {
+                Enumeration<? extends ZipEntry> entries = zf.entries();
+                while( entries.hasMoreElements() )
+                {
+                    ZipEntry ze = entries.nextElement();
+                    if ( ze.isDirectory() || !accept( ze.getName() ) )
+                        continue;
+                    try ( InputStream is = zf.getInputStream(ze) )
+                    {
+                        entry( source, ze, is, 0, handler );
+                    }
+                }
+            }
+        }
+        else
+        {
+            try ( InputStream is = Files.newInputStream( archive ) )
+            {
+                readStream( source, is, 0, handler );
+            }
+        }
+    }
+
+    private boolean accept( String name )
+    {
+        return ( nested_ && isArchive( name ) ) || regex_ == null || regex_.matcher( name ).matches();
+    }
+
+    private static boolean isArchive( String name )
+    {
+        final String n = name.toLowerCase(Locale.ROOT);
+        return n.endsWith(".jar") || n.endsWith(".zip");
+    }
+
+    private void entry( String source, ZipEntry ze, InputStream is, int depth, EntryHandler handler ) throws IOException
+    {
+        final String name = source + "!/" + ze.getName();
+        if ( nested_ && isArchive( ze.getName() ) )
+        {
+            if ( depth < MAX_NESTING )
+                readStream( name, is, depth+1, handler );
+        }
+        else
+        {
+            final int length = readEntry( is, ze.getSize() );
+            if ( length > 0 )
+                handler.entry( name, buffer_, length );
+        }
+    }
+
+    /**
+     * Reads an archive from a stream. The stream is not closed.
+     */
+    private void readStream( String source, InputStream is, int depth, EntryHandler handler ) throws IOException
+    {
+        // Closing zin releases its Inflater, but must keep the given stream open.
+        InputStream shielded = new FilterInputStream( is )
+        {
+            @Override
+            public void close()
+            {
+            }
+        };
+        try ( ZipInputStream zin = new ZipInputStream( shielded ) )
+        {
+            ZipEntry ze;
+            while ( (ze = zin.getNextEntry()) != null )
+            {
+                if ( !ze.isDirectory() && accept( ze.getName() ) )
+                    entry( source, ze, zin, depth, handler );
+                zin.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Reads the remaining content of the stream into the buffer.
+     * @param size The expected size, -1 if unknown.
+     * @return The number of bytes read.
+     */
+    private int readEntry( InputStream is, long size ) throws IOException
+    {
+        if ( size > MAX_ENTRY_SIZE )
+            throw new IOException( "archive entry too large: "+size+" bytes" );
+        if ( size > buffer_.length )
+            buffer_ = new byte[(int)size];
+
+        int length = 0;
+        while ( true )
+        {
+            if ( length == buffer_.length )
+            {
+                // Buffer full, grow only if there is more.
+                final int c = is.read();
+                if ( c < 0 )
+                    break;
+                if ( length == MAX_ENTRY_SIZE )
+                    throw new IOException( "archive entry too large" );
+                byte[] b = new byte[(int)Math.min( MAX_ENTRY_SIZE, 2L*length )];
+                System.arraycopy( buffer_, 0, b, 0, length );
+                buffer_ = b;
+                buffer_[length++] = (byte)c;
+            }
+            final int r = is.read( buffer_, length, buffer_.length-length );
+            if ( r < 0 )
+                break;
+            length += r;
+        }
+        return length;
+    }
+}
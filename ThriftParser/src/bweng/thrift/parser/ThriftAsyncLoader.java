@@ -0,0 +1,320 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+import bweng.thrift.parser.model.ThriftDocument;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * Asynchronous variants of the loading methods of {@link ThriftModelGenerator}.<p>
+ * Each request runs on the executor given by the caller with an own copy of
+ * the generator, so requests don't block each other. The include paths,
+ * diagnostics, metrics listener and options are taken from the generator
+ * given to the constructor, a shared metrics listener has to be thread-safe.<p>
+ * A returned future can be cancelled, and a request can have a deadline after
+ * which the future fails with a {@link TimeoutException}. In both cases the
+ * request is aborted at the next definition or include and the loading thread
+ * is interrupted, which ends interruptible reads. With an include executor,
+ * the thread of the request only waits for the lookups and is released at
+ * once, even if a read on a slow file system can't be interrupted.
+ * A document given to {@link #loadIncludes} may be left partly resolved.
+ */
+public final class ThriftAsyncLoader
+{
+    private final ThriftModelGenerator settings_;
+    private final Executor executor_;
+
+    /**
+     * Creates a loader.
+     * @param settings Generator to copy the settings from, it is not used for loading.
+     * @param executor Executor that runs the requests.
+     */
+    public ThriftAsyncLoader( ThriftModelGenerator settings, Executor executor )
+    {
+        if ( settings == null || executor == null )
+            throw new NullPointerException();
+        settings_ = settings.copySettings();
+        executor_ = executor;
+    }
+
+    /**
+     * Sets the executor that looks up and reads the includes of a document
+     * concurrently, e.g. {@link #newIoExecutor()}. The includes are still
+     * parsed one after the other by the thread of the request.
+     * @param executor The executor, null to look up the includes sequentially (default).
+     */
+    public void setIncludeExecutor( Executor executor )
+    {
+        settings_.setIncludeExecutor( executor );
+    }
+
+    /**
+     * Creates an executor for I/O-bound work as the include lookups.
+     * Uses a virtual thread per task if the VM supports them (Java 21 and later),
+     * otherwise a cached pool of daemon threads.
+     */
+    public static ExecutorService newIoExecutor()
+    {
+        try
+        {
+            return (ExecutorService)Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+        }
+        catch ( ReflectiveOperationException | LinkageError ex )
+        {
+            return Executors.newCachedThreadPool( new DaemonThreadFactory( "thrift-io-" ) );
+        }
+    }
+
+    /**
+     * Loads a thrift document by file path.
+     * @return Future of the parsed document, the document is null if the parser failed.
+     * @see ThriftModelGenerator#loadDocument(Path)
+     */
+    public CompletableFuture<ThriftDocument> loadDocument( Path ospath )
+    {
+        return loadDocument( ospath, 0, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Loads a thrift document by file path with a deadline.
+     * @param timeout Time from now until the request fails, 0 for none.
+     * @see ThriftModelGenerator#loadDocument(Path)
+     */
+    public CompletableFuture<ThriftDocument> loadDocument( final Path ospath, long timeout, TimeUnit unit )
+    {
+        return submit( new Request()
+        {
+            @Override
+            ThriftDocument run( ThriftModelGenerator g ) throws IOException
+            {
+                return g.loadDocument( ospath );
+            }
+        }, timeout, unit );
+    }
+
+    /**
+     * Loads all includes of the document and resolves the types.
+     * @return Future of the same document.
+     * @see ThriftModelGenerator#loadIncludes(ThriftDocument, boolean)
+     */
+    public CompletableFuture<ThriftDocument> loadIncludes( ThriftDocument doc, boolean bReplaceTypeRefs )
+    {
+        return loadIncludes( doc, bReplaceTypeRefs, 0, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Loads all includes of the document and resolves the types with a deadline.
+     * @param timeout Time from now until the request fails, 0 for none.
+     * @see ThriftModelGenerator#loadIncludes(ThriftDocument, boolean)
+     */
+    public CompletableFuture<ThriftDocument> loadIncludes( final ThriftDocument doc, final boolean bReplaceTypeRefs, long timeout, TimeUnit unit )
+    {
+        return submit( new Request()
+        {
+            @Override
+            ThriftDocument run( ThriftModelGenerator g )
+            {
+                g.loadIncludes( doc, bReplaceTypeRefs );
+                return doc;
+            }
+        }, timeout, unit );
+    }
+
+    /**
+     * Loads all Thrift files from an Zip-Archive, filtered by a regular expression.
+     * @param regex If null, no filter is applies.
+     * @see ThriftModelGenerator#loadZipArchive(Path, Pattern)
+     */
+    public CompletableFuture<ThriftDocument> loadZipArchive( Path ospath, Pattern regex )
+    {
+        return loadZipArchive( ospath, regex, 0, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Loads all Thrift files from an Zip-Archive with a deadline.
+     * @param regex If null, no filter is applies.
+     * @param timeout Time from now until the request fails, 0 for none.
+     * @see ThriftModelGenerator#loadZipArchive(Path, Pattern)
+     */
+    public CompletableFuture<ThriftDocument> loadZipArchive( final Path ospath, final Pattern regex, long timeout, TimeUnit unit )
+    {
+        return submit( new Request()
+        {
+            @Override
+            ThriftDocument run( ThriftModelGenerator g ) throws IOException
+            {
+                return g.loadZipArchive( ospath, regex );
+            }
+        }, timeout, unit );
+    }
+
+    private abstract static class Request
+    {
+        abstract ThriftDocument run( ThriftModelGenerator g ) throws IOException;
+    }
+
+    /**
+     * One submitted request. Aborts the generator and interrupts the
+     * loading thread if the future is completed from outside.
+     */
+    private static final class Task implements Runnable, BiConsumer<ThriftDocument, Throwable>
+    {
+        final CompletableFuture<ThriftDocument> future_ = new CompletableFuture<>();
+        final ThriftModelGenerator generator_;
+        final Request request_;
+        // Thread that runs the request, guarded by this.
+        Thread worker_;
+        // Pending deadline, guarded by this.
+        ScheduledFuture<?> deadline_;
+        // True if the worker was interrupted by this task, guarded by this.
+        boolean interrupted_;
+
+        Task( ThriftModelGenerator generator, Request request )
+        {
+            generator_ = generator;
+            request_ = request;
+        }
+
+        @Override
+        public void run()
+        {
+            synchronized ( this )
+            {
+                if ( future_.isDone() )
+                    return;
+                worker_ = Thread.currentThread();
+            }
+            try
+            {
+                future_.complete( request_.run( generator_ ) );
+            }
+            catch ( CancellationException ex )
+            {
+                // Aborted, the future is already completed.
+                future_.cancel( false );
+            }
+            catch ( Throwable ex )
+            {
+                future_.completeExceptionally( ex );
+            }
+            finally
+            {
+                synchronized ( this )
+                {
+                    worker_ = null;
+                    // Don't pass the own interrupt to the next task of the executor, other interrupts are kept.
+                    if ( interrupted_ )
+                        Thread.interrupted();
+                }
+            }
+        }
+
+        @Override
+        public void accept( ThriftDocument doc, Throwable ex )
+        {
+            synchronized ( this )
+            {
+                if ( deadline_ != null )
+                    deadline_.cancel( false );
+            }
+            if ( ex != null )
+            {
+                generator_.cancel();
+                synchronized ( this )
+                {
+                    if ( worker_ != null )
+                    {
+                        interrupted_ = true;
+                        worker_.interrupt();
+                    }
+                }
+            }
+        }
+    }
+
+    private CompletableFuture<ThriftDocument> submit( Request request, long timeout, TimeUnit unit )
+    {
+        final Task task = new Task( settings_.copySettings(), request );
+        task.future_.whenComplete( task );
+        try
+        {
+            executor_.execute( task );
+        }
+        catch ( RejectedExecutionException ex )
+        {
+            task.future_.completeExceptionally( ex );
+            return task.future_;
+        }
+        if ( timeout > 0 )
+        {
+            final long ms = unit.toMillis( timeout );
+            ScheduledFuture<?> deadline = DeadlineTimer.INSTANCE.schedule( new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    task.future_.completeExceptionally( new TimeoutException( "deadline of "+ms+" ms exceeded" ) );
+                }
+            }, timeout, unit );
+            synchronized ( task )
+            {
+                task.deadline_ = deadline;
+            }
+            if ( task.future_.isDone() )
+                deadline.cancel( false );
+        }
+        return task.future_;
+    }
+
+    /**
+     * Lazily created timer thread for the deadlines.
+     */
+    private static final class DeadlineTimer
+    {
+        static final ScheduledThreadPoolExecutor INSTANCE = create();
+
+        private static ScheduledThreadPoolExecutor create()
+        {
+            ScheduledThreadPoolExecutor e = new ScheduledThreadPoolExecutor( 1, new DaemonThreadFactory( "thrift-deadline-" ) );
+            // Drop the deadlines of finished requests at once.
+            e.setRemoveOnCancelPolicy( true );
+            return e;
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory
+    {
+        private final String prefix_;
+        private final AtomicInteger count_ = new AtomicInteger();
+
+        DaemonThreadFactory( String prefix )
+        {
+            prefix_ = prefix;
+        }
+
+        @Override
+        public Thread newThread( Runnable r )
+        {
+            Thread t = new Thread( r, prefix_ + count_.incrementAndGet() );
+            t.setDaemon( true );
+            return t;
+        }
+    }
+}
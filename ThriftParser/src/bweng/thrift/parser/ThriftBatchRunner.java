@@ -0,0 +1,389 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+import bweng.thrift.parser.model.ThriftDocument;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Parses a set of thrift documents on a number of worker threads and collects
+ * timing statistics per file.<p>
+ * Each worker uses an own {@link ThriftModelGenerator}, as the generator is synchronized.
+ * A file is processed in three phases: read, parse (lexing, parsing and model generation)
+ * and includes (loading of includes and type resolution).
+ */
+final class ThriftBatchRunner
+{
+    /**
+     * Result for one file. All times in nanoseconds.
+     */
+    static final class Result
+    {
+        Path path_;
+        long bytes_;
+        long readNs_;
+        long parseNs_;
+        long includesNs_;
+        long totalNs_;
+        int types_;
+        int services_;
+        int unresolved_;
+        String error_;
+    }
+
+    private final static String[] PHASES = { "read", "parse", "includes" };
+
+    // Upper bounds of the latency histogram buckets in milliseconds, the last bucket is open.
+    private final static long[] BUCKETS_MS = { 1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024 };
+
+    private final List<String> includeDirs_;
+    private final int threads_;
+
+    private List<Result> results_ = Collections.emptyList();
+    private long wallNs_;
+
+    ThriftBatchRunner( List<String> includeDirs, int threads )
+    {
+        includeDirs_ = includeDirs;
+        threads_ = Math.max( 1, threads );
+    }
+
+    /**
+     * Collects all files given by arguments.
+     * Directories are scanned recursively for "*.thrift" files. Arguments with
+     * wildcards are handled as glob patterns, e.g. "idl/**&#47;*.thrift".
+     * @param args Files, directories and glob patterns.
+     * @return The files in stable order, without duplicates.
+     */
+    static List<Path> collectFiles( List<String> args ) throws IOException
+    {
+        Set<Path> files = new LinkedHashSet<>();
+        for ( String a : args )
+        {
+            int gi = indexOfGlob( a );
+            if ( gi >= 0 )
+            {
+                // Walk from the deepest directory without wildcards.
+                int si = Math.max( a.lastIndexOf('/', gi), a.lastIndexOf(java.io.File.separatorChar, gi) );
+                Path base = ThriftModelGenerator.getPath( si >= 0 ? a.substring(0, si+1) : "." );
+                final PathMatcher matcher = FileSystems.getDefault().getPathMatcher( "glob:" + (si >= 0 ? a : "./"+a) );
+                files.addAll( walk( base, matcher ) );
+            }
+            else
+            {
+                Path p = ThriftModelGenerator.getPath( a );
+                if ( Files.isDirectory(p) )
+                    files.addAll( walk( p, null ) );
+                else
+                    files.add( p );
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    private static int indexOfGlob( String a )
+    {
+        for ( int i=0 ; i<a.length() ; ++i )
+        {
+            switch ( a.charAt(i) )
+            {
+                case '*': case '?': case '[': case '{':
+                    return i;
+            }
+        }
+        return -1;
+    }
+
+    // Gets all matching files below the directory, sorted. If no matcher is given, all thrift files are returned.
+    private static List<Path> walk( Path dir, final PathMatcher matcher ) throws IOException
+    {
+        final List<Path> found = new ArrayList<>();
+        if ( !Files.isDirectory(dir) )
+            return found;
+        Files.walkFileTree( dir, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile( Path file, BasicFileAttributes attrs )
+            {
+                if ( matcher != null ? matcher.matches(file)
+                                     : file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".thrift") )
+                    found.add( file );
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort( found );
+        return found;
+    }
+
+    /**
+     * Processes all files. Results are in the order of the files.
+     */
+    List<Result> run( List<Path> files ) throws InterruptedException
+    {
+        final ThreadLocal<ThriftModelGenerator> generators = new ThreadLocal<ThriftModelGenerator>()
+        {
+            @Override
+            protected ThriftModelGenerator initialValue()
+            {
+                return new ThriftModelGenerator( includeDirs_ );
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool( threads_ );
+        List<Future<Result>> futures = new ArrayList<>( files.size() );
+        long start = System.nanoTime();
+        try
+        {
+            for ( final Path f : files )
+            {
+                futures.add( executor.submit( new Callable<Result>()
+                {
+                    @Override
+                    public Result call()
+                    {
+                        return process( generators.get(), f );
+                    }
+                }));
+            }
+            List<Result> results = new ArrayList<>( files.size() );
+            for ( int i=0 ; i<futures.size() ; ++i )
+            {
+                try
+                {
+                    results.add( futures.get(i).get() );
+                }
+                catch (ExecutionException ex)
+                {
+                    // Unexpected failure of the parser, reported as result like i/o errors.
+                    Result r = new Result();
+                    r.path_ = files.get(i);
+                    r.error_ = ex.getCause().toString();
+                    results.add( r );
+                }
+            }
+            results_ = results;
+        }
+        finally
+        {
+            wallNs_ = System.nanoTime() - start;
+            executor.shutdownNow();
+        }
+        return results_;
+    }
+
+    private static Result process( ThriftModelGenerator gen, Path f )
+    {
+        Result r = new Result();
+        r.path_ = f;
+        try
+        {
+            final String fupper = f.toString().toUpperCase(Locale.ROOT);
+            ThriftDocument doc;
+            if ( fupper.endsWith(".ZIP") || fupper.endsWith(".JAR") )
+            {
+                // Archives are read, parsed and resolved in one step.
+                r.bytes_ = Files.size(f);
+                long t0 = System.nanoTime();
+                doc = gen.loadZipArchive( f );
+                r.parseNs_ = System.nanoTime() - t0;
+            }
+            else
+            {
+                long t0 = System.nanoTime();
+                byte[] content = Files.readAllBytes( f );
+                long t1 = System.nanoTime();
+                r.bytes_ = content.length;
+                doc = gen.loadDocument( content, f );
+                long t2 = System.nanoTime();
+                if ( doc != null )
+                    gen.loadIncludes( doc, true );
+                r.readNs_ = t1 - t0;
+                r.parseNs_ = t2 - t1;
+                r.includesNs_ = System.nanoTime() - t2;
+            }
+            if ( doc != null )
+            {
+                r.types_ = doc.all_types_.size();
+                r.services_ = doc.all_services_.size();
+                r.unresolved_ = doc.unresolved_types_.size() + doc.unresolved_services_.size();
+            }
+            else
+                r.error_ = "parser failed";
+        }
+        catch (IOException ex)
+        {
+            r.error_ = ex.getMessage();
+        }
+        r.totalNs_ = r.readNs_ + r.parseNs_ + r.includesNs_;
+        return r;
+    }
+
+    private static double ms( long ns )
+    {
+        return ns / 1000000.0;
+    }
+
+    private long[] sortedLatencies()
+    {
+        long[] l = new long[results_.size()];
+        for ( int i=0 ; i<l.length ; ++i )
+            l[i] = results_.get(i).totalNs_;
+        Arrays.sort( l );
+        return l;
+    }
+
+    private static long percentile( long[] sorted, double p )
+    {
+        if ( sorted.length == 0 ) return 0;
+        int idx = (int)Math.ceil( p * sorted.length ) - 1;
+        return sorted[ Math.max( 0, Math.min( sorted.length-1, idx ) ) ];
+    }
+
+    private long totalBytes()
+    {
+        long b = 0;
+        for ( Result r : results_ ) b += r.bytes_;
+        return b;
+    }
+
+    private int errors()
+    {
+        int e = 0;
+        for ( Result r : results_ ) if ( r.error_ != null ) ++e;
+        return e;
+    }
+
+    private long[] phaseTotals()
+    {
+        long[] p = new long[PHASES.length];
+        for ( Result r : results_ )
+        {
+            p[0] += r.readNs_;
+            p[1] += r.parseNs_;
+            p[2] += r.includesNs_;
+        }
+        return p;
+    }
+
+    /**
+     * Prints throughput, phase breakdown and latency histogram.
+     */
+    void printSummary( PrintStream out )
+    {
+        final int n = results_.size();
+        final double wallS = wallNs_ / 1e9;
+        final long bytes = totalBytes();
+
+        out.println( String.format( Locale.ROOT, "Files: %d (%d failed), %d bytes, %d threads", n, errors(), bytes, threads_ ) );
+        out.println( String.format( Locale.ROOT, "Wall time: %.1f ms, %.1f files/s, %.2f MB/s",
+                ms(wallNs_), wallS > 0 ? n/wallS : 0.0, wallS > 0 ? bytes/(1024.0*1024.0)/wallS : 0.0 ) );
+
+        long[] phases = phaseTotals();
+        long sum = 0;
+        for ( long p : phases ) sum += p;
+        out.println( "Phases (summed over all workers):" );
+        for ( int i=0 ; i<PHASES.length ; ++i )
+        {
+            out.println( String.format( Locale.ROOT, "  %-9s %10.1f ms %5.1f%%  avg %.3f ms/file",
+                    PHASES[i], ms(phases[i]), sum > 0 ? 100.0*phases[i]/sum : 0.0, n > 0 ? ms(phases[i])/n : 0.0 ) );
+        }
+
+        long[] lat = sortedLatencies();
+        out.println( String.format( Locale.ROOT, "Latency per file: p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms",
+                ms(percentile(lat, 0.5)), ms(percentile(lat, 0.9)), ms(percentile(lat, 0.99)), ms(percentile(lat, 1.0)) ) );
+
+        int[] hist = new int[BUCKETS_MS.length+1];
+        for ( long l : lat )
+        {
+            int b = 0;
+            while ( b < BUCKETS_MS.length && l >= BUCKETS_MS[b]*1000000L ) ++b;
+            ++hist[b];
+        }
+        int maxCount = 1;
+        for ( int c : hist ) maxCount = Math.max( maxCount, c );
+        for ( int b=0 ; b<hist.length ; ++b )
+        {
+            String label = ( b < BUCKETS_MS.length ) ? "< "+BUCKETS_MS[b]+" ms" : ">= "+BUCKETS_MS[b-1]+" ms";
+            StringBuilder bar = new StringBuilder();
+            for ( int i = (int)Math.round( 40.0*hist[b]/maxCount ) ; i>0 ; --i ) bar.append('#');
+            out.println( String.format( Locale.ROOT, "  %10s | %-40s %d", label, bar, hist[b] ) );
+        }
+    }
+
+    /**
+     * Writes one CSV line per file.
+     */
+    void writeCsv( Path file ) throws IOException
+    {
+        try ( PrintWriter w = new PrintWriter( Files.newBufferedWriter( file, StandardCharsets.UTF_8 ) ) )
+        {
+            w.println( "file,bytes,read_ms,parse_ms,includes_ms,total_ms,types,services,unresolved,error" );
+            for ( Result r : results_ )
+            {
+                w.println( String.format( Locale.ROOT, "%s,%d,%.3f,%.3f,%.3f,%.3f,%d,%d,%d,%s",
+                        csv( r.path_.toString() ), r.bytes_, ms(r.readNs_), ms(r.parseNs_), ms(r.includesNs_), ms(r.totalNs_),
+                        r.types_, r.services_, r.unresolved_, r.error_ == null ? "" : csv(r.error_) ) );
+            }
+        }
+    }
+
+    /**
+     * Appends one CSV line with the totals of this run, to track the throughput over time.
+     * A header is written if the file is new.
+     */
+    void appendSummary( Path file ) throws IOException
+    {
+        final boolean exists = Files.exists(file);
+        try ( PrintWriter w = new PrintWriter( Files.newBufferedWriter( file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND ) ) )
+        {
+            if ( !exists )
+                w.println( "timestamp,threads,files,failed,bytes,wall_ms,files_per_s,mb_per_s,read_ms,parse_ms,includes_ms,p50_ms,p90_ms,p99_ms,max_ms" );
+            final int n = results_.size();
+            final double wallS = wallNs_ / 1e9;
+            final long bytes = totalBytes();
+            long[] phases = phaseTotals();
+            long[] lat = sortedLatencies();
+            w.println( String.format( Locale.ROOT, "%s,%d,%d,%d,%d,%.1f,%.2f,%.3f,%.1f,%.1f,%.1f,%.3f,%.3f,%.3f,%.3f",
+                    new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.ROOT).format(new Date()),
+                    threads_, n, errors(), bytes, ms(wallNs_),
+                    wallS > 0 ? n/wallS : 0.0, wallS > 0 ? bytes/(1024.0*1024.0)/wallS : 0.0,
+                    ms(phases[0]), ms(phases[1]), ms(phases[2]),
+                    ms(percentile(lat, 0.5)), ms(percentile(lat, 0.9)), ms(percentile(lat, 0.99)), ms(percentile(lat, 1.0)) ) );
+        }
+    }
+
+    private static String csv( String s )
+    {
+        if ( s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 )
+            return s;
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+}
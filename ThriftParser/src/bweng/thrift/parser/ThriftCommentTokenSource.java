@@ -19,6 +19,7 @@ public class ThriftCommentTokenSource implements TokenSource
   private final int contentChannel_;
   private final StringBuilder collectedContent_ = new StringBuilder();
   private int currentline_ = -1;
+  private int commentCount_ = 0;
 
   class CommentEntry
   {
@@ -72,6 +73,7 @@ public class ThriftCommentTokenSource implements TokenSource
 
     if (nextToken.getType() == tokenType_ )
     {
+        ++commentCount_;
         if ( currentline_ == nextToken.getLine() )
         {
             collectedContent_.append(' ');
@@ -111,6 +113,44 @@ public class ThriftCommentTokenSource implements TokenSource
       return ct;
   }
 
+  /**
+   * Drops all stored comments before the given line.
+   * Used by streaming parsers to keep the number of stored comments bounded.
+   */
+  public void discardComments(int line )
+  {
+      int n = 0;
+      while ( n < comments_.size() && comments_.get(n).line < line )
+          ++n;
+      if ( n > 0 )
+          comments_.subList(0, n).clear();
+  }
+
+
+  /**
+   * Creates a token source with a copy of the collected comments.
+   * The wrapped source is shared.
+   */
+  ThriftCommentTokenSource copyComments()
+  {
+      ThriftCommentTokenSource c = new ThriftCommentTokenSource( source_, contentChannel_, tokenType_ );
+      for ( CommentEntry e : comments_ )
+      {
+          CommentEntry ne = new CommentEntry();
+          ne.line = e.line;
+          ne.comment = e.comment;
+          c.comments_.add( ne );
+      }
+      return c;
+  }
+
+  /**
+   * Gets the number of comment tokens read so far.
+   */
+  int getCommentCount()
+  {
+      return commentCount_;
+  }
 
   @Override
   public String getSourceName() {
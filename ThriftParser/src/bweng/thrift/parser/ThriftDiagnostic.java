@@ -0,0 +1,52 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+/**
+ * One error or warning found while loading a document.
+ * @see ThriftDiagnostics
+ */
+public final class ThriftDiagnostic
+{
+    /** Severity of a diagnostic. */
+    public enum Severity
+    {
+        ERROR,
+        WARNING
+    }
+
+    /** The severity. */
+    public final Severity severity_;
+
+    /** The file or document name. */
+    public final String file_;
+
+    /** The line, 0-based as in the model. */
+    public final int line_;
+
+    /** The column, 0-based as in the model. */
+    public final int column_;
+
+    /** The message. */
+    public final String message_;
+
+    public ThriftDiagnostic( Severity severity, String file, int line, int column, String message )
+    {
+        severity_ = severity;
+        file_ = file;
+        line_ = Math.max( 0, line );
+        column_ = Math.max( 0, column );
+        message_ = message;
+    }
+
+    /**
+     * Formats the diagnostic as "file:line:column: severity: message", with 1-based line and column.
+     */
+    @Override
+    public String toString()
+    {
+        return file_ + ':' + (line_+1) + ':' + (column_+1) + ": " + (severity_ == Severity.ERROR ? "error: " : "warning: ") + message_;
+    }
+}
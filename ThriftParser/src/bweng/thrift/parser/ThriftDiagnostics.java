@@ -0,0 +1,108 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the syntax and i/o errors found while loading documents.<p>
+ * No stack traces are captured or printed. Thread-safe, can be shared between
+ * generators.
+ * @see ThriftModelGenerator#setDiagnostics(ThriftDiagnostics)
+ */
+public class ThriftDiagnostics
+{
+    /**
+     * Prints each diagnostic as one line to stderr instead of storing it.
+     * Default of the generator.
+     */
+    public static final ThriftDiagnostics STDERR = new ThriftDiagnostics()
+    {
+        @Override
+        public void add( ThriftDiagnostic d )
+        {
+            System.err.println( d.toString() );
+        }
+    };
+
+    private final List<ThriftDiagnostic> diagnostics_ = new ArrayList<>();
+    private int errors_;
+
+    /**
+     * Adds a diagnostic.
+     */
+    public void add( ThriftDiagnostic d )
+    {
+        synchronized ( diagnostics_ )
+        {
+            diagnostics_.add( d );
+            if ( d.severity_ == ThriftDiagnostic.Severity.ERROR )
+                ++errors_;
+        }
+    }
+
+    /**
+     * Adds an error.
+     * @param line 0-based line.
+     * @param column 0-based column.
+     */
+    public void error( String file, int line, int column, String message )
+    {
+        add( new ThriftDiagnostic( ThriftDiagnostic.Severity.ERROR, file, line, column, message ) );
+    }
+
+    /**
+     * Adds a warning.
+     * @param line 0-based line.
+     * @param column 0-based column.
+     */
+    public void warning( String file, int line, int column, String message )
+    {
+        add( new ThriftDiagnostic( ThriftDiagnostic.Severity.WARNING, file, line, column, message ) );
+    }
+
+    /**
+     * Gets a copy of all diagnostics in the order they were added.
+     */
+    public List<ThriftDiagnostic> getDiagnostics()
+    {
+        synchronized ( diagnostics_ )
+        {
+            return new ArrayList<>( diagnostics_ );
+        }
+    }
+
+    /**
+     * Gets the number of errors.
+     */
+    public int getErrorCount()
+    {
+        synchronized ( diagnostics_ )
+        {
+            return errors_;
+        }
+    }
+
+    public boolean isEmpty()
+    {
+        synchronized ( diagnostics_ )
+        {
+            return diagnostics_.isEmpty();
+        }
+    }
+
+    /**
+     * Removes all diagnostics.
+     */
+    public void clear()
+    {
+        synchronized ( diagnostics_ )
+        {
+            diagnostics_.clear();
+            errors_ = 0;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+import bweng.thrift.parser.model.ThriftDocument;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Walks a directory tree and parses all matching files on a pool of workers.<p>
+ * Each directory is listed by an own task, so listing and parsing overlap.
+ * Each worker thread uses an own copy of the generator. Includes are not loaded.
+ * With deduplication, byte-identical files with the same name are parsed once,
+ * the document gets the first path in order, the other paths are copies.
+ */
+final class ThriftDirectoryWalker
+{
+    private final ThriftModelGenerator settings_;
+    private final ThriftDiagnostics diagnostics_;
+    private final Path root_;
+    private final PathMatcher matcher_;
+    private final ConcurrentLinkedQueue<ThriftDocument> documents_ = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<ThriftModelGenerator> generators_;
+    private final boolean deduplicate_;
+    // By content key, only with deduplication.
+    private final ConcurrentHashMap<String, FutureTask<ThriftDocument>> shared_ = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, List<Path>> paths_ = new ConcurrentHashMap<>();
+    private final HashMap<String, ThriftDocument> contents_ = new HashMap<>();
+    private final TreeMap<Path, ThriftDocument> copies_ = new TreeMap<>();
+
+    /**
+     * @param settings Generator to copy the settings from.
+     * @param matcher Matches the paths relative to the root.
+     * @param deduplicate If true, identical files are parsed once.
+     */
+    ThriftDirectoryWalker( final ThriftModelGenerator settings, ThriftDiagnostics diagnostics, Path root, PathMatcher matcher, boolean deduplicate )
+    {
+        deduplicate_ = deduplicate;
+        settings_ = settings;
+        diagnostics_ = diagnostics;
+        root_ = root;
+        matcher_ = matcher;
+        generators_ = new ThreadLocal<ThriftModelGenerator>()
+        {
+            @Override
+            protected ThriftModelGenerator initialValue()
+            {
+                return settings.copySettings();
+            }
+        };
+    }
+
+    /**
+     * Parses all matching files.
+     * @param threads Number of worker threads.
+     * @return The documents, ordered by path.
+     */
+    List<ThriftDocument> run( int threads )
+    {
+        ForkJoinPool pool = new ForkJoinPool( Math.max( 1, threads ) );
+        try
+        {
+            pool.invoke( new ListDirectory( root_ ) );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        for ( Map.Entry<String, FutureTask<ThriftDocument>> e : shared_.entrySet() )
+        {
+            final ThriftDocument doc = getResult( e.getValue() );
+            if ( doc == null )
+                continue;
+            List<Path> paths = paths_.get( e.getKey() );
+            Collections.sort( paths );
+            doc.ospath_ = paths.get(0);
+            for ( int i=1 ; i<paths.size() ; ++i )
+                copies_.put( paths.get(i), doc );
+            contents_.put( e.getKey(), doc );
+            documents_.add( doc );
+        }
+        List<ThriftDocument> docs = new ArrayList<>( documents_ );
+        Collections.sort( docs, new Comparator<ThriftDocument>()
+        {
+            @Override
+            public int compare( ThriftDocument d1, ThriftDocument d2 )
+            {
+                return d1.ospath_.compareTo( d2.ospath_ );
+            }
+        });
+        return docs;
+    }
+
+    /**
+     * Gets the paths of the files that share the document of an identical file.
+     */
+    Map<Path, ThriftDocument> getCopies()
+    {
+        return copies_;
+    }
+
+    /**
+     * Gets the documents by content key.
+     */
+    HashMap<String, ThriftDocument> getContents()
+    {
+        return contents_;
+    }
+
+    private static ThriftDocument getResult( FutureTask<ThriftDocument> task )
+    {
+        try
+        {
+            return task.get();
+        }
+        catch ( InterruptedException ex )
+        {
+            Thread.currentThread().interrupt();
+            throw new CancellationException( "interrupted" );
+        }
+        catch ( ExecutionException ex )
+        {
+            final Throwable c = ex.getCause();
+            if ( c instanceof RuntimeException ) throw (RuntimeException)c;
+            if ( c instanceof Error ) throw (Error)c;
+            throw new IllegalStateException( c );
+        }
+    }
+
+    private final class ListDirectory extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir_;
+
+        ListDirectory( Path dir )
+        {
+            dir_ = dir;
+        }
+
+        @Override
+        protected void compute()
+        {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            try ( DirectoryStream<Path> ds = Files.newDirectoryStream( dir_ ) )
+            {
+                for ( Path p : ds )
+                {
+                    // Links to directories are not followed, they may form cycles.
+                    if ( Files.isDirectory( p, LinkOption.NOFOLLOW_LINKS ) )
+                        tasks.add( new ListDirectory( p ) );
+                    else if ( matcher_.matches( root_.relativize( p ) ) )
+                        tasks.add( new ParseFile( p ) );
+                }
+            }
+            catch ( IOException ex )
+            {
+                diagnostics_.error( dir_.toString(), 0, 0, "cannot list directory: "+ex.toString() );
+            }
+            invokeAll( tasks );
+        }
+    }
+
+    private final class ParseFile extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Path file_;
+
+        ParseFile( Path file )
+        {
+            file_ = file;
+        }
+
+        @Override
+        protected void compute()
+        {
+            settings_.check_cancelled();
+            try
+            {
+                final byte[] content = Files.readAllBytes( file_ );
+                if ( deduplicate_ )
+                {
+                    final String key = ThriftModelGenerator.getContentKey( ThriftModelGenerator.getDocumentName( file_.toString() ), content, content.length );
+                    List<Path> paths = paths_.get( key );
+                    if ( paths == null )
+                    {
+                        List<Path> p = Collections.synchronizedList( new ArrayList<Path>() );
+                        paths = paths_.putIfAbsent( key, p );
+                        if ( paths == null ) paths = p;
+                    }
+                    paths.add( file_ );
+
+                    FutureTask<ThriftDocument> parse = new FutureTask<>( new Callable<ThriftDocument>()
+                    {
+                        @Override
+                        public ThriftDocument call()
+                        {
+                            return generators_.get().loadDocument( content, file_ );
+                        }
+                    });
+                    // Only the first of identical files is parsed.
+                    if ( shared_.putIfAbsent( key, parse ) == null )
+                        parse.run();
+                }
+                else
+                {
+                    ThriftDocument doc = generators_.get().loadDocument( content, file_ );
+                    if ( doc != null )
+                        documents_.add( doc );
+                }
+            }
+            catch ( IOException ex )
+            {
+                diagnostics_.error( file_.toString(), 0, 0, "cannot read file: "+ex.toString() );
+            }
+        }
+    }
+}
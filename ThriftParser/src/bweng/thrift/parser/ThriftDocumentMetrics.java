@@ -0,0 +1,62 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+/**
+ * Metrics of the parsing of one document. All times in nanoseconds.
+ * @see ThriftMetricsListener#onDocumentParsed(ThriftDocumentMetrics)
+ */
+public final class ThriftDocumentMetrics
+{
+    /** Name of the document. */
+    public String name_;
+
+    /** Path of the document, null for entries of zip-archives. */
+    public Path ospath_;
+
+    /** Number of bytes of the document. */
+    public long bytes_;
+
+    /** The detected encoding. */
+    public Charset charset_;
+
+    /** Time of the encoding detection. */
+    public long detectNs_;
+
+    /** Time of decoding and lexing. */
+    public long lexNs_;
+
+    /** Time of the parser. */
+    public long parseNs_;
+
+    /** Time to build the model from the syntax tree, including the local resolution of references. */
+    public long modelNs_;
+
+    /** Number of tokens on the default channel, without whitespace and comments. */
+    public int tokens_;
+
+    /** Number of comment tokens. */
+    public int comments_;
+
+    /** Number of types that could not be resolved inside the document. */
+    public int unresolvedTypes_;
+
+    /** Number of services that could not be resolved inside the document. */
+    public int unresolvedServices_;
+
+    /** True if no document was created. */
+    public boolean failed_;
+
+    /**
+     * Gets the sum of all measured phases.
+     */
+    public long getTotalNs()
+    {
+        return detectNs_ + lexNs_ + parseNs_ + modelNs_;
+    }
+}
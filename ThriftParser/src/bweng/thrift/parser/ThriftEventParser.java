@@ -0,0 +1,468 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+import bweng.thrift.parser.ThriftModelListener.FieldKind;
+import bweng.thrift.parser.ThriftModelListener.StructKind;
+import bweng.thrift.parser.model.ThriftType;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.Token;
+import org.antlr.runtime.TokenSource;
+import org.antlr.runtime.TokenStream;
+import org.antlr.runtime.UnbufferedTokenStream;
+import org.antlr.runtime.tree.CommonTree;
+
+/**
+ * Parses a thrift-document and reports all definitions to a {@link ThriftModelListener}
+ * without creating a model.<p>
+ * Input, tokens and syntax trees are only kept for the current top-level definition,
+ * packages are reported while they are read. So the needed memory depends on the
+ * size of the largest definition, not on the size of the document.
+ */
+public final class ThriftEventParser
+{
+    // Number of bytes used to detect the encoding.
+    private final static int DETECT_SIZE = 64*1024;
+
+    private final ThriftModelListener listener_;
+    private ThriftDiagnostics diagnostics_ = ThriftDiagnostics.STDERR;
+
+    private ThriftCommentTokenSource tokensource_;
+    private String docname_;
+    private final ArrayList<String> packages_ = new ArrayList<>();
+
+    /**
+     * Token source that removes all tokens of other channels, as
+     * UnbufferedTokenStream doesn't do this.<br>
+     * The token text is fetched before the input is dropped.
+     */
+    private static final class ChannelFilter implements TokenSource
+    {
+        private final TokenSource source_;
+        private final ThriftReaderCharStream chars_;
+
+        ChannelFilter( TokenSource source, ThriftReaderCharStream chars )
+        {
+            source_ = source;
+            chars_ = chars;
+        }
+
+        @Override
+        public Token nextToken()
+        {
+            Token t;
+            do
+            {
+                t = source_.nextToken();
+            }
+            while ( t.getChannel() != Token.DEFAULT_CHANNEL && t.getType() != Token.EOF );
+
+            if ( t.getType() != Token.EOF && t instanceof CommonToken )
+                t.setText( t.getText() );
+            chars_.compact();
+            return t;
+        }
+
+        @Override
+        public String getSourceName()
+        {
+            return source_.getSourceName();
+        }
+    }
+
+    /**
+     * Token stream that drops the consumed tokens when the last mark is released.
+     * UnbufferedTokenStream never releases marks, so it would keep all tokens after the first mark.
+     */
+    private static final class DefinitionTokenStream extends UnbufferedTokenStream
+    {
+        DefinitionTokenStream( TokenSource source )
+        {
+            super( source );
+        }
+
+        @Override
+        public void release( int marker )
+        {
+            if ( markDepth > 0 && --markDepth == 0 && p > 0 )
+            {
+                data.subList( 0, p ).clear();
+                p = 0;
+            }
+        }
+    }
+
+    /**
+     * Creates a parser.
+     * @param listener The listener to report to.
+     */
+    public ThriftEventParser( ThriftModelListener listener )
+    {
+        listener_ = listener;
+    }
+
+    /**
+     * Sets the collector for syntax errors.
+     * @param diagnostics The collector, null to print the errors to stderr.
+     */
+    public void setDiagnostics( ThriftDiagnostics diagnostics )
+    {
+        diagnostics_ = ( diagnostics != null ) ? diagnostics : ThriftDiagnostics.STDERR;
+    }
+
+    /**
+     * Parses a thrift document by file path.
+     * The document name is derived from the file name as by {@link ThriftModelGenerator#loadDocument}.
+     * @param ospath The path to the file to parse.
+     */
+    public void parse( Path ospath ) throws IOException
+    {
+        try ( InputStream in = Files.newInputStream(ospath) )
+        {
+            parse( in, ThriftModelGenerator.getDocumentName( ospath.toString() ) );
+        }
+    }
+
+    /**
+     * Parses a thrift document from a stream.
+     * The encoding is detected from the start of the stream.
+     * @param in The stream to read. Not closed.
+     * @param name Name of document.
+     */
+    public void parse( InputStream in, String name ) throws IOException
+    {
+        BufferedInputStream bin = new BufferedInputStream( in, DETECT_SIZE );
+        bin.mark( DETECT_SIZE );
+        byte[] head = new byte[DETECT_SIZE];
+        int n = 0;
+        int r;
+        while ( n < head.length && (r = bin.read( head, n, head.length-n )) > 0 )
+            n += r;
+        bin.reset();
+        parse( new InputStreamReader( bin, ThriftModelGenerator.detectCharset( head, n ) ), name );
+    }
+
+    /**
+     * Parses a thrift document from a reader.
+     * @param reader The reader to read. Not closed.
+     * @param name Name of document.
+     * @throws IOException If reading failed. The end of the document is not reported then.
+     */
+    public synchronized void parse( Reader reader, String name ) throws IOException
+    {
+        try
+        {
+            parse_document( reader, name );
+        }
+        catch (UncheckedIOException ex)
+        {
+            throw ex.getCause();
+        }
+        finally
+        {
+            tokensource_ = null;
+            docname_ = null;
+        }
+    }
+
+    private void parse_document( Reader reader, String name )
+    {
+        ThriftReaderCharStream chars = new ThriftReaderCharStream( reader, name );
+        ThriftLexer lex = new ThriftLexer(chars);
+        lex.setDiagnostics( diagnostics_, name );
+        tokensource_ = new ThriftCommentTokenSource( lex, ThriftLexer.DEFAULT_TOKEN_CHANNEL, ThriftLexer.COMMENT );
+        TokenStream tokens = new DefinitionTokenStream( new ChannelFilter( tokensource_, chars ) );
+        ThriftParser parser = new ThriftParser(tokens);
+        parser.setDiagnostics( diagnostics_, name );
+
+        docname_ = name;
+        packages_.clear();
+        listener_.onDocumentStart( name );
+
+        while ( true )
+        {
+            final Token t = tokens.LT(1);
+            final int type = t.getType();
+            if ( type == Token.EOF )
+                break;
+
+            // Keeps the tokens of the current definition, to resynchronize after errors.
+            final int marker = tokens.mark();
+            final int errors = parser.getNumberOfSyntaxErrors();
+            boolean failed = false;
+            try
+            {
+                if ( ThriftModelGenerator.is_header_start( t ) )
+                {
+                    CommonTree dt = parser.header().getTree();
+                    failed = errors != parser.getNumberOfSyntaxErrors() && ThriftModelGenerator.has_error_nodes( dt );
+                    if ( !failed )
+                        gen_header( dt );
+                }
+                else if ( type == ThriftParser.PACKAGE && tokens.LA(2) == ThriftParser.IDENTIFIER && tokens.LA(3) == ThriftParser.LCURLY )
+                {
+                    // Packages are not parsed as a whole, the content is reported definition by definition.
+                    final Token k = tokens.LT(2);
+                    tokens.consume();
+                    tokens.consume();
+                    tokens.consume();
+                    start_package( k.getText(), t );
+                }
+                else if ( type == ThriftParser.RCURLY && !packages_.isEmpty() )
+                {
+                    tokens.consume();
+                    if ( tokens.LA(1) == ThriftParser.COMMA || tokens.LA(1) == ThriftParser.SEMICOLON )
+                        tokens.consume();
+                    end_package();
+                }
+                else
+                {
+                    CommonTree dt = parser.definition().getTree();
+                    failed = errors != parser.getNumberOfSyntaxErrors() && ThriftModelGenerator.has_error_nodes( dt );
+                    if ( !failed )
+                        gen_definition( dt );
+                }
+            }
+            catch (RecognitionException ex)
+            {
+                diagnostics_.error( name, ex.line-1, ex.charPositionInLine, parser.getErrorMessage( ex, parser.getTokenNames() ) );
+                failed = true;
+            }
+            if ( failed )
+            {
+                tokens.rewind( marker );
+                ThriftModelGenerator.skip_definition( tokens );
+                parser.endErrorRecovery();
+            }
+            else
+                tokens.release( marker );
+
+            // Older comments can't belong to following definitions.
+            tokensource_.discardComments( t.getLine() );
+        }
+
+        while ( !packages_.isEmpty() )
+            end_package();
+        listener_.onDocumentEnd( name );
+    }
+
+    private String collect_comment( CommonTree dt )
+    {
+        return tokensource_.collectComment( dt.getLine()-1 );
+    }
+
+    private String current_package()
+    {
+        return packages_.isEmpty() ? null : packages_.get( packages_.size()-1 );
+    }
+
+    // Same as the generator.
+    private String get_fully_qualifiedname( String name )
+    {
+        if ( name.isEmpty() )
+            return name;
+        final String p = current_package();
+        final String prefix = ( null != p ) ? p : docname_;
+        return prefix.isEmpty() ? name : prefix + "." + name;
+    }
+
+    private void start_package( String name, Token t )
+    {
+        final String p = current_package();
+        final String fqname = ((null != p) ? p+"." : "") + name;
+        listener_.onPackageStart( name, fqname, t.getLine()-1, t.getCharPositionInLine(),
+                tokensource_.collectComment( t.getLine()-1 ) );
+        packages_.add( fqname );
+    }
+
+    private void end_package()
+    {
+        listener_.onPackageEnd( packages_.remove( packages_.size()-1 ) );
+    }
+
+    private void gen_header( CommonTree dt )
+    {
+        switch ( dt.getType() )
+        {
+            case ThriftParser.INCLUDE:
+                CommonTree lt = (CommonTree)dt.getFirstChildWithType(ThriftParser.LITERAL);
+                listener_.onInclude( null != lt ? lt.getText() : "", dt.getLine()-1, dt.getCharPositionInLine() );
+                break;
+        }
+    }
+
+    private void gen_definition( CommonTree dt )
+    {
+        switch ( dt.getType() )
+        {
+            case ThriftParser.PACKAGE:
+                start_package( ThriftModelGenerator.get_identifier( dt ), dt.getToken() );
+                for (int i = 1 ; i<dt.getChildCount() ; ++i )
+                    gen_definition( (CommonTree)dt.getChild(i) );
+                end_package();
+                break;
+            case ThriftParser.SERVICE:
+                gen_service( dt );
+                break;
+            case ThriftParser.ENUM:
+                gen_enum( dt );
+                break;
+            case ThriftParser.STRUCT:
+                gen_struct( StructKind.STRUCT, dt );
+                break;
+            case ThriftParser.UNION:
+                gen_struct( StructKind.UNION, dt );
+                break;
+            case ThriftParser.EXCEPTION:
+                gen_struct( StructKind.EXCEPTION, dt );
+                break;
+            case ThriftParser.TYPEDEF:
+                gen_typedef( dt );
+                break;
+        }
+    }
+
+    private void gen_typedef( CommonTree dt )
+    {
+        final String name = ThriftModelGenerator.get_identifier( dt );
+        final String comment = collect_comment( dt );
+        final String typeName = ( 1 < dt.getChildCount() ) ? get_typename( (CommonTree)dt.getChild(1) ) : null;
+        listener_.onTypedef( name, get_fully_qualifiedname( name ), typeName,
+                dt.getLine()-1, dt.getCharPositionInLine(), comment );
+    }
+
+    private void gen_enum( CommonTree dt )
+    {
+        final String name = ThriftModelGenerator.get_identifier( dt );
+        final String fqname = get_fully_qualifiedname( name );
+        listener_.onEnum( name, fqname, dt.getLine()-1, dt.getCharPositionInLine(), collect_comment( dt ) );
+
+        int autoVal = 0;
+        for (int i = 1 ; i<dt.getChildCount() ; ++i )
+        {
+            CommonTree ct = (CommonTree)dt.getChild(i);
+            switch ( ct.getType() )
+            {
+                case ThriftParser.IDENTIFIER:
+                    if ( 0 < ct.getChildCount() )
+                        autoVal = (int)ThriftModelGenerator.get_integer((CommonTree)ct.getChild(0));
+                    listener_.onEnumValue( ct.getText(), autoVal++, ct.getLine()-1, ct.getCharPositionInLine() );
+                    break;
+            }
+        }
+        listener_.onEnumEnd( fqname );
+    }
+
+    private void gen_struct( StructKind kind, CommonTree dt )
+    {
+        final String name = ThriftModelGenerator.get_identifier( dt );
+        final String fqname = get_fully_qualifiedname( name );
+        listener_.onStruct( kind, name, fqname, dt.getLine()-1, dt.getCharPositionInLine(), collect_comment( dt ) );
+        gen_fields( FieldKind.MEMBER, dt, 1 );
+        listener_.onStructEnd( kind, fqname );
+    }
+
+    private void gen_fields( FieldKind kind, CommonTree dt, int startIndex )
+    {
+        if ( dt == null )
+            return;
+        for (int i = startIndex ; i<dt.getChildCount() ; ++i )
+        {
+            CommonTree ct = (CommonTree)dt.getChild(i);
+            switch ( ct.getType() )
+            {
+                case ThriftParser.FIELD_:
+                    gen_field( kind, ct );
+                    break;
+            }
+        }
+    }
+
+    private void gen_field( FieldKind kind, CommonTree dt )
+    {
+        final String name = ThriftModelGenerator.get_identifier( dt );
+        final String comment = collect_comment( dt );
+        final String typeName = ( 2 <= dt.getChildCount() ) ? get_typename( (CommonTree)dt.getChild(1) ) : null;
+        final int id = (int)ThriftModelGenerator.get_integer( (CommonTree)dt.getFirstChildWithType( ThriftParser.FIELD_ID_ ) );
+        listener_.onField( kind, id, name, typeName, dt.getLine()-1, dt.getCharPositionInLine(), comment );
+    }
+
+    private void gen_service( CommonTree dt )
+    {
+        final String name = ThriftModelGenerator.get_identifier( dt );
+        final String fqname = get_fully_qualifiedname( name );
+        final int line = dt.getLine()-1;
+        final int column = dt.getCharPositionInLine();
+        final String comment = collect_comment( dt );
+
+        CommonTree dtExtends = (CommonTree)dt.getChild(1);
+        final String extendsName = ( dtExtends.getChildCount() > 0 ) ? ThriftModelGenerator.get_identifier( dtExtends ) : null;
+        listener_.onService( name, fqname, extendsName, line, column, comment );
+
+        for (int i = 2 ; i<dt.getChildCount() ; ++i )
+        {
+            CommonTree dtF = (CommonTree)dt.getChild(i);
+            switch ( dtF.getType() )
+            {
+                case ThriftParser.METHOD_:
+                    gen_function( dtF );
+                    break;
+            }
+        }
+        listener_.onServiceEnd( fqname );
+    }
+
+    private void gen_function( CommonTree dt )
+    {
+        final String returnTypeName = ( 1 < dt.getChildCount() ) ? get_typename( (CommonTree)dt.getChild(1) ) : null;
+        listener_.onFunction( ThriftModelGenerator.get_identifier( dt ), ThriftModelGenerator.get_function_mode( dt ),
+                returnTypeName, dt.getLine()-1, dt.getCharPositionInLine(), collect_comment( dt ) );
+
+        gen_fields( FieldKind.PARAMETER, (CommonTree)dt.getFirstChildWithType(ThriftParser.ARGS_), 0 );
+        gen_fields( FieldKind.EXCEPTION, (CommonTree)dt.getFirstChildWithType(ThriftParser.THROWS), 0 );
+    }
+
+    // Gets the type name as declared, base types with the names of the model.
+    private static String get_typename( CommonTree dt )
+    {
+        switch ( dt.getType() )
+        {
+            case ThriftParser.VOID:          return ThriftType.VOID.name_;
+            case ThriftParser.TYPE_BOOL:     return ThriftType.BOOL.name_;
+            case ThriftParser.TYPE_BYTE:     return ThriftType.INT8.name_;
+            case ThriftParser.TYPE_I16:      return ThriftType.INT16.name_;
+            case ThriftParser.TYPE_I32:      return ThriftType.INT32.name_;
+            case ThriftParser.TYPE_I64:      return ThriftType.INT64.name_;
+            case ThriftParser.TYPE_DOUBLE:   return ThriftType.DOUBLE.name_;
+            case ThriftParser.TYPE_STRING:   return ThriftType.STRING.name_;
+            case ThriftParser.TYPE_BINARY:   return ThriftType.BINARY.name_;
+            case ThriftParser.TYPE_U8:       return ThriftType.UINT8.name_;
+            case ThriftParser.TYPE_U16:      return ThriftType.UINT16.name_;
+            case ThriftParser.TYPE_U32:      return ThriftType.UINT32.name_;
+            case ThriftParser.TYPE_U64:      return ThriftType.UINT64.name_;
+            case ThriftParser.SERVICE_PTR_TYPE: return ThriftType.SERVICE.name_;
+            case ThriftParser.LIST:
+                return ( 0 < dt.getChildCount() ) ? "list<" + get_typename( (CommonTree)dt.getChild(0) ) + ">" : null;
+            case ThriftParser.SET:
+                return ( 0 < dt.getChildCount() ) ? "set<" + get_typename( (CommonTree)dt.getChild(0) ) + ">" : null;
+            case ThriftParser.MAP:
+                return ( 1 < dt.getChildCount() )
+                        ? "map<" + get_typename( (CommonTree)dt.getChild(0) ) + "," + get_typename( (CommonTree)dt.getChild(1) ) + ">"
+                        : null;
+            case ThriftParser.IDENTIFIER:    return dt.getText();
+        }
+        return null;
+    }
+}
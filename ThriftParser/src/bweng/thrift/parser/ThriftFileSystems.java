@@ -0,0 +1,231 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the jar file systems used for "jar:" paths.<p>
+ * A file system is opened once and reused for all paths into the same archive.
+ * Loads hold a reference on the file systems they use, see {@link #acquire}.
+ * File systems without references stay open for reuse, but only up to
+ * {@link #MAX_IDLE}, the least recently used are closed first.
+ * File systems that were opened by others are used, but never closed.
+ */
+final class ThriftFileSystems
+{
+    private ThriftFileSystems()
+    {
+    }
+
+    /** Maximal number of open file systems without references. */
+    static final int MAX_IDLE = 8;
+
+    private static final class Entry
+    {
+        final FileSystem fs_;
+        // True if opened by the registry.
+        final boolean owned_;
+        int refs_;
+
+        Entry( FileSystem fs, boolean owned )
+        {
+            fs_ = fs;
+            owned_ = owned;
+        }
+    }
+
+    // By archive URI as given to getPath, in order of last use.
+    private static final LinkedHashMap<String, Entry> entries_ = new LinkedHashMap<>( 16, 0.75f, true );
+
+    /**
+     * References on file systems, closing releases them.
+     */
+    static final class Lease implements Closeable
+    {
+        private final List<Entry> held_ = new ArrayList<>();
+
+        /**
+         * Adds a reference on the file system of the path, if it is a registered one.
+         * The file system is reopened if it was closed, the path to use is returned.
+         */
+        Path add( Path p )
+        {
+            if ( p == null || p.getFileSystem() == FileSystems.getDefault() )
+                return p;
+            synchronized ( ThriftFileSystems.entries_ )
+            {
+                Entry e = find( p.getFileSystem() );
+                if ( e == null && !p.getFileSystem().isOpen() && "jar".equalsIgnoreCase( p.toUri().getScheme() ) )
+                {
+                    // Closed by eviction, reopen.
+                    p = getPath( p.toUri().toString() );
+                    e = find( p.getFileSystem() );
+                }
+                if ( e != null )
+                {
+                    ++e.refs_;
+                    held_.add( e );
+                }
+            }
+            return p;
+        }
+
+        @Override
+        public void close()
+        {
+            synchronized ( ThriftFileSystems.entries_ )
+            {
+                for ( Entry e : held_ )
+                    --e.refs_;
+                held_.clear();
+                evict( MAX_IDLE );
+            }
+        }
+    }
+
+    /**
+     * Creates a lease with a reference on the file system of the path.
+     */
+    static Lease acquire( Path p )
+    {
+        Lease l = new Lease();
+        l.add( p );
+        return l;
+    }
+
+    /**
+     * Gets the path for a "jar:" URI, e.g. "jar:file:///x.jar!/a/b.thrift".
+     * @throws InvalidPathException If the URI has no entry part.
+     * @throws UncheckedIOException If the archive can't be opened.
+     */
+    static Path getPath( String uri )
+    {
+        final int si = uri.indexOf("!/");
+        if ( si < 0 )
+            throw new InvalidPathException( uri, "missing \"!/\" separator of jar URI" );
+        final String archive = uri.substring( 0, si );
+
+        synchronized ( entries_ )
+        {
+            Entry e = entries_.get( archive );
+            if ( e == null || !e.fs_.isOpen() )
+            {
+                URI fsuri;
+                try
+                {
+                    fsuri = new URI( archive );
+                }
+                catch ( URISyntaxException ex )
+                {
+                    throw new InvalidPathException( uri, ex.getReason() );
+                }
+                e = open( fsuri );
+                entries_.put( archive, e );
+                evict( MAX_IDLE );
+            }
+            return e.fs_.getPath( uri.substring( si+1 ) );
+        }
+    }
+
+    /**
+     * Closes all file systems opened by the registry that have no references.
+     */
+    static void closeIdle()
+    {
+        synchronized ( entries_ )
+        {
+            evict( 0 );
+        }
+    }
+
+    /**
+     * Gets the number of open file systems in the registry.
+     */
+    static int getOpenCount()
+    {
+        synchronized ( entries_ )
+        {
+            return entries_.size();
+        }
+    }
+
+    private static Entry open( URI fsuri )
+    {
+        try
+        {
+            try
+            {
+                return new Entry( FileSystems.getFileSystem( fsuri ), false );
+            }
+            catch ( FileSystemNotFoundException fsnf )
+            {
+                return new Entry( FileSystems.newFileSystem( fsuri, Collections.<String, Object>emptyMap() ), true );
+            }
+        }
+        catch ( FileSystemAlreadyExistsException race )
+        {
+            // Opened by another thread outside of the registry.
+            return new Entry( FileSystems.getFileSystem( fsuri ), false );
+        }
+        catch ( IOException ex )
+        {
+            throw new UncheckedIOException( "cannot open archive "+fsuri, ex );
+        }
+    }
+
+    private static Entry find( FileSystem fs )
+    {
+        for ( Entry e : entries_.values() )
+            if ( e.fs_ == fs )
+                return e;
+        return null;
+    }
+
+    // Closes the least recently used entries without references, until at most maxIdle are left.
+    private static void evict( int maxIdle )
+    {
+        int idle = 0;
+        for ( Entry e : entries_.values() )
+            if ( e.refs_ <= 0 ) ++idle;
+
+        Iterator<Map.Entry<String, Entry>> it = entries_.entrySet().iterator();
+        while ( idle > maxIdle && it.hasNext() )
+        {
+            Entry e = it.next().getValue();
+            if ( e.refs_ > 0 )
+                continue;
+            it.remove();
+            --idle;
+            if ( e.owned_ )
+            {
+                try
+                {
+                    e.fs_.close();
+                }
+                catch ( IOException ex )
+                {
+                    // Nothing left to do with a file system that can't be closed.
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+import java.util.Locale;
+
+/**
+ * Metrics listener that sums up the metrics of all documents.
+ * Thread-safe, can be shared between generators.
+ */
+public class ThriftMetricsCollector implements ThriftMetricsListener
+{
+    private long documents_;
+    private long failed_;
+    private long bytes_;
+    private long detectNs_;
+    private long lexNs_;
+    private long parseNs_;
+    private long modelNs_;
+    private long tokens_;
+    private long comments_;
+
+    private long resolutions_;
+    private long includeNs_;
+    private long resolveNs_;
+    private long unresolvedTypes_;
+    private long unresolvedServices_;
+
+    @Override
+    public synchronized void onDocumentParsed( ThriftDocumentMetrics m )
+    {
+        ++documents_;
+        if ( m.failed_ ) ++failed_;
+        bytes_    += m.bytes_;
+        detectNs_ += m.detectNs_;
+        lexNs_    += m.lexNs_;
+        parseNs_  += m.parseNs_;
+        modelNs_  += m.modelNs_;
+        tokens_   += m.tokens_;
+        comments_ += m.comments_;
+    }
+
+    @Override
+    public synchronized void onReferencesResolved( ThriftResolveMetrics m )
+    {
+        ++resolutions_;
+        includeNs_ += m.includeNs_;
+        resolveNs_ += m.resolveNs_;
+        unresolvedTypes_    += m.unresolvedTypes_;
+        unresolvedServices_ += m.unresolvedServices_;
+    }
+
+    /**
+     * Resets all sums to zero.
+     */
+    public synchronized void reset()
+    {
+        documents_ = failed_ = bytes_ = 0;
+        detectNs_ = lexNs_ = parseNs_ = modelNs_ = 0;
+        tokens_ = comments_ = 0;
+        resolutions_ = includeNs_ = resolveNs_ = 0;
+        unresolvedTypes_ = unresolvedServices_ = 0;
+    }
+
+    public synchronized long getDocuments()          { return documents_; }
+    public synchronized long getFailedDocuments()    { return failed_; }
+    public synchronized long getBytes()              { return bytes_; }
+    public synchronized long getDetectNs()           { return detectNs_; }
+    public synchronized long getLexNs()              { return lexNs_; }
+    public synchronized long getParseNs()            { return parseNs_; }
+    public synchronized long getModelNs()            { return modelNs_; }
+    public synchronized long getTokens()             { return tokens_; }
+    public synchronized long getComments()           { return comments_; }
+    public synchronized long getResolutions()        { return resolutions_; }
+    public synchronized long getIncludeNs()          { return includeNs_; }
+    public synchronized long getResolveNs()          { return resolveNs_; }
+    public synchronized long getUnresolvedTypes()    { return unresolvedTypes_; }
+    public synchronized long getUnresolvedServices() { return unresolvedServices_; }
+
+    /**
+     * Gets a multi-line summary of all sums.
+     */
+    @Override
+    public synchronized String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append( String.format( Locale.ROOT, "Documents: %d (%d failed), %d bytes, %d tokens, %d comments%n",
+                documents_, failed_, bytes_, tokens_, comments_ ) );
+        sb.append( String.format( Locale.ROOT, "  detect   %10.1f ms%n", detectNs_/1e6 ) );
+        sb.append( String.format( Locale.ROOT, "  lex      %10.1f ms%n", lexNs_/1e6 ) );
+        sb.append( String.format( Locale.ROOT, "  parse    %10.1f ms%n", parseNs_/1e6 ) );
+        sb.append( String.format( Locale.ROOT, "  model    %10.1f ms%n", modelNs_/1e6 ) );
+        sb.append( String.format( Locale.ROOT, "Resolutions: %d, %d unresolved types, %d unresolved services%n",
+                resolutions_, unresolvedTypes_, unresolvedServices_ ) );
+        sb.append( String.format( Locale.ROOT, "  includes %10.1f ms (including parsing)%n", includeNs_/1e6 ) );
+        sb.append( String.format( Locale.ROOT, "  resolve  %10.1f ms%n", resolveNs_/1e6 ) );
+        return sb.toString();
+    }
+}
@@ -0,0 +1,45 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+/**
+ * Receives the metrics of the phases of a {@link ThriftModelGenerator}.<p>
+ * The callbacks are called synchronously by the thread that uses the generator.
+ * If the same listener is set on several generators, it has to be thread-safe.
+ * @see ThriftModelGenerator#setMetricsListener(ThriftMetricsListener)
+ * @see ThriftMetricsCollector
+ */
+public interface ThriftMetricsListener
+{
+    /**
+     * Listener that ignores all metrics. Default of the generator.
+     */
+    public static final ThriftMetricsListener NONE = new ThriftMetricsListener()
+    {
+        @Override
+        public void onDocumentParsed( ThriftDocumentMetrics m )
+        {
+        }
+
+        @Override
+        public void onReferencesResolved( ThriftResolveMetrics m )
+        {
+        }
+    };
+
+    /**
+     * Called after a document was parsed, also for each loaded include
+     * and each entry of a zip-archive.
+     */
+    void onDocumentParsed( ThriftDocumentMetrics m );
+
+    /**
+     * Called after the includes of a document were loaded and the references
+     * were resolved by {@link ThriftModelGenerator#loadIncludes},
+     * {@link ThriftModelGenerator#loadZipArchive} or
+     * {@link ThriftModelGenerator#loadDirectory}.
+     */
+    void onReferencesResolved( ThriftResolveMetrics m );
+}
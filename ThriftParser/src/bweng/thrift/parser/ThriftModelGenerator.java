@@ -6,38 +6,50 @@ package bweng.thrift.parser;
 
 import bweng.thrift.parser.model.*;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.URI;
-import java.net.URISyntaxException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystemNotFoundException;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.antlr.runtime.ANTLRReaderStream;
+import org.antlr.runtime.CommonToken;
 import org.antlr.runtime.CommonTokenStream;
 import org.antlr.runtime.RecognitionException;
+import org.antlr.runtime.Token;
 import org.antlr.runtime.TokenStream;
+import org.antlr.runtime.tree.CommonErrorNode;
 import org.antlr.runtime.tree.CommonTree;
+import org.antlr.runtime.tree.Tree;
 import org.mozilla.universalchardet.UniversalDetector;
 import java.nio.charset.StandardCharsets;
 import java.util.Collection;
-import java.util.Enumeration;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Map.Entry;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 /**
 * Generates our Data model from Antlr parser results.
@@ -61,62 +73,263 @@ public final class ThriftModelGenerator
         incudePaths_ = incudePaths;
     }
 
+    /**
+     * Enables the secondary object indexes for all documents parsed later.
+     * @param enabled If true, {@link ThriftDocument#object_index_} is created and filled.
+     */
+    public void setObjectIndexEnabled( boolean enabled )
+    {
+        objectIndexEnabled_ = enabled;
+    }
+
+    /**
+     * Enables the deduplication of files by content for all loads later.<p>
+     * Byte-identical files with the same document name are parsed only once
+     * per call of {@link #loadIncludes} or {@link #loadDirectory} and share one
+     * document. {@link ThriftInclude#ospath_} still gives the file that was found,
+     * {@link ThriftDocument#ospath_} the first copy. The includes of a shared
+     * document are located relative to the first copy.
+     * @param enabled If true, identical files are shared.
+     */
+    public void setContentDeduplication( boolean enabled )
+    {
+        deduplicate_ = enabled;
+    }
+
+    /**
+     * Enables the sharing of container types for all loads later.<p>
+     * After resolution, structurally identical containers, e.g. all uses of
+     * "list&lt;string&gt;", are replaced by one instance, so
+     * {@link ThriftType#isSameType} is an identity check for them.
+     * The shared instance keeps the position and document of its first use.
+     * The {@link ThriftDocument#object_index_ object index} still holds the
+     * instance created at each position.
+     * @param enabled If true, identical containers are shared.
+     */
+    public void setContainerCanonicalization( boolean enabled )
+    {
+        canonicalize_ = enabled;
+    }
+
+    /**
+     * Sets the collector for syntax and i/o errors of all documents loaded later.
+     * @param diagnostics The collector, null to print the errors to stderr.
+     */
+    public void setDiagnostics( ThriftDiagnostics diagnostics )
+    {
+        diagnostics_ = ( diagnostics != null ) ? diagnostics : ThriftDiagnostics.STDERR;
+    }
+
+    /**
+     * Sets the listener that receives the metrics of all documents parsed later.
+     * @param listener The listener, null to disable metrics.
+     */
+    public void setMetricsListener( ThriftMetricsListener listener )
+    {
+        metrics_ = ( listener != null ) ? listener : ThriftMetricsListener.NONE;
+    }
+
+    /**
+     * Sets the executor that looks up and reads the includes of a document concurrently.
+     * The includes are still parsed one after the other by the calling thread.
+     * @param executor The executor, null to look up the includes sequentially.
+     */
+    void setIncludeExecutor( Executor executor )
+    {
+        includeExecutor_ = executor;
+    }
+
+    /**
+     * Creates a new generator with the same include paths, diagnostics, listener and options.
+     */
+    ThriftModelGenerator copySettings()
+    {
+        ThriftModelGenerator g = new ThriftModelGenerator( incudePaths_ );
+        g.objectIndexEnabled_ = objectIndexEnabled_;
+        g.deduplicate_ = deduplicate_;
+        g.canonicalize_ = canonicalize_;
+        g.metrics_ = metrics_;
+        g.diagnostics_ = diagnostics_;
+        g.includeExecutor_ = includeExecutor_;
+        return g;
+    }
+
+    /**
+     * Aborts the current and all later loads of this generator.
+     * The loading thread throws a {@link CancellationException} at the next
+     * definition or include. Blocking reads are only aborted if the thread
+     * is interrupted in addition.
+     */
+    void cancel()
+    {
+        cancelled_ = true;
+    }
+
+    void check_cancelled()
+    {
+        if ( cancelled_ )
+            throw new CancellationException( "loading was cancelled" );
+    }
+
     /**
      * Get a Path object for some native file path.
+     * Paths into archives are given as "jar:" URIs, e.g. "jar:file:///x.jar!/a/b.thrift".
+     * The jar file systems are kept open for reuse, see {@link #closeArchives()}.
+     * @throws java.nio.file.InvalidPathException If the path is not valid.
+     * @throws UncheckedIOException If the archive of a "jar:" URI can't be opened.
      */
     public static Path getPath( String ospath )
     {
-        URI uri = null;
-        try
-        {
-            uri = new URI(ospath);
-        }
-        catch (URISyntaxException uriex)
-        {
-        }
-
-        if ( uri != null && "jar".equalsIgnoreCase( uri.getScheme() ))
-        {
-            FileSystem fs=null;
-            int si = ospath.indexOf("!");
-            String arc = ospath.substring(0,si);
-            try
-            {
-                URI fsuri = new URI( arc );
-                try
-                {
-                    fs = FileSystems.getFileSystem(fsuri);
-                }
-                catch ( FileSystemNotFoundException fsnf)
-                {
-                    fs =  FileSystems.newFileSystem(fsuri, new HashMap<String, Object>());
-                }
-                return fs.getPath(ospath.substring(si+1));
-            }
-            catch (Exception ex2)
-            {
-            }
-        }
+        if ( ospath.regionMatches( true, 0, "jar:", 0, 4 ) )
+            return ThriftFileSystems.getPath( ospath );
         return FileSystems.getDefault().getPath(ospath);
     }
 
+    /**
+     * Closes the jar file systems opened by {@link #getPath(String)} that are not in use by a load.
+     * Paths into closed archives are reopened by the next load that uses them.
+     * Only a few unused archives are kept open anyway, the least recently used are closed first.
+     */
+    public static void closeArchives()
+    {
+        ThriftFileSystems.closeIdle();
+    }
+
     /**
      * Loads all includes of the document and tries to resolve all types.
      * @param doc              The document with includes.
      * @param bReplaceTypeRefs If true all type-references as Type-Definitions and previous
      *                         unresolved Type-References are replaced by the underlying type.
+     *                         If false, the references are kept, but
+     *                         {@link ThriftType#getRealType()} is cached for all of them.
      */
     public synchronized void loadIncludes( ThriftDocument doc, boolean bReplaceTypeRefs )
     {
+        final long t0 = System.nanoTime();
         loaded_ = new HashMap<>();
-        loadIncludesInternal( doc );
+        contents_ = deduplicate_ ? new HashMap<String, ThriftDocument>() : null;
+        try ( ThriftFileSystems.Lease lease = new ThriftFileSystems.Lease() )
+        {
+            lease_ = lease;
+            loadIncludesInternal( doc, newDocumentSet() );
+        }
+        finally
+        {
+            lease_ = null;
+            contents_ = null;
+        }
         loaded_.clear();
 
+        final long t1 = System.nanoTime();
+        resolve_references( doc, bReplaceTypeRefs );
+        report_resolution( doc, t1-t0, System.nanoTime()-t1 );
+    }
+
+    /**
+     * Loads all matching thrift files of a directory tree as one workspace.
+     * Type references are replaced, the files are parsed on one thread per processor.
+     * @param root The root directory.
+     * @param glob Glob pattern for the paths relative to the root, e.g. "idl/**.thrift".
+     *             If null, "**.thrift" is used, all thrift files of the tree.
+     * @see #loadDirectory(Path, String, boolean, int)
+     */
+    public ThriftWorkspace loadDirectory( Path root, String glob )
+    {
+        return loadDirectory( root, glob, true, Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     * Loads all matching thrift files of a directory tree as one workspace.<p>
+     * The tree is walked and the files are parsed in parallel. Afterwards the includes
+     * are linked to the parsed documents, only includes from outside of the workspace
+     * are loaded. Finally all references are resolved in one pass over all documents.
+     * @param root The root directory.
+     * @param glob Glob pattern for the paths relative to the root, null for all thrift files.
+     * @param bReplaceTypeRefs See {@link #loadIncludes(ThriftDocument, boolean)}.
+     * @param threads Number of threads to parse.
+     */
+    public synchronized ThriftWorkspace loadDirectory( Path root, String glob, boolean bReplaceTypeRefs, int threads )
+    {
+        final long t0 = System.nanoTime();
+        final PathMatcher matcher = root.getFileSystem().getPathMatcher( "glob:" + ( glob != null ? glob : "**.thrift" ) );
+        final ThriftDirectoryWalker walker = new ThriftDirectoryWalker( this, diagnostics_, root, matcher, deduplicate_ );
+        final List<ThriftDocument> docs = walker.run( threads );
+
+        loaded_ = new HashMap<>();
+        for ( ThriftDocument d : docs )
+            loaded_.put( getDocumentKey( d.ospath_ ), d );
+        for ( Map.Entry<Path, ThriftDocument> e : walker.getCopies().entrySet() )
+            loaded_.put( getDocumentKey( e.getKey() ), e.getValue() );
+        contents_ = deduplicate_ ? walker.getContents() : null;
+        final Set<ThriftDocument> visited = newDocumentSet();
+        try ( ThriftFileSystems.Lease lease = new ThriftFileSystems.Lease() )
+        {
+            lease_ = lease;
+            for ( ThriftDocument d : docs )
+                loadIncludesInternal( d, visited );
+        }
+        finally
+        {
+            lease_ = null;
+            contents_ = null;
+        }
+        loaded_.clear();
+
+        // Documents reached by includes that are not part of the workspace.
+        final List<ThriftDocument> included = new ArrayList<>();
+        for ( ThriftDocument d : docs )
+            visited.remove( d );
+        included.addAll( visited );
+        Collections.sort( included, new Comparator<ThriftDocument>()
+        {
+            @Override
+            public int compare( ThriftDocument d1, ThriftDocument d2 )
+            {
+                return d1.ospath_.compareTo( d2.ospath_ );
+            }
+        });
+
+        final long t1 = System.nanoTime();
         global_types_   = new HashMap<>();
         global_services_= new HashMap<>();
+        Set<ThriftDocument> done = newDocumentSet();
+        for ( ThriftDocument d : docs )
+            collect_references( d, done );
+        done = newDocumentSet();
+        for ( ThriftDocument d : docs )
+            resolve_all( d, bReplaceTypeRefs, done );
+        if ( canonicalize_ )
+        {
+            ThriftTypeCanonicalizer c = new ThriftTypeCanonicalizer();
+            for ( ThriftDocument d : docs )
+                c.canonicalize( d );
+        }
+        done = newDocumentSet();
+        ThriftUsageIndex usages = new ThriftUsageIndex();
+        for ( ThriftDocument d : docs )
+        {
+            compress_references( d, done );
+            usages.add( d );
+        }
+        for ( ThriftDocument d : docs )
+            d.type_usages_ = usages;
 
-        collect_references( doc );
-        resolve_all( doc, bReplaceTypeRefs );
+        if ( metrics_ != ThriftMetricsListener.NONE )
+        {
+            ThriftResolveMetrics m = new ThriftResolveMetrics();
+            m.name_ = root.toString();
+            m.includeNs_ = t1-t0;
+            m.resolveNs_ = System.nanoTime()-t1;
+            done = newDocumentSet();
+            for ( ThriftDocument d : docs )
+                count_unresolved( d, m, done );
+            metrics_.onReferencesResolved( m );
+        }
+
+        ThriftWorkspace ws = new ThriftWorkspace( root, docs, included, walker.getCopies(), global_types_, global_services_, usages );
+        global_types_ = null;
+        global_services_ = null;
+        return ws;
     }
 
     /**
@@ -127,58 +340,83 @@ public final class ThriftModelGenerator
      */
     public ThriftDocument loadZipArchive( Path ospath, Pattern regex ) throws IOException
     {
-        ThriftDocument doc = null;
+        return loadZipArchive( ospath, regex, false );
+    }
 
+    /**
+     * Loads all Thrift files from an Zip-Archive, filtered by a regular expression.
+     * Types and services are resolved as far as possible.
+     * Include directives in the thrift files are ignored.
+     * @param ospath The archive, can also be inside a jar file system.
+     * @param regex If null, no filter is applies.
+     * @param nested If true, the thrift files in nested ".jar" and ".zip" entries are loaded as well.
+     */
+    public ThriftDocument loadZipArchive( Path ospath, Pattern regex, boolean nested ) throws IOException
+    {
         final String name = getDocumentName( ospath.toString() );
+        final ArchiveMerger merger = new ArchiveMerger( name );
+
+        try ( ThriftFileSystems.Lease lease = new ThriftFileSystems.Lease() )
+        {
+            ospath = lease.add( ospath );
+            new ThriftArchiveReader( regex, nested ).read( ospath, merger );
+        }
 
-        ZipFile zf = new  ZipFile(ospath.toFile());
+        final ThriftDocument doc = merger.doc_;
+        if ( doc != null )
+        {
+           final long t0 = System.nanoTime();
+           resolve_references( doc, true );
+
+           doc.ospath_ = ospath;
+           report_resolution( doc, 0, System.nanoTime()-t0 );
+        }
+        return doc;
+    }
 
-        byte[] buffer = new byte[4*1024];
-        ByteArrayOutputStream bs = new ByteArrayOutputStream();
+    /**
+     * Parses the entries of an archive and merges them into one document.
+     */
+    private final class ArchiveMerger implements ThriftArchiveReader.EntryHandler
+    {
+        final String name_;
+        ThriftDocument doc_;
 
-        Enumeration<? extends ZipEntry> entries = zf.entries();
-        while( entries.hasMoreElements() )
+        ArchiveMerger( String name )
+        {
+            name_ = name;
+        }
+
+        @Override
+        public void entry( String source, byte[] content, int length )
         {
-            ZipEntry ze = entries.nextElement();
-            if ( regex == null || regex.matcher( ze.getName() ).matches() )
+            check_cancelled();
+            ThriftDocument zd = parseDocument( content, length, name_, null, source );
+            if ( zd != null )
             {
-                bs.reset();
-                final InputStream is = zf.getInputStream(ze);
-                while( true )
+                if ( doc_ != null )
                 {
-                    int r = is.read(buffer);
-                    if (r == -1) break;
-                    bs.write(buffer, 0, r);
-                }
-                final byte[] content = bs.toByteArray();
-                if ( content != null && content.length > 0)
-                {
-                    ThriftDocument zd = parseDocument( content, name );
-                    if ( zd != null )
+                    final ThriftParserEvents.Merge ev = ThriftParserEvents.beginMerge();
+                    merge( doc_, zd);
+                    if ( ev != null )
                     {
-                        if ( doc != null )
+                        ev.end();
+                        if ( ev.shouldCommit() )
                         {
-                            merge( doc, zd);
+                            ev.document = doc_.name_;
+                            ev.merged   = source;
+                            ev.types    = zd.all_types_.size();
+                            ev.services = zd.all_services_.size();
+                            ev.commit();
                         }
-                        else
-                            doc = zd;
-                        // Skip all includes.
-                        doc.includes_.clear();
                     }
                 }
+                else
+                    doc_ = zd;
+                // Skip all includes.
+                doc_.includes_.clear();
             }
         }
-        if ( doc != null )
-        {
-           global_types_   = new HashMap<>();
-           global_services_= new HashMap<>();
-
-           collect_references( doc );
-           resolve_all( doc, true );
-
-           doc.ospath_ = ospath;
-        }
-        return doc;
     }
 
     /**
@@ -199,7 +437,42 @@ public final class ThriftModelGenerator
      */
     public ThriftDocument loadDocument( Path ospath ) throws IOException
     {
-        ThriftDocument doc = parseDocument( Files.readAllBytes(ospath), getDocumentName( ospath.toString() ) );
+        final ThriftParserEvents.LoadDocument ev = ThriftParserEvents.beginLoadDocument();
+        final byte[] content;
+        try ( ThriftFileSystems.Lease lease = new ThriftFileSystems.Lease() )
+        {
+            ospath = lease.add( ospath );
+            content = Files.readAllBytes(ospath);
+        }
+        final ThriftDocument doc = loadDocument( content, ospath );
+        if ( ev != null )
+        {
+            ev.end();
+            if ( ev.shouldCommit() )
+            {
+                ev.document = getDocumentName( ospath.toString() );
+                ev.path     = ospath.toString();
+                ev.size     = content.length;
+                if ( doc != null )
+                {
+                    ev.types    = doc.all_types_.size();
+                    ev.services = doc.all_services_.size();
+                }
+                ev.commit();
+            }
+        }
+        return doc;
+    }
+
+    /**
+     * Loads a thrift document from the already read content of a file.
+     * @param content The content of the file.
+     * @param ospath The path of the file.
+     * @return The parsed Thrift document or null if parser failed.
+     */
+    ThriftDocument loadDocument( byte[] content, Path ospath )
+    {
+        ThriftDocument doc = parseDocument( content, content.length, getDocumentName( ospath.toString() ), ospath, ospath.toString() );
         if ( doc != null )
            doc.ospath_ = ospath;
         return doc;
@@ -221,6 +494,17 @@ public final class ThriftModelGenerator
 
     private Map<String,ThriftDocument> loaded_;
     private List<String> incudePaths_;
+    private boolean objectIndexEnabled_ = false;
+    private boolean deduplicate_ = false;
+    private boolean canonicalize_ = false;
+    // Documents by content key, only if deduplication is enabled.
+    private Map<String,ThriftDocument> contents_;
+    private ThriftMetricsListener metrics_ = ThriftMetricsListener.NONE;
+    private ThriftDiagnostics diagnostics_ = ThriftDiagnostics.STDERR;
+    private Executor includeExecutor_;
+    // References on the jar file systems used by loadIncludes.
+    private ThriftFileSystems.Lease lease_;
+    private volatile boolean cancelled_ = false;
 
     private final static Pattern version_pattern_ = Pattern.compile("@version\\s+([0-9\\.]+)", Pattern.CASE_INSENSITIVE);
     private final static Pattern annotation_pattern_ = Pattern.compile("@(\\w+)\\s*(.*)\\s*[\\r\\n]?", Pattern.CASE_INSENSITIVE);
@@ -322,12 +606,54 @@ public final class ThriftModelGenerator
         }
     }
 
-    private  void collect_references( ThriftDocument doc )
+    /**
+     * Collects and resolves all references of the document and its includes.
+     */
+    private void resolve_references( ThriftDocument doc, boolean bReplaceTypeRefs )
     {
-        if ( doc != null )
+        global_types_   = new HashMap<>();
+        global_services_= new HashMap<>();
+
+        ThriftParserEvents.ResolveReferences ev = ThriftParserEvents.beginResolveReferences();
+        collect_references( doc, newDocumentSet() );
+        commit_resolve_event( ev, doc, "collect" );
+
+        ev = ThriftParserEvents.beginResolveReferences();
+        resolve_all( doc, bReplaceTypeRefs, newDocumentSet() );
+        commit_resolve_event( ev, doc, "resolve" );
+
+        if ( canonicalize_ )
+            new ThriftTypeCanonicalizer().canonicalize( doc );
+        compress_references( doc, newDocumentSet() );
+        index_usages( doc );
+    }
+
+    private void commit_resolve_event( ThriftParserEvents.ResolveReferences ev, ThriftDocument doc, String phase )
+    {
+        if ( ev != null )
+        {
+            ev.end();
+            if ( ev.shouldCommit() )
+            {
+                ThriftResolveMetrics m = new ThriftResolveMetrics();
+                count_unresolved( doc, m, newDocumentSet() );
+                ev.document = doc.name_;
+                ev.phase    = phase;
+                ev.types    = global_types_.size();
+                ev.services = global_services_.size();
+                ev.unresolvedTypes    = m.unresolvedTypes_;
+                ev.unresolvedServices = m.unresolvedServices_;
+                ev.commit();
+            }
+        }
+    }
+
+    private  void collect_references( ThriftDocument doc, Set<ThriftDocument> visited )
+    {
+        if ( doc != null && visited.add(doc) )
         {
             for (int i=0 ; i<doc.includes_.size() ; ++i)
-                 collect_references( doc.includes_.get(i).doc_ );
+                 collect_references( doc.includes_.get(i).doc_, visited );
 
             for ( ThriftType tp : doc.all_types_.values() )
             {
@@ -356,12 +682,12 @@ public final class ThriftModelGenerator
         }
     }
 
-    private void resolve_all( ThriftDocument doc, boolean bExchangeTypeReferences )
+    private void resolve_all( ThriftDocument doc, boolean bExchangeTypeReferences, Set<ThriftDocument> visited )
     {
-        if ( doc != null )
+        if ( doc != null && visited.add(doc) )
         {
             for (int i=0 ; i<doc.includes_.size() ; ++i)
-                 resolve_all( doc.includes_.get(i).doc_, bExchangeTypeReferences );
+                 resolve_all( doc.includes_.get(i).doc_, bExchangeTypeReferences, visited );
 
             Iterator<ThriftTypeRef> it = doc.unresolved_types_.values().iterator();
             while ( it.hasNext() )
@@ -409,65 +735,216 @@ public final class ThriftModelGenerator
         }
     }
 
-    private void loadIncludesInternal( ThriftDocument doc )
+    private static Set<ThriftDocument> newDocumentSet()
+    {
+        return Collections.newSetFromMap(new IdentityHashMap<ThriftDocument, Boolean>());
+    }
+
+    /**
+     * Compresses all Type-reference and Type-definition chains of the document and its includes.
+     * Afterwards {@link ThriftType#getRealType()} returns the cached real type at constant costs.
+     * In difference to removeReferenceTypes the references are not replaced.
+     * The field tables of structures and functions are created in the same pass.
+     */
+    private void compress_references( ThriftDocument doc, Set<ThriftDocument> visited )
     {
+        if ( doc == null || !visited.add(doc) )
+            return;
+
+        for (int i=0 ; i<doc.includes_.size() ; ++i)
+             compress_references( doc.includes_.get(i).doc_, visited );
+
+        for ( ThriftType t : doc.all_types_.values() )
+        {
+            if ( t instanceof ThriftStructType )
+            {
+                compress_references( ((ThriftStructType)t).fields_ );
+                ((ThriftStructType)t).getFieldTable();
+            }
+            else if ( t instanceof ThriftUnionType )
+            {
+                compress_references( ((ThriftUnionType)t).fields_ );
+                ((ThriftUnionType)t).getFieldTable();
+            }
+            else
+                compress_references( t );
+        }
+
+        for ( ThriftService s : doc.all_services_ )
+        {
+            for ( ThriftFunction f : s.functions_)
+            {
+                compress_references( f.exceptions_ );
+                compress_references( f.parameters_ );
+                compress_references( f.return_type_ );
+                f.getParameterTable();
+                f.getExceptionTable();
+            }
+        }
+    }
+
+    private void compress_references( List<ThriftField> fields )
+    {
+        if ( fields != null )
+            for ( ThriftField f : fields ) compress_references(f.type_);
+    }
+
+    /**
+     * Compresses the chain of a used type. Structures are not entered here,
+     * they are handled as part of the document types.
+     */
+    private void compress_references( ThriftType t )
+    {
+        if ( t instanceof ThriftTypeRef )
+        {
+            t.cacheRealType();
+        }
+        else if ( t instanceof ThriftTypedef )
+        {
+            t.cacheRealType();
+            compress_references( ((ThriftTypedef)t).reftype_ );
+        }
+        else if ( t instanceof ThriftListType )
+        {
+            compress_references( ((ThriftListType)t).value_type_ );
+        }
+        else if ( t instanceof ThriftMapType )
+        {
+            compress_references( ((ThriftMapType)t).key_type_ );
+            compress_references( ((ThriftMapType)t).value_type_ );
+        }
+        else if ( t instanceof ThriftSetType )
+        {
+            compress_references( ((ThriftSetType)t).value_type_ );
+        }
+    }
+
+    /**
+     * Creates the reverse index of type usages for the document and its includes.
+     */
+    private void index_usages( ThriftDocument doc )
+    {
+        doc.type_usages_ = new ThriftUsageIndex();
+        doc.type_usages_.add( doc );
+    }
+
+    /**
+     * Reports the metrics of a resolution to the listener.
+     */
+    private void report_resolution( ThriftDocument doc, long includeNs, long resolveNs )
+    {
+        if ( metrics_ == ThriftMetricsListener.NONE )
+            return;
+
+        ThriftResolveMetrics m = new ThriftResolveMetrics();
+        m.name_ = doc.name_;
+        m.includeNs_ = includeNs;
+        m.resolveNs_ = resolveNs;
+        count_unresolved( doc, m, newDocumentSet() );
+        metrics_.onReferencesResolved( m );
+    }
+
+    private static void count_unresolved( ThriftDocument doc, ThriftResolveMetrics m, Set<ThriftDocument> visited )
+    {
+        if ( doc == null || !visited.add(doc) )
+            return;
+
+        ++m.documents_;
+        if ( doc.unresolved_types_ != null )
+            m.unresolvedTypes_ += doc.unresolved_types_.size();
+        if ( doc.unresolved_services_ != null )
+            m.unresolvedServices_ += doc.unresolved_services_.size();
+        for (int i=0 ; i<doc.includes_.size() ; ++i)
+             count_unresolved( doc.includes_.get(i).doc_, m, visited );
+    }
+
+    /**
+     * Result of the lookup of one include.
+     */
+    private static final class IncludeLookup
+    {
+        Path found_;
+        String resolvedFrom_ = "not found";
+        // Content, if already read by the include executor.
+        byte[] content_;
+        IOException error_;
+    }
+
+    private void loadIncludesInternal( ThriftDocument doc, Set<ThriftDocument> visited )
+    {
+        if ( !visited.add(doc) )
+            return;
+        // Reopens the archive of the document if it was closed meanwhile.
+        doc.ospath_ = lease_.add( doc.ospath_ );
         Path docFile = doc.ospath_;
+        final List<Future<IncludeLookup>> prefetched = prefetch_includes( doc );
 
         for (int i=0 ; i<doc.includes_.size() ; ++i)
         {
             ThriftInclude ic = doc.includes_.get(i);
             if ( null == ic.doc_ )
             {
+                check_cancelled();
+                final ThriftParserEvents.Include ev = ThriftParserEvents.beginInclude();
+                String resolvedFrom = "not found";
+                long size = 0;
                 Path found = null;
                 try {
-                    Path bf = docFile.getParent();
-                    final String icSubPath = ic.path_.replace('\\', File.separatorChar);
-
-                    while ( null != bf)
-                    {
-                        Path p  = bf.resolve(  icSubPath );
-                        if ( Files.exists(p) )
-                        {
-                            found = p;
-                            break;
-                        }
-                        bf = bf.getParent();
-                    }
-                    if ( found == null && incudePaths_ != null )
-                    {
-                        for ( String incPath : incudePaths_ )
-                        {
-                            if ( !incPath.isEmpty() )
-                            {
-                                if ( incPath.charAt(incPath.length()-1) != File.separatorChar)
-                                {
-                                    incPath = incPath + File.separatorChar;
-                                }
-                                incPath += icSubPath;
-                                Path p = getPath(incPath);
-                                if ( Files.exists(p) )
-                                {
-                                    found = p;
-                                    break;
-                                }
-                            }
-                        }
-                    }
+                    IncludeLookup lookup = ( prefetched != null )
+                            ? await_include( prefetched.get(i) )
+                            : find_include( docFile, ic, null );
+                    if ( lookup.error_ != null )
+                        throw lookup.error_;
+                    found = lookup.found_;
+                    resolvedFrom = lookup.resolvedFrom_;
                     if ( found != null )
                     {
                         ic.ospath_ = found;
-                        final String uriS = ic.ospath_.toUri().toString();
+                        final String uriS = getDocumentKey( ic.ospath_ );
                         ic.doc_ = loaded_.get(uriS);
                         if ( ic.doc_ == null )
                         {
-                            ic.doc_ = loadDocument( ic.ospath_ );
+                            final byte[] content = ( lookup.content_ != null ) ? lookup.content_ : Files.readAllBytes( ic.ospath_ );
+                            size = content.length;
+                            if ( contents_ != null )
+                            {
+                                final String contentKey = getContentKey( getDocumentName( ic.ospath_.toString() ), content, content.length );
+                                ic.doc_ = contents_.get( contentKey );
+                                if ( ic.doc_ == null )
+                                {
+                                    ic.doc_ = loadDocument( content, ic.ospath_ );
+                                    contents_.put( contentKey, ic.doc_ );
+                                }
+                                else
+                                    resolvedFrom = "identical content";
+                            }
+                            else
+                                ic.doc_ = loadDocument( content, ic.ospath_ );
                             loaded_.put(uriS, ic.doc_ );
                         }
+                        else
+                            resolvedFrom = "already loaded";
                     }
                 }
                 catch (IOException ex)
                 {
-                  ex.printStackTrace();
+                    check_cancelled();
+                    diagnostics_.error( docFile.toString(), ic.line_, ic.column_,
+                            "cannot read include \""+ic.path_+"\": "+ex.toString() );
+                }
+                if ( ev != null )
+                {
+                    ev.end();
+                    if ( ev.shouldCommit() )
+                    {
+                        ev.document = doc.name_;
+                        ev.include  = ic.path_;
+                        ev.resolvedPath = ( found != null ) ? found.toString() : null;
+                        ev.resolvedFrom = resolvedFrom;
+                        ev.size  = size;
+                        ev.types = ( ic.doc_ != null ) ? ic.doc_.all_types_.size() : 0;
+                        ev.commit();
+                    }
                 }
             }
         }
@@ -476,14 +953,165 @@ public final class ThriftModelGenerator
             ThriftInclude ic = doc.includes_.get(i);
             if ( null != ic.doc_ )
             {
-                loadIncludesInternal( ic.doc_ );
+                loadIncludesInternal( ic.doc_, visited );
+            }
+        }
+
+    }
+
+    /**
+     * Locates an include in the directory of the document, its parents and the include paths.
+     * @param known If not null, the content of the found file is read, unless the URI of the file is in the set.
+     */
+    private IncludeLookup find_include( Path docFile, ThriftInclude ic, Set<String> known )
+    {
+        IncludeLookup lookup = new IncludeLookup();
+        Path bf = docFile.getParent();
+        final String icSubPath = ic.path_.replace('\\', File.separatorChar);
+
+        while ( null != bf)
+        {
+            Path p  = bf.resolve(  icSubPath );
+            if ( Files.exists(p) )
+            {
+                lookup.found_ = p;
+                lookup.resolvedFrom_ = ( bf.equals( docFile.getParent() ) ) ? "document directory" : "parent directory";
+                break;
+            }
+            bf = bf.getParent();
+        }
+        IOException archiveError = null;
+        if ( lookup.found_ == null && incudePaths_ != null )
+        {
+            for ( String incPath : incudePaths_ )
+            {
+                if ( !incPath.isEmpty() )
+                {
+                    if ( incPath.charAt(incPath.length()-1) != File.separatorChar)
+                    {
+                        incPath = incPath + File.separatorChar;
+                    }
+                    incPath += icSubPath;
+                    Path p;
+                    try
+                    {
+                        p = lease_.add( getPath(incPath) );
+                    }
+                    catch ( UncheckedIOException ex )
+                    {
+                        // Archive in the include paths can't be opened, reported if the include is not found elsewhere.
+                        archiveError = ex.getCause();
+                        continue;
+                    }
+                    if ( Files.exists(p) )
+                    {
+                        lookup.found_ = p;
+                        lookup.resolvedFrom_ = "include path";
+                        break;
+                    }
+                }
+            }
+        }
+        if ( lookup.found_ == null )
+            lookup.error_ = archiveError;
+        else if ( known != null && !known.contains( getDocumentKey( lookup.found_ ) ) )
+        {
+            try
+            {
+                lookup.content_ = Files.readAllBytes( lookup.found_ );
+            }
+            catch (IOException ex)
+            {
+                lookup.error_ = ex;
             }
         }
+        return lookup;
+    }
+
+    /**
+     * Starts the lookup of all includes of the document on the include executor.
+     * @return The lookups by include index, null if no include executor is set.
+     */
+    private List<Future<IncludeLookup>> prefetch_includes( ThriftDocument doc )
+    {
+        if ( includeExecutor_ == null )
+            return null;
 
+        final Path docFile = doc.ospath_;
+        final Set<String> known = new HashSet<>( loaded_.keySet() );
+        List<Future<IncludeLookup>> lookups = new ArrayList<>( doc.includes_.size() );
+        for ( final ThriftInclude ic : doc.includes_ )
+        {
+            if ( ic.doc_ != null )
+            {
+                lookups.add( null );
+                continue;
+            }
+            FutureTask<IncludeLookup> task = new FutureTask<>( new Callable<IncludeLookup>()
+            {
+                @Override
+                public IncludeLookup call()
+                {
+                    check_cancelled();
+                    return find_include( docFile, ic, known );
+                }
+            });
+            lookups.add( task );
+            includeExecutor_.execute( task );
+        }
+        return lookups;
+    }
+
+    private IncludeLookup await_include( Future<IncludeLookup> lookup ) throws IOException
+    {
+        try
+        {
+            return lookup.get();
+        }
+        catch ( InterruptedException ex )
+        {
+            Thread.currentThread().interrupt();
+            check_cancelled();
+            throw new InterruptedIOException( "interrupted while loading include" );
+        }
+        catch ( ExecutionException ex )
+        {
+            final Throwable c = ex.getCause();
+            if ( c instanceof RuntimeException ) throw (RuntimeException)c;
+            if ( c instanceof Error ) throw (Error)c;
+            throw new IOException( c );
+        }
+    }
+
+    /**
+     * Gets the key of a document file, the same for all relative forms of the path.
+     */
+    static String getDocumentKey( Path ospath )
+    {
+        return ospath.toAbsolutePath().normalize().toUri().toString();
+    }
+
+    /**
+     * Gets the key of a document by content: the name and the SHA-256 of the content.
+     * The name is part of the key, as it is part of the model.
+     */
+    static String getContentKey( String name, byte[] content, int length )
+    {
+        try
+        {
+            MessageDigest md = MessageDigest.getInstance( "SHA-256" );
+            md.update( content, 0, length );
+            return name + '/' + Base64.getEncoder().encodeToString( md.digest() );
+        }
+        catch ( NoSuchAlgorithmException ex )
+        {
+            // Every Java platform has to support SHA-256.
+            throw new IllegalStateException( ex );
+        }
     }
 
     // Gets the name of the document from the file path.
-    private static String getDocumentName( String ospath )
+    static String getDocumentName( String ospath )
     {
        File f = new File(ospath);
        String name = f.getName();
@@ -780,6 +1408,14 @@ public final class ThriftModelGenerator
             }
         }
 
+        if (src.object_index_ != null )
+        {
+            if ( dst.object_index_ != null )
+                dst.object_index_.merge( src.object_index_ );
+            else
+                dst.object_index_ = src.object_index_;
+        }
+
         if (src.unresolved_services_ != null )
         {
             if ( dst.unresolved_services_ != null )
@@ -792,64 +1428,322 @@ public final class ThriftModelGenerator
 
     /**
      * Parses a document from byte buffer.
-     * @param content Textual thrift-document.
+     * @param content Textual thrift-document, the buffer is not kept.
+     * @param length Number of valid bytes in content.
      * @param name Name of document.
+     * @param ospath Path of the document, only used for the metrics.
+     * @param source File name for the diagnostics.
      */
-    private ThriftDocument parseDocument( byte[] content, String name )
+    private ThriftDocument parseDocument( byte[] content, int length, String name, Path ospath, String source )
     {
+        final ThriftParserEvents.ParseDocument ev = ThriftParserEvents.beginParseDocument();
         ThriftDocument doc = null;
+        ThriftDocumentMetrics m = new ThriftDocumentMetrics();
+        m.name_ = name;
+        m.ospath_ = ospath;
+        m.bytes_ = length;
 
-        UniversalDetector detector = new UniversalDetector(null);
-        detector.handleData( content, 0, content.length);
-        detector.dataEnd();
-        String charsetName = detector.getDetectedCharset();
-
-        Charset charset;
-        if (charsetName != null && Charset.isSupported(charsetName))
-            charset = Charset.forName(charsetName);
-        else
-            charset = StandardCharsets.UTF_8;
+        final long t0 = System.nanoTime();
+        Charset charset = detectCharset( content, length );
+        final long t1 = System.nanoTime();
+        m.charset_ = charset;
+        m.detectNs_ = t1-t0;
 
         if (charset != null)
         {
            try
            {
-               doc = generateModel(name, new ThriftLexer(new ANTLRReaderStream(
-                   new InputStreamReader( new ByteArrayInputStream(content),charset ))));
+               ThriftLexer lex = new ThriftLexer(new ANTLRReaderStream(
+                   new InputStreamReader( new ByteArrayInputStream(content, 0, length),charset )));
+               lex.setDiagnostics( diagnostics_, source );
+               m.lexNs_ = System.nanoTime()-t1;
+               doc = generateModel(name, source, lex, m);
            } catch ( IOException e )
            {
-               System.err.println( name+": internal i/o error: "+e.getMessage());
+               diagnostics_.error( source, 0, 0, "internal i/o error: "+e.getMessage() );
            }
         }
         else
         {
-           System.err.println( name+": failed to detect encoding.");
+           diagnostics_.error( source, 0, 0, "failed to detect encoding" );
+        }
+
+        if ( doc != null )
+        {
+            m.unresolvedTypes_ = doc.unresolved_types_.size();
+            m.unresolvedServices_ = doc.unresolved_services_.size();
+        }
+        else
+            m.failed_ = true;
+        metrics_.onDocumentParsed( m );
+
+        if ( ev != null )
+        {
+            ev.end();
+            if ( ev.shouldCommit() )
+            {
+                ev.document = name;
+                ev.size     = m.bytes_;
+                ev.charset  = ( m.charset_ != null ) ? m.charset_.name() : null;
+                ev.tokens   = m.tokens_;
+                ev.comments = m.comments_;
+                ev.unresolvedTypes = m.unresolvedTypes_;
+                ev.failed   = m.failed_;
+                ev.commit();
+            }
         }
 
         return doc;
     }
 
-    private synchronized ThriftDocument generateModel( String name, ThriftLexer lex )
+    /**
+     * Detects the encoding of a textual thrift-document.
+     * @param content The content or the start of it.
+     * @param length The number of valid bytes.
+     * @return The detected charset, UTF-8 if detection failed.
+     */
+    static Charset detectCharset( byte[] content, int length )
+    {
+        UniversalDetector detector = new UniversalDetector(null);
+        detector.handleData( content, 0, length);
+        detector.dataEnd();
+        String charsetName = detector.getDetectedCharset();
+
+        if (charsetName != null && Charset.isSupported(charsetName))
+            return Charset.forName(charsetName);
+        else
+            return StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Lexes, parses and generates the model.
+     * @param source File name for the diagnostics.
+     * @param m Receives the times of the phases and the token counts.
+     */
+    private synchronized ThriftDocument generateModel( String name, String source, ThriftLexer lex, ThriftDocumentMetrics m )
     {
         tokensource_ = new ThriftCommentTokenSource( lex, ThriftLexer.DEFAULT_TOKEN_CHANNEL, ThriftLexer.COMMENT );
-        tokens_ = new CommonTokenStream(tokensource_);
+        CommonTokenStream tokens = new CommonTokenStream(tokensource_);
+        tokens_ = tokens;
         parser_ = new ThriftParser(tokens_);
+        parser_.setDiagnostics( diagnostics_, source );
 
+        final ThriftParserEvents.GenerateModel ev = ThriftParserEvents.beginGenerateModel();
         ThriftDocument d = null;
         doc_ = null;
+
+        final long t0 = System.nanoTime();
+        // Lex the whole input before parsing, so lexer and parser can be measured separately.
+        tokens.fill();
+        final long t1 = System.nanoTime();
+        CommonTree tree = parse_document( tokens, source );
+        final long t2 = System.nanoTime();
+        d = gen_document( name, tree );
+        final long t3 = System.nanoTime();
+
+        m.lexNs_  += t1-t0;
+        m.parseNs_ = t2-t1;
+        m.modelNs_ = t3-t2;
+        m.tokens_   = tokens.getNumberOfOnChannelTokens();
+        m.comments_ = tokensource_.getCommentCount();
+
+        if ( ev != null )
+        {
+            ev.end();
+            if ( ev.shouldCommit() )
+            {
+                ev.document = name;
+                ev.tokens   = m.tokens_;
+                if ( d != null )
+                {
+                    ev.packages = d.all_packages_.size();
+                    ev.types    = d.all_types_.size();
+                    ev.services = d.all_services_.size();
+                }
+                ev.commit();
+            }
+        }
+
+        tokens_ = null;
+        tokensource_  = null;
+        return d;
+    }
+
+    /**
+     * Generates the model from an already parsed syntax tree.
+     * Used to measure the model generation separately.
+     * @param comments The token source used to parse the tree. The collected comments are consumed.
+     */
+    synchronized ThriftDocument generateModel( String name, CommonTree tree, ThriftCommentTokenSource comments )
+    {
+        tokensource_ = comments;
         try
         {
-            d = gen_document( name, (CommonTree)parser_.document().getTree() );
+            return gen_document( name, tree );
+        }
+        finally
+        {
+            tokensource_ = null;
         }
-        catch (RecognitionException ex)
+    }
+
+    /**
+     * Parses the document header by header and definition by definition.
+     * Packages are entered and left here, so their content is handled the same way.
+     * A header or definition with a syntax error is dropped and the parser resynchronizes
+     * at the next top-level definition, so the rest of the document still produces a model.
+     * @return The same tree as the "document" rule of the parser.
+     */
+    private CommonTree parse_document( CommonTokenStream tokens, String source )
+    {
+        final CommonTree root = new CommonTree( new CommonToken( ThriftParser.DOCUMENT_, "DOCUMENT_" ) );
+        final ArrayList<CommonTree> scopes = new ArrayList<>();
+        CommonTree scope = root;
+
+        while ( true )
         {
+            check_cancelled();
+            final Token t = tokens.LT(1);
+            final int type = t.getType();
+            if ( type == Token.EOF )
+                break;
 
-          ex.printStackTrace();
+            if ( type == ThriftParser.PACKAGE && tokens.LA(2) == ThriftParser.IDENTIFIER && tokens.LA(3) == ThriftParser.LCURLY )
+            {
+                CommonTree p = new CommonTree( t );
+                p.addChild( new CommonTree( tokens.LT(2) ) );
+                tokens.consume();
+                tokens.consume();
+                tokens.consume();
+                scope.addChild( p );
+                scopes.add( scope );
+                scope = p;
+                continue;
+            }
+            if ( type == ThriftParser.RCURLY && !scopes.isEmpty() )
+            {
+                tokens.consume();
+                if ( tokens.LA(1) == ThriftParser.COMMA || tokens.LA(1) == ThriftParser.SEMICOLON )
+                    tokens.consume();
+                scope = scopes.remove( scopes.size()-1 );
+                continue;
+            }
+
+            final int start = tokens.index();
+            final int errors = parser_.getNumberOfSyntaxErrors();
+            CommonTree dt = null;
+            try
+            {
+                if ( is_header_start( t ) )
+                    dt = parser_.header().getTree();
+                else
+                    dt = parser_.definition().getTree();
+            }
+            catch (RecognitionException ex)
+            {
+                diagnostics_.error( source, ex.line-1, ex.charPositionInLine, parser_.getErrorMessage( ex, parser_.getTokenNames() ) );
+            }
+
+            if ( dt != null && ( errors == parser_.getNumberOfSyntaxErrors() || !has_error_nodes( dt ) ) )
+            {
+                // Without errors or repaired by the parser.
+                scope.addChild( dt );
+            }
+            else
+            {
+                tokens.seek( start );
+                skip_definition( tokens );
+                parser_.endErrorRecovery();
+            }
         }
+        if ( !scopes.isEmpty() )
+            diagnostics_.error( source, tokens.LT(1).getLine()-1, tokens.LT(1).getCharPositionInLine(), "missing '}' at end of package" );
+        return root;
+    }
 
-        tokens_ = null;
-        tokensource_  = null;
-        return d;
+    /**
+     * Returns true if the token starts a header (include, namespace, cpp_include).
+     */
+    static boolean is_header_start( Token t )
+    {
+        switch ( t.getType() )
+        {
+            case ThriftParser.INCLUDE:
+            case ThriftParser.NAMESPACE:
+                return true;
+            default:
+                final String text = t.getText();
+                return "cpp_include".equals(text) || "cpp_namespace".equals(text) || "php_namespace".equals(text);
+        }
+    }
+
+    /**
+     * Returns true if the token can only appear at the start of a header or top-level definition.
+     */
+    static boolean is_definition_start( Token t )
+    {
+        switch ( t.getType() )
+        {
+            case ThriftParser.PACKAGE:
+            case ThriftParser.CONST:
+            case ThriftParser.TYPEDEF:
+            case ThriftParser.ENUM:
+            case ThriftParser.SENUM:
+            case ThriftParser.STRUCT:
+            case ThriftParser.UNION:
+            case ThriftParser.EXCEPTION:
+            case ThriftParser.SERVICE:
+                return true;
+            default:
+                return is_header_start( t );
+        }
+    }
+
+    /**
+     * Skips the broken header or definition at the current position.
+     * Stops before the next header or definition, behind the closing brace of
+     * the definition or before the closing brace of an enclosing package.
+     * At least one token is skipped.
+     */
+    static void skip_definition( TokenStream tokens )
+    {
+        int depth = 0;
+        tokens.consume();
+        while ( true )
+        {
+            final Token t = tokens.LT(1);
+            final int type = t.getType();
+            if ( type == Token.EOF || is_definition_start( t ) )
+                return;
+            if ( type == ThriftParser.LCURLY )
+                ++depth;
+            else if ( type == ThriftParser.RCURLY )
+            {
+                if ( depth == 0 )
+                    return;
+                if ( --depth == 0 )
+                {
+                    tokens.consume();
+                    if ( tokens.LA(1) == ThriftParser.COMMA || tokens.LA(1) == ThriftParser.SEMICOLON )
+                        tokens.consume();
+                    return;
+                }
+            }
+            tokens.consume();
+        }
+    }
+
+    /**
+     * Returns true if the tree contains nodes created by the error recovery of the parser.
+     */
+    static boolean has_error_nodes( Tree dt )
+    {
+        if ( dt instanceof CommonErrorNode || dt.getType() == Token.INVALID_TOKEN_TYPE )
+            return true;
+        for ( int i=0 ; i<dt.getChildCount() ; ++i )
+            if ( has_error_nodes( dt.getChild(i) ) )
+                return true;
+        return false;
     }
 
     private ThriftDocument gen_document( String name, CommonTree dt )
@@ -871,6 +1765,8 @@ public final class ThriftModelGenerator
         d.unresolved_services_= new ArrayList<>();
         d.types_ = new ArrayList<>();
         d.all_types_ = new HashMap<String, ThriftType>();
+        if ( objectIndexEnabled_ )
+            d.object_index_ = new ThriftObjectIndex();
         // Add all default types to list
         d.all_types_.put(ThriftType.VOID  .name_fully_qualified_, ThriftType.VOID );
         d.all_types_.put(ThriftType.BOOL  .name_fully_qualified_, ThriftType.BOOL );
@@ -978,6 +1874,8 @@ public final class ThriftModelGenerator
                    obj.annotations_.put( ma.group(1), ma.group(2).trim() );
                }
            }
+           if ( doc_.object_index_ != null )
+               doc_.object_index_.add( obj );
         }
     }
 
@@ -1028,7 +1926,7 @@ public final class ThriftModelGenerator
         return tp;
     }
 
-    private long get_integer( CommonTree dt )
+    static long get_integer( CommonTree dt )
     {
         if ( null != dt )
         {
@@ -1054,7 +1952,7 @@ public final class ThriftModelGenerator
         return Long.MIN_VALUE;
     }
 
-    private ThriftFunctionMode get_function_mode( CommonTree dt)
+    static ThriftFunctionMode get_function_mode( CommonTree dt)
     {
        if ( dt.getChildCount() > 3 )
        {
@@ -1076,7 +1974,7 @@ public final class ThriftModelGenerator
     }
 
 
-    private String get_identifier( CommonTree dt )
+    static String get_identifier( CommonTree dt )
     {
         CommonTree idT = (CommonTree)dt.getFirstChildWithType(ThriftParser.IDENTIFIER);
         return ( null != idT ) ? idT.getText() : "";
@@ -1340,6 +2238,16 @@ public final class ThriftModelGenerator
         if ( 2 <= dt.getChildCount() )
             f.type_ = gen_fieldtype( (CommonTree)dt.getChild(1) );
         f.id_ = (int)get_integer( (CommonTree)dt.getFirstChildWithType( ThriftParser.FIELD_ID_ ) );
+
+        CommonTree req = (CommonTree)dt.getFirstChildWithType( ThriftParser.REQUIREDNESS_ );
+        if ( req != null && req.getChildCount() > 0 )
+        {
+            switch ( req.getChild(0).getType() )
+            {
+                case ThriftParser.REQUIRED: f.requiredness_ = ThriftFieldRequiredness.REQUIRED; break;
+                case ThriftParser.OPTIONAL: f.requiredness_ = ThriftFieldRequiredness.OPTIONAL; break;
+            }
+        }
         return f;
     }
 
@@ -0,0 +1,80 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+import bweng.thrift.parser.model.ThriftFunctionMode;
+
+/**
+ * Receives the definitions of a thrift-document while it is parsed by {@link ThriftEventParser}.<p>
+ * Names, fully qualified names, lines (0-based) and columns are the same as
+ * in the model created by {@link ThriftModelGenerator}.
+ * Type names are given as declared, base types with the names of the model
+ * (e.g. "int32"), containers as "list&lt;T&gt;", "set&lt;T&gt;" and "map&lt;K,V&gt;".
+ * References are not resolved.<br>
+ * Comments are given as collected by the generator, an empty string if none.
+ * @see ThriftModelListenerAdapter
+ */
+public interface ThriftModelListener
+{
+    /** Kind of a struct-like definition. */
+    public enum StructKind
+    {
+        STRUCT,
+        UNION,
+        EXCEPTION
+    }
+
+    /** Kind of a field. */
+    public enum FieldKind
+    {
+        /** Member of a struct, union or exception. */
+        MEMBER,
+        /** Parameter of a function. */
+        PARAMETER,
+        /** Declared exception of a function. */
+        EXCEPTION
+    }
+
+    void onDocumentStart( String name );
+    void onDocumentEnd( String name );
+
+    void onInclude( String path, int line, int column );
+
+    void onPackageStart( String name, String fqname, int line, int column, String comment );
+    void onPackageEnd( String fqname );
+
+    void onTypedef( String name, String fqname, String typeName, int line, int column, String comment );
+
+    void onEnum( String name, String fqname, int line, int column, String comment );
+    void onEnumValue( String name, int value, int line, int column );
+    void onEnumEnd( String fqname );
+
+    /**
+     * Called for a struct, union or exception.
+     * The fields follow as {@link FieldKind#MEMBER} until {@link #onStructEnd}.
+     */
+    void onStruct( StructKind kind, String name, String fqname, int line, int column, String comment );
+    void onStructEnd( StructKind kind, String fqname );
+
+    /**
+     * Called for each field.
+     * @param id The declared id, 0 if none (same as the model).
+     */
+    void onField( FieldKind kind, int id, String name, String typeName, int line, int column, String comment );
+
+    /**
+     * Called for a service.
+     * The functions follow until {@link #onServiceEnd}.
+     * @param extendsName The declared name of the extended service or null.
+     */
+    void onService( String name, String fqname, String extendsName, int line, int column, String comment );
+    void onServiceEnd( String fqname );
+
+    /**
+     * Called for each function of a service.
+     * Parameters and exceptions follow as {@link FieldKind#PARAMETER} and {@link FieldKind#EXCEPTION}.
+     */
+    void onFunction( String name, ThriftFunctionMode mode, String returnTypeName, int line, int column, String comment );
+}
@@ -0,0 +1,58 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+import bweng.thrift.parser.model.ThriftFunctionMode;
+
+/**
+ * Listener with empty implementations of all callbacks.
+ */
+public class ThriftModelListenerAdapter implements ThriftModelListener
+{
+    @Override
+    public void onDocumentStart( String name ) {}
+
+    @Override
+    public void onDocumentEnd( String name ) {}
+
+    @Override
+    public void onInclude( String path, int line, int column ) {}
+
+    @Override
+    public void onPackageStart( String name, String fqname, int line, int column, String comment ) {}
+
+    @Override
+    public void onPackageEnd( String fqname ) {}
+
+    @Override
+    public void onTypedef( String name, String fqname, String typeName, int line, int column, String comment ) {}
+
+    @Override
+    public void onEnum( String name, String fqname, int line, int column, String comment ) {}
+
+    @Override
+    public void onEnumValue( String name, int value, int line, int column ) {}
+
+    @Override
+    public void onEnumEnd( String fqname ) {}
+
+    @Override
+    public void onStruct( StructKind kind, String name, String fqname, int line, int column, String comment ) {}
+
+    @Override
+    public void onStructEnd( StructKind kind, String fqname ) {}
+
+    @Override
+    public void onField( FieldKind kind, int id, String name, String typeName, int line, int column, String comment ) {}
+
+    @Override
+    public void onService( String name, String fqname, String extendsName, int line, int column, String comment ) {}
+
+    @Override
+    public void onServiceEnd( String fqname ) {}
+
+    @Override
+    public void onFunction( String name, ThriftFunctionMode mode, String returnTypeName, int line, int column, String comment ) {}
+}
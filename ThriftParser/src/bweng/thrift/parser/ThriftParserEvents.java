@@ -0,0 +1,241 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events of the parser stages.<p>
+ * The events are only created if the VM supports JFR and the event is enabled
+ * in the recording, the begin methods return null otherwise.
+ * All events are in the category "Thrift Parser".<br>
+ * On VMs without the jdk.jfr module, {@link #AVAILABLE} disables the events.
+ */
+final class ThriftParserEvents
+{
+    private ThriftParserEvents()
+    {
+    }
+
+    /** True if the VM supports JFR. */
+    static final boolean AVAILABLE = isAvailable();
+
+    private static boolean isAvailable()
+    {
+        try
+        {
+            Class.forName( "jdk.jfr.Event" );
+            return true;
+        }
+        catch ( ClassNotFoundException | LinkageError e )
+        {
+            return false;
+        }
+    }
+
+    @Name("bweng.thrift.parser.LoadDocument")
+    @Label("Load Document")
+    @Category("Thrift Parser")
+    @Description("Reads and parses a thrift file")
+    static final class LoadDocument extends Event
+    {
+        @Label("Document")
+        String document;
+
+        @Label("Path")
+        String path;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        @Label("Types")
+        int types;
+
+        @Label("Services")
+        int services;
+    }
+
+    @Name("bweng.thrift.parser.ParseDocument")
+    @Label("Parse Document")
+    @Category("Thrift Parser")
+    @Description("Detects the encoding, lexes, parses and generates the model of a document")
+    static final class ParseDocument extends Event
+    {
+        @Label("Document")
+        String document;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        @Label("Charset")
+        String charset;
+
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Comments")
+        int comments;
+
+        @Label("Unresolved Types")
+        int unresolvedTypes;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("bweng.thrift.parser.GenerateModel")
+    @Label("Generate Model")
+    @Category("Thrift Parser")
+    @Description("Lexes and parses a document and generates the model from the syntax tree")
+    static final class GenerateModel extends Event
+    {
+        @Label("Document")
+        String document;
+
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Packages")
+        int packages;
+
+        @Label("Types")
+        int types;
+
+        @Label("Services")
+        int services;
+    }
+
+    @Name("bweng.thrift.parser.Include")
+    @Label("Include")
+    @Category("Thrift Parser")
+    @Description("Locates and loads one include of a document")
+    static final class Include extends Event
+    {
+        @Label("Document")
+        String document;
+
+        @Label("Include")
+        String include;
+
+        @Label("Resolved Path")
+        String resolvedPath;
+
+        @Label("Resolved From")
+        @Description("Directory of the document or a parent, include path, already loaded or not found")
+        String resolvedFrom;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        @Label("Types")
+        int types;
+    }
+
+    @Name("bweng.thrift.parser.ResolveReferences")
+    @Label("Resolve References")
+    @Category("Thrift Parser")
+    @Description("Collects or resolves the type and service references of a document and its includes")
+    static final class ResolveReferences extends Event
+    {
+        @Label("Document")
+        String document;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Global Types")
+        int types;
+
+        @Label("Global Services")
+        int services;
+
+        @Label("Unresolved Types")
+        int unresolvedTypes;
+
+        @Label("Unresolved Services")
+        int unresolvedServices;
+    }
+
+    @Name("bweng.thrift.parser.Merge")
+    @Label("Merge Documents")
+    @Category("Thrift Parser")
+    @Description("Merges a document into another, e.g. the entries of a zip-archive")
+    static final class Merge extends Event
+    {
+        @Label("Document")
+        String document;
+
+        @Label("Merged")
+        String merged;
+
+        @Label("Types")
+        int types;
+
+        @Label("Services")
+        int services;
+    }
+
+    static LoadDocument beginLoadDocument()
+    {
+        if ( !AVAILABLE ) return null;
+        LoadDocument e = new LoadDocument();
+        if ( !e.isEnabled() ) return null;
+        e.begin();
+        return e;
+    }
+
+    static ParseDocument beginParseDocument()
+    {
+        if ( !AVAILABLE ) return null;
+        ParseDocument e = new ParseDocument();
+        if ( !e.isEnabled() ) return null;
+        e.begin();
+        return e;
+    }
+
+    static GenerateModel beginGenerateModel()
+    {
+        if ( !AVAILABLE ) return null;
+        GenerateModel e = new GenerateModel();
+        if ( !e.isEnabled() ) return null;
+        e.begin();
+        return e;
+    }
+
+    static Include beginInclude()
+    {
+        if ( !AVAILABLE ) return null;
+        Include e = new Include();
+        if ( !e.isEnabled() ) return null;
+        e.begin();
+        return e;
+    }
+
+    static ResolveReferences beginResolveReferences()
+    {
+        if ( !AVAILABLE ) return null;
+        ResolveReferences e = new ResolveReferences();
+        if ( !e.isEnabled() ) return null;
+        e.begin();
+        return e;
+    }
+
+    static Merge beginMerge()
+    {
+        if ( !AVAILABLE ) return null;
+        Merge e = new Merge();
+        if ( !e.isEnabled() ) return null;
+        e.begin();
+        return e;
+    }
+}
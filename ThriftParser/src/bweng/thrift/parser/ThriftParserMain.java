@@ -4,12 +4,21 @@
  */
 package bweng.thrift.parser;
 
+import bweng.thrift.parser.daemon.ThriftParserClient;
+import bweng.thrift.parser.daemon.ThriftParserDaemon;
 import bweng.thrift.parser.model.ThriftDocument;
+import bweng.thrift.parser.model.ThriftFootprint;
 import bweng.thrift.parser.model.ThriftFunction;
 import bweng.thrift.parser.model.ThriftPackage;
+import bweng.thrift.parser.model.ThriftSchemaDiff;
 import bweng.thrift.parser.model.ThriftService;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.List;
 import org.antlr.runtime.RecognitionException;
 
 /**
@@ -19,7 +28,11 @@ public class ThriftParserMain {
 
     public static void help()
     {
-        System.err.println("Missing or wrong arguments\nThriftParser.jar [-i includepath] FILE");
+        System.err.println("Missing or wrong arguments\nThriftParser.jar [-i includepath] [-metrics] [-footprint] [-threads N] FILE|DIR\n"+
+                "ThriftParser.jar [-i includepath] -batch [-threads N] [-csv FILE] [-summary FILE] FILE|DIR|GLOB...\n"+
+                "ThriftParser.jar [-i includepath] -diff [-threads N] OLD NEW  (exit 1: differences, 2: error)\n"+
+                "ThriftParser.jar [-i includepath] -daemon [-port N]\n"+
+                "ThriftParser.jar -connect [-port N] FILE | -stop [-port N]");
         System.exit(-1);
     }
 
@@ -30,6 +43,18 @@ public class ThriftParserMain {
         {
             String file = null;
             ArrayList<String> includeDirs = new ArrayList<>();
+            boolean batch = false;
+            int threads = Runtime.getRuntime().availableProcessors();
+            String csvFile = null;
+            String summaryFile = null;
+            ArrayList<String> inputs = new ArrayList<>();
+            boolean daemon = false;
+            boolean connect = false;
+            boolean stop = false;
+            boolean metrics = false;
+            boolean footprint = false;
+            boolean diff = false;
+            int port = ThriftParserDaemon.DEFAULT_PORT;
 
             for (int i = 0 ; i<args.length ; ++i )
             {
@@ -43,16 +68,115 @@ public class ThriftParserMain {
                         help();
 
                 }
+                else if( a.equalsIgnoreCase("-batch") )
+                {
+                    batch = true;
+                }
+                else if( a.equalsIgnoreCase("-daemon") )
+                {
+                    daemon = true;
+                }
+                else if( a.equalsIgnoreCase("-connect") )
+                {
+                    connect = true;
+                }
+                else if( a.equalsIgnoreCase("-stop") )
+                {
+                    stop = true;
+                }
+                else if( a.equalsIgnoreCase("-metrics") )
+                {
+                    metrics = true;
+                }
+                else if( a.equalsIgnoreCase("-footprint") )
+                {
+                    footprint = true;
+                }
+                else if( a.equalsIgnoreCase("-diff") )
+                {
+                    diff = true;
+                }
+                else if( a.equalsIgnoreCase("-threads") || a.equalsIgnoreCase("-port") || a.equalsIgnoreCase("-csv") || a.equalsIgnoreCase("-summary") )
+                {
+                     ++i;
+                     if ( i >= args.length )
+                        help();
+                     else if ( a.equalsIgnoreCase("-threads") || a.equalsIgnoreCase("-port") )
+                     {
+                        try
+                        {
+                            if ( a.equalsIgnoreCase("-port") )
+                                port = Integer.parseInt( args[i] );
+                            else
+                                threads = Integer.parseInt( args[i] );
+                        }
+                        catch (NumberFormatException nfe)
+                        {
+                            help();
+                        }
+                     }
+                     else if ( a.equalsIgnoreCase("-csv") )
+                        csvFile = args[i];
+                     else
+                        summaryFile = args[i];
+                }
                 else
                 {
                     file = a;
+                    inputs.add( a );
+                }
+            }
+            if ( daemon )
+            {
+                ThriftParserDaemon d = new ThriftParserDaemon( port, includeDirs );
+                System.out.println( "Daemon listening on port " + d.getPort() );
+                d.run();
+            }
+            else if ( stop )
+            {
+                try ( ThriftParserClient client = new ThriftParserClient( port ) )
+                {
+                    client.shutdown();
+                }
+            }
+            else if ( connect )
+            {
+                if ( file == null )
+                    help();
+                try ( ThriftParserClient client = new ThriftParserClient( port ) )
+                {
+                    // The daemon may run in another working directory.
+                    Path p = ThriftModelGenerator.getPath(file);
+                    ThriftDocument doc = client.parse( p.getFileSystem() == FileSystems.getDefault() ? p.toAbsolutePath().toString() : file, true );
+                    System.out.println( doc.toString() );
+                    System.out.println( "Finished. Time needed "+(System.currentTimeMillis()-time)+"ms"+(client.wasCached() ? " (cached)" : "") );
                 }
             }
-            if ( file != null )
+            else if ( diff )
+            {
+                if ( inputs.size() != 2 )
+                    help();
+                final int status = runDiff( inputs.get(0), inputs.get(1), includeDirs, threads );
+                if ( status != 0 )
+                    System.exit( status );
+            }
+            else if ( batch )
+            {
+                if ( inputs.isEmpty() )
+                    help();
+                runBatch( inputs, includeDirs, threads, csvFile, summaryFile );
+            }
+            else if ( file != null )
             {
                 String fupper = file.toUpperCase();
                 System.out.println( "Loading " + file );
                 ThriftModelGenerator gen = new ThriftModelGenerator(includeDirs);
+                ThriftMetricsCollector collector = null;
+                if ( metrics )
+                {
+                    collector = new ThriftMetricsCollector();
+                    gen.setMetricsListener( collector );
+                }
                 if ( fupper.endsWith(".ZIP") || fupper.endsWith(".JAR") )
                 {
                    ThriftDocument doc = gen.loadZipArchive(gen.getPath(file) );
@@ -65,6 +189,8 @@ public class ThriftParserMain {
                         System.out.println("  services "+ doc.all_services_.size()+"\n  types "+doc.all_types_.size() );
                         System.out.println("  unresolved types: "+doc.unresolved_types_.size() );
                         System.out.println("  unresolved services: "+doc.unresolved_services_.size() );
+                        if ( footprint )
+                            System.out.print( ThriftFootprint.analyze( doc ).toString() );
 
                         if ( doc.all_packages_ != null && !doc.all_packages_.isEmpty() )
                         {
@@ -94,12 +220,26 @@ public class ThriftParserMain {
                         }
                    }
                 }
+                else if ( Files.isDirectory( ThriftModelGenerator.getPath(file) ) )
+                {
+                   ThriftWorkspace ws = gen.loadDirectory( ThriftModelGenerator.getPath(file), null, true, threads );
+                   System.out.println("Finished. Time needed "+(System.currentTimeMillis()-time)+"ms"  );
+                   System.out.println("  documents "+ws.getDocuments().size()+"\n  included documents "+ws.getIncludedDocuments().size() );
+                   System.out.println("  services "+ws.getServices().size()+"\n  types "+ws.getTypes().size() );
+                   System.out.println("  unresolved types: "+ws.getUnresolvedTypeCount() );
+                   if ( footprint )
+                       System.out.print( ThriftFootprint.analyze( ws.getDocuments() ).toString() );
+                }
                 else
                 {
                    ThriftDocument doc = gen.loadDocument(ThriftModelGenerator.getPath(file) );
                    gen.loadIncludes( doc, true );
                    System.out.println(doc.toString() );
+                   if ( footprint )
+                       System.out.print( ThriftFootprint.analyze( doc ).toString() );
                 }
+                if ( collector != null )
+                    System.out.print( collector.toString() );
             }
             else
             {
@@ -111,5 +251,112 @@ public class ThriftParserMain {
         {
             ex.printStackTrace();
         }
+        catch (UncheckedIOException ex)
+        {
+            ex.getCause().printStackTrace();
+        }
+    }
+
+    /**
+     * Compares two files or two directories and prints the differences.
+     * @return The exit status: 0 if there are no differences, 1 if there are differences
+     *         and 2 if the inputs could not be compared.
+     */
+    private static int runDiff( String oldInput, String newInput, List<String> includeDirs, int threads )
+    {
+        ThriftModelGenerator gen = new ThriftModelGenerator(includeDirs);
+        Path oldPath = ThriftModelGenerator.getPath(oldInput);
+        Path newPath = ThriftModelGenerator.getPath(newInput);
+        ThriftSchemaDiff d;
+        long time;
+        if ( Files.isDirectory( oldPath ) && Files.isDirectory( newPath ) )
+        {
+            ThriftWorkspace o = loadDiffInput( gen, oldPath, threads );
+            ThriftWorkspace n = loadDiffInput( gen, newPath, threads );
+            if ( o == null || n == null )
+                return 2;
+            time = System.currentTimeMillis();
+            d = ThriftSchemaDiff.compare( o.getTypes(), o.getServices(), n.getTypes(), n.getServices() );
+        }
+        else if ( !Files.isDirectory( oldPath ) && !Files.isDirectory( newPath ) )
+        {
+            ThriftDocument o = loadDiffInput( gen, oldPath );
+            ThriftDocument n = loadDiffInput( gen, newPath );
+            if ( o == null || n == null )
+                return 2;
+            time = System.currentTimeMillis();
+            d = ThriftSchemaDiff.compare( o, n );
+        }
+        else
+        {
+            System.err.println( "Can't compare a file with a directory" );
+            return 2;
+        }
+        System.out.print( d.toString( Integer.MAX_VALUE ) );
+        System.out.println( "Compared in "+(System.currentTimeMillis()-time)+"ms" );
+        return d.isEmpty() ? 0 : 1;
+    }
+
+    /**
+     * Loads a file and its includes for runDiff.
+     * @return The document or null after printing why it failed.
+     */
+    private static ThriftDocument loadDiffInput( ThriftModelGenerator gen, Path path )
+    {
+        try
+        {
+            ThriftDocument doc = gen.loadDocument( path );
+            if ( doc == null )
+            {
+                System.err.println( "Failed to parse "+path );
+                return null;
+            }
+            gen.loadIncludes( doc, false );
+            return doc;
+        }
+        catch ( IOException | UncheckedIOException ex )
+        {
+            System.err.println( "Failed to load "+path+": "+ex );
+            return null;
+        }
+    }
+
+    /**
+     * Loads a directory for runDiff.
+     * @return The workspace or null after printing why it failed.
+     */
+    private static ThriftWorkspace loadDiffInput( ThriftModelGenerator gen, Path path, int threads )
+    {
+        try
+        {
+            return gen.loadDirectory( path, null, false, threads );
+        }
+        catch ( UncheckedIOException ex )
+        {
+            System.err.println( "Failed to load "+path+": "+ex );
+            return null;
+        }
+    }
+
+    private static void runBatch( List<String> inputs, List<String> includeDirs, int threads, String csvFile, String summaryFile ) throws IOException
+    {
+        List<Path> files = ThriftBatchRunner.collectFiles( inputs );
+        System.out.println( "Processing " + files.size() + " files with " + threads + " threads" );
+
+        ThriftBatchRunner runner = new ThriftBatchRunner( includeDirs, threads );
+        try
+        {
+            runner.run( files );
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        runner.printSummary( System.out );
+        if ( csvFile != null )
+            runner.writeCsv( ThriftModelGenerator.getPath(csvFile) );
+        if ( summaryFile != null )
+            runner.appendSummary( ThriftModelGenerator.getPath(summaryFile) );
     }
 }
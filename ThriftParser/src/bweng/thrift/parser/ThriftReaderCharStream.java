@@ -0,0 +1,232 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import org.antlr.runtime.CharStream;
+
+/**
+ * CharStream that reads from a Reader and keeps only a window of the input.<p>
+ * Other than ANTLRReaderStream the content is not read completely into memory.
+ * Characters before the current position are dropped by {@link #compact()},
+ * so the text of tokens has to be fetched before.<br>
+ * Errors of the reader are thrown as UncheckedIOException.
+ */
+final class ThriftReaderCharStream implements CharStream
+{
+    private final Reader reader_;
+    private final String name_;
+
+    private char[] data_ = new char[16*1024];
+    // Absolute index of data_[0].
+    private int base_ = 0;
+    // Number of valid characters in data_.
+    private int n_ = 0;
+    private boolean eof_ = false;
+
+    // Absolute index of the current character.
+    private int p_ = 0;
+    private int line_ = 1;
+    private int charPositionInLine_ = 0;
+
+    private int markDepth_ = 0;
+    private int lastMarker_;
+    // Position, line and char position of each marker.
+    private final ArrayList<int[]> markers_ = new ArrayList<>();
+
+    ThriftReaderCharStream( Reader reader, String name )
+    {
+        reader_ = reader;
+        name_ = name;
+    }
+
+    /**
+     * Drops all characters before the current position if no marker is set.
+     */
+    void compact()
+    {
+        final int drop = p_ - base_;
+        if ( markDepth_ == 0 && drop > (data_.length/2) )
+        {
+            System.arraycopy(data_, drop, data_, 0, n_-drop );
+            n_ -= drop;
+            base_ = p_;
+        }
+    }
+
+    // Reads until the absolute index is available or the input ends.
+    private boolean fill( int index )
+    {
+        while ( index >= base_+n_ )
+        {
+            if ( eof_ ) return false;
+            if ( n_ == data_.length )
+            {
+                char[] nd = new char[data_.length*2];
+                System.arraycopy(data_, 0, nd, 0, n_ );
+                data_ = nd;
+            }
+            try
+            {
+                int r = reader_.read(data_, n_, data_.length-n_);
+                if ( r < 0 )
+                    eof_ = true;
+                else
+                    n_ += r;
+            }
+            catch (IOException ex)
+            {
+                // CharStream can't throw checked exceptions, unwrapped by ThriftEventParser.
+                throw new UncheckedIOException( ex );
+            }
+        }
+        return index >= base_;
+    }
+
+    @Override
+    public void consume()
+    {
+        if ( fill(p_) )
+        {
+            ++charPositionInLine_;
+            if ( data_[p_-base_] == '\n' )
+            {
+                ++line_;
+                charPositionInLine_ = 0;
+            }
+            ++p_;
+        }
+    }
+
+    @Override
+    public int LA( int i )
+    {
+        if ( i == 0 ) return 0;
+        if ( i < 0 )
+        {
+            ++i;
+            if ( (p_+i-1) < 0 ) return CharStream.EOF;
+        }
+        final int idx = p_+i-1;
+        if ( !fill(idx) ) return CharStream.EOF;
+        return data_[idx-base_];
+    }
+
+    @Override
+    public int LT( int i )
+    {
+        return LA(i);
+    }
+
+    @Override
+    public String substring( int start, int stop )
+    {
+        fill(stop);
+        if ( start < base_ ) start = base_;
+        if ( stop >= base_+n_ ) stop = base_+n_-1;
+        return new String(data_, start-base_, stop-start+1);
+    }
+
+    @Override
+    public int getLine()
+    {
+        return line_;
+    }
+
+    @Override
+    public void setLine( int line )
+    {
+        line_ = line;
+    }
+
+    @Override
+    public void setCharPositionInLine( int pos )
+    {
+        charPositionInLine_ = pos;
+    }
+
+    @Override
+    public int getCharPositionInLine()
+    {
+        return charPositionInLine_;
+    }
+
+    @Override
+    public int mark()
+    {
+        ++markDepth_;
+        int[] state;
+        if ( markDepth_ > markers_.size() )
+        {
+            state = new int[3];
+            markers_.add(state);
+        }
+        else
+            state = markers_.get(markDepth_-1);
+        state[0] = p_;
+        state[1] = line_;
+        state[2] = charPositionInLine_;
+        lastMarker_ = markDepth_;
+        return markDepth_;
+    }
+
+    @Override
+    public int index()
+    {
+        return p_;
+    }
+
+    @Override
+    public void rewind( int marker )
+    {
+        int[] state = markers_.get(marker-1);
+        seek(state[0]);
+        line_ = state[1];
+        charPositionInLine_ = state[2];
+        release(marker);
+    }
+
+    @Override
+    public void rewind()
+    {
+        rewind(lastMarker_);
+    }
+
+    @Override
+    public void release( int marker )
+    {
+        markDepth_ = marker-1;
+    }
+
+    @Override
+    public void seek( int index )
+    {
+        if ( index <= p_ )
+        {
+            p_ = index;
+            return;
+        }
+        while ( p_ < index && fill(p_) )
+            consume();
+    }
+
+    /**
+     * Gets the number of characters read so far.
+     */
+    @Override
+    public int size()
+    {
+        return base_+n_;
+    }
+
+    @Override
+    public String getSourceName()
+    {
+        return name_;
+    }
+}
@@ -0,0 +1,30 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+/**
+ * Metrics of the include and type resolution of a document. All times in nanoseconds.
+ * @see ThriftMetricsListener#onReferencesResolved(ThriftResolveMetrics)
+ */
+public final class ThriftResolveMetrics
+{
+    /** Name of the root document. */
+    public String name_;
+
+    /** Number of documents, the root document and all included documents. */
+    public int documents_;
+
+    /** Time to locate and load the includes, including the parsing of the included documents. */
+    public long includeNs_;
+
+    /** Time of the type and service resolution. */
+    public long resolveNs_;
+
+    /** Number of types that are still unresolved in all documents. */
+    public int unresolvedTypes_;
+
+    /** Number of services that are still unresolved in all documents. */
+    public int unresolvedServices_;
+}
@@ -0,0 +1,176 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+import bweng.thrift.parser.model.*;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Replaces structurally identical container types by one shared instance.<p>
+ * Two containers are identical if they are of the same kind and their element
+ * types are the same instances, after resolved type-references are followed
+ * and nested containers are canonical. Type-definitions are kept as element
+ * types, so "list&lt;MyInt&gt;" and "list&lt;i32&gt;" stay different.
+ * Containers with unresolved elements are not shared.<p>
+ * The shared instance is the first use found, with its position, comment and document.
+ */
+final class ThriftTypeCanonicalizer
+{
+    /**
+     * Identity of a container type.
+     */
+    private static final class Key
+    {
+        final int kind_;
+        final ThriftType key_;
+        final ThriftType value_;
+
+        Key( int kind, ThriftType key, ThriftType value )
+        {
+            kind_ = kind;
+            key_ = key;
+            value_ = value;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (kind_*31 + System.identityHashCode(key_))*31 + System.identityHashCode(value_);
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( !(o instanceof Key) )
+                return false;
+            Key k = (Key)o;
+            return kind_ == k.kind_ && key_ == k.key_ && value_ == k.value_;
+        }
+    }
+
+    private static final int LIST = 1;
+    private static final int SET  = 2;
+    private static final int MAP  = 3;
+
+    private final Map<Key, ThriftType> canonical_ = new HashMap<>();
+    // Containers already known as canonical.
+    private final Set<ThriftType> shared_ = Collections.newSetFromMap( new IdentityHashMap<ThriftType, Boolean>() );
+    private final Set<ThriftDocument> visited_ = Collections.newSetFromMap( new IdentityHashMap<ThriftDocument, Boolean>() );
+
+    private int containers_;
+
+    /**
+     * Canonicalizes all container types used in the document and its includes.
+     * Documents that were already handled are ignored.
+     */
+    void canonicalize( ThriftDocument doc )
+    {
+        if ( doc == null || !visited_.add(doc) )
+            return;
+
+        for ( ThriftInclude i : doc.includes_ )
+            canonicalize( i.doc_ );
+
+        for ( ThriftType t : doc.all_types_.values() )
+        {
+            if ( t instanceof ThriftStructType )
+                canonicalize( ((ThriftStructType)t).fields_ );
+            else if ( t instanceof ThriftUnionType )
+                canonicalize( ((ThriftUnionType)t).fields_ );
+            else if ( t instanceof ThriftTypedef )
+                ((ThriftTypedef)t).reftype_ = canonical( ((ThriftTypedef)t).reftype_ );
+        }
+        for ( ThriftService s : doc.all_services_ )
+        {
+            for ( ThriftFunction f : s.functions_ )
+            {
+                f.return_type_ = canonical( f.return_type_ );
+                canonicalize( f.parameters_ );
+                canonicalize( f.exceptions_ );
+            }
+        }
+    }
+
+    /**
+     * Gets the number of container uses seen.
+     */
+    int getContainerCount()
+    {
+        return containers_;
+    }
+
+    /**
+     * Gets the number of distinct canonical containers.
+     */
+    int getCanonicalCount()
+    {
+        return canonical_.size();
+    }
+
+    private void canonicalize( List<ThriftField> fields )
+    {
+        if ( fields != null )
+            for ( ThriftField f : fields ) f.type_ = canonical( f.type_ );
+    }
+
+    /**
+     * Gets the canonical instance of a type.
+     * @return The shared container, or the type itself if it is no container or can't be shared.
+     */
+    ThriftType canonical( ThriftType t )
+    {
+        if ( !(t instanceof ThriftListType || t instanceof ThriftSetType || t instanceof ThriftMapType) || shared_.contains(t) )
+            return t;
+        ++containers_;
+
+        Key key;
+        if ( t instanceof ThriftListType )
+        {
+            ThriftListType lt = (ThriftListType)t;
+            lt.value_type_ = canonical( lt.value_type_ );
+            key = new Key( LIST, null, element( lt.value_type_ ) );
+        }
+        else if ( t instanceof ThriftSetType )
+        {
+            ThriftSetType st = (ThriftSetType)t;
+            st.value_type_ = canonical( st.value_type_ );
+            key = new Key( SET, null, element( st.value_type_ ) );
+        }
+        else
+        {
+            ThriftMapType mt = (ThriftMapType)t;
+            mt.key_type_ = canonical( mt.key_type_ );
+            mt.value_type_ = canonical( mt.value_type_ );
+            key = new Key( MAP, element( mt.key_type_ ), element( mt.value_type_ ) );
+        }
+        if ( key.value_ == null || ( key.kind_ == MAP && key.key_ == null ) )
+            return t;
+
+        ThriftType c = canonical_.get( key );
+        if ( c == null )
+        {
+            canonical_.put( key, t );
+            shared_.add( t );
+            c = t;
+        }
+        return c;
+    }
+
+    /**
+     * Gets the identity of an element type, follows resolved type-references.
+     * @return The type, null if unresolved.
+     */
+    private static ThriftType element( ThriftType t )
+    {
+        while ( t instanceof ThriftTypeRef )
+            t = ((ThriftTypeRef)t).resolvedType_;
+        return t;
+    }
+}
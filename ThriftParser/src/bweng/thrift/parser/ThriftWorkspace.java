@@ -0,0 +1,156 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser;
+
+import bweng.thrift.parser.model.ThriftDocument;
+import bweng.thrift.parser.model.ThriftService;
+import bweng.thrift.parser.model.ThriftType;
+import bweng.thrift.parser.model.ThriftUsageIndex;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All documents of a directory tree, resolved together.<p>
+ * Each file is parsed once. Includes are linked to the documents of the
+ * workspace, includes from outside of the tree are loaded once and shared.
+ * As for a zip-archive, all types and services of the workspace are visible
+ * to all documents.
+ * @see ThriftModelGenerator#loadDirectory(Path, String)
+ */
+public final class ThriftWorkspace
+{
+    private final Path root_;
+    private final List<ThriftDocument> documents_;
+    private final List<ThriftDocument> includedDocuments_;
+    private final Map<String, ThriftDocument> byPath_;
+    private final Map<Path, ThriftDocument> copies_;
+    private final Map<String, ThriftType> types_;
+    private final Map<String, ThriftService> services_;
+    private final ThriftUsageIndex usages_;
+
+    ThriftWorkspace( Path root, List<ThriftDocument> documents, List<ThriftDocument> includedDocuments,
+                     Map<Path, ThriftDocument> copies, Map<String, ThriftType> types, Map<String, ThriftService> services, ThriftUsageIndex usages )
+    {
+        root_ = root;
+        documents_ = Collections.unmodifiableList( documents );
+        includedDocuments_ = Collections.unmodifiableList( includedDocuments );
+        types_ = Collections.unmodifiableMap( types );
+        services_ = Collections.unmodifiableMap( services );
+        usages_ = usages;
+
+        byPath_ = new HashMap<>();
+        for ( ThriftDocument d : documents )
+            byPath_.put( ThriftModelGenerator.getDocumentKey( d.ospath_ ), d );
+        for ( ThriftDocument d : includedDocuments )
+            byPath_.put( ThriftModelGenerator.getDocumentKey( d.ospath_ ), d );
+        for ( Map.Entry<Path, ThriftDocument> e : copies.entrySet() )
+            byPath_.put( ThriftModelGenerator.getDocumentKey( e.getKey() ), e.getValue() );
+        copies_ = Collections.unmodifiableMap( copies );
+    }
+
+    /**
+     * Gets the root directory.
+     */
+    public Path getRoot()
+    {
+        return root_;
+    }
+
+    /**
+     * Gets the documents of all matching files, ordered by path.
+     */
+    public List<ThriftDocument> getDocuments()
+    {
+        return documents_;
+    }
+
+    /**
+     * Gets the documents that were loaded as include from outside of the tree,
+     * or from files in the tree that don't match the glob.
+     */
+    public List<ThriftDocument> getIncludedDocuments()
+    {
+        return includedDocuments_;
+    }
+
+    /**
+     * Gets the files that share the document of an identical file,
+     * only filled with {@link ThriftModelGenerator#setContentDeduplication content deduplication}.
+     * The document is listed in {@link #getDocuments()} with the first path.
+     */
+    public Map<Path, ThriftDocument> getCopies()
+    {
+        return copies_;
+    }
+
+    /**
+     * Gets the document of a file, also of a copy.
+     * @return The document or null if the file is not part of the workspace.
+     */
+    public ThriftDocument getDocument( Path path )
+    {
+        return byPath_.get( ThriftModelGenerator.getDocumentKey( path ) );
+    }
+
+    /**
+     * Gets a type by its fully qualified name.
+     * @return The type or null.
+     */
+    public ThriftType getType( String nameFullyQualified )
+    {
+        return types_.get( nameFullyQualified );
+    }
+
+    /**
+     * Gets all types by their fully qualified names.
+     */
+    public Map<String, ThriftType> getTypes()
+    {
+        return types_;
+    }
+
+    /**
+     * Gets a service by its fully qualified name.
+     * @return The service or null.
+     */
+    public ThriftService getService( String nameFullyQualified )
+    {
+        return services_.get( nameFullyQualified );
+    }
+
+    /**
+     * Gets all services.
+     */
+    public Collection<ThriftService> getServices()
+    {
+        return services_.values();
+    }
+
+    /**
+     * Gets the type usages of all documents.
+     * The same index is set as {@link ThriftDocument#type_usages_} of the documents.
+     */
+    public ThriftUsageIndex getUsages()
+    {
+        return usages_;
+    }
+
+    /**
+     * Gets the number of types that are still unresolved in all documents.
+     */
+    public int getUnresolvedTypeCount()
+    {
+        int n = 0;
+        for ( ThriftDocument d : documents_ )
+            n += d.unresolved_types_.size();
+        for ( ThriftDocument d : includedDocuments_ )
+            n += d.unresolved_types_.size();
+        return n;
+    }
+}
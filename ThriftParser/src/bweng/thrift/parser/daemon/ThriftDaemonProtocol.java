@@ -0,0 +1,86 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.daemon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Constants and framing of the daemon protocol.<p>
+ * Each message is a frame of a 4 byte big-endian length, followed by the payload.
+ * A request payload starts with the command byte, a response payload with the status byte.
+ * The first request of a connection must be HELLO with the session token of the daemon,
+ * otherwise the daemon closes the connection.
+ * <pre>
+ * HELLO:    token (UTF)
+ *           -&gt; OK
+ * PARSE:    path (UTF), replace type references (boolean)
+ *           -&gt; OK, cached (boolean), model in the format of ThriftModelWriter
+ * PING:     -&gt; OK, version (UTF)
+ * STATS:    -&gt; OK, requests, cache hits, cached documents, cached bytes, evictions (long)
+ * SHUTDOWN: -&gt; OK
+ * Errors:   -&gt; ERROR, message (UTF)
+ * </pre>
+ */
+final class ThriftDaemonProtocol
+{
+    private ThriftDaemonProtocol()
+    {
+    }
+
+    /** Protocol version, returned by PING. */
+    final static String VERSION = "2";
+
+    // Commands
+    final static byte CMD_PARSE    = 1;
+    final static byte CMD_PING     = 2;
+    final static byte CMD_STATS    = 3;
+    final static byte CMD_SHUTDOWN = 4;
+    final static byte CMD_HELLO    = 5;
+
+    // Status of responses
+    final static byte STATUS_OK    = 0;
+    final static byte STATUS_ERROR = 1;
+
+    /** Upper limit of frames, to detect garbage on the connection. */
+    final static int MAX_FRAME_SIZE = 512*1024*1024;
+
+    /**
+     * Reads one frame.
+     * @return The payload or null if the stream ended before a frame.
+     */
+    static byte[] readFrame( DataInputStream in ) throws IOException
+    {
+        int b0 = in.read();
+        if ( b0 < 0 )
+            return null;
+        final int length = (b0 << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedShort());
+        if ( length < 0 || length > MAX_FRAME_SIZE )
+            throw new IOException("Illegal frame size "+length);
+        byte[] payload = new byte[length];
+        try
+        {
+            in.readFully( payload );
+        }
+        catch (EOFException eof)
+        {
+            throw new IOException("Connection closed inside of frame");
+        }
+        return payload;
+    }
+
+    /**
+     * Writes one frame and flushes the stream.
+     */
+    static void writeFrame( DataOutputStream out, ByteArrayOutputStream payload ) throws IOException
+    {
+        out.writeInt( payload.size() );
+        payload.writeTo( out );
+        out.flush();
+    }
+}
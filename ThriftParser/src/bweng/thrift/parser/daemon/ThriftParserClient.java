@@ -0,0 +1,159 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.daemon;
+
+import bweng.thrift.parser.io.ThriftModelReader;
+import bweng.thrift.parser.model.ThriftDocument;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Thin client of {@link ThriftParserDaemon}.<p>
+ * The client doesn't parse itself, it only reads the model returned by the daemon.
+ * A client can send any number of requests over its connection, but is not thread-safe.
+ */
+public final class ThriftParserClient implements Closeable
+{
+    private final Socket socket_;
+    private final DataInputStream in_;
+    private final DataOutputStream out_;
+    private boolean lastCached_;
+
+    /**
+     * Connects to a daemon on the local machine, using the default token file.
+     * @param port The port of the daemon.
+     * @see ThriftParserDaemon#getTokenFile(int)
+     */
+    public ThriftParserClient( int port ) throws IOException
+    {
+        this( port, ThriftParserDaemon.getTokenFile( port ) );
+    }
+
+    /**
+     * Connects to a daemon on the local machine.
+     * @param port The port of the daemon.
+     * @param tokenFile The token file written by the daemon.
+     * @throws IOException If the token can't be read or the daemon rejected it.
+     */
+    public ThriftParserClient( int port, Path tokenFile ) throws IOException
+    {
+        final String token = new String( Files.readAllBytes( tokenFile ), StandardCharsets.US_ASCII ).trim();
+        socket_ = new Socket( InetAddress.getLoopbackAddress(), port );
+        try
+        {
+            socket_.setTcpNoDelay( true );
+            in_ = new DataInputStream( new BufferedInputStream( socket_.getInputStream() ) );
+            out_ = new DataOutputStream( new BufferedOutputStream( socket_.getOutputStream() ) );
+
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            DataOutputStream rout = new DataOutputStream( request );
+            rout.writeByte( ThriftDaemonProtocol.CMD_HELLO );
+            rout.writeUTF( token );
+            rout.flush();
+            send( request );
+        }
+        catch (IOException ex)
+        {
+            socket_.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Parses a document with all includes in the daemon.
+     * @param ospath The path of the document, as seen by the daemon.
+     * @param bReplaceTypeRefs See {@link bweng.thrift.parser.ThriftModelGenerator#loadIncludes}.
+     * @return The resolved document.
+     * @throws IOException If the communication failed or the daemon reported an error.
+     */
+    public ThriftDocument parse( String ospath, boolean bReplaceTypeRefs ) throws IOException
+    {
+        DataInputStream r = request( ThriftDaemonProtocol.CMD_PARSE, ospath, bReplaceTypeRefs );
+        lastCached_ = r.readBoolean();
+        return new ThriftModelReader( r ).read();
+    }
+
+    /**
+     * Checks if the result of the last {@link #parse} was served from the cache of the daemon.
+     */
+    public boolean wasCached()
+    {
+        return lastCached_;
+    }
+
+    /**
+     * Checks the connection.
+     * @return The protocol version of the daemon.
+     */
+    public String ping() throws IOException
+    {
+        return request( ThriftDaemonProtocol.CMD_PING, null, false ).readUTF();
+    }
+
+    /**
+     * Gets statistics of the daemon.
+     * @return Number of requests, cache hits, cached documents, size of the cached models
+     *         in bytes and number of evicted results.
+     */
+    public long[] stats() throws IOException
+    {
+        DataInputStream r = request( ThriftDaemonProtocol.CMD_STATS, null, false );
+        return new long[] { r.readLong(), r.readLong(), r.readLong(), r.readLong(), r.readLong() };
+    }
+
+    /**
+     * Stops the daemon.
+     */
+    public void shutdown() throws IOException
+    {
+        request( ThriftDaemonProtocol.CMD_SHUTDOWN, null, false );
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        socket_.close();
+    }
+
+    // Sends a request and returns the payload of the response after the status.
+    private DataInputStream request( byte cmd, String path, boolean flag ) throws IOException
+    {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        DataOutputStream rout = new DataOutputStream( request );
+        rout.writeByte( cmd );
+        if ( path != null )
+        {
+            rout.writeUTF( path );
+            rout.writeBoolean( flag );
+        }
+        rout.flush();
+        return send( request );
+    }
+
+    // Sends a request frame and returns the payload of the response after the status.
+    private DataInputStream send( ByteArrayOutputStream request ) throws IOException
+    {
+        ThriftDaemonProtocol.writeFrame( out_, request );
+
+        byte[] response = ThriftDaemonProtocol.readFrame( in_ );
+        if ( response == null || response.length == 0 )
+            throw new IOException( "Connection closed by daemon" );
+        DataInputStream r = new DataInputStream( new ByteArrayInputStream( response ) );
+        if ( r.readByte() != ThriftDaemonProtocol.STATUS_OK )
+            throw new IOException( r.readUTF() );
+        return r;
+    }
+}
@@ -0,0 +1,530 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.daemon;
+
+import bweng.thrift.parser.ThriftModelGenerator;
+import bweng.thrift.parser.io.ThriftModelWriter;
+import bweng.thrift.parser.model.ThriftDocument;
+import bweng.thrift.parser.model.ThriftInclude;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long running parser process, serving parse requests over a loopback socket.<p>
+ * The JVM, the parser classes and the JIT stay warm between requests.
+ * Each connection is served by an own worker with an own {@link ThriftModelGenerator}.
+ * Results are cached in serialized form, keyed by the file and checked against the
+ * modification times and sizes of the document and all loaded includes.
+ * Least recently used results are evicted if the cached models exceed the cache limit.<br>
+ * Clients have to authenticate with a per-session token, written by the daemon to a file
+ * that only the user can read.
+ * The protocol is described in {@link ThriftDaemonProtocol}, use {@link ThriftParserClient} to connect.
+ */
+public final class ThriftParserDaemon implements Closeable
+{
+    /** Default port of the daemon. */
+    public final static int DEFAULT_PORT = 47911;
+
+    /** Default limit of the cached models in bytes. */
+    public final static long DEFAULT_CACHE_LIMIT = 256L*1024*1024;
+
+    private final List<String> includeDirs_;
+    private final ServerSocket server_;
+    private final byte[] token_;
+    private final Path tokenFile_;
+    private final ExecutorService workers_ = Executors.newCachedThreadPool();
+    private final ThreadLocal<ThriftModelGenerator> generators_;
+    // Cached results in access order, guarded by itself.
+    private final LinkedHashMap<String, CacheEntry> cache_ = new LinkedHashMap<>( 16, 0.75f, true );
+    // Size of the cached models and the limit, guarded by cache_.
+    private long cacheBytes_;
+    private long cacheLimit_ = DEFAULT_CACHE_LIMIT;
+    private final Set<Socket> connections_ = Collections.newSetFromMap( new ConcurrentHashMap<Socket, Boolean>() );
+
+    private final AtomicLong requests_ = new AtomicLong();
+    private final AtomicLong hits_ = new AtomicLong();
+    private final AtomicLong evictions_ = new AtomicLong();
+
+    /**
+     * Cached result of one document.<br>
+     * Files are kept as names for {@link ThriftModelGenerator#getPath(String)}, not as Path,
+     * because the jar file system of a Path may be closed by the registry in between.
+     */
+    private static final class CacheEntry
+    {
+        byte[] model_;
+        List<String> files_;
+        long[] modified_;
+        long[] sizes_;
+
+        CacheEntry( List<String> files )
+        {
+            files_ = files;
+            modified_ = new long[files.size()];
+            sizes_ = new long[files.size()];
+            for ( int i=0 ; i<modified_.length ; ++i )
+            {
+                try
+                {
+                    BasicFileAttributes a = Files.readAttributes( ThriftModelGenerator.getPath( files.get(i) ), BasicFileAttributes.class );
+                    modified_[i] = a.lastModifiedTime().toMillis();
+                    sizes_[i] = a.size();
+                }
+                catch (IOException | RuntimeException ex)
+                {
+                    // Missing or not readable, never equal to a later state.
+                    modified_[i] = -1;
+                    sizes_[i] = -1;
+                }
+            }
+        }
+
+        // Checks if an entry of the same files has the same state, missing files never agree.
+        boolean sameState( CacheEntry other )
+        {
+            for ( int i=0 ; i<modified_.length ; ++i )
+            {
+                if ( modified_[i] < 0 || modified_[i] != other.modified_[i] || sizes_[i] != other.sizes_[i] )
+                    return false;
+            }
+            return true;
+        }
+
+        // Checks if the files of the other entry that are part of this entry have the same state, missing files never agree.
+        boolean agrees( CacheEntry other )
+        {
+            Map<String, Integer> index = new HashMap<>();
+            for ( int i=0 ; i<files_.size() ; ++i )
+                index.put( files_.get(i), i );
+            for ( int i=0 ; i<other.modified_.length ; ++i )
+            {
+                final Integer j = index.get( other.files_.get(i) );
+                if ( j != null && ( modified_[j] < 0 || modified_[j] != other.modified_[i] || sizes_[j] != other.sizes_[i] ) )
+                    return false;
+            }
+            return true;
+        }
+
+        boolean isCurrent()
+        {
+            return new CacheEntry( files_ ).sameState( this );
+        }
+    }
+
+    /**
+     * Creates a daemon, bound to the loopback interface.
+     * The session token is written to the default token file of the port.
+     * @param port The port to listen on, 0 to use any free port.
+     * @param includeDirs Additional include paths for all requests.
+     * @see #getTokenFile(int)
+     */
+    public ThriftParserDaemon( int port, final List<String> includeDirs ) throws IOException
+    {
+        this( port, includeDirs, null );
+    }
+
+    /**
+     * Creates a daemon, bound to the loopback interface.
+     * @param port The port to listen on, 0 to use any free port.
+     * @param includeDirs Additional include paths for all requests.
+     * @param tokenFile The file to write the session token to, null for the default token file.
+     */
+    public ThriftParserDaemon( int port, final List<String> includeDirs, Path tokenFile ) throws IOException
+    {
+        includeDirs_ = includeDirs;
+        server_ = new ServerSocket( port, 50, InetAddress.getLoopbackAddress() );
+        tokenFile_ = ( tokenFile != null ) ? tokenFile : getTokenFile( server_.getLocalPort() );
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes( random );
+        StringBuilder token = new StringBuilder();
+        for ( byte b : random )
+            token.append( String.format( "%02x", b & 0xFF ) );
+        token_ = token.toString().getBytes( StandardCharsets.US_ASCII );
+        try
+        {
+            writeTokenFile( tokenFile_, token_ );
+        }
+        catch (IOException ex)
+        {
+            server_.close();
+            throw ex;
+        }
+        generators_ = new ThreadLocal<ThriftModelGenerator>()
+        {
+            @Override
+            protected ThriftModelGenerator initialValue()
+            {
+                return new ThriftModelGenerator( includeDirs_ );
+            }
+        };
+    }
+
+    /**
+     * Gets the port the daemon listens on.
+     */
+    public int getPort()
+    {
+        return server_.getLocalPort();
+    }
+
+    /**
+     * Sets the limit of the cache, least recently used results are evicted beyond it.
+     * @param bytes Maximum size of the cached models in bytes.
+     */
+    public void setCacheLimit( long bytes )
+    {
+        synchronized ( cache_ )
+        {
+            cacheLimit_ = bytes;
+            evict();
+        }
+    }
+
+    private CacheEntry getCached( String key )
+    {
+        synchronized ( cache_ )
+        {
+            return cache_.get( key );
+        }
+    }
+
+    private void putCached( String key, CacheEntry entry )
+    {
+        synchronized ( cache_ )
+        {
+            CacheEntry old = cache_.put( key, entry );
+            if ( old != null )
+                cacheBytes_ -= old.model_.length;
+            cacheBytes_ += entry.model_.length;
+            evict();
+        }
+    }
+
+    // Removes least recently used entries until the cache is within the limit, guarded by cache_.
+    private void evict()
+    {
+        Iterator<CacheEntry> it = cache_.values().iterator();
+        while ( cacheBytes_ > cacheLimit_ && it.hasNext() )
+        {
+            cacheBytes_ -= it.next().model_.length;
+            it.remove();
+            evictions_.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the default token file of a daemon, in the home directory of the user.
+     * @param port The port of the daemon.
+     */
+    public static Path getTokenFile( int port )
+    {
+        return Paths.get( System.getProperty("user.home"), ".thriftparser", "daemon-"+port+".token" );
+    }
+
+    // Writes the token to a new file that only the owner can read and write.
+    private static void writeTokenFile( Path file, byte[] token ) throws IOException
+    {
+        final Path dir = file.toAbsolutePath().getParent();
+        if ( dir != null )
+            Files.createDirectories( dir );
+        Files.deleteIfExists( file );
+        try
+        {
+            Files.createFile( file, PosixFilePermissions.asFileAttribute( PosixFilePermissions.fromString( "rw-------" ) ) );
+        }
+        catch (UnsupportedOperationException ex)
+        {
+            // No POSIX file system, the file inherits the permissions of the user profile.
+            Files.createFile( file );
+        }
+        Files.write( file, token );
+    }
+
+    /**
+     * Accepts connections until the daemon is closed or a shutdown request is received.
+     */
+    public void run()
+    {
+        while ( !server_.isClosed() )
+        {
+            try
+            {
+                final Socket s = server_.accept();
+                connections_.add( s );
+                workers_.execute( new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        serve( s );
+                    }
+                });
+            }
+            catch (SocketException se)
+            {
+                // Closed.
+            }
+            catch (IOException ex)
+            {
+                System.err.println( "Daemon: "+ex.getMessage() );
+            }
+        }
+        workers_.shutdown();
+    }
+
+    /**
+     * Stops the daemon, closes all connections and deletes the token file.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        server_.close();
+        Files.deleteIfExists( tokenFile_ );
+        for ( Socket s : connections_ )
+        {
+            try
+            {
+                s.close();
+            }
+            catch (IOException ex)
+            {
+            }
+        }
+        workers_.shutdownNow();
+    }
+
+    private void serve( Socket s )
+    {
+        try
+        {
+            s.setTcpNoDelay( true );
+            DataInputStream in = new DataInputStream( new BufferedInputStream( s.getInputStream() ) );
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( s.getOutputStream() ) );
+
+            if ( !authenticate( ThriftDaemonProtocol.readFrame( in ), out ) )
+                return;
+
+            byte[] request;
+            while ( (request = ThriftDaemonProtocol.readFrame( in )) != null )
+            {
+                ByteArrayOutputStream response = new ByteArrayOutputStream();
+                DataOutputStream rout = new DataOutputStream( response );
+                final boolean shutdown = handle( request, rout );
+                rout.flush();
+                ThriftDaemonProtocol.writeFrame( out, response );
+                if ( shutdown )
+                {
+                    close();
+                    break;
+                }
+            }
+        }
+        catch (SocketException se)
+        {
+            // Connection closed by client or daemon.
+        }
+        catch (IOException ex)
+        {
+            System.err.println( "Daemon: "+ex.getMessage() );
+        }
+        finally
+        {
+            connections_.remove( s );
+            try
+            {
+                s.close();
+            }
+            catch (IOException ex)
+            {
+            }
+        }
+    }
+
+    // Checks the HELLO request of a new connection.
+    private boolean authenticate( byte[] request, DataOutputStream out ) throws IOException
+    {
+        if ( request == null )
+            return false;
+        boolean ok = false;
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( request ) );
+        try
+        {
+            if ( in.readByte() == ThriftDaemonProtocol.CMD_HELLO )
+                ok = MessageDigest.isEqual( token_, in.readUTF().getBytes( StandardCharsets.US_ASCII ) );
+        }
+        catch (IOException ex)
+        {
+            // Malformed request.
+        }
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        DataOutputStream rout = new DataOutputStream( response );
+        if ( ok )
+            rout.writeByte( ThriftDaemonProtocol.STATUS_OK );
+        else
+            error( rout, "Authentication failed" );
+        rout.flush();
+        ThriftDaemonProtocol.writeFrame( out, response );
+        return ok;
+    }
+
+    // Handles one request, returns true if the daemon shall stop.
+    private boolean handle( byte[] request, DataOutputStream out ) throws IOException
+    {
+        requests_.incrementAndGet();
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( request ) );
+        try
+        {
+            final byte cmd = in.readByte();
+            switch ( cmd )
+            {
+                case ThriftDaemonProtocol.CMD_PARSE:
+                    final String path = in.readUTF();
+                    final boolean replaceTypeRefs = in.readBoolean();
+                    parse( path, replaceTypeRefs, out );
+                    return false;
+                case ThriftDaemonProtocol.CMD_PING:
+                    out.writeByte( ThriftDaemonProtocol.STATUS_OK );
+                    out.writeUTF( ThriftDaemonProtocol.VERSION );
+                    return false;
+                case ThriftDaemonProtocol.CMD_STATS:
+                    out.writeByte( ThriftDaemonProtocol.STATUS_OK );
+                    out.writeLong( requests_.get() );
+                    out.writeLong( hits_.get() );
+                    synchronized ( cache_ )
+                    {
+                        out.writeLong( cache_.size() );
+                        out.writeLong( cacheBytes_ );
+                    }
+                    out.writeLong( evictions_.get() );
+                    return false;
+                case ThriftDaemonProtocol.CMD_SHUTDOWN:
+                    out.writeByte( ThriftDaemonProtocol.STATUS_OK );
+                    return true;
+                default:
+                    error( out, "Unknown command "+cmd );
+                    return false;
+            }
+        }
+        catch (IOException ex)
+        {
+            error( out, ex.toString() );
+            return false;
+        }
+        catch (UncheckedIOException ex)
+        {
+            // Archive of a "jar:" path can't be opened.
+            error( out, ex.getCause().toString() );
+            return false;
+        }
+        catch (RuntimeException ex)
+        {
+            // Keep the connection, the worker would die otherwise.
+            error( out, ex.toString() );
+            return false;
+        }
+    }
+
+    private static void error( DataOutputStream out, String message ) throws IOException
+    {
+        out.writeByte( ThriftDaemonProtocol.STATUS_ERROR );
+        out.writeUTF( message == null ? "" : message );
+    }
+
+    private void parse( String pathName, boolean replaceTypeRefs, DataOutputStream out ) throws IOException
+    {
+        final Path path = ThriftModelGenerator.getPath( pathName ).toAbsolutePath().normalize();
+        final String key = path.toUri().toString() + (replaceTypeRefs ? "|replace" : "|keep");
+
+        CacheEntry entry = getCached( key );
+        boolean cached = ( entry != null && entry.isCurrent() );
+        if ( cached )
+        {
+            hits_.incrementAndGet();
+        }
+        else
+        {
+            // State before parsing: the document and the files of the last result.
+            List<String> files = new ArrayList<>();
+            files.add( getName( path ) );
+            if ( entry != null )
+                files.addAll( entry.files_ );
+            final CacheEntry before = new CacheEntry( files );
+
+            ThriftModelGenerator gen = generators_.get();
+            ThriftDocument doc = gen.loadDocument( path );
+            if ( doc == null )
+            {
+                error( out, pathName+": parser failed" );
+                return;
+            }
+            gen.loadIncludes( doc, replaceTypeRefs );
+
+            files = new ArrayList<>();
+            collectFiles( doc, Collections.newSetFromMap( new IdentityHashMap<ThriftDocument, Boolean>() ), files );
+            entry = new CacheEntry( files );
+
+            ByteArrayOutputStream model = new ByteArrayOutputStream();
+            new ThriftModelWriter( model ).write( doc );
+            entry.model_ = model.toByteArray();
+            // Files changed while parsing may be read in any state, such a result is not cached.
+            if ( entry.agrees( before ) )
+                putCached( key, entry );
+        }
+        out.writeByte( ThriftDaemonProtocol.STATUS_OK );
+        out.writeBoolean( cached );
+        out.write( entry.model_ );
+    }
+
+    // Gets the name of a path for getPath: "jar:" URIs for archives, otherwise the native path.
+    private static String getName( Path p )
+    {
+        return ( p.getFileSystem() == FileSystems.getDefault() ) ? p.toString() : p.toUri().toString();
+    }
+
+    // Collects the files of the document and all loaded includes.
+    private static void collectFiles( ThriftDocument doc, Set<ThriftDocument> visited, List<String> files )
+    {
+        if ( doc == null || !visited.add( doc ) )
+            return;
+        if ( doc.ospath_ != null )
+            files.add( getName( doc.ospath_ ) );
+        if ( doc.includes_ != null )
+            for ( ThriftInclude i : doc.includes_ )
+                collectFiles( i.doc_, visited, files );
+    }
+}
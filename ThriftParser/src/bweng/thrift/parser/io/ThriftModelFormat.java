@@ -0,0 +1,346 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.io;
+
+import bweng.thrift.parser.ThriftModelGenerator;
+import bweng.thrift.parser.model.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Constants and helpers of the binary model format.
+ */
+final class ThriftModelFormat
+{
+    private ThriftModelFormat()
+    {
+    }
+
+    /** Magic bytes at start of a serialized model. */
+    final static byte[] MAGIC = { 'T', 'P', 'M', 'B' };
+
+    /** Format version, only this version is read. */
+    final static int VERSION = 2;
+
+    // Type kinds
+    final static byte KIND_PLAIN     = 0;
+    final static byte KIND_STRUCT    = 1;
+    final static byte KIND_EXCEPTION = 2;
+    final static byte KIND_UNION     = 3;
+    final static byte KIND_ENUM      = 4;
+    final static byte KIND_TYPEDEF   = 5;
+    final static byte KIND_LIST      = 6;
+    final static byte KIND_SET       = 7;
+    final static byte KIND_MAP       = 8;
+    final static byte KIND_TYPEREF   = 9;
+
+    // Flags of object headers
+    final static int FLAG_COMMENT     = 1;
+    final static int FLAG_VERSION     = 2;
+    final static int FLAG_DEPRECATED  = 4;
+    final static int FLAG_ANNOTATIONS = 8;
+    final static int FLAG_DOCUMENT    = 16;
+
+    /**
+     * Built-in types, encoded with fixed ids 1..n.
+     * Id 0 is reserved for null, ids above are type table entries.
+     */
+    final static ThriftType[] BUILTIN_TYPES =
+    {
+        ThriftType.VOID, ThriftType.BOOL,
+        ThriftType.INT8, ThriftType.INT16, ThriftType.INT32, ThriftType.INT64,
+        ThriftType.UINT8, ThriftType.UINT16, ThriftType.UINT32, ThriftType.UINT64,
+        ThriftType.DOUBLE, ThriftType.STRING, ThriftType.BINARY,
+        ThriftType.SERVICE
+    };
+
+    /** First id of type table entries. */
+    final static int FIRST_TYPE_ID = BUILTIN_TYPES.length+1;
+
+    static int getBuiltinId( ThriftType t )
+    {
+        for (int i=0 ; i<BUILTIN_TYPES.length ; ++i)
+            if ( BUILTIN_TYPES[i] == t ) return i+1;
+        return 0;
+    }
+
+    /**
+     * Gets the requiredness of a field, unknown values are read as default.
+     */
+    static ThriftFieldRequiredness getRequiredness( int ordinal )
+    {
+        final ThriftFieldRequiredness[] values = ThriftFieldRequiredness.values();
+        return ( ordinal >= 0 && ordinal < values.length ) ? values[ordinal] : ThriftFieldRequiredness.DEFAULT;
+    }
+
+    static byte getKind( ThriftType t )
+    {
+        if ( t instanceof ThriftExceptionType ) return KIND_EXCEPTION;
+        if ( t instanceof ThriftStructType )    return KIND_STRUCT;
+        if ( t instanceof ThriftUnionType )     return KIND_UNION;
+        if ( t instanceof ThriftEnum )          return KIND_ENUM;
+        if ( t instanceof ThriftTypedef )       return KIND_TYPEDEF;
+        if ( t instanceof ThriftListType )      return KIND_LIST;
+        if ( t instanceof ThriftSetType )       return KIND_SET;
+        if ( t instanceof ThriftMapType )       return KIND_MAP;
+        if ( t instanceof ThriftTypeRef )       return KIND_TYPEREF;
+        return KIND_PLAIN;
+    }
+
+    static ThriftType createType( int kind )
+    {
+        switch ( kind )
+        {
+            case KIND_PLAIN:     return new ThriftType();
+            case KIND_STRUCT:    return new ThriftStructType();
+            case KIND_EXCEPTION: return new ThriftExceptionType();
+            case KIND_UNION:     return new ThriftUnionType();
+            case KIND_ENUM:      return new ThriftEnum();
+            case KIND_TYPEDEF:   return new ThriftTypedef();
+            case KIND_LIST:      return new ThriftListType();
+            case KIND_SET:       return new ThriftSetType();
+            case KIND_MAP:       return new ThriftMapType();
+            case KIND_TYPEREF:   return new ThriftTypeRef();
+            default:             return null;
+        }
+    }
+
+    static String toUriString( Path p )
+    {
+        return p == null ? null : p.toUri().toString();
+    }
+
+    static Path toPath( String uri )
+    {
+        if ( uri == null )
+            return null;
+        if ( uri.startsWith("jar:") )
+        {
+            try
+            {
+                return ThriftModelGenerator.getPath(uri);
+            }
+            catch (UncheckedIOException | InvalidPathException ex)
+            {
+                // The archive is gone, the model is still valid.
+                return null;
+            }
+        }
+        try
+        {
+            return Paths.get( new URI(uri) );
+        }
+        catch (Exception ex)
+        {
+            return ThriftModelGenerator.getPath(uri);
+        }
+    }
+
+    /**
+     * Encoder of the records that are the same in the stream format of {@link ThriftModelWriter}
+     * and the image format of {@link ThriftModelImageWriter}.<br>
+     * The formats differ in the encoding of strings and of document records.
+     */
+    abstract static class Encoder
+    {
+        ThriftModelTables tables_;
+
+        abstract void writeByte( int b ) throws IOException;
+
+        abstract void writeString( String s ) throws IOException;
+
+        void writeVarint( int v ) throws IOException
+        {
+            while ( (v & ~0x7F) != 0 )
+            {
+                writeByte( (v & 0x7F) | 0x80 );
+                v >>>= 7;
+            }
+            writeByte( v );
+        }
+
+        // Writes id+1 of a collected object or 0 for null.
+        final void writeRef( Object o ) throws IOException
+        {
+            writeVarint( o == null ? 0 : tables_.getId(o)+1 );
+        }
+
+        void writeRefs( List<?> l ) throws IOException
+        {
+            writeVarint( l == null ? 0 : l.size()+1 );
+            if ( l != null )
+                for ( Object o : l ) writeRef( o );
+        }
+
+        void writeTypes( List<ThriftType> types ) throws IOException
+        {
+            writeVarint( types == null ? 0 : types.size()+1 );
+            if ( types != null )
+                for ( ThriftType t : types ) writeTypeRef( t );
+        }
+
+        // Writes the encoded type id.
+        final void writeTypeRef( ThriftType t ) throws IOException
+        {
+            writeVarint( tables_.getTypeId(t) );
+        }
+
+        final void writeInfo( ThriftParserInfo info ) throws IOException
+        {
+            writeVarint( zigzag(info.line_) );
+            writeVarint( zigzag(info.column_) );
+        }
+
+        final void writeObject( ThriftObject o ) throws IOException
+        {
+            writeInfo( o );
+
+            int flags = 0;
+            if ( o.comment_ != null && !o.comment_.isEmpty() ) flags |= FLAG_COMMENT;
+            if ( o.version_ != null ) flags |= FLAG_VERSION;
+            if ( o.deprecated_ ) flags |= FLAG_DEPRECATED;
+            if ( o.annotations_ != null ) flags |= FLAG_ANNOTATIONS;
+            if ( o.getDocument() != null ) flags |= FLAG_DOCUMENT;
+            writeByte( flags );
+
+            if ( (flags & FLAG_COMMENT) != 0 ) writeString( o.comment_ );
+            if ( (flags & FLAG_VERSION) != 0 ) writeString( o.version_ );
+            if ( (flags & FLAG_ANNOTATIONS) != 0 )
+            {
+                writeVarint( o.annotations_.size() );
+                for ( Map.Entry<String,String> a : o.annotations_.entrySet() )
+                {
+                    writeString( a.getKey() );
+                    writeString( a.getValue() );
+                }
+            }
+            if ( (flags & FLAG_DOCUMENT) != 0 ) writeVarint( tables_.getId(o.getDocument()) );
+        }
+
+        final void writeScope( ThriftScope sc ) throws IOException
+        {
+            writeString( sc.name_ );
+            writeString( sc.name_fully_qualified_ );
+            writeRefs( sc.services_ );
+            writeTypes( sc.types_ );
+        }
+
+        final void writePackage( ThriftPackage p ) throws IOException
+        {
+            writeObject( p );
+            writeScope( p );
+            writeRef( p.parent_ );
+            writeRefs( p.subpackages_ );
+        }
+
+        final void writeType( ThriftType t ) throws IOException
+        {
+            writeObject( t );
+            writeString( t.name_ );
+            writeString( t.name_fully_qualified_ );
+            writeRef( t.package_ );
+
+            switch ( getKind(t) )
+            {
+                case KIND_STRUCT:
+                case KIND_EXCEPTION:
+                    writeFields( ((ThriftStructType)t).fields_ );
+                    break;
+                case KIND_UNION:
+                    writeFields( ((ThriftUnionType)t).fields_ );
+                    break;
+                case KIND_ENUM:
+                    List<ThriftEnumValue> values = ((ThriftEnum)t).values_;
+                    writeVarint( values == null ? 0 : values.size()+1 );
+                    if ( values != null )
+                    {
+                        for ( ThriftEnumValue v : values )
+                        {
+                            writeInfo( v );
+                            writeString( v.name_ );
+                            writeVarint( zigzag(v.value_) );
+                        }
+                    }
+                    break;
+                case KIND_TYPEDEF:
+                    writeTypeRef( ((ThriftTypedef)t).reftype_ );
+                    break;
+                case KIND_LIST:
+                    writeTypeRef( ((ThriftListType)t).value_type_ );
+                    break;
+                case KIND_SET:
+                    writeTypeRef( ((ThriftSetType)t).value_type_ );
+                    break;
+                case KIND_MAP:
+                    writeTypeRef( ((ThriftMapType)t).key_type_ );
+                    writeTypeRef( ((ThriftMapType)t).value_type_ );
+                    break;
+                case KIND_TYPEREF:
+                    writeString( ((ThriftTypeRef)t).declaredName_ );
+                    writeTypeRef( ((ThriftTypeRef)t).resolvedType_ );
+                    break;
+            }
+        }
+
+        final void writeService( ThriftService s ) throws IOException
+        {
+            writeObject( s );
+            writeString( s.name_ );
+            writeString( s.name_fully_qualified_ );
+            writeRef( s.package_ );
+            writeRef( s.extended_service_ );
+            writeVarint( s.functions_.size() );
+            for ( ThriftFunction f : s.functions_ )
+            {
+                writeObject( f );
+                writeString( f.name_ );
+                writeVarint( f.mode_ == null ? 0 : f.mode_.ordinal()+1 );
+                writeTypeRef( f.return_type_ );
+                writeFields( f.parameters_ );
+                writeFields( f.exceptions_ );
+            }
+        }
+
+        final void writeServiceRef( ThriftServiceRef r ) throws IOException
+        {
+            writeInfo( r );
+            writeString( r.declaredName_ );
+            writeRef( r.declarationPackage_ );
+            writeRef( r.resolvedService_ );
+        }
+
+        final void writeFields( List<ThriftField> fields ) throws IOException
+        {
+            writeVarint( fields == null ? 0 : fields.size()+1 );
+            if ( fields != null )
+            {
+                for ( ThriftField f : fields )
+                {
+                    writeObject( f );
+                    writeString( f.name_ );
+                    writeVarint( zigzag(f.id_) );
+                    writeVarint( f.requiredness_.ordinal() );
+                    writeTypeRef( f.type_ );
+                }
+            }
+        }
+    }
+
+    static int zigzag( int v )
+    {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    static int unzigzag( int v )
+    {
+        return (v >>> 1) ^ -(v & 1);
+    }
+}
@@ -0,0 +1,768 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.io;
+
+import bweng.thrift.parser.model.*;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only model image, mapped into memory and decoded on demand.<p>
+ * Objects are decoded on first access only. Looking up a service decodes the service,
+ * its functions and the types used by them, but no other parts of the model.
+ * Lists and maps of documents and packages are read-only views that decode their
+ * elements on access. Name lookups in the maps of a document are binary searches in
+ * the image, documents themselves are decoded without their includes, lists and maps.<br>
+ * Use {@link #write(ThriftDocument, Path)} to create an image.
+ * All methods are thread-safe.
+ */
+public final class ThriftModelImage implements Closeable
+{
+    /** Magic bytes at start of an image. */
+    final static byte[] MAGIC = { 'T', 'P', 'M', 'I' };
+
+    /** Image version, only this version is read. */
+    final static int VERSION = 3;
+
+    /** Size of the fixed header: magic, version, 6 counts and 9 offsets. */
+    final static int HEADER_SIZE = 4 + 4 + 6*4 + 9*4;
+
+    // Tables of references
+    private final static int TAB_DOCUMENT = 0;
+    private final static int TAB_PACKAGE  = 1;
+    private final static int TAB_SERVICE  = 2;
+    private final static int TAB_SERVICEREF = 3;
+
+    private final FileChannel channel_;
+    private final ByteBuffer buf_;
+
+    private final int kindsOff_;
+    private final int docTab_;
+    private final int pkgTab_;
+    private final int typeTab_;
+    private final int servTab_;
+    private final int srefTab_;
+    private final int strTab_;
+    private final int servIdx_;
+    private final int typeIdx_;
+
+    private final ThriftDocument[]   documents_;
+    private final ThriftPackage[]    packages_;
+    private final ThriftType[]       types_;
+    private final ThriftService[]    services_;
+    private final ThriftServiceRef[] servicerefs_;
+    private final String[]           strings_;
+
+    // Decoding position
+    private int pos_;
+
+    /**
+     * Writes an image of the document, all includes and all referenced objects.
+     * @param doc The root document.
+     * @param file The image file to create or overwrite.
+     */
+    public static void write( ThriftDocument doc, Path file ) throws IOException
+    {
+        try ( OutputStream os = new BufferedOutputStream( Files.newOutputStream(file), 64*1024 ) )
+        {
+            new ThriftModelImageWriter( doc ).write( os );
+        }
+    }
+
+    /**
+     * Opens an image file.
+     * @param file The image file.
+     * @return The opened image.
+     * @throws IOException If the file could not be mapped or has wrong format or version.
+     */
+    public static ThriftModelImage open( Path file ) throws IOException
+    {
+        FileChannel ch = FileChannel.open( file, StandardOpenOption.READ );
+        try
+        {
+            return new ThriftModelImage( ch, ch.map( FileChannel.MapMode.READ_ONLY, 0, ch.size() ) );
+        }
+        catch ( IOException | RuntimeException ex )
+        {
+            ch.close();
+            throw ex;
+        }
+    }
+
+    private ThriftModelImage( FileChannel channel, MappedByteBuffer buf ) throws IOException
+    {
+        channel_ = channel;
+        buf_ = buf;
+
+        if ( buf_.capacity() < HEADER_SIZE )
+            throw new IOException("Not a thrift model image");
+        byte[] magic = new byte[MAGIC.length];
+        buf_.get( magic );
+        if ( !Arrays.equals( magic, MAGIC ) )
+            throw new IOException("Not a thrift model image");
+        final int version = buf_.getInt();
+        if ( version != VERSION )
+            throw new IOException("Unsupported model image version "+version);
+
+        documents_   = new ThriftDocument[buf_.getInt()];
+        packages_    = new ThriftPackage[buf_.getInt()];
+        types_       = new ThriftType[buf_.getInt()];
+        services_    = new ThriftService[buf_.getInt()];
+        servicerefs_ = new ThriftServiceRef[buf_.getInt()];
+        strings_     = new String[buf_.getInt()];
+        kindsOff_ = buf_.getInt();
+        docTab_   = buf_.getInt();
+        pkgTab_   = buf_.getInt();
+        typeTab_  = buf_.getInt();
+        servTab_  = buf_.getInt();
+        srefTab_  = buf_.getInt();
+        strTab_   = buf_.getInt();
+        servIdx_  = buf_.getInt();
+        typeIdx_  = buf_.getInt();
+    }
+
+    /**
+     * Closes the file channel.<br>
+     * The mapping is not released before the image itself is garbage collected,
+     * so already decoded objects and their lazy lists and maps stay usable.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        channel_.close();
+    }
+
+    /**
+     * Gets the root document.
+     * @return The document or null if the image is empty.
+     */
+    public synchronized ThriftDocument getRootDocument()
+    {
+        return documents_.length > 0 ? getDocument(0) : null;
+    }
+
+    /**
+     * Finds a service of the root document or an included document.
+     * @param name The fully qualified name of the service.
+     * @return The service or null.
+     */
+    public synchronized ThriftService findService( String name )
+    {
+        final int id = find( servIdx_, name );
+        return id < 0 ? null : getService( id );
+    }
+
+    /**
+     * Finds a type of the root document or an included document.
+     * @param name The fully qualified name of the type.
+     * @return The type or null.
+     */
+    public synchronized ThriftType findType( String name )
+    {
+        final int id = find( typeIdx_, name );
+        return id < 0 ? null : getType( id );
+    }
+
+    /**
+     * Gets the number of services in the image.
+     */
+    public int getServiceCount()
+    {
+        return services_.length;
+    }
+
+    /**
+     * Gets the number of types in the image, including anonymous container types.
+     */
+    public int getTypeCount()
+    {
+        return types_.length;
+    }
+
+    // Binary search in a name index, returns id or -1.
+    private int find( int indexOffset, String name )
+    {
+        int lo = 0;
+        int hi = buf_.getInt(indexOffset)-1;
+        while ( lo <= hi )
+        {
+            final int mid = (lo+hi) >>> 1;
+            final int e = indexOffset + 4 + 8*mid;
+            final int c = getString( buf_.getInt(e) ).compareTo( name );
+            if ( c < 0 )
+                lo = mid+1;
+            else if ( c > 0 )
+                hi = mid-1;
+            else
+                return buf_.getInt(e+4);
+        }
+        return -1;
+    }
+
+    private String getString( int id )
+    {
+        String s = strings_[id];
+        if ( s == null )
+        {
+            final int saved = pos_;
+            pos_ = buf_.getInt( strTab_ + 4*id );
+            final int len = readVarint();
+            byte[] b = new byte[len];
+            for (int i=0 ; i<len ; ++i) b[i] = buf_.get(pos_+i);
+            s = new String( b, StandardCharsets.UTF_8 );
+            strings_[id] = s;
+            pos_ = saved;
+        }
+        return s;
+    }
+
+    private ThriftDocument getDocument( int id )
+    {
+        ThriftDocument d = documents_[id];
+        if ( d == null )
+        {
+            d = new ThriftDocument();
+            documents_[id] = d;
+            final int saved = pos_;
+            pos_ = buf_.getInt( docTab_ + 4*id );
+            readDocument( d );
+            pos_ = saved;
+        }
+        return d;
+    }
+
+    private ThriftPackage getPackage( int id )
+    {
+        ThriftPackage p = packages_[id];
+        if ( p == null )
+        {
+            p = new ThriftPackage();
+            packages_[id] = p;
+            final int saved = pos_;
+            pos_ = buf_.getInt( pkgTab_ + 4*id );
+            readPackage( p );
+            pos_ = saved;
+        }
+        return p;
+    }
+
+    private ThriftType getType( int id )
+    {
+        ThriftType t = types_[id];
+        if ( t == null )
+        {
+            t = ThriftModelFormat.createType( buf_.get( kindsOff_ + id ) );
+            types_[id] = t;
+            final int saved = pos_;
+            pos_ = buf_.getInt( typeTab_ + 4*id );
+            readType( t );
+            pos_ = saved;
+            t.cacheRealType();
+        }
+        return t;
+    }
+
+    private ThriftService getService( int id )
+    {
+        ThriftService s = services_[id];
+        if ( s == null )
+        {
+            s = new ThriftService();
+            services_[id] = s;
+            final int saved = pos_;
+            pos_ = buf_.getInt( servTab_ + 4*id );
+            readService( s );
+            pos_ = saved;
+        }
+        return s;
+    }
+
+    private ThriftServiceRef getServiceRef( int id )
+    {
+        ThriftServiceRef r = servicerefs_[id];
+        if ( r == null )
+        {
+            r = new ThriftServiceRef();
+            servicerefs_[id] = r;
+            final int saved = pos_;
+            pos_ = buf_.getInt( srefTab_ + 4*id );
+            readServiceRef( r );
+            pos_ = saved;
+        }
+        return r;
+    }
+
+    // Resolves an encoded type id.
+    private ThriftType getTypeById( int id )
+    {
+        if ( id == 0 )
+            return null;
+        if ( id < ThriftModelFormat.FIRST_TYPE_ID )
+            return ThriftModelFormat.BUILTIN_TYPES[id-1];
+        return getType( id-ThriftModelFormat.FIRST_TYPE_ID );
+    }
+
+    // Resolves a reference id+1 in one of the tables.
+    private Object getRef( int table, int ref )
+    {
+        if ( ref == 0 )
+            return null;
+        switch ( table )
+        {
+            case TAB_DOCUMENT:   return getDocument( ref-1 );
+            case TAB_PACKAGE:    return getPackage( ref-1 );
+            case TAB_SERVICE:    return getService( ref-1 );
+            case TAB_SERVICEREF: return getServiceRef( ref-1 );
+            default:             return null;
+        }
+    }
+
+    private void readDocument( ThriftDocument d )
+    {
+        readObject( d );
+        d.ospath_ = ThriftModelFormat.toPath( readString() );
+
+        int n = readVarint();
+        if ( n > 0 )
+        {
+            final int size = buf_.getInt( pos_ );
+            d.includes_ = new LazyIncludes( pos_+4, n-1 );
+            pos_ += 4+size;
+        }
+        readScope( d );
+        d.all_packages_ = readRefs( TAB_PACKAGE );
+        d.all_services_ = readRefs( TAB_SERVICE );
+        d.all_services_byname_ = readMap( TAB_SERVICE );
+        d.all_types_ = readMap( -1 );
+        d.unresolved_types_ = readMap( -1 );
+        d.unresolved_services_ = readRefs( TAB_SERVICEREF );
+    }
+
+    private ThriftInclude readInclude()
+    {
+        ThriftInclude inc = new ThriftInclude();
+        readInfo( inc );
+        inc.path_ = readString();
+        inc.ospath_ = ThriftModelFormat.toPath( readString() );
+        inc.doc_ = (ThriftDocument)getRef( TAB_DOCUMENT, readVarint() );
+        return inc;
+    }
+
+    private void readScope( ThriftScope sc )
+    {
+        sc.name_ = readString();
+        sc.name_fully_qualified_ = readString();
+        sc.services_ = readRefs( TAB_SERVICE );
+        sc.types_ = readTypes();
+    }
+
+    private void readPackage( ThriftPackage p )
+    {
+        readObject( p );
+        readScope( p );
+        p.parent_ = (ThriftPackage)getRef( TAB_PACKAGE, readVarint() );
+        p.subpackages_ = readRefs( TAB_PACKAGE );
+    }
+
+    private void readType( ThriftType t )
+    {
+        readObject( t );
+        t.name_ = readString();
+        t.name_fully_qualified_ = readString();
+        t.package_ = (ThriftPackage)getRef( TAB_PACKAGE, readVarint() );
+
+        switch ( ThriftModelFormat.getKind(t) )
+        {
+            case ThriftModelFormat.KIND_STRUCT:
+            case ThriftModelFormat.KIND_EXCEPTION:
+                ((ThriftStructType)t).fields_ = readFields();
+                break;
+            case ThriftModelFormat.KIND_UNION:
+                ((ThriftUnionType)t).fields_ = readFields();
+                break;
+            case ThriftModelFormat.KIND_ENUM:
+                int n = readVarint();
+                if ( n > 0 )
+                {
+                    List<ThriftEnumValue> values = new ArrayList<>(n-1);
+                    for (int i=1 ; i<n ; ++i)
+                    {
+                        ThriftEnumValue v = new ThriftEnumValue();
+                        readInfo( v );
+                        v.name_ = readString();
+                        v.value_ = ThriftModelFormat.unzigzag( readVarint() );
+                        values.add( v );
+                    }
+                    ((ThriftEnum)t).values_ = values;
+                }
+                break;
+            case ThriftModelFormat.KIND_TYPEDEF:
+                ((ThriftTypedef)t).reftype_ = getTypeById( readVarint() );
+                break;
+            case ThriftModelFormat.KIND_LIST:
+                ((ThriftListType)t).value_type_ = getTypeById( readVarint() );
+                break;
+            case ThriftModelFormat.KIND_SET:
+                ((ThriftSetType)t).value_type_ = getTypeById( readVarint() );
+                break;
+            case ThriftModelFormat.KIND_MAP:
+                ((ThriftMapType)t).key_type_ = getTypeById( readVarint() );
+                ((ThriftMapType)t).value_type_ = getTypeById( readVarint() );
+                break;
+            case ThriftModelFormat.KIND_TYPEREF:
+                ((ThriftTypeRef)t).declaredName_ = readString();
+                ((ThriftTypeRef)t).resolvedType_ = getTypeById( readVarint() );
+                break;
+        }
+    }
+
+    private void readService( ThriftService s )
+    {
+        readObject( s );
+        s.name_ = readString();
+        s.name_fully_qualified_ = readString();
+        s.package_ = (ThriftPackage)getRef( TAB_PACKAGE, readVarint() );
+        s.extended_service_ = (ThriftServiceRef)getRef( TAB_SERVICEREF, readVarint() );
+        final int n = readVarint();
+        final ThriftFunctionMode[] modes = ThriftFunctionMode.values();
+        s.functions_ = new ArrayList<>(n);
+        for (int i=0 ; i<n ; ++i)
+        {
+            ThriftFunction f = new ThriftFunction();
+            readObject( f );
+            f.name_ = readString();
+            final int mode = readVarint();
+            f.mode_ = ( mode > 0 && mode <= modes.length ) ? modes[mode-1] : null;
+            f.return_type_ = getTypeById( readVarint() );
+            f.parameters_ = readFields();
+            f.exceptions_ = readFields();
+            f.service_ = s;
+            s.functions_.add( f );
+        }
+    }
+
+    private void readServiceRef( ThriftServiceRef r )
+    {
+        readInfo( r );
+        r.declaredName_ = readString();
+        r.declarationPackage_ = (ThriftPackage)getRef( TAB_PACKAGE, readVarint() );
+        r.resolvedService_ = (ThriftService)getRef( TAB_SERVICE, readVarint() );
+    }
+
+    private List<ThriftField> readFields()
+    {
+        final int n = readVarint();
+        if ( n == 0 )
+            return null;
+        List<ThriftField> fields = new ArrayList<>(n-1);
+        for (int i=1 ; i<n ; ++i)
+        {
+            ThriftField f = new ThriftField();
+            readObject( f );
+            f.name_ = readString();
+            f.id_ = ThriftModelFormat.unzigzag( readVarint() );
+            f.requiredness_ = ThriftModelFormat.getRequiredness( readVarint() );
+            f.type_ = getTypeById( readVarint() );
+            fields.add( f );
+        }
+        return fields;
+    }
+
+    private void readInfo( ThriftParserInfo info )
+    {
+        info.line_ = ThriftModelFormat.unzigzag( readVarint() );
+        info.column_ = ThriftModelFormat.unzigzag( readVarint() );
+    }
+
+    private void readObject( ThriftObject o )
+    {
+        readInfo( o );
+        final int flags = buf_.get(pos_++) & 0xFF;
+        if ( (flags & ThriftModelFormat.FLAG_COMMENT) != 0 ) o.comment_ = readString();
+        if ( (flags & ThriftModelFormat.FLAG_VERSION) != 0 ) o.version_ = readString();
+        o.deprecated_ = (flags & ThriftModelFormat.FLAG_DEPRECATED) != 0;
+        if ( (flags & ThriftModelFormat.FLAG_ANNOTATIONS) != 0 )
+        {
+            final int n = readVarint();
+            o.annotations_ = new HashMap<>();
+            for (int i=0 ; i<n ; ++i)
+            {
+                String key = readString();
+                o.annotations_.put( key, readString() );
+            }
+        }
+        if ( (flags & ThriftModelFormat.FLAG_DOCUMENT) != 0 )
+            o.setDocument( getDocument( readVarint() ) );
+    }
+
+    private String readString()
+    {
+        final int id = readVarint();
+        return id == 0 ? null : getString( id-1 );
+    }
+
+    // Skips the ids of a list, they are read on access.
+    private <T> List<T> readList( int table )
+    {
+        final int n = readVarint();
+        if ( n == 0 )
+            return null;
+        final LazyList<T> l = new LazyList<T>( table, pos_, n-1 );
+        pos_ += 4*(n-1);
+        return l;
+    }
+
+    private <T> List<T> readRefs( int table )
+    {
+        return readList( table );
+    }
+
+    private List<ThriftType> readTypes()
+    {
+        return readList( -1 );
+    }
+
+    // Skips the keys and ids of a map, they are read on access.
+    private <T> Map<String, T> readMap( int table )
+    {
+        final int n = readVarint();
+        if ( n == 0 )
+            return null;
+        final LazyMap<T> m = new LazyMap<T>( table, pos_, n-1 );
+        pos_ += 8*(n-1);
+        return m;
+    }
+
+    private int readVarint()
+    {
+        int v = 0;
+        for (int shift = 0 ; ; shift += 7)
+        {
+            final int b = buf_.get(pos_++);
+            v |= (b & 0x7F) << shift;
+            if ( (b & 0x80) == 0 )
+                return v;
+        }
+    }
+
+    // Decodes an element of a table (-1: type table).
+    @SuppressWarnings("unchecked")
+    private <T> T resolve( int table, int id )
+    {
+        synchronized ( this )
+        {
+            return (T)( table < 0 ? getTypeById(id) : getRef( table, id ) );
+        }
+    }
+
+    /**
+     * Read-only list that decodes the elements on access.
+     * The ids are read from the image at the offset.
+     */
+    private final class LazyList<T> extends AbstractList<T>
+    {
+        private final int table_;
+        private final int offset_;
+        private final int size_;
+
+        LazyList( int table, int offset, int size )
+        {
+            table_ = table;
+            offset_ = offset;
+            size_ = size;
+        }
+
+        @Override
+        public T get( int index )
+        {
+            if ( index < 0 || index >= size_ )
+                throw new IndexOutOfBoundsException( "Index: "+index+", Size: "+size_ );
+            return resolve( table_, buf_.getInt( offset_ + 4*index ) );
+        }
+
+        @Override
+        public int size()
+        {
+            return size_;
+        }
+    }
+
+    /**
+     * Read-only list of includes, decoded on first access.
+     */
+    private final class LazyIncludes extends AbstractList<ThriftInclude>
+    {
+        private final int offset_;
+        private ThriftInclude[] includes_;
+
+        LazyIncludes( int offset, int size )
+        {
+            offset_ = offset;
+            includes_ = new ThriftInclude[size];
+        }
+
+        @Override
+        public ThriftInclude get( int index )
+        {
+            synchronized ( ThriftModelImage.this )
+            {
+                if ( includes_.length > 0 && includes_[0] == null )
+                {
+                    final int saved = pos_;
+                    pos_ = offset_;
+                    for (int i=0 ; i<includes_.length ; ++i)
+                        includes_[i] = readInclude();
+                    pos_ = saved;
+                }
+                return includes_[index];
+            }
+        }
+
+        @Override
+        public int size()
+        {
+            return includes_.length;
+        }
+    }
+
+    /**
+     * Read-only map with keys sorted by name. Values are decoded on access.
+     * The pairs of key string id+1 and value id are read from the image at the offset.
+     */
+    private final class LazyMap<T> extends AbstractMap<String, T>
+    {
+        private final int table_;
+        private final int offset_;
+        private final int size_;
+
+        LazyMap( int table, int offset, int size )
+        {
+            table_ = table;
+            offset_ = offset;
+            size_ = size;
+        }
+
+        private int entry( int index )
+        {
+            return buf_.getInt( offset_ + 4*index );
+        }
+
+        private String key( int index )
+        {
+            synchronized ( ThriftModelImage.this )
+            {
+                return getString( entry(2*index)-1 );
+            }
+        }
+
+        private int indexOf( Object key )
+        {
+            if ( !(key instanceof String) )
+                return -1;
+            int lo = 0;
+            int hi = size_-1;
+            while ( lo <= hi )
+            {
+                final int mid = (lo+hi) >>> 1;
+                final int c = key(mid).compareTo( (String)key );
+                if ( c < 0 )
+                    lo = mid+1;
+                else if ( c > 0 )
+                    hi = mid-1;
+                else
+                    return mid;
+            }
+            return -1;
+        }
+
+        @Override
+        public T get( Object key )
+        {
+            final int i = indexOf( key );
+            return i < 0 ? null : this.<T>value( i );
+        }
+
+        @SuppressWarnings("unchecked")
+        private <V> V value( int index )
+        {
+            return (V)resolve( table_, entry(2*index+1) );
+        }
+
+        @Override
+        public boolean containsKey( Object key )
+        {
+            return indexOf( key ) >= 0;
+        }
+
+        @Override
+        public int size()
+        {
+            return size_;
+        }
+
+        @Override
+        public Set<Entry<String, T>> entrySet()
+        {
+            return new AbstractSet<Entry<String, T>>()
+            {
+                @Override
+                public Iterator<Entry<String, T>> iterator()
+                {
+                    return new Iterator<Entry<String, T>>()
+                    {
+                        private int next_ = 0;
+
+                        @Override
+                        public boolean hasNext()
+                        {
+                            return next_ < size_;
+                        }
+
+                        @Override
+                        public Entry<String, T> next()
+                        {
+                            if ( next_ >= size_ )
+                                throw new NoSuchElementException();
+                            final int i = next_++;
+                            return new SimpleImmutableEntry<String, T>( key(i), LazyMap.this.<T>value(i) );
+                        }
+
+                        @Override
+                        public void remove()
+                        {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size()
+                {
+                    return size_;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.io;
+
+import bweng.thrift.parser.model.*;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes model images for {@link ThriftModelImage}.<p>
+ * Layout (all offsets are absolute, all fixed size integers big endian):
+ * <pre>
+ *  header      magic, version, counts and section offsets (see ThriftModelImage)
+ *  kinds       one byte per type
+ *  records     varint encoded objects, strings referenced by id,
+ *              lists and maps with fixed size int entries to be read in place
+ *  strings     varint length + UTF-8 bytes
+ *  tables      int offsets of all records and strings
+ *  indexes     pairs of name string id and service/type id, sorted by fully qualified name
+ * </pre>
+ */
+final class ThriftModelImageWriter extends ThriftModelFormat.Encoder
+{
+    private final Map<String, Integer> strings_ = new HashMap<>();
+    private final List<String> stringList_ = new ArrayList<>();
+    private final Rec rec_ = new Rec();
+
+    // Output buffer with varint support.
+    static final class Rec extends ByteArrayOutputStream
+    {
+        Rec()
+        {
+            super( 64*1024 );
+        }
+
+        void varint( int v )
+        {
+            while ( (v & ~0x7F) != 0 )
+            {
+                write( (v & 0x7F) | 0x80 );
+                v >>>= 7;
+            }
+            write( v );
+        }
+
+        void int32( int v )
+        {
+            write( v >>> 24 );
+            write( v >>> 16 );
+            write( v >>> 8 );
+            write( v );
+        }
+
+        void setInt32( int offset, int v )
+        {
+            buf[offset]   = (byte)(v >>> 24);
+            buf[offset+1] = (byte)(v >>> 16);
+            buf[offset+2] = (byte)(v >>> 8);
+            buf[offset+3] = (byte)v;
+        }
+    }
+
+    ThriftModelImageWriter( ThriftDocument doc )
+    {
+        tables_ = new ThriftModelTables( doc );
+    }
+
+    void write( OutputStream os ) throws IOException
+    {
+        final int[] docOffs  = new int[tables_.documents_.size()];
+        final int[] pkgOffs  = new int[tables_.packages_.size()];
+        final int[] typeOffs = new int[tables_.types_.size()];
+        final int[] servOffs = new int[tables_.services_.size()];
+        final int[] srefOffs = new int[tables_.servicerefs_.size()];
+
+        for (int i=0 ; i<docOffs.length ; ++i)
+        {
+            docOffs[i] = rec_.size();
+            writeDocument( tables_.documents_.get(i) );
+        }
+        for (int i=0 ; i<pkgOffs.length ; ++i)
+        {
+            pkgOffs[i] = rec_.size();
+            writePackage( tables_.packages_.get(i) );
+        }
+        for (int i=0 ; i<typeOffs.length ; ++i)
+        {
+            typeOffs[i] = rec_.size();
+            writeType( tables_.types_.get(i) );
+        }
+        for (int i=0 ; i<servOffs.length ; ++i)
+        {
+            servOffs[i] = rec_.size();
+            writeService( tables_.services_.get(i) );
+        }
+        for (int i=0 ; i<srefOffs.length ; ++i)
+        {
+            srefOffs[i] = rec_.size();
+            writeServiceRef( tables_.servicerefs_.get(i) );
+        }
+        final List<Integer> serviceIndex = createServiceIndex();
+        final List<Integer> typeIndex = createTypeIndex();
+
+        Rec strings = new Rec();
+        final int[] strOffs = new int[stringList_.size()];
+        for (int i=0 ; i<strOffs.length ; ++i)
+        {
+            strOffs[i] = strings.size();
+            byte[] b = stringList_.get(i).getBytes(StandardCharsets.UTF_8);
+            strings.varint( b.length );
+            strings.write( b, 0, b.length );
+        }
+
+        final int kindsOff = ThriftModelImage.HEADER_SIZE;
+        final int recsOff  = kindsOff + typeOffs.length;
+        final int strOff   = recsOff + rec_.size();
+        final int docTab   = strOff + strings.size();
+        final int pkgTab   = docTab + 4*docOffs.length;
+        final int typeTab  = pkgTab + 4*pkgOffs.length;
+        final int servTab  = typeTab + 4*typeOffs.length;
+        final int srefTab  = servTab + 4*servOffs.length;
+        final int strTab   = srefTab + 4*srefOffs.length;
+        final int servIdx  = strTab + 4*strOffs.length;
+        final int typeIdx  = servIdx + 4*(2*serviceIndex.size()+1);
+
+        DataOutputStream out = new DataOutputStream( os );
+        out.write( ThriftModelImage.MAGIC );
+        out.writeInt( ThriftModelImage.VERSION );
+        out.writeInt( docOffs.length );
+        out.writeInt( pkgOffs.length );
+        out.writeInt( typeOffs.length );
+        out.writeInt( servOffs.length );
+        out.writeInt( srefOffs.length );
+        out.writeInt( strOffs.length );
+        out.writeInt( kindsOff );
+        out.writeInt( docTab );
+        out.writeInt( pkgTab );
+        out.writeInt( typeTab );
+        out.writeInt( servTab );
+        out.writeInt( srefTab );
+        out.writeInt( strTab );
+        out.writeInt( servIdx );
+        out.writeInt( typeIdx );
+
+        for ( ThriftType t : tables_.types_ )
+            out.write( ThriftModelFormat.getKind(t) );
+        rec_.writeTo( out );
+        strings.writeTo( out );
+        for ( int o : docOffs )  out.writeInt( recsOff+o );
+        for ( int o : pkgOffs )  out.writeInt( recsOff+o );
+        for ( int o : typeOffs ) out.writeInt( recsOff+o );
+        for ( int o : servOffs ) out.writeInt( recsOff+o );
+        for ( int o : srefOffs ) out.writeInt( recsOff+o );
+        for ( int o : strOffs )  out.writeInt( strOff+o );
+        out.writeInt( serviceIndex.size() );
+        for ( int id : serviceIndex )
+        {
+            out.writeInt( strings_.get( tables_.services_.get(id).name_fully_qualified_ ) );
+            out.writeInt( id );
+        }
+        out.writeInt( typeIndex.size() );
+        for ( int id : typeIndex )
+        {
+            out.writeInt( strings_.get( tables_.types_.get(id).name_fully_qualified_ ) );
+            out.writeInt( id );
+        }
+        out.flush();
+    }
+
+    private List<Integer> createServiceIndex()
+    {
+        List<Integer> ids = new ArrayList<>();
+        for (int i=0 ; i<tables_.services_.size() ; ++i)
+            if ( tables_.services_.get(i).name_fully_qualified_ != null )
+                ids.add( i );
+        Collections.sort( ids, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer o1, Integer o2)
+            {
+                return tables_.services_.get(o1).name_fully_qualified_.compareTo(
+                       tables_.services_.get(o2).name_fully_qualified_ );
+            }
+        });
+        return ids;
+    }
+
+    private List<Integer> createTypeIndex()
+    {
+        List<Integer> ids = new ArrayList<>();
+        for (int i=0 ; i<tables_.types_.size() ; ++i)
+        {
+            ThriftType t = tables_.types_.get(i);
+            if ( !(t instanceof ThriftTypeRef) && t.name_fully_qualified_ != null && !t.name_fully_qualified_.isEmpty() )
+                ids.add( i );
+        }
+        Collections.sort( ids, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer o1, Integer o2)
+            {
+                return tables_.types_.get(o1).name_fully_qualified_.compareTo(
+                       tables_.types_.get(o2).name_fully_qualified_ );
+            }
+        });
+        return ids;
+    }
+
+    private void writeDocument( ThriftDocument d ) throws IOException
+    {
+        writeObject( d );
+        writeString( ThriftModelFormat.toUriString(d.ospath_) );
+
+        // Includes are prefixed by their size, so readers can skip them.
+        writeVarint( d.includes_ == null ? 0 : d.includes_.size()+1 );
+        if ( d.includes_ != null )
+        {
+            final int sizeOff = rec_.size();
+            rec_.int32( 0 );
+            for ( ThriftInclude i : d.includes_ )
+            {
+                writeInfo( i );
+                writeString( i.path_ );
+                writeString( ThriftModelFormat.toUriString(i.ospath_) );
+                writeRef( i.doc_ );
+            }
+            rec_.setInt32( sizeOff, rec_.size()-sizeOff-4 );
+        }
+        writeScope( d );
+        writeRefs( d.all_packages_ );
+        writeRefs( d.all_services_ );
+        writeServiceMap( d.all_services_byname_ );
+        writeTypeMap( d.all_types_ );
+        writeTypeMap( d.unresolved_types_ );
+        writeRefs( d.unresolved_services_ );
+    }
+
+    // Writes a map as list of key/type-id int pairs, sorted by key.
+    private void writeTypeMap( Map<String, ? extends ThriftType> map )
+    {
+        writeVarint( map == null ? 0 : map.size()+1 );
+        if ( map != null )
+        {
+            List<String> keys = new ArrayList<>( map.keySet() );
+            Collections.sort( keys );
+            for ( String k : keys )
+            {
+                rec_.int32( stringId(k)+1 );
+                rec_.int32( tables_.getTypeId( map.get(k) ) );
+            }
+        }
+    }
+
+    // Writes a map as list of key/service-reference int pairs, sorted by key.
+    private void writeServiceMap( Map<String, ThriftService> map )
+    {
+        writeVarint( map == null ? 0 : map.size()+1 );
+        if ( map != null )
+        {
+            List<String> keys = new ArrayList<>( map.keySet() );
+            Collections.sort( keys );
+            for ( String k : keys )
+            {
+                ThriftService v = map.get(k);
+                rec_.int32( stringId(k)+1 );
+                rec_.int32( v == null ? 0 : tables_.getId(v)+1 );
+            }
+        }
+    }
+
+    @Override
+    void writeByte( int b )
+    {
+        rec_.write( b );
+    }
+
+    @Override
+    void writeVarint( int v )
+    {
+        rec_.varint( v );
+    }
+
+    // Writes the references as int entries.
+    @Override
+    void writeRefs( List<?> l )
+    {
+        rec_.varint( l == null ? 0 : l.size()+1 );
+        if ( l != null )
+            for ( Object o : l ) rec_.int32( o == null ? 0 : tables_.getId(o)+1 );
+    }
+
+    // Writes the encoded type ids as int entries.
+    @Override
+    void writeTypes( List<ThriftType> types )
+    {
+        rec_.varint( types == null ? 0 : types.size()+1 );
+        if ( types != null )
+            for ( ThriftType t : types ) rec_.int32( tables_.getTypeId(t) );
+    }
+
+    // Writes id+1 of the string or 0 for null.
+    @Override
+    void writeString( String s )
+    {
+        writeVarint( s == null ? 0 : stringId(s)+1 );
+    }
+
+    private int stringId( String s )
+    {
+        Integer id = strings_.get(s);
+        if ( id == null )
+        {
+            id = stringList_.size();
+            strings_.put( s, id );
+            stringList_.add( s );
+        }
+        return id;
+    }
+}
@@ -0,0 +1,431 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.io;
+
+import bweng.thrift.parser.model.*;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Reads a model written by {@link ThriftModelWriter}.<p>
+ * Type-reference chains are cached as after resolution by the model generator,
+ * the reverse type usage index and (if the original document had one) the object index are re-created.
+ */
+public final class ThriftModelReader implements Closeable
+{
+    private final InputStream in_;
+    private final List<String> strings_ = new ArrayList<>();
+    private final List<ThriftObject> objects_ = new ArrayList<>();
+
+    private ThriftDocument[]   documents_;
+    private ThriftPackage[]    packages_;
+    private ThriftType[]       types_;
+    private ThriftService[]    services_;
+    private ThriftServiceRef[] servicerefs_;
+
+    /**
+     * Creates a reader.
+     * @param in The stream to read from.
+     */
+    public ThriftModelReader( InputStream in )
+    {
+        in_ = (in instanceof BufferedInputStream) ? in : new BufferedInputStream(in, 16*1024);
+    }
+
+    /**
+     * Reads a model.
+     * @return The root document with all included documents.
+     * @throws IOException If the stream could not be read or has wrong format or version.
+     */
+    public ThriftDocument read() throws IOException
+    {
+        strings_.clear();
+        objects_.clear();
+
+        byte[] magic = new byte[ThriftModelFormat.MAGIC.length];
+        for (int i=0 ; i<magic.length ; ++i) magic[i] = (byte)readByte();
+        if ( !Arrays.equals( magic, ThriftModelFormat.MAGIC ) )
+            throw new IOException("Not a serialized thrift model");
+        final int version = readVarint();
+        if ( version != ThriftModelFormat.VERSION )
+            throw new IOException("Unsupported model format version "+version);
+
+        documents_   = new ThriftDocument[readVarint()];
+        packages_    = new ThriftPackage[readVarint()];
+        types_       = new ThriftType[readVarint()];
+        services_    = new ThriftService[readVarint()];
+        servicerefs_ = new ThriftServiceRef[readVarint()];
+
+        for (int i=0 ; i<documents_.length ; ++i) documents_[i] = new ThriftDocument();
+        for (int i=0 ; i<packages_.length ; ++i) packages_[i] = new ThriftPackage();
+        for (int i=0 ; i<types_.length ; ++i)
+        {
+            types_[i] = ThriftModelFormat.createType( readByte() );
+            if ( types_[i] == null )
+                throw new IOException("Illegal type kind");
+        }
+        for (int i=0 ; i<services_.length ; ++i) services_[i] = new ThriftService();
+        for (int i=0 ; i<servicerefs_.length ; ++i) servicerefs_[i] = new ThriftServiceRef();
+
+        boolean[] indexed = new boolean[documents_.length];
+        for (int i=0 ; i<documents_.length ; ++i) indexed[i] = readDocument( documents_[i] );
+        for ( ThriftPackage p : packages_ )     readPackage( p );
+        for ( ThriftType t : types_ )           readType( t );
+        for ( ThriftService s : services_ )     readService( s );
+        for ( ThriftServiceRef r : servicerefs_ ) readServiceRef( r );
+
+        ThriftDocument root = documents_.length > 0 ? documents_[0] : null;
+        finish( root, indexed );
+
+        strings_.clear();
+        objects_.clear();
+        documents_ = null;
+        packages_ = null;
+        types_ = null;
+        services_ = null;
+        servicerefs_ = null;
+        return root;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        in_.close();
+    }
+
+    // Re-creates all cached and derived information.
+    private void finish( ThriftDocument root, boolean[] indexed )
+    {
+        for ( ThriftType t : types_ )
+            t.cacheRealType();
+
+        for ( ThriftService s : services_ )
+            for ( ThriftFunction f : s.functions_ ) f.service_ = s;
+
+        for (int i=0 ; i<documents_.length ; ++i)
+        {
+            ThriftDocument d = documents_[i];
+            if ( d.all_services_ != null )
+            {
+                d.all_services_byname_ = new HashMap<>();
+                for ( ThriftService s : d.all_services_ )
+                    d.all_services_byname_.put( s.name_fully_qualified_, s );
+            }
+            if ( indexed[i] )
+                d.object_index_ = new ThriftObjectIndex();
+        }
+        for ( ThriftObject o : objects_ )
+        {
+            ThriftDocument d = o.getDocument();
+            if ( d != null && d.object_index_ != null &&
+                 (o.version_ != null || o.deprecated_ || o.annotations_ != null ))
+                d.object_index_.add( o );
+        }
+
+        if ( root != null )
+        {
+            root.type_usages_ = new ThriftUsageIndex();
+            root.type_usages_.add( root );
+        }
+    }
+
+    private boolean readDocument( ThriftDocument d ) throws IOException
+    {
+        readObject( d );
+        d.ospath_ = ThriftModelFormat.toPath( readString() );
+        final boolean indexed = readVarint() != 0;
+
+        int n = readVarint();
+        if ( n > 0 )
+        {
+            d.includes_ = new ArrayList<>(n-1);
+            for (int i=1 ; i<n ; ++i)
+            {
+                ThriftInclude inc = new ThriftInclude();
+                readInfo( inc );
+                inc.path_ = readString();
+                inc.ospath_ = ThriftModelFormat.toPath( readString() );
+                inc.doc_ = readRef( documents_ );
+                d.includes_.add( inc );
+            }
+        }
+        readScope( d );
+        d.all_packages_ = readRefs( packages_ );
+        d.all_services_ = readRefs( services_ );
+
+        n = readVarint();
+        if ( n > 0 )
+        {
+            d.all_types_ = new HashMap<>();
+            for (int i=1 ; i<n ; ++i)
+            {
+                String key = readString();
+                d.all_types_.put( key, readTypeRef() );
+            }
+        }
+        n = readVarint();
+        if ( n > 0 )
+        {
+            d.unresolved_types_ = new HashMap<>();
+            for (int i=1 ; i<n ; ++i)
+            {
+                String key = readString();
+                d.unresolved_types_.put( key, (ThriftTypeRef)readTypeRef() );
+            }
+        }
+        d.unresolved_services_ = readRefs( servicerefs_ );
+        return indexed;
+    }
+
+    private void readScope( ThriftScope sc ) throws IOException
+    {
+        sc.name_ = readString();
+        sc.name_fully_qualified_ = readString();
+        sc.services_ = readRefs( services_ );
+        sc.types_ = readTypes();
+    }
+
+    private void readPackage( ThriftPackage p ) throws IOException
+    {
+        readObject( p );
+        readScope( p );
+        p.parent_ = readRef( packages_ );
+        p.subpackages_ = readRefs( packages_ );
+    }
+
+    private void readType( ThriftType t ) throws IOException
+    {
+        readObject( t );
+        t.name_ = readString();
+        t.name_fully_qualified_ = readString();
+        t.package_ = readRef( packages_ );
+
+        switch ( ThriftModelFormat.getKind(t) )
+        {
+            case ThriftModelFormat.KIND_STRUCT:
+            case ThriftModelFormat.KIND_EXCEPTION:
+                ((ThriftStructType)t).fields_ = readFields();
+                break;
+            case ThriftModelFormat.KIND_UNION:
+                ((ThriftUnionType)t).fields_ = readFields();
+                break;
+            case ThriftModelFormat.KIND_ENUM:
+                int n = readVarint();
+                if ( n > 0 )
+                {
+                    List<ThriftEnumValue> values = new ArrayList<>(n-1);
+                    for (int i=1 ; i<n ; ++i)
+                    {
+                        ThriftEnumValue v = new ThriftEnumValue();
+                        readInfo( v );
+                        v.name_ = readString();
+                        v.value_ = ThriftModelFormat.unzigzag( readVarint() );
+                        values.add( v );
+                    }
+                    ((ThriftEnum)t).values_ = values;
+                }
+                break;
+            case ThriftModelFormat.KIND_TYPEDEF:
+                ((ThriftTypedef)t).reftype_ = readTypeRef();
+                break;
+            case ThriftModelFormat.KIND_LIST:
+                ((ThriftListType)t).value_type_ = readTypeRef();
+                break;
+            case ThriftModelFormat.KIND_SET:
+                ((ThriftSetType)t).value_type_ = readTypeRef();
+                break;
+            case ThriftModelFormat.KIND_MAP:
+                ((ThriftMapType)t).key_type_ = readTypeRef();
+                ((ThriftMapType)t).value_type_ = readTypeRef();
+                break;
+            case ThriftModelFormat.KIND_TYPEREF:
+                ((ThriftTypeRef)t).declaredName_ = readString();
+                ((ThriftTypeRef)t).resolvedType_ = readTypeRef();
+                break;
+        }
+    }
+
+    private void readService( ThriftService s ) throws IOException
+    {
+        readObject( s );
+        s.name_ = readString();
+        s.name_fully_qualified_ = readString();
+        s.package_ = readRef( packages_ );
+        s.extended_service_ = readRef( servicerefs_ );
+        final int n = readVarint();
+        final ThriftFunctionMode[] modes = ThriftFunctionMode.values();
+        s.functions_ = new ArrayList<>(n);
+        for (int i=0 ; i<n ; ++i)
+        {
+            ThriftFunction f = new ThriftFunction();
+            readObject( f );
+            f.name_ = readString();
+            final int mode = readVarint();
+            f.mode_ = ( mode > 0 && mode <= modes.length ) ? modes[mode-1] : null;
+            f.return_type_ = readTypeRef();
+            f.parameters_ = readFields();
+            f.exceptions_ = readFields();
+            s.functions_.add( f );
+        }
+    }
+
+    private void readServiceRef( ThriftServiceRef r ) throws IOException
+    {
+        readInfo( r );
+        r.declaredName_ = readString();
+        r.declarationPackage_ = readRef( packages_ );
+        r.resolvedService_ = readRef( services_ );
+    }
+
+    private List<ThriftField> readFields() throws IOException
+    {
+        final int n = readVarint();
+        if ( n == 0 )
+            return null;
+        List<ThriftField> fields = new ArrayList<>(n-1);
+        for (int i=1 ; i<n ; ++i)
+        {
+            ThriftField f = new ThriftField();
+            readObject( f );
+            f.name_ = readString();
+            f.id_ = ThriftModelFormat.unzigzag( readVarint() );
+            f.requiredness_ = ThriftModelFormat.getRequiredness( readVarint() );
+            f.type_ = readTypeRef();
+            fields.add( f );
+        }
+        return fields;
+    }
+
+    private List<ThriftType> readTypes() throws IOException
+    {
+        final int n = readVarint();
+        if ( n == 0 )
+            return null;
+        List<ThriftType> types = new ArrayList<>(n-1);
+        for (int i=1 ; i<n ; ++i)
+            types.add( readTypeRef() );
+        return types;
+    }
+
+    private ThriftType readTypeRef() throws IOException
+    {
+        final int id = readVarint();
+        if ( id == 0 )
+            return null;
+        if ( id < ThriftModelFormat.FIRST_TYPE_ID )
+            return ThriftModelFormat.BUILTIN_TYPES[id-1];
+        final int idx = id-ThriftModelFormat.FIRST_TYPE_ID;
+        if ( idx >= types_.length )
+            throw new IOException("Illegal type id "+id);
+        return types_[idx];
+    }
+
+    private void readInfo( ThriftParserInfo info ) throws IOException
+    {
+        info.line_ = ThriftModelFormat.unzigzag( readVarint() );
+        info.column_ = ThriftModelFormat.unzigzag( readVarint() );
+    }
+
+    private void readObject( ThriftObject o ) throws IOException
+    {
+        readInfo( o );
+        final int flags = readByte();
+        if ( (flags & ThriftModelFormat.FLAG_COMMENT) != 0 ) o.comment_ = readString();
+        if ( (flags & ThriftModelFormat.FLAG_VERSION) != 0 ) o.version_ = readString();
+        o.deprecated_ = (flags & ThriftModelFormat.FLAG_DEPRECATED) != 0;
+        if ( (flags & ThriftModelFormat.FLAG_ANNOTATIONS) != 0 )
+        {
+            final int n = readVarint();
+            o.annotations_ = new HashMap<>();
+            for (int i=0 ; i<n ; ++i)
+            {
+                String key = readString();
+                o.annotations_.put( key, readString() );
+            }
+        }
+        if ( (flags & ThriftModelFormat.FLAG_DOCUMENT) != 0 )
+        {
+            final int id = readVarint();
+            if ( id < 0 || id >= documents_.length )
+                throw new IOException("Illegal document id "+id);
+            o.setDocument( documents_[id] );
+        }
+        objects_.add( o );
+    }
+
+    private <T> T readRef( T[] table ) throws IOException
+    {
+        final int id = readVarint();
+        if ( id == 0 )
+            return null;
+        if ( id > table.length )
+            throw new IOException("Illegal reference "+id);
+        return table[id-1];
+    }
+
+    private <T> List<T> readRefs( T[] table ) throws IOException
+    {
+        final int n = readVarint();
+        if ( n == 0 )
+            return null;
+        List<T> l = new ArrayList<>(n-1);
+        for (int i=1 ; i<n ; ++i)
+            l.add( readRef(table) );
+        return l;
+    }
+
+    private String readString() throws IOException
+    {
+        final int id = readVarint();
+        if ( id == 0 )
+            return null;
+        if ( id == 1 )
+        {
+            final int len = readVarint();
+            byte[] b = new byte[len];
+            int o = 0;
+            while ( o < len )
+            {
+                int r = in_.read( b, o, len-o );
+                if ( r < 0 ) throw new EOFException();
+                o += r;
+            }
+            String s = new String( b, StandardCharsets.UTF_8 );
+            strings_.add( s );
+            return s;
+        }
+        if ( id-2 >= strings_.size() )
+            throw new IOException("Illegal string id "+id);
+        return strings_.get( id-2 );
+    }
+
+    private int readByte() throws IOException
+    {
+        int b = in_.read();
+        if ( b < 0 ) throw new EOFException();
+        return b;
+    }
+
+    private int readVarint() throws IOException
+    {
+        int v = 0;
+        for (int shift = 0 ; shift < 35 ; shift += 7)
+        {
+            int b = readByte();
+            v |= (b & 0x7F) << shift;
+            if ( (b & 0x80) == 0 )
+                return v;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,165 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.io;
+
+import bweng.thrift.parser.model.*;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects all shared objects of a model and assigns ids in a stable order.
+ * Fields, functions, enum values and includes are owned by one object and get no id.
+ */
+final class ThriftModelTables
+{
+    final List<ThriftDocument>   documents_ = new ArrayList<>();
+    final List<ThriftPackage>    packages_  = new ArrayList<>();
+    final List<ThriftType>       types_     = new ArrayList<>();
+    final List<ThriftService>    services_  = new ArrayList<>();
+    final List<ThriftServiceRef> servicerefs_ = new ArrayList<>();
+
+    private final Map<Object, Integer> ids_ = new IdentityHashMap<>();
+
+    ThriftModelTables( ThriftDocument root )
+    {
+        addDocument( root );
+    }
+
+    /**
+     * Gets the id of a collected object.
+     * @return The id or -1 if not collected.
+     */
+    int getId( Object o )
+    {
+        Integer id = ids_.get(o);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Gets the encoded id of a type, see {@link ThriftModelFormat#BUILTIN_TYPES}.
+     */
+    int getTypeId( ThriftType t )
+    {
+        if ( t == null ) return 0;
+        int b = ThriftModelFormat.getBuiltinId(t);
+        if ( b > 0 ) return b;
+        return ThriftModelFormat.FIRST_TYPE_ID + getId(t);
+    }
+
+    private boolean register( Object o, List<?> list )
+    {
+        if ( o == null || ids_.containsKey(o) )
+            return false;
+        ids_.put( o, list.size() );
+        return true;
+    }
+
+    private void addDocument( ThriftDocument doc )
+    {
+        if ( !register( doc, documents_ ) )
+            return;
+        documents_.add( doc );
+
+        if ( doc.includes_ != null )
+            for ( ThriftInclude i : doc.includes_ ) addDocument( i.doc_ );
+        if ( doc.all_packages_ != null )
+            for ( ThriftPackage p : doc.all_packages_ ) addPackage( p );
+        addScope( doc );
+        if ( doc.all_types_ != null )
+            for ( ThriftType t : doc.all_types_.values() ) addType( t );
+        if ( doc.unresolved_types_ != null )
+            for ( ThriftType t : doc.unresolved_types_.values() ) addType( t );
+        if ( doc.all_services_ != null )
+            for ( ThriftService s : doc.all_services_ ) addService( s );
+        if ( doc.unresolved_services_ != null )
+            for ( ThriftServiceRef r : doc.unresolved_services_ ) addServiceRef( r );
+    }
+
+    private void addScope( ThriftScope sc )
+    {
+        if ( sc.types_ != null )
+            for ( ThriftType t : sc.types_ ) addType( t );
+        if ( sc.services_ != null )
+            for ( ThriftService s : sc.services_ ) addService( s );
+    }
+
+    private void addPackage( ThriftPackage p )
+    {
+        if ( !register( p, packages_ ) )
+            return;
+        packages_.add( p );
+        addDocument( p.getDocument() );
+        addPackage( p.parent_ );
+        if ( p.subpackages_ != null )
+            for ( ThriftPackage sp : p.subpackages_ ) addPackage( sp );
+        addScope( p );
+    }
+
+    private void addType( ThriftType t )
+    {
+        if ( t == null || ThriftModelFormat.getBuiltinId(t) > 0 || !register( t, types_ ) )
+            return;
+        types_.add( t );
+        addDocument( t.getDocument() );
+        addPackage( t.package_ );
+
+        if ( t instanceof ThriftStructType )
+            addFields( ((ThriftStructType)t).fields_ );
+        else if ( t instanceof ThriftUnionType )
+            addFields( ((ThriftUnionType)t).fields_ );
+        else if ( t instanceof ThriftTypedef )
+            addType( ((ThriftTypedef)t).reftype_ );
+        else if ( t instanceof ThriftTypeRef )
+            addType( ((ThriftTypeRef)t).resolvedType_ );
+        else if ( t instanceof ThriftListType )
+            addType( ((ThriftListType)t).value_type_ );
+        else if ( t instanceof ThriftSetType )
+            addType( ((ThriftSetType)t).value_type_ );
+        else if ( t instanceof ThriftMapType )
+        {
+            addType( ((ThriftMapType)t).key_type_ );
+            addType( ((ThriftMapType)t).value_type_ );
+        }
+    }
+
+    private void addFields( List<ThriftField> fields )
+    {
+        if ( fields != null )
+            for ( ThriftField f : fields )
+            {
+                addDocument( f.getDocument() );
+                addType( f.type_ );
+            }
+    }
+
+    private void addService( ThriftService s )
+    {
+        if ( !register( s, services_ ) )
+            return;
+        services_.add( s );
+        addDocument( s.getDocument() );
+        addPackage( s.package_ );
+        addServiceRef( s.extended_service_ );
+        for ( ThriftFunction f : s.functions_ )
+        {
+            addDocument( f.getDocument() );
+            addType( f.return_type_ );
+            addFields( f.parameters_ );
+            addFields( f.exceptions_ );
+        }
+    }
+
+    private void addServiceRef( ThriftServiceRef r )
+    {
+        if ( !register( r, servicerefs_ ) )
+            return;
+        servicerefs_.add( r );
+        addPackage( r.declarationPackage_ );
+        if ( r.resolvedService_ != null )
+            addService( r.resolvedService_ );
+    }
+}
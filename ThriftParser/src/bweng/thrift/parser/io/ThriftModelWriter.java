@@ -0,0 +1,157 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.io;
+
+import bweng.thrift.parser.model.*;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes a (resolved) model in a compact binary format.<p>
+ * The document, all includes and all referenced objects are written.
+ * Strings are stored once and later referenced by id, all numbers are encoded as varints.
+ * Use {@link ThriftModelReader} to read the model.
+ */
+public final class ThriftModelWriter implements Closeable
+{
+    private final OutputStream out_;
+
+    /**
+     * Creates a writer.
+     * @param out The stream to write to.
+     */
+    public ThriftModelWriter( OutputStream out )
+    {
+        out_ = (out instanceof BufferedOutputStream) ? out : new BufferedOutputStream(out, 16*1024);
+    }
+
+    /**
+     * Writes a document with all included documents.
+     * The stream is flushed, but not closed.
+     * @param doc The root document.
+     */
+    public void write( ThriftDocument doc ) throws IOException
+    {
+        final StreamEncoder enc = new StreamEncoder( new ThriftModelTables( doc ) );
+        final ThriftModelTables tables = enc.tables_;
+
+        out_.write( ThriftModelFormat.MAGIC );
+        enc.writeVarint( ThriftModelFormat.VERSION );
+
+        enc.writeVarint( tables.documents_.size() );
+        enc.writeVarint( tables.packages_.size() );
+        enc.writeVarint( tables.types_.size() );
+        enc.writeVarint( tables.services_.size() );
+        enc.writeVarint( tables.servicerefs_.size() );
+
+        for ( ThriftType t : tables.types_ )
+            out_.write( ThriftModelFormat.getKind(t) );
+
+        for ( ThriftDocument d : tables.documents_ )   enc.writeDocument( d );
+        for ( ThriftPackage p : tables.packages_ )     enc.writePackage( p );
+        for ( ThriftType t : tables.types_ )           enc.writeType( t );
+        for ( ThriftService s : tables.services_ )     enc.writeService( s );
+        for ( ThriftServiceRef r : tables.servicerefs_ ) enc.writeServiceRef( r );
+
+        out_.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        out_.close();
+    }
+
+    // Stream encoding with inline strings.
+    private final class StreamEncoder extends ThriftModelFormat.Encoder
+    {
+        private final Map<String, Integer> strings_ = new HashMap<>();
+
+        StreamEncoder( ThriftModelTables tables )
+        {
+            tables_ = tables;
+        }
+
+        void writeDocument( ThriftDocument d ) throws IOException
+        {
+            writeObject( d );
+            writeString( ThriftModelFormat.toUriString(d.ospath_) );
+            writeVarint( d.object_index_ != null ? 1 : 0 );
+
+            writeVarint( d.includes_ == null ? 0 : d.includes_.size()+1 );
+            if ( d.includes_ != null )
+            {
+                for ( ThriftInclude i : d.includes_ )
+                {
+                    writeInfo( i );
+                    writeString( i.path_ );
+                    writeString( ThriftModelFormat.toUriString(i.ospath_) );
+                    writeRef( i.doc_ );
+                }
+            }
+            writeScope( d );
+            writeRefs( d.all_packages_ );
+            writeRefs( d.all_services_ );
+
+            writeVarint( d.all_types_ == null ? 0 : d.all_types_.size()+1 );
+            if ( d.all_types_ != null )
+            {
+                for ( Map.Entry<String, ThriftType> e : d.all_types_.entrySet() )
+                {
+                    writeString( e.getKey() );
+                    writeTypeRef( e.getValue() );
+                }
+            }
+            writeVarint( d.unresolved_types_ == null ? 0 : d.unresolved_types_.size()+1 );
+            if ( d.unresolved_types_ != null )
+            {
+                for ( Map.Entry<String, ThriftTypeRef> e : d.unresolved_types_.entrySet() )
+                {
+                    writeString( e.getKey() );
+                    writeTypeRef( e.getValue() );
+                }
+            }
+            writeRefs( d.unresolved_services_ );
+        }
+
+        @Override
+        void writeByte( int b ) throws IOException
+        {
+            out_.write( b );
+        }
+
+        /**
+         * Writes a string.<br>
+         * 0: null, 1: new string with length and UTF-8 bytes, n: previous string with id n-2.
+         */
+        @Override
+        void writeString( String s ) throws IOException
+        {
+            if ( s == null )
+            {
+                writeVarint( 0 );
+                return;
+            }
+            Integer id = strings_.get(s);
+            if ( id != null )
+            {
+                writeVarint( id+2 );
+            }
+            else
+            {
+                strings_.put( s, strings_.size() );
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                writeVarint( 1 );
+                writeVarint( b.length );
+                out_.write( b );
+            }
+        }
+    }
+}
@@ -37,6 +37,24 @@ public class ThriftDocument extends ThriftScope
     /** All yet unresolved services in this document. */
     public List<ThriftServiceRef> unresolved_services_;
 
+    /** Reverse index of type usages, created during resolution or null. */
+    public ThriftUsageIndex type_usages_;
+
+    /** Optional indexes by annotation, version and deprecated-mark or null. */
+    public ThriftObjectIndex object_index_;
+
+    // Cached fingerprint, 0 if not computed, see ThriftFingerprints.
+    long fingerprint_;
+
+    /**
+     * Gets the structural fingerprint of this document.
+     * @see ThriftFingerprints#of(ThriftDocument)
+     */
+    public final long getFingerprint()
+    {
+        return ThriftFingerprints.of( this );
+    }
+
     /**
      * Gets a human readable description of all packages/services.
      * @return Textual representation.
@@ -12,6 +12,7 @@ public final class ThriftField extends ThriftObject
     public String name_;
     public int    id_;
     public ThriftType type_;
+    public ThriftFieldRequiredness requiredness_ = ThriftFieldRequiredness.DEFAULT;
 
     @Override
     public String toString()
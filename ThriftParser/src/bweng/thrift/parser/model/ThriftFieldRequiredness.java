@@ -0,0 +1,16 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.model;
+
+/**
+ * Describes the requiredness of fields.
+ */
+public enum ThriftFieldRequiredness
+{
+   /** No requiredness given. */
+   DEFAULT,
+   REQUIRED,
+   OPTIONAL
+}
@@ -0,0 +1,188 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Part of the data model, lookup table of a field list by id and by name.<br>
+ * If the ids are compact, the fields are stored in an array indexed by id,
+ * otherwise in an open-addressing hash table with int keys.
+ * If ids or names are used twice, the first field wins.<br>
+ * The table is immutable and doesn't follow changes of the list.
+ */
+public final class ThriftFieldTable
+{
+    public final static ThriftFieldTable EMPTY = new ThriftFieldTable( Collections.<ThriftField>emptyList() );
+
+    private final List<ThriftField> fields_;
+
+    // Dense table: field of id (min_+i) at index i, with its position in the list.
+    private final int min_;
+    private final ThriftField[] dense_;
+    private final int[] densePos_;
+
+    // Sparse table: keys, fields and positions, length is a power of 2, free slots have no field.
+    private final int[] keys_;
+    private final ThriftField[] values_;
+    private final int[] valuesPos_;
+    private final int shift_;
+
+    private final Map<String, ThriftField> byName_;
+
+    /**
+     * Creates the table of the fields.
+     * @param fields The fields, null for none.
+     */
+    public ThriftFieldTable( List<ThriftField> fields )
+    {
+        fields_ = ( fields != null ) ? Collections.unmodifiableList( new ArrayList<>( fields ) ) : Collections.<ThriftField>emptyList();
+
+        final int n = fields_.size();
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for ( ThriftField f : fields_ )
+        {
+            if ( f.id_ < min ) min = f.id_;
+            if ( f.id_ > max ) max = f.id_;
+        }
+
+        // Dense as long as the array is not larger than the hash table would be.
+        final long span = (long)max - min + 1;
+        if ( n == 0 || span <= 3L*n )
+        {
+            min_ = ( n == 0 ) ? 0 : min;
+            dense_ = new ThriftField[ n == 0 ? 0 : (int)span ];
+            densePos_ = new int[ dense_.length ];
+            for ( int p=0 ; p<n ; ++p )
+            {
+                final ThriftField f = fields_.get(p);
+                if ( dense_[f.id_-min_] == null )
+                {
+                    dense_[f.id_-min_] = f;
+                    densePos_[f.id_-min_] = p;
+                }
+            }
+            keys_ = null;
+            values_ = null;
+            valuesPos_ = null;
+            shift_ = 0;
+        }
+        else
+        {
+            min_ = 0;
+            dense_ = null;
+            densePos_ = null;
+            int capacity = Integer.highestOneBit( 2*n-1 ) << 1;
+            keys_ = new int[capacity];
+            values_ = new ThriftField[capacity];
+            valuesPos_ = new int[capacity];
+            shift_ = 32 - Integer.numberOfTrailingZeros( capacity );
+            for ( int p=0 ; p<n ; ++p )
+            {
+                final ThriftField f = fields_.get(p);
+                int i = slot( f.id_ );
+                while ( values_[i] != null && keys_[i] != f.id_ )
+                    i = (i+1) & (capacity-1);
+                if ( values_[i] == null )
+                {
+                    keys_[i] = f.id_;
+                    values_[i] = f;
+                    valuesPos_[i] = p;
+                }
+            }
+        }
+
+        byName_ = new HashMap<>( Math.max( 4, n*4/3+1 ) );
+        for ( ThriftField f : fields_ )
+        {
+            if ( f.name_ != null && !byName_.containsKey( f.name_ ) )
+                byName_.put( f.name_, f );
+        }
+    }
+
+    private int slot( int id )
+    {
+        return (id * 0x9E3779B9) >>> shift_;
+    }
+
+    /**
+     * Gets a field by id.
+     * @return The field or null.
+     */
+    public ThriftField get( int id )
+    {
+        if ( dense_ != null )
+        {
+            final int i = id - min_;
+            return ( i >= 0 && i < dense_.length ) ? dense_[i] : null;
+        }
+        final int mask = values_.length-1;
+        for ( int i = slot( id ) ; ; i = (i+1) & mask )
+        {
+            final ThriftField f = values_[i];
+            if ( f == null || keys_[i] == id )
+                return f;
+        }
+    }
+
+    /**
+     * Gets the position of a field in the list by id.
+     * @return The position or -1.
+     */
+    public int indexOf( int id )
+    {
+        if ( dense_ != null )
+        {
+            final int i = id - min_;
+            return ( i >= 0 && i < dense_.length && dense_[i] != null ) ? densePos_[i] : -1;
+        }
+        final int mask = values_.length-1;
+        for ( int i = slot( id ) ; ; i = (i+1) & mask )
+        {
+            if ( values_[i] == null )
+                return -1;
+            if ( keys_[i] == id )
+                return valuesPos_[i];
+        }
+    }
+
+    /**
+     * Gets a field by name.
+     * @return The field or null.
+     */
+    public ThriftField get( String name )
+    {
+        return byName_.get( name );
+    }
+
+    /**
+     * Gets all fields in declaration order.
+     */
+    public List<ThriftField> getFields()
+    {
+        return fields_;
+    }
+
+    /**
+     * Gets the number of fields.
+     */
+    public int size()
+    {
+        return fields_.size();
+    }
+
+    /**
+     * Checks if the ids are stored in an array.
+     */
+    public boolean isDense()
+    {
+        return dense_ != null;
+    }
+}
@@ -0,0 +1,462 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Part of the data model, computes structural 64-bit fingerprints.<p>
+ * Fingerprints depend only on names, field ids, requiredness, types and function
+ * signatures, in declaration order. They are stable between runs and between
+ * parsed and de-serialized models. Comments, annotations and positions are not part of them.<br>
+ * A named type covers all types it uses. Types that use each other in a cycle
+ * are computed together, each of them covers the whole cycle.
+ * Fingerprints are computed once and cached on the model, use {@link #clear(ThriftDocument)}
+ * after changing a model.
+ */
+public final class ThriftFingerprints
+{
+    // Tags of the hashed elements.
+    private static final long TAG_NULL       = 1;
+    private static final long TAG_PLAIN      = 2;
+    private static final long TAG_STRUCT     = 3;
+    private static final long TAG_EXCEPTION  = 4;
+    private static final long TAG_UNION      = 5;
+    private static final long TAG_ENUM       = 6;
+    private static final long TAG_TYPEDEF    = 7;
+    private static final long TAG_LIST       = 8;
+    private static final long TAG_SET        = 9;
+    private static final long TAG_MAP        = 10;
+    private static final long TAG_NAMED      = 11;
+    private static final long TAG_CYCLE      = 12;
+    private static final long TAG_UNRESOLVED = 13;
+    private static final long TAG_SERVICE    = 14;
+    private static final long TAG_FUNCTION   = 15;
+    private static final long TAG_DOCUMENT   = 16;
+    private static final long TAG_INCLUDE    = 17;
+
+    private static final Object lock_ = new Object();
+
+    /**
+     * Incremental 64-bit hash, each added value is mixed in order.
+     */
+    private static final class Hash
+    {
+        private long h_ = 0x6A09E667F3BCC908L;
+
+        Hash add( long v )
+        {
+            h_ = mix( h_ ^ v ) + 0x9E3779B97F4A7C15L;
+            return this;
+        }
+
+        Hash add( String s )
+        {
+            if ( s == null )
+                return add( -1L );
+            final int n = s.length();
+            add( n );
+            int i = 0;
+            for ( ; i+4 <= n ; i+=4 )
+                add( ((long)s.charAt(i)<<48) | ((long)s.charAt(i+1)<<32) | ((long)s.charAt(i+2)<<16) | s.charAt(i+3) );
+            long rest = 0;
+            for ( ; i<n ; ++i )
+                rest = (rest<<16) | s.charAt(i);
+            return add( rest );
+        }
+
+        long get()
+        {
+            final long v = mix( h_ );
+            return ( v != 0 ) ? v : 1;
+        }
+
+        private static long mix( long z )
+        {
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+
+    // State of one computation, cycle detection by Tarjan's algorithm.
+    // Index and on-stack flag of the visited types.
+    private final Map<ThriftType, int[]> index_ = new IdentityHashMap<>();
+    private final List<ThriftType> stack_ = new ArrayList<>();
+    // Used types of all visits in progress, each visit appends and removes its own.
+    private final List<ThriftType> used_ = new ArrayList<>();
+    private int next_;
+
+    private ThriftFingerprints()
+    {
+    }
+
+    /**
+     * Gets the fingerprint of a type, computes it if needed.
+     */
+    public static long of( ThriftType t )
+    {
+        synchronized ( lock_ )
+        {
+            if ( isNamed(t) )
+            {
+                if ( t.fingerprint_ == 0 )
+                    new ThriftFingerprints().visit( t );
+                return t.fingerprint_;
+            }
+            Hash h = new Hash();
+            new ThriftFingerprints().addType( h, t, null );
+            return h.get();
+        }
+    }
+
+    /**
+     * Gets the fingerprint of a service, computes it if needed.
+     */
+    public static long of( ThriftService s )
+    {
+        synchronized ( lock_ )
+        {
+            if ( s.fingerprint_ != 0 )
+                return s.fingerprint_;
+            return service( s, Collections.newSetFromMap( new IdentityHashMap<ThriftService, Boolean>() ) );
+        }
+    }
+
+    /**
+     * Gets the fingerprint of a document, computes it if needed.
+     * It covers the own types and services and the include paths. Included
+     * documents are covered only as far as they are used by the own types and services.
+     */
+    public static long of( ThriftDocument d )
+    {
+        synchronized ( lock_ )
+        {
+            if ( d.fingerprint_ != 0 )
+                return d.fingerprint_;
+
+            List<ThriftType> types = new ArrayList<>();
+            if ( d.all_types_ != null )
+                for ( ThriftType t : d.all_types_.values() ) if ( isNamed(t) ) types.add( t );
+            Collections.sort( types, new Comparator<ThriftType>()
+            {
+                @Override
+                public int compare( ThriftType t1, ThriftType t2 )
+                {
+                    return nameOf(t1).compareTo( nameOf(t2) );
+                }
+            });
+            List<ThriftService> services = new ArrayList<>();
+            if ( d.all_services_ != null )
+                services.addAll( d.all_services_ );
+            Collections.sort( services, new Comparator<ThriftService>()
+            {
+                @Override
+                public int compare( ThriftService s1, ThriftService s2 )
+                {
+                    return String.valueOf(s1.name_fully_qualified_).compareTo( String.valueOf(s2.name_fully_qualified_) );
+                }
+            });
+
+            Hash h = new Hash().add( TAG_DOCUMENT );
+            if ( d.includes_ != null )
+                for ( ThriftInclude i : d.includes_ ) h.add( TAG_INCLUDE ).add( i.path_ );
+            h.add( types.size() );
+            for ( ThriftType t : types ) h.add( of(t) );
+            h.add( services.size() );
+            for ( ThriftService s : services ) h.add( of(s) );
+            return d.fingerprint_ = h.get();
+        }
+    }
+
+    /**
+     * Removes the cached fingerprints of the document, its types and services and of all includes.
+     */
+    public static void clear( ThriftDocument d )
+    {
+        synchronized ( lock_ )
+        {
+            clear( d, Collections.newSetFromMap( new IdentityHashMap<ThriftDocument, Boolean>() ) );
+        }
+    }
+
+    private static void clear( ThriftDocument d, Set<ThriftDocument> visited )
+    {
+        if ( d == null || !visited.add(d) )
+            return;
+        d.fingerprint_ = 0;
+        if ( d.includes_ != null )
+            for ( ThriftInclude i : d.includes_ ) clear( i.doc_, visited );
+        if ( d.all_types_ != null )
+            for ( ThriftType t : d.all_types_.values() ) if ( isNamed(t) ) t.fingerprint_ = 0;
+        if ( d.all_services_ != null )
+            for ( ThriftService s : d.all_services_ ) s.fingerprint_ = 0;
+    }
+
+    /**
+     * Checks if the type is a declared type, fingerprints of these are cached.
+     */
+    private static boolean isNamed( ThriftType t )
+    {
+        return t instanceof ThriftStructType || t instanceof ThriftUnionType
+            || t instanceof ThriftEnum || t instanceof ThriftTypedef;
+    }
+
+    private static String nameOf( ThriftType t )
+    {
+        return t.name_fully_qualified_ != null ? t.name_fully_qualified_ : String.valueOf( t.name_ );
+    }
+
+    private static long service( ThriftService s, Set<ThriftService> visiting )
+    {
+        if ( s.fingerprint_ != 0 )
+            return s.fingerprint_;
+
+        Hash h = new Hash().add( TAG_SERVICE ).add( s.name_fully_qualified_ );
+        final ThriftServiceRef ext = s.extended_service_;
+        if ( ext == null )
+            h.add( TAG_NULL );
+        else if ( ext.resolvedService_ != null && visiting.add( s ) )
+            h.add( TAG_NAMED ).add( service( ext.resolvedService_, visiting ) );
+        else
+            h.add( TAG_UNRESOLVED ).add( ext.resolvedService_ != null ? ext.resolvedService_.name_fully_qualified_ : ext.declaredName_ );
+
+        final ThriftFingerprints types = new ThriftFingerprints();
+        h.add( s.functions_.size() );
+        for ( ThriftFunction f : s.functions_ )
+        {
+            h.add( TAG_FUNCTION ).add( f.name_ ).add( f.getMode().ordinal() );
+            types.addType( h, f.return_type_, null );
+            types.addFields( h, f.parameters_, null );
+            types.addFields( h, f.exceptions_, null );
+        }
+        visiting.remove( s );
+        return s.fingerprint_ = h.get();
+    }
+
+    /**
+     * Visits a named type, computes all types of its cycle when its cycle is complete.
+     */
+    private int visit( ThriftType t )
+    {
+        final int idx = next_++;
+        final int[] state = { idx, 1 };
+        int low = idx;
+        index_.put( t, state );
+        stack_.add( t );
+
+        final int from = used_.size();
+        collectUsed( t, used_ );
+        final int to = used_.size();
+        for ( int i=from ; i<to ; ++i )
+        {
+            final ThriftType u = used_.get(i);
+            if ( u.fingerprint_ != 0 )
+                continue;
+            final int[] us = index_.get( u );
+            if ( us == null )
+                low = Math.min( low, visit( u ) );
+            else if ( us[1] != 0 )
+                low = Math.min( low, us[0] );
+        }
+        used_.subList( from, to ).clear();
+
+        if ( low == idx )
+        {
+            // t is the root of a cycle (or a single type).
+            final List<ThriftType> cycle = new ArrayList<>();
+            ThriftType m;
+            do
+            {
+                m = stack_.remove( stack_.size()-1 );
+                index_.get( m )[1] = 0;
+                cycle.add( m );
+            }
+            while ( m != t );
+            computeCycle( cycle );
+        }
+        return low;
+    }
+
+    private void computeCycle( List<ThriftType> cycle )
+    {
+        if ( cycle.size() == 1 )
+        {
+            final ThriftType m = cycle.get(0);
+            Hash h = new Hash();
+            addNamed( h, m, Collections.singleton( m ) );
+            m.fingerprint_ = h.get();
+            return;
+        }
+
+        final Set<ThriftType> members = Collections.newSetFromMap( new IdentityHashMap<ThriftType, Boolean>() );
+        members.addAll( cycle );
+
+        final Map<ThriftType, Long> local = new IdentityHashMap<>();
+        for ( ThriftType m : cycle )
+        {
+            Hash h = new Hash();
+            addNamed( h, m, members );
+            local.put( m, h.get() );
+        }
+
+        // Order-independent combination of the cycle, each member covers all others.
+        List<ThriftType> sorted = new ArrayList<>( cycle );
+        Collections.sort( sorted, new Comparator<ThriftType>()
+        {
+            @Override
+            public int compare( ThriftType t1, ThriftType t2 )
+            {
+                int c = nameOf(t1).compareTo( nameOf(t2) );
+                return ( c != 0 ) ? c : Long.compare( local.get(t1), local.get(t2) );
+            }
+        });
+        Hash all = new Hash().add( TAG_CYCLE ).add( sorted.size() );
+        for ( ThriftType m : sorted )
+            all.add( local.get(m) );
+        final long cf = all.get();
+        for ( ThriftType m : cycle )
+            m.fingerprint_ = new Hash().add( local.get(m) ).add( cf ).get();
+    }
+
+    /**
+     * Adds the declaration of a named type.
+     */
+    private void addNamed( Hash h, ThriftType t, Set<ThriftType> cycle )
+    {
+        if ( t instanceof ThriftStructType )
+        {
+            h.add( t instanceof ThriftExceptionType ? TAG_EXCEPTION : TAG_STRUCT ).add( t.name_fully_qualified_ );
+            addFields( h, ((ThriftStructType)t).fields_, cycle );
+        }
+        else if ( t instanceof ThriftUnionType )
+        {
+            h.add( TAG_UNION ).add( t.name_fully_qualified_ );
+            addFields( h, ((ThriftUnionType)t).fields_, cycle );
+        }
+        else if ( t instanceof ThriftEnum )
+        {
+            final List<ThriftEnumValue> values = ((ThriftEnum)t).values_;
+            h.add( TAG_ENUM ).add( t.name_fully_qualified_ ).add( values == null ? -1 : values.size() );
+            if ( values != null )
+                for ( ThriftEnumValue v : values ) h.add( v.name_ ).add( v.value_ );
+        }
+        else
+        {
+            h.add( TAG_TYPEDEF ).add( t.name_fully_qualified_ );
+            addType( h, ((ThriftTypedef)t).reftype_, cycle );
+        }
+    }
+
+    private void addFields( Hash h, List<ThriftField> fields, Set<ThriftType> cycle )
+    {
+        if ( fields == null )
+        {
+            h.add( -1L );
+            return;
+        }
+        h.add( fields.size() );
+        for ( ThriftField f : fields )
+        {
+            h.add( f.id_ ).add( f.name_ ).add( f.requiredness_.ordinal() );
+            addType( h, f.type_, cycle );
+        }
+    }
+
+    /**
+     * Adds a used type. Named types are added by their fingerprint,
+     * or by name if they are part of the current cycle.
+     */
+    private void addType( Hash h, ThriftType t, Set<ThriftType> cycle )
+    {
+        t = followReferences( t );
+        if ( t == null )
+            h.add( TAG_NULL );
+        else if ( t instanceof ThriftTypeRef )
+            h.add( TAG_UNRESOLVED ).add( ((ThriftTypeRef)t).declaredName_ );
+        else if ( t instanceof ThriftListType )
+        {
+            h.add( TAG_LIST );
+            addType( h, ((ThriftListType)t).value_type_, cycle );
+        }
+        else if ( t instanceof ThriftSetType )
+        {
+            h.add( TAG_SET );
+            addType( h, ((ThriftSetType)t).value_type_, cycle );
+        }
+        else if ( t instanceof ThriftMapType )
+        {
+            h.add( TAG_MAP );
+            addType( h, ((ThriftMapType)t).key_type_, cycle );
+            addType( h, ((ThriftMapType)t).value_type_, cycle );
+        }
+        else if ( isNamed(t) )
+        {
+            if ( cycle != null && cycle.contains(t) )
+                h.add( TAG_CYCLE ).add( nameOf(t) );
+            else
+            {
+                if ( t.fingerprint_ == 0 )
+                    visit( t );
+                h.add( TAG_NAMED ).add( t.fingerprint_ );
+            }
+        }
+        else
+            h.add( TAG_PLAIN ).add( t.name_fully_qualified_ );
+    }
+
+    /**
+     * Collects the named types used directly by the declaration of a named type.
+     */
+    private static void collectUsed( ThriftType t, List<ThriftType> used )
+    {
+        if ( t instanceof ThriftStructType )
+            collectUsed( ((ThriftStructType)t).fields_, used );
+        else if ( t instanceof ThriftUnionType )
+            collectUsed( ((ThriftUnionType)t).fields_, used );
+        else if ( t instanceof ThriftTypedef )
+            collectUsedType( ((ThriftTypedef)t).reftype_, used );
+    }
+
+    private static void collectUsed( List<ThriftField> fields, List<ThriftType> used )
+    {
+        if ( fields != null )
+            for ( ThriftField f : fields ) collectUsedType( f.type_, used );
+    }
+
+    private static void collectUsedType( ThriftType t, List<ThriftType> used )
+    {
+        t = followReferences( t );
+        if ( t instanceof ThriftListType )
+            collectUsedType( ((ThriftListType)t).value_type_, used );
+        else if ( t instanceof ThriftSetType )
+            collectUsedType( ((ThriftSetType)t).value_type_, used );
+        else if ( t instanceof ThriftMapType )
+        {
+            collectUsedType( ((ThriftMapType)t).key_type_, used );
+            collectUsedType( ((ThriftMapType)t).value_type_, used );
+        }
+        else if ( isNamed(t) )
+            used.add( t );
+    }
+
+    /**
+     * Follows resolved Type-references.
+     * @return The referenced type or the last unresolved reference.
+     */
+    private static ThriftType followReferences( ThriftType t )
+    {
+        int guard = 0;
+        while ( t instanceof ThriftTypeRef && ((ThriftTypeRef)t).resolvedType_ != null && guard++ < 64 )
+            t = ((ThriftTypeRef)t).resolvedType_;
+        return t;
+    }
+}
@@ -0,0 +1,599 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.model;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estimates the retained heap memory of a resolved document and its includes.<p>
+ * The model is walked from the root document and each object is attributed to the
+ * document, package and {@link Category} where it is reached first. Objects that are
+ * shared (e.g. types used by several documents or identical strings) are counted once.
+ * The static base types are not counted.<br>
+ * The sizes are estimations for a 64-bit VM with compressed references and
+ * compact strings. Collections are estimated from their size, not from their
+ * actual capacity.
+ */
+public final class ThriftFootprint
+{
+    /** Category of the retained memory. */
+    public enum Category
+    {
+        /** Documents, packages, includes and their lists and maps. */
+        STRUCTURE,
+        /** Structures, unions, exceptions, enums with their values and type-definitions. */
+        TYPES,
+        /** Fields and parameters with their lists. */
+        FIELDS,
+        /** Services and functions. */
+        SERVICES,
+        /** List, set and map types. */
+        CONTAINERS,
+        /** Type- and service-references. */
+        TYPE_REFS,
+        /** Names, fully qualified names and declared names. */
+        NAMES,
+        /** Comments. */
+        COMMENTS,
+        /** Annotation maps and versions. */
+        ANNOTATIONS,
+        /** Usage and object indexes. */
+        INDEXES
+    }
+
+    /**
+     * Retained memory of one document or package.
+     */
+    public static final class Entry
+    {
+        /** Name of the document or fully qualified name of the package. */
+        public String name_;
+
+        /** Estimated bytes. */
+        public long bytes_;
+
+        /** Number of counted objects. */
+        public long objects_;
+
+        /** Estimated bytes per category, indexed by {@link Category#ordinal()}. */
+        public final long[] categories_ = new long[Category.values().length];
+
+        public long getBytes( Category c )
+        {
+            return categories_[c.ordinal()];
+        }
+    }
+
+    // Layout of a 64-bit VM with compressed references.
+    private static final int HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REF = 4;
+    private static final int ALIGN = 8;
+
+    private static final Map<Class<?>, Long> shallow_sizes_ = Collections.synchronizedMap( new HashMap<Class<?>, Long>() );
+
+    private final Set<Object> visited_ = Collections.newSetFromMap( new IdentityHashMap<Object, Boolean>() );
+    private final Entry total_ = new Entry();
+    private final Map<ThriftDocument, Entry> documents_ = new LinkedHashMap<>();
+    private final Map<String, Entry> packages_ = new LinkedHashMap<>();
+
+    private Entry document_;
+    private Entry package_;
+
+    private ThriftFootprint()
+    {
+        total_.name_ = "total";
+        visited_.add( ThriftType.VOID );
+        visited_.add( ThriftType.BOOL );
+        visited_.add( ThriftType.INT8 );
+        visited_.add( ThriftType.INT16 );
+        visited_.add( ThriftType.INT32 );
+        visited_.add( ThriftType.INT64 );
+        visited_.add( ThriftType.UINT8 );
+        visited_.add( ThriftType.UINT16 );
+        visited_.add( ThriftType.UINT32 );
+        visited_.add( ThriftType.UINT64 );
+        visited_.add( ThriftType.DOUBLE );
+        visited_.add( ThriftType.STRING );
+        visited_.add( ThriftType.BINARY );
+    }
+
+    /**
+     * Analyzes the document and all its includes.
+     * @param doc The (resolved) document.
+     * @return The footprint.
+     */
+    public static ThriftFootprint analyze( ThriftDocument doc )
+    {
+        ThriftFootprint fp = new ThriftFootprint();
+        fp.add_document( doc );
+        return fp;
+    }
+
+    /**
+     * Analyzes several documents and all their includes, e.g. of a workspace.
+     * Objects shared by the documents are counted once.
+     * @param docs The (resolved) documents.
+     * @return The footprint.
+     */
+    public static ThriftFootprint analyze( Collection<ThriftDocument> docs )
+    {
+        ThriftFootprint fp = new ThriftFootprint();
+        for ( ThriftDocument doc : docs )
+            fp.add_document( doc );
+        return fp;
+    }
+
+    /**
+     * Gets the sum of all documents.
+     */
+    public Entry getTotal()
+    {
+        return total_;
+    }
+
+    /**
+     * Gets the footprint per document, in the order of analysis.
+     */
+    public List<Entry> getDocuments()
+    {
+        return new ArrayList<>( documents_.values() );
+    }
+
+    /**
+     * Gets the footprint per package, in the order of analysis.
+     * Objects that are not part of a package are reported with the name of the document.
+     */
+    public List<Entry> getPackages()
+    {
+        return new ArrayList<>( packages_.values() );
+    }
+
+    /**
+     * Gets a human-readable report.
+     * @param maxEntries Maximal number of documents and packages to list, largest first.
+     */
+    public String toString( int maxEntries )
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append( String.format( Locale.ROOT, "Retained memory (estimated): %,d bytes, %,d objects, %d documents, %d packages%n",
+                total_.bytes_, total_.objects_, documents_.size(), packages_.size() ) );
+        for ( Category c : Category.values() )
+        {
+            final long b = total_.getBytes(c);
+            sb.append( String.format( Locale.ROOT, "  %-12s %,14d  %5.1f%%%n", c.name().toLowerCase(Locale.ROOT), b,
+                    total_.bytes_ > 0 ? 100.0*b/total_.bytes_ : 0.0 ) );
+        }
+        append_entries( sb, "Documents", documents_.values(), maxEntries );
+        append_entries( sb, "Packages", packages_.values(), maxEntries );
+        return sb.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return toString( 20 );
+    }
+
+    private static void append_entries( StringBuilder sb, String title, Collection<Entry> entries, int maxEntries )
+    {
+        List<Entry> sorted = new ArrayList<>( entries );
+        Collections.sort( sorted, new Comparator<Entry>()
+        {
+            @Override
+            public int compare( Entry e1, Entry e2 )
+            {
+                return Long.compare( e2.bytes_, e1.bytes_ );
+            }
+        });
+        sb.append( title ).append( ":\n" );
+        for ( int i=0 ; i<sorted.size() && i<maxEntries ; ++i )
+        {
+            final Entry e = sorted.get(i);
+            sb.append( String.format( Locale.ROOT, "  %,14d  %s%n", e.bytes_, e.name_ ) );
+        }
+        if ( sorted.size() > maxEntries )
+            sb.append( "  ... " ).append( sorted.size()-maxEntries ).append( " more\n" );
+    }
+
+    private void add_document( ThriftDocument doc )
+    {
+        if ( doc == null || documents_.containsKey(doc) )
+            return;
+
+        Entry e = new Entry();
+        e.name_ = doc.name_;
+        documents_.put( doc, e );
+
+        final Entry outerDocument = document_;
+        final Entry outerPackage = package_;
+        document_ = e;
+        package_ = package_entry( doc.name_ );
+
+        count( doc, Category.STRUCTURE );
+        add_scope( doc );
+        count_path( doc.ospath_ );
+        count_list( doc.includes_, Category.STRUCTURE );
+        count_list( doc.all_packages_, Category.STRUCTURE );
+        count_list( doc.all_services_, Category.STRUCTURE );
+        count_map( doc.all_services_byname_, Category.STRUCTURE );
+        count_map( doc.all_types_, Category.STRUCTURE );
+        count_map( doc.unresolved_types_, Category.STRUCTURE );
+        count_list( doc.unresolved_services_, Category.STRUCTURE );
+
+        if ( doc.includes_ != null )
+        {
+            for ( ThriftInclude i : doc.includes_ )
+            {
+                if ( count( i, Category.STRUCTURE ) )
+                {
+                    count_string( i.path_, Category.STRUCTURE );
+                    count_path( i.ospath_ );
+                }
+            }
+        }
+
+        if ( doc.all_packages_ != null )
+        {
+            for ( ThriftPackage p : doc.all_packages_ )
+            {
+                package_ = package_entry( p.name_fully_qualified_ );
+                if ( count( p, Category.STRUCTURE ) )
+                {
+                    add_scope( p );
+                    count_list( p.subpackages_, Category.STRUCTURE );
+                }
+            }
+        }
+
+        if ( doc.all_types_ != null )
+        {
+            for ( ThriftType t : doc.all_types_.values() )
+            {
+                package_ = package_entry( t.package_ != null ? t.package_.name_fully_qualified_ : doc.name_ );
+                add_type( t );
+            }
+        }
+
+        if ( doc.all_services_ != null )
+        {
+            for ( ThriftService s : doc.all_services_ )
+            {
+                package_ = package_entry( s.package_ != null ? s.package_.name_fully_qualified_ : doc.name_ );
+                add_service( s );
+            }
+        }
+
+        package_ = package_entry( doc.name_ );
+        if ( doc.unresolved_services_ != null )
+            for ( ThriftServiceRef r : doc.unresolved_services_ )
+                add_service_ref( r );
+
+        if ( doc.type_usages_ != null && visited_.add( doc.type_usages_ ) )
+            add( doc.type_usages_.estimateBytes(), 1, Category.INDEXES );
+        if ( doc.object_index_ != null && visited_.add( doc.object_index_ ) )
+            add( doc.object_index_.estimateBytes(), 1, Category.INDEXES );
+
+        document_ = outerDocument;
+        package_ = outerPackage;
+
+        if ( doc.includes_ != null )
+            for ( ThriftInclude i : doc.includes_ )
+                add_document( i.doc_ );
+    }
+
+    private Entry package_entry( String name )
+    {
+        final String key = document_.name_ + ":" + name;
+        Entry e = packages_.get( key );
+        if ( e == null )
+        {
+            e = new Entry();
+            e.name_ = name;
+            packages_.put( key, e );
+        }
+        return e;
+    }
+
+    private void add_scope( ThriftScope s )
+    {
+        add_object( s );
+        count_string( s.name_, Category.NAMES );
+        count_string( s.name_fully_qualified_, Category.NAMES );
+        count_list( s.services_, Category.STRUCTURE );
+        count_list( s.types_, Category.STRUCTURE );
+    }
+
+    private void add_object( ThriftObject o )
+    {
+        count_string( o.comment_, Category.COMMENTS );
+        count_string( o.version_, Category.ANNOTATIONS );
+        if ( o.annotations_ != null && count_map( o.annotations_, Category.ANNOTATIONS ) )
+        {
+            for ( Map.Entry<String,String> a : o.annotations_.entrySet() )
+            {
+                count_string( a.getKey(), Category.ANNOTATIONS );
+                count_string( a.getValue(), Category.ANNOTATIONS );
+            }
+        }
+    }
+
+    private void add_type( ThriftType t )
+    {
+        if ( t instanceof ThriftListType )
+        {
+            if ( count( t, Category.CONTAINERS ) )
+            {
+                add_type_common( t );
+                add_type( ((ThriftListType)t).value_type_ );
+            }
+        }
+        else if ( t instanceof ThriftSetType )
+        {
+            if ( count( t, Category.CONTAINERS ) )
+            {
+                add_type_common( t );
+                add_type( ((ThriftSetType)t).value_type_ );
+            }
+        }
+        else if ( t instanceof ThriftMapType )
+        {
+            if ( count( t, Category.CONTAINERS ) )
+            {
+                add_type_common( t );
+                add_type( ((ThriftMapType)t).key_type_ );
+                add_type( ((ThriftMapType)t).value_type_ );
+            }
+        }
+        else if ( t instanceof ThriftTypeRef )
+        {
+            if ( count( t, Category.TYPE_REFS ) )
+            {
+                add_type_common( t );
+                count_string( ((ThriftTypeRef)t).declaredName_, Category.NAMES );
+            }
+        }
+        else if ( t != null && t.getDocument() != null && !documents_.containsKey( t.getDocument() ) )
+        {
+            // Named type of a document that is analyzed later.
+        }
+        else if ( t instanceof ThriftTypedef )
+        {
+            if ( count( t, Category.TYPES ) )
+            {
+                add_type_common( t );
+                add_type( ((ThriftTypedef)t).reftype_ );
+            }
+        }
+        else if ( t instanceof ThriftStructType )
+        {
+            if ( count( t, Category.TYPES ) )
+            {
+                add_type_common( t );
+                add_fields( ((ThriftStructType)t).fields_ );
+            }
+        }
+        else if ( t instanceof ThriftUnionType )
+        {
+            if ( count( t, Category.TYPES ) )
+            {
+                add_type_common( t );
+                add_fields( ((ThriftUnionType)t).fields_ );
+            }
+        }
+        else if ( t instanceof ThriftEnum )
+        {
+            if ( count( t, Category.TYPES ) )
+            {
+                add_type_common( t );
+                final List<ThriftEnumValue> values = ((ThriftEnum)t).values_;
+                count_list( values, Category.TYPES );
+                if ( values != null )
+                {
+                    for ( ThriftEnumValue v : values )
+                        if ( count( v, Category.TYPES ) )
+                            count_string( v.name_, Category.NAMES );
+                }
+            }
+        }
+        else if ( t != null && count( t, Category.TYPES ) )
+        {
+            add_type_common( t );
+        }
+    }
+
+    private void add_type_common( ThriftType t )
+    {
+        add_object( t );
+        count_string( t.name_, Category.NAMES );
+        count_string( t.name_fully_qualified_, Category.NAMES );
+    }
+
+    private void add_fields( List<ThriftField> fields )
+    {
+        if ( fields != null && count_list( fields, Category.FIELDS ) )
+        {
+            for ( ThriftField f : fields )
+            {
+                if ( count( f, Category.FIELDS ) )
+                {
+                    add_object( f );
+                    count_string( f.name_, Category.NAMES );
+                    add_type( f.type_ );
+                }
+            }
+        }
+    }
+
+    private void add_service( ThriftService s )
+    {
+        if ( !count( s, Category.SERVICES ) )
+            return;
+
+        add_object( s );
+        count_string( s.name_, Category.NAMES );
+        count_string( s.name_fully_qualified_, Category.NAMES );
+        count_list( s.functions_, Category.SERVICES );
+        add_service_ref( s.extended_service_ );
+
+        for ( ThriftFunction f : s.functions_ )
+        {
+            if ( count( f, Category.SERVICES ) )
+            {
+                add_object( f );
+                count_string( f.name_, Category.NAMES );
+                add_fields( f.parameters_ );
+                add_fields( f.exceptions_ );
+                add_type( f.return_type_ );
+            }
+        }
+    }
+
+    private void add_service_ref( ThriftServiceRef r )
+    {
+        if ( r != null && count( r, Category.TYPE_REFS ) )
+            count_string( r.declaredName_, Category.NAMES );
+    }
+
+    // Counts the shallow size of the object. Returns false if already counted.
+    private boolean count( Object o, Category c )
+    {
+        if ( o == null || !visited_.add(o) )
+            return false;
+        add( shallowSize( o.getClass() ), 1, c );
+        return true;
+    }
+
+    private void count_string( String s, Category c )
+    {
+        if ( s != null && visited_.add(s) )
+            add( stringBytes( s ), 2, c );
+    }
+
+    private void count_path( Path p )
+    {
+        // Paths keep the string and an encoded copy of it.
+        if ( p != null && visited_.add(p) )
+        {
+            final String s = p.toString();
+            add( align( HEADER + 4*REF ) + stringBytes( s ) + align( ARRAY_HEADER + s.length() ), 3, Category.STRUCTURE );
+        }
+    }
+
+    private boolean count_list( List<?> l, Category c )
+    {
+        if ( l == null || !visited_.add(l) )
+            return false;
+        add( listBytes( l.size() ), l.isEmpty() ? 1 : 2, c );
+        return true;
+    }
+
+    private boolean count_map( Map<?,?> m, Category c )
+    {
+        if ( m == null || !visited_.add(m) )
+            return false;
+        add( hashMapBytes( m.size() ), 2 + m.size(), c );
+        return true;
+    }
+
+    private void add( long bytes, long objects, Category c )
+    {
+        for ( Entry e : new Entry[] { total_, document_, package_ } )
+        {
+            e.bytes_ += bytes;
+            e.objects_ += objects;
+            e.categories_[c.ordinal()] += bytes;
+        }
+    }
+
+    static long align( long size )
+    {
+        return (size + ALIGN - 1) & ~(long)(ALIGN - 1);
+    }
+
+    /**
+     * Estimated shallow size of an instance of the class.
+     */
+    static long shallowSize( Class<?> cls )
+    {
+        Long size = shallow_sizes_.get( cls );
+        if ( size == null )
+        {
+            long s = HEADER;
+            for ( Class<?> c = cls ; c != null && c != Object.class ; c = c.getSuperclass() )
+            {
+                for ( Field f : c.getDeclaredFields() )
+                {
+                    if ( Modifier.isStatic( f.getModifiers() ) )
+                        continue;
+                    final Class<?> t = f.getType();
+                    if ( t == long.class || t == double.class )            s += 8;
+                    else if ( t == int.class || t == float.class )         s += 4;
+                    else if ( t == short.class || t == char.class )        s += 2;
+                    else if ( t == byte.class || t == boolean.class )      s += 1;
+                    else                                                   s += REF;
+                }
+            }
+            size = align( s );
+            shallow_sizes_.put( cls, size );
+        }
+        return size;
+    }
+
+    /**
+     * Estimated size of a string with its character array.
+     */
+    static long stringBytes( String s )
+    {
+        boolean latin1 = true;
+        for ( int i=0 ; i<s.length() && latin1 ; ++i )
+            latin1 = s.charAt(i) < 256;
+        return align( HEADER + REF + 4 + 1 + 1 ) + align( ARRAY_HEADER + (latin1 ? s.length() : 2L*s.length()) );
+    }
+
+    /**
+     * Estimated size of an ArrayList with its element array.
+     */
+    static long listBytes( int size )
+    {
+        return align( HEADER + 4 + 4 + REF ) + ( size > 0 ? align( ARRAY_HEADER + (long)REF*size ) : 0 );
+    }
+
+    /**
+     * Estimated size of a HashMap with its table and nodes.
+     */
+    static long hashMapBytes( int size )
+    {
+        if ( size == 0 )
+            return align( HEADER + 4*REF + 4*4 );
+        int table = 16;
+        while ( table*3/4 < size ) table *= 2;
+        return align( HEADER + 4*REF + 4*4 ) + align( ARRAY_HEADER + (long)REF*table ) + size*align( HEADER + 4 + 3*REF );
+    }
+
+    /**
+     * Estimated size of an IdentityHashMap with its table.
+     */
+    static long identityMapBytes( int size )
+    {
+        // Keys and values are stored in one table, kept at most one third full.
+        int table = 64;
+        while ( table < 3L*size ) table *= 2;
+        return align( HEADER + 3*4 + 3*REF ) + align( ARRAY_HEADER + (long)REF*table );
+    }
+}
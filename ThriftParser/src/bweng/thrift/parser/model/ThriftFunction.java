@@ -20,6 +20,53 @@ public class ThriftFunction extends ThriftObject
 
     public ThriftService service_;
 
+    // Lookup tables of parameters and exceptions, see getParameterTable().
+    private ThriftFieldTable parameter_table_;
+    private ThriftFieldTable exception_table_;
+
+    /**
+     * Gets the mode of the function.
+     * @return The mode, {@link ThriftFunctionMode#NONE} if mode_ is null.
+     */
+    public final ThriftFunctionMode getMode()
+    {
+        return mode_ == null ? ThriftFunctionMode.NONE : mode_;
+    }
+
+    /**
+     * Gets the lookup table of the parameters by id and name.<br>
+     * The table is created at first use, the generator creates it after resolution.
+     * Call {@link #clearFieldTables()} if the parameters are changed afterwards.
+     */
+    public final ThriftFieldTable getParameterTable()
+    {
+        ThriftFieldTable t = parameter_table_;
+        if ( t == null )
+            parameter_table_ = t = new ThriftFieldTable( parameters_ );
+        return t;
+    }
+
+    /**
+     * Gets the lookup table of the declared exceptions by id and name.
+     * @see #getParameterTable()
+     */
+    public final ThriftFieldTable getExceptionTable()
+    {
+        ThriftFieldTable t = exception_table_;
+        if ( t == null )
+            exception_table_ = t = new ThriftFieldTable( exceptions_ );
+        return t;
+    }
+
+    /**
+     * Removes the lookup tables, e.g. if parameters or exceptions were changed.
+     */
+    public final void clearFieldTables()
+    {
+        parameter_table_ = null;
+        exception_table_ = null;
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,212 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Part of the data model, optional secondary indexes of a document.<br>
+ * Indexes the objects of a document by comment annotations, by the deprecated-mark
+ * and by version.
+ */
+public class ThriftObjectIndex
+{
+    /**
+     * Compares versions as in "@version 1.10.2" segment by segment numerically.
+     */
+    public final static Comparator<String> VERSION_COMPARATOR = new Comparator<String>()
+    {
+        @Override
+        public int compare(String v1, String v2)
+        {
+            String[] s1 = v1.split("\\.");
+            String[] s2 = v2.split("\\.");
+            for (int i=0 ; i<s1.length || i<s2.length ; ++i)
+            {
+                long n1 = (i<s1.length) ? toNumber(s1[i]) : 0;
+                long n2 = (i<s2.length) ? toNumber(s2[i]) : 0;
+                if ( n1 != n2 ) return n1 < n2 ? -1 : 1;
+            }
+            return v1.compareTo(v2);
+        }
+
+        private long toNumber( String s )
+        {
+            try
+            {
+                return s.isEmpty() ? 0 : Long.parseLong(s);
+            }
+            catch (NumberFormatException nfe)
+            {
+                return 0;
+            }
+        }
+    };
+
+    // Annotation key -> objects
+    private final Map<String, List<ThriftObject>> by_annotation_ = new HashMap<>();
+    // Annotation key -> annotation value -> objects
+    private final Map<String, Map<String, List<ThriftObject>>> by_annotation_value_ = new HashMap<>();
+    // Deprecated objects in declaration order
+    private final Set<ThriftObject> deprecated_ = new LinkedHashSet<>();
+    // Version -> objects, sorted by VERSION_COMPARATOR
+    private final TreeMap<String, List<ThriftObject>> by_version_ = new TreeMap<>(VERSION_COMPARATOR);
+    // All indexed objects in order of addition.
+    private final List<ThriftObject> objects_ = new ArrayList<>();
+    // Same as objects_, to avoid double entries.
+    private final Set<ThriftObject> indexed_ = Collections.newSetFromMap(new IdentityHashMap<ThriftObject, Boolean>());
+
+    /**
+     * Adds an object to all indexes.
+     * The comment information (annotations, version, deprecated-mark) must already be set.
+     * @param obj The object to add.
+     */
+    public void add( ThriftObject obj )
+    {
+        if ( obj == null || !indexed_.add(obj) )
+            return;
+        objects_.add( obj );
+
+        if ( obj.annotations_ != null )
+        {
+            for ( Map.Entry<String,String> a : obj.annotations_.entrySet() )
+            {
+                addTo( by_annotation_, a.getKey(), obj );
+
+                Map<String, List<ThriftObject>> values = by_annotation_value_.get( a.getKey() );
+                if ( values == null )
+                {
+                    values = new HashMap<>();
+                    by_annotation_value_.put( a.getKey(), values );
+                }
+                addTo( values, a.getValue(), obj );
+            }
+        }
+        if ( obj.deprecated_ )
+            deprecated_.add( obj );
+        if ( obj.version_ != null )
+            addTo( by_version_, obj.version_, obj );
+    }
+
+    /**
+     * Adds all objects of an other index.
+     * @param other The index to merge.
+     */
+    public void merge( ThriftObjectIndex other )
+    {
+        if ( other == null || other == this )
+            return;
+        for ( ThriftObject o : other.objects_ )
+            add( o );
+    }
+
+    /**
+     * Gets all objects with the annotation.
+     * @param key The annotation without leading '@'.
+     * @return Unmodifiable list, never null.
+     */
+    public List<ThriftObject> findByAnnotation( String key )
+    {
+        return unmodifiable( by_annotation_.get(key) );
+    }
+
+    /**
+     * Gets all objects with the annotation and value.
+     * @param key The annotation without leading '@'.
+     * @param value The trimmed annotation text.
+     * @return Unmodifiable list, never null.
+     */
+    public List<ThriftObject> findByAnnotation( String key, String value )
+    {
+        Map<String, List<ThriftObject>> values = by_annotation_value_.get( key );
+        return unmodifiable( values == null ? null : values.get(value) );
+    }
+
+    /**
+     * Gets all objects marked with @deprecated.
+     * @return Unmodifiable collection in declaration order, never null.
+     */
+    public Collection<ThriftObject> getDeprecated()
+    {
+        return Collections.unmodifiableCollection( deprecated_ );
+    }
+
+    /**
+     * Gets all objects with a version greater (or equal) than the given version.
+     * @param version The lower version limit.
+     * @param inclusive If true, objects with the given version are included.
+     * @return The objects, sorted by version.
+     */
+    public List<ThriftObject> findByVersionAbove( String version, boolean inclusive )
+    {
+        List<ThriftObject> result = new ArrayList<>();
+        for ( List<ThriftObject> l : by_version_.tailMap( version, inclusive ).values() )
+            result.addAll(l);
+        return result;
+    }
+
+    /**
+     * Gets all objects with a version, sorted by version.
+     * @return Unmodifiable map version -&gt; objects.
+     */
+    public Map<String, List<ThriftObject>> getVersions()
+    {
+        return Collections.unmodifiableMap( by_version_ );
+    }
+
+    /**
+     * Estimates the retained bytes of the index itself, without the indexed objects.
+     * @see ThriftFootprint
+     */
+    long estimateBytes()
+    {
+        long bytes = ThriftFootprint.shallowSize( getClass() )
+                   + ThriftFootprint.listBytes( objects_.size() )
+                   + ThriftFootprint.identityMapBytes( indexed_.size() )
+                   // LinkedHashMap entries have two more references.
+                   + ThriftFootprint.hashMapBytes( deprecated_.size() ) + deprecated_.size()*8L;
+        bytes += estimateBytes( by_annotation_ );
+        bytes += ThriftFootprint.hashMapBytes( by_annotation_value_.size() );
+        for ( Map<String, List<ThriftObject>> values : by_annotation_value_.values() )
+            bytes += estimateBytes( values );
+        // TreeMap entries are about the size of HashMap nodes plus the table.
+        bytes += estimateBytes( by_version_ );
+        return bytes;
+    }
+
+    private static long estimateBytes( Map<String, List<ThriftObject>> map )
+    {
+        long bytes = ThriftFootprint.hashMapBytes( map.size() );
+        for ( List<ThriftObject> l : map.values() )
+            bytes += ThriftFootprint.listBytes( Math.max( 2, l.size() ) );
+        return bytes;
+    }
+
+    private static void addTo( Map<String, List<ThriftObject>> map, String key, ThriftObject obj )
+    {
+        List<ThriftObject> l = map.get(key);
+        if ( l == null )
+        {
+            l = new ArrayList<>(2);
+            map.put(key, l);
+        }
+        l.add(obj);
+    }
+
+    private static List<ThriftObject> unmodifiable( List<ThriftObject> l )
+    {
+        return l == null ? Collections.<ThriftObject>emptyList() : Collections.unmodifiableList(l);
+    }
+}
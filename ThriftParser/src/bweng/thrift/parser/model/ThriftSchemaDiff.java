@@ -0,0 +1,469 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Compares two versions of a resolved schema.<p>
+ * Types and services are matched by their fully qualified names, fields, parameters
+ * and exceptions by id, functions and enum values by name.
+ * Types and services with equal {@link ThriftFingerprints fingerprints} are skipped.
+ * A type is reported as changed only if its own declaration changed, not if only
+ * a type it uses changed.<br>
+ * Comments, annotations and positions are not compared.
+ */
+public final class ThriftSchemaDiff
+{
+    /** Kind of a change. */
+    public enum Kind
+    {
+        ADDED,
+        REMOVED,
+        CHANGED
+    }
+
+    /** Changed part of the schema. */
+    public enum Element
+    {
+        /** Structure, union, exception, enum or type-definition. */
+        TYPE,
+        /** Field of a structure, union or exception. */
+        FIELD,
+        ENUM_VALUE,
+        SERVICE,
+        /** Base service of a service. */
+        EXTENDS,
+        FUNCTION,
+        PARAMETER,
+        /** Declared exception of a function. */
+        EXCEPTION
+    }
+
+    /**
+     * One difference.
+     */
+    public static final class Change
+    {
+        public Kind kind_;
+        public Element element_;
+
+        /** Fully qualified name of the type or service. */
+        public String owner_;
+
+        /** Name of the member inside the owner, e.g. "3:name" for a field or "func.1:id" for a parameter. Null for types and services. */
+        public String member_;
+
+        /** Old description, null if added. */
+        public String old_;
+        /** New description, null if removed. */
+        public String new_;
+
+        /** Old and new field, function or type, if any. */
+        public ThriftObject oldObject_;
+        public ThriftObject newObject_;
+
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder(100);
+            sb.append(kind_).append(' ').append(element_).append(' ').append(owner_);
+            if ( member_ != null )
+                sb.append(' ').append(member_);
+            if ( kind_ == Kind.CHANGED )
+                sb.append(": ").append(old_).append(" -> ").append(new_);
+            else if ( kind_ == Kind.ADDED && new_ != null )
+                sb.append(": ").append(new_);
+            else if ( kind_ == Kind.REMOVED && old_ != null )
+                sb.append(": ").append(old_);
+            return sb.toString();
+        }
+    }
+
+    private final List<Change> changes_ = new ArrayList<>();
+    private int compared_;
+    private int skipped_;
+
+    private ThriftSchemaDiff()
+    {
+    }
+
+    /**
+     * Compares two documents with all their includes.
+     * @param oldDoc The old (resolved) document.
+     * @param newDoc The new (resolved) document.
+     * @return The differences.
+     */
+    public static ThriftSchemaDiff compare( ThriftDocument oldDoc, ThriftDocument newDoc )
+    {
+        Map<String, ThriftType> oldTypes = new HashMap<>();
+        Map<String, ThriftService> oldServices = new HashMap<>();
+        collect( oldDoc, oldTypes, oldServices, Collections.newSetFromMap( new IdentityHashMap<ThriftDocument, Boolean>() ) );
+        Map<String, ThriftType> newTypes = new HashMap<>();
+        Map<String, ThriftService> newServices = new HashMap<>();
+        collect( newDoc, newTypes, newServices, Collections.newSetFromMap( new IdentityHashMap<ThriftDocument, Boolean>() ) );
+        return compare( oldTypes, oldServices.values(), newTypes, newServices.values() );
+    }
+
+    /**
+     * Compares two sets of types and services, e.g. of two workspaces.
+     * @param oldTypes Old types by fully qualified name, other than named types are ignored.
+     * @param oldServices Old services.
+     * @param newTypes New types by fully qualified name.
+     * @param newServices New services.
+     * @return The differences.
+     */
+    public static ThriftSchemaDiff compare( Map<String, ThriftType> oldTypes, Collection<ThriftService> oldServices,
+                                            Map<String, ThriftType> newTypes, Collection<ThriftService> newServices )
+    {
+        ThriftSchemaDiff d = new ThriftSchemaDiff();
+
+        for ( Map.Entry<String, ThriftType> e : oldTypes.entrySet() )
+        {
+            final ThriftType o = e.getValue();
+            if ( !isNamed(o) )
+                continue;
+            final ThriftType n = newTypes.get( e.getKey() );
+            if ( !isNamed(n) )
+                d.add( Kind.REMOVED, Element.TYPE, e.getKey(), null, describeDeclaration(o), null, o, null );
+            else if ( o.getFingerprint() == n.getFingerprint() )
+                ++d.skipped_;
+            else
+            {
+                ++d.compared_;
+                d.compare_type( e.getKey(), o, n );
+            }
+        }
+        for ( Map.Entry<String, ThriftType> e : newTypes.entrySet() )
+        {
+            if ( isNamed( e.getValue() ) && !isNamed( oldTypes.get( e.getKey() ) ) )
+                d.add( Kind.ADDED, Element.TYPE, e.getKey(), null, null, describeDeclaration(e.getValue()), null, e.getValue() );
+        }
+
+        Map<String, ThriftService> oldByName = byName( oldServices );
+        Map<String, ThriftService> newByName = byName( newServices );
+        for ( Map.Entry<String, ThriftService> e : oldByName.entrySet() )
+        {
+            final ThriftService o = e.getValue();
+            final ThriftService n = newByName.get( e.getKey() );
+            if ( n == null )
+                d.add( Kind.REMOVED, Element.SERVICE, e.getKey(), null, null, null, o, null );
+            else if ( o.getFingerprint() == n.getFingerprint() )
+                ++d.skipped_;
+            else
+            {
+                ++d.compared_;
+                d.compare_service( e.getKey(), o, n );
+            }
+        }
+        for ( Map.Entry<String, ThriftService> e : newByName.entrySet() )
+        {
+            if ( !oldByName.containsKey( e.getKey() ) )
+                d.add( Kind.ADDED, Element.SERVICE, e.getKey(), null, null, null, null, e.getValue() );
+        }
+
+        Collections.sort( d.changes_, new Comparator<Change>()
+        {
+            @Override
+            public int compare( Change c1, Change c2 )
+            {
+                int c = c1.owner_.compareTo( c2.owner_ );
+                if ( c == 0 ) c = c1.element_.compareTo( c2.element_ );
+                if ( c == 0 ) c = String.valueOf(c1.member_).compareTo( String.valueOf(c2.member_) );
+                if ( c == 0 ) c = c1.kind_.compareTo( c2.kind_ );
+                return c;
+            }
+        });
+        return d;
+    }
+
+    /**
+     * Gets all changes, ordered by owner, element and member.
+     */
+    public List<Change> getChanges()
+    {
+        return Collections.unmodifiableList( changes_ );
+    }
+
+    /**
+     * Checks if there are no changes.
+     */
+    public boolean isEmpty()
+    {
+        return changes_.isEmpty();
+    }
+
+    /**
+     * Gets the number of types and services that exist in both versions and were compared in detail.
+     */
+    public int getComparedCount()
+    {
+        return compared_;
+    }
+
+    /**
+     * Gets the number of types and services that were skipped because their fingerprints are equal.
+     */
+    public int getSkippedCount()
+    {
+        return skipped_;
+    }
+
+    /**
+     * Gets a textual report.
+     * @param maxChanges Maximal number of changes to list.
+     */
+    public String toString( int maxChanges )
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append( changes_.size() ).append(" changes, ")
+          .append( compared_ ).append(" compared, ")
+          .append( skipped_ ).append(" unchanged\n");
+        for ( int i=0 ; i<changes_.size() && i<maxChanges ; ++i )
+            sb.append("  ").append( changes_.get(i) ).append('\n');
+        if ( changes_.size() > maxChanges )
+            sb.append("  ...\n");
+        return sb.toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        return toString( 100 );
+    }
+
+    private void add( Kind kind, Element element, String owner, String member, String o, String n, ThriftObject oldObject, ThriftObject newObject )
+    {
+        Change c = new Change();
+        c.kind_ = kind;
+        c.element_ = element;
+        c.owner_ = owner;
+        c.member_ = member;
+        c.old_ = o;
+        c.new_ = n;
+        c.oldObject_ = oldObject;
+        c.newObject_ = newObject;
+        changes_.add( c );
+    }
+
+    private void compare_type( String owner, ThriftType o, ThriftType n )
+    {
+        final String ok = kindOf( o );
+        final String nk = kindOf( n );
+        if ( !ok.equals( nk ) )
+        {
+            add( Kind.CHANGED, Element.TYPE, owner, null, describeDeclaration(o), describeDeclaration(n), o, n );
+            return;
+        }
+        if ( o instanceof ThriftStructType )
+            compare_fields( Element.FIELD, owner, null, ((ThriftStructType)o).fields_, ((ThriftStructType)n).fields_ );
+        else if ( o instanceof ThriftUnionType )
+            compare_fields( Element.FIELD, owner, null, ((ThriftUnionType)o).fields_, ((ThriftUnionType)n).fields_ );
+        else if ( o instanceof ThriftEnum )
+            compare_enum( owner, (ThriftEnum)o, (ThriftEnum)n );
+        else
+        {
+            final String od = describe( ((ThriftTypedef)o).reftype_ );
+            final String nd = describe( ((ThriftTypedef)n).reftype_ );
+            if ( !od.equals( nd ) )
+                add( Kind.CHANGED, Element.TYPE, owner, null, describeDeclaration(o), describeDeclaration(n), o, n );
+        }
+    }
+
+    private void compare_enum( String owner, ThriftEnum o, ThriftEnum n )
+    {
+        Map<String, ThriftEnumValue> ov = new LinkedHashMap<>();
+        if ( o.values_ != null ) for ( ThriftEnumValue v : o.values_ ) if ( !ov.containsKey(v.name_) ) ov.put( v.name_, v );
+        Map<String, ThriftEnumValue> nv = new LinkedHashMap<>();
+        if ( n.values_ != null ) for ( ThriftEnumValue v : n.values_ ) if ( !nv.containsKey(v.name_) ) nv.put( v.name_, v );
+
+        for ( ThriftEnumValue v : ov.values() )
+        {
+            final ThriftEnumValue w = nv.get( v.name_ );
+            if ( w == null )
+                add( Kind.REMOVED, Element.ENUM_VALUE, owner, v.name_, String.valueOf(v.value_), null, null, null );
+            else if ( v.value_ != w.value_ )
+                add( Kind.CHANGED, Element.ENUM_VALUE, owner, v.name_, String.valueOf(v.value_), String.valueOf(w.value_), null, null );
+        }
+        for ( ThriftEnumValue w : nv.values() )
+        {
+            if ( !ov.containsKey( w.name_ ) )
+                add( Kind.ADDED, Element.ENUM_VALUE, owner, w.name_, null, String.valueOf(w.value_), null, null );
+        }
+    }
+
+    /**
+     * Compares fields by id.
+     * @param prefix Prefix of the member names, e.g. the function name, or null.
+     */
+    private void compare_fields( Element element, String owner, String prefix, List<ThriftField> o, List<ThriftField> n )
+    {
+        Map<Integer, ThriftField> of = byId( o );
+        Map<Integer, ThriftField> nf = byId( n );
+        for ( ThriftField f : of.values() )
+        {
+            final ThriftField g = nf.get( f.id_ );
+            if ( g == null )
+                add( Kind.REMOVED, element, owner, member( prefix, f ), describe(f), null, f, null );
+            else
+            {
+                final String od = describe( f );
+                final String nd = describe( g );
+                if ( !od.equals( nd ) )
+                    add( Kind.CHANGED, element, owner, member( prefix, g ), od, nd, f, g );
+            }
+        }
+        for ( ThriftField g : nf.values() )
+        {
+            if ( !of.containsKey( g.id_ ) )
+                add( Kind.ADDED, element, owner, member( prefix, g ), null, describe(g), null, g );
+        }
+    }
+
+    private void compare_service( String owner, ThriftService o, ThriftService n )
+    {
+        final String oe = describe( o.extended_service_ );
+        final String ne = describe( n.extended_service_ );
+        if ( !oe.equals( ne ) )
+        {
+            final Kind k = ( o.extended_service_ == null ) ? Kind.ADDED : ( n.extended_service_ == null ) ? Kind.REMOVED : Kind.CHANGED;
+            add( k, Element.EXTENDS, owner, null, o.extended_service_ == null ? null : oe, n.extended_service_ == null ? null : ne, null, null );
+        }
+
+        Map<String, ThriftFunction> of = new LinkedHashMap<>();
+        for ( ThriftFunction f : o.functions_ ) if ( !of.containsKey(f.name_) ) of.put( f.name_, f );
+        Map<String, ThriftFunction> nf = new LinkedHashMap<>();
+        for ( ThriftFunction f : n.functions_ ) if ( !nf.containsKey(f.name_) ) nf.put( f.name_, f );
+
+        for ( ThriftFunction f : of.values() )
+        {
+            final ThriftFunction g = nf.get( f.name_ );
+            if ( g == null )
+            {
+                add( Kind.REMOVED, Element.FUNCTION, owner, f.name_, describe(f), null, f, null );
+                continue;
+            }
+            if ( f.getMode() != g.getMode() || !describe( f.return_type_ ).equals( describe( g.return_type_ ) ) )
+                add( Kind.CHANGED, Element.FUNCTION, owner, f.name_, describe(f), describe(g), f, g );
+            compare_fields( Element.PARAMETER, owner, f.name_, f.parameters_, g.parameters_ );
+            compare_fields( Element.EXCEPTION, owner, f.name_, f.exceptions_, g.exceptions_ );
+        }
+        for ( ThriftFunction g : nf.values() )
+        {
+            if ( !of.containsKey( g.name_ ) )
+                add( Kind.ADDED, Element.FUNCTION, owner, g.name_, null, describe(g), null, g );
+        }
+    }
+
+    private static void collect( ThriftDocument d, Map<String, ThriftType> types, Map<String, ThriftService> services, Set<ThriftDocument> visited )
+    {
+        if ( d == null || !visited.add(d) )
+            return;
+        if ( d.includes_ != null )
+            for ( ThriftInclude i : d.includes_ ) collect( i.doc_, types, services, visited );
+        if ( d.all_types_ != null )
+            for ( ThriftType t : d.all_types_.values() ) if ( isNamed(t) ) types.put( t.name_fully_qualified_, t );
+        if ( d.all_services_ != null )
+            for ( ThriftService s : d.all_services_ ) services.put( s.name_fully_qualified_, s );
+    }
+
+    private static Map<String, ThriftService> byName( Collection<ThriftService> services )
+    {
+        Map<String, ThriftService> m = new HashMap<>();
+        if ( services != null )
+            for ( ThriftService s : services ) m.put( s.name_fully_qualified_, s );
+        return m;
+    }
+
+    private static Map<Integer, ThriftField> byId( List<ThriftField> fields )
+    {
+        Map<Integer, ThriftField> m = new TreeMap<>();
+        if ( fields != null )
+            for ( ThriftField f : fields ) if ( !m.containsKey(f.id_) ) m.put( f.id_, f );
+        return m;
+    }
+
+    private static boolean isNamed( ThriftType t )
+    {
+        return t instanceof ThriftStructType || t instanceof ThriftUnionType
+            || t instanceof ThriftEnum || t instanceof ThriftTypedef;
+    }
+
+    private static String kindOf( ThriftType t )
+    {
+        if ( t instanceof ThriftExceptionType ) return "exception";
+        if ( t instanceof ThriftStructType )    return "struct";
+        if ( t instanceof ThriftUnionType )     return "union";
+        if ( t instanceof ThriftEnum )          return "enum";
+        return "typedef";
+    }
+
+    private static String member( String prefix, ThriftField f )
+    {
+        return ( prefix != null ? prefix+"." : "" ) + f.id_ + ":" + f.name_;
+    }
+
+    private static String describeDeclaration( ThriftType t )
+    {
+        if ( t instanceof ThriftTypedef )
+            return "typedef " + describe( ((ThriftTypedef)t).reftype_ );
+        return kindOf( t );
+    }
+
+    private static String describe( ThriftField f )
+    {
+        StringBuilder sb = new StringBuilder();
+        if ( f.requiredness_ != ThriftFieldRequiredness.DEFAULT )
+            sb.append( f.requiredness_.name().toLowerCase( Locale.ROOT ) ).append(' ');
+        return sb.append( describe( f.type_ ) ).append(' ').append( f.name_ ).toString();
+    }
+
+    private static String describe( ThriftFunction f )
+    {
+        final ThriftFunctionMode mode = f.getMode();
+        return ( mode != ThriftFunctionMode.NONE ? mode.name().toLowerCase( Locale.ROOT )+" " : "" )
+               + describe( f.return_type_ );
+    }
+
+    private static String describe( ThriftServiceRef r )
+    {
+        if ( r == null )
+            return "";
+        return ( r.resolvedService_ != null ) ? r.resolvedService_.name_fully_qualified_ : r.declaredName_;
+    }
+
+    /**
+     * Describes a used type, named types by their fully qualified name.
+     */
+    private static String describe( ThriftType t )
+    {
+        int guard = 0;
+        while ( t instanceof ThriftTypeRef && ((ThriftTypeRef)t).resolvedType_ != null && guard++ < 64 )
+            t = ((ThriftTypeRef)t).resolvedType_;
+        if ( t == null )
+            return "?";
+        if ( t instanceof ThriftTypeRef )
+            return ((ThriftTypeRef)t).declaredName_;
+        if ( t instanceof ThriftListType )
+            return "list<" + describe( ((ThriftListType)t).value_type_ ) + ">";
+        if ( t instanceof ThriftSetType )
+            return "set<" + describe( ((ThriftSetType)t).value_type_ ) + ">";
+        if ( t instanceof ThriftMapType )
+            return "map<" + describe( ((ThriftMapType)t).key_type_ ) + "," + describe( ((ThriftMapType)t).value_type_ ) + ">";
+        return Objects.toString( t.name_fully_qualified_, t.name_ );
+    }
+}
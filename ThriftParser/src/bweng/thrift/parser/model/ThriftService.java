@@ -22,6 +22,18 @@ public class ThriftService extends ThriftObject
     /** Optional: base service. */
     public ThriftServiceRef extended_service_;
 
+    // Cached fingerprint, 0 if not computed, see ThriftFingerprints.
+    long fingerprint_;
+
+    /**
+     * Gets the structural fingerprint of this service, covering the base service and all function signatures.
+     * @see ThriftFingerprints
+     */
+    public final long getFingerprint()
+    {
+        return ThriftFingerprints.of( this );
+    }
+
     @Override
     public String toString()
     {
@@ -4,6 +4,9 @@
  */
 package bweng.thrift.parser.model;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Part of the data model, representing a Thrift Type.
  */
@@ -35,12 +38,30 @@ public class ThriftType extends ThriftObject
 
     public final static ThriftType SERVICE;
 
+    // Cached final type of a reference chain, see cacheRealType().
+    private ThriftType real_type_;
+
+    // Cached fingerprint of named types, 0 if not computed, see ThriftFingerprints.
+    long fingerprint_;
+
+    /**
+     * Gets the structural fingerprint of this type.
+     * @see ThriftFingerprints
+     */
+    public final long getFingerprint()
+    {
+        return ThriftFingerprints.of( this );
+    }
+
     /**
-     * Resolves Type-references and ThriftTypeDef, returning the inner real type.
+     * Resolves Type-references and ThriftTypeDef, returning the inner real type.<br>
+     * If the chain was compressed by {@link #cacheRealType()}, the cached type is returned.
      * @return The real type or null.
      */
     public ThriftType getRealType()
     {
+        if ( real_type_ != null ) return real_type_;
+
         ThriftType type = this;
         while (true)
         {
@@ -50,10 +71,81 @@ public class ThriftType extends ThriftObject
                 type = ((ThriftTypedef)type).reftype_;
             else
                 break;
+            if ( type != null && type.real_type_ != null )
+                return type.real_type_;
+        }
+        return type;
+    }
+
+    /**
+     * Follows the Type-reference and ThriftTypeDef chain once and stores the
+     * final real type in this and all intermediate chain members.<br>
+     * The references itself are not modified, so type-definitions stay intact.
+     * Cyclic or unresolved chains are not cached.
+     * @return The real type or null.
+     */
+    public final ThriftType cacheRealType()
+    {
+        if ( real_type_ != null ) return real_type_;
+        if ( !(this instanceof ThriftTypeRef || this instanceof ThriftTypedef) ) return this;
+
+        List<ThriftType> chain = new ArrayList<>();
+        ThriftType type = this;
+        while ( type instanceof ThriftTypeRef || type instanceof ThriftTypedef )
+        {
+            if ( type.real_type_ != null )
+            {
+                type = type.real_type_;
+                break;
+            }
+            if ( chain.contains(type) )
+                return null;
+            chain.add(type);
+            type = (type instanceof ThriftTypeRef)
+                   ? ((ThriftTypeRef) type).resolvedType_
+                   : ((ThriftTypedef)type).reftype_;
         }
+        if ( type != null )
+            for ( ThriftType t : chain ) t.real_type_ = type;
         return type;
     }
 
+    /**
+     * Removes a cached real type, e.g. if the reference was changed after resolution.
+     */
+    public final void clearRealType()
+    {
+        real_type_ = null;
+    }
+
+    /**
+     * Checks if two types are the same. Resolved Type-references are followed,
+     * containers are compared by their element types, all other types by identity.
+     * Type-definitions are not followed.<br>
+     * If the containers were canonicalized by the generator, this is an identity check.
+     * @see bweng.thrift.parser.ThriftModelGenerator#setContainerCanonicalization(boolean)
+     */
+    public static boolean isSameType( ThriftType a, ThriftType b )
+    {
+        while ( a instanceof ThriftTypeRef && ((ThriftTypeRef)a).resolvedType_ != null )
+            a = ((ThriftTypeRef)a).resolvedType_;
+        while ( b instanceof ThriftTypeRef && ((ThriftTypeRef)b).resolvedType_ != null )
+            b = ((ThriftTypeRef)b).resolvedType_;
+        if ( a == b )
+            return true;
+        if ( a == null || b == null || a.getClass() != b.getClass() )
+            return false;
+
+        if ( a instanceof ThriftListType )
+            return isSameType( ((ThriftListType)a).value_type_, ((ThriftListType)b).value_type_ );
+        if ( a instanceof ThriftSetType )
+            return isSameType( ((ThriftSetType)a).value_type_, ((ThriftSetType)b).value_type_ );
+        if ( a instanceof ThriftMapType )
+            return isSameType( ((ThriftMapType)a).key_type_,   ((ThriftMapType)b).key_type_ )
+                && isSameType( ((ThriftMapType)a).value_type_, ((ThriftMapType)b).value_type_ );
+        return false;
+    }
+
     static
     {
         BOOL   = new ThriftType(); BOOL.name_   = BOOL.name_fully_qualified_    = "bool";
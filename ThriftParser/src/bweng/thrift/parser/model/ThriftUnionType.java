@@ -14,6 +14,30 @@ public class ThriftUnionType extends ThriftType
 {
     public List<ThriftField> fields_;
 
+    // Lookup table of the fields, see getFieldTable().
+    private ThriftFieldTable field_table_;
+
+    /**
+     * Gets the lookup table of the fields by id and name.<br>
+     * The table is created at first use, the generator creates it after resolution.
+     * Call {@link #clearFieldTable()} if the fields are changed afterwards.
+     */
+    public final ThriftFieldTable getFieldTable()
+    {
+        ThriftFieldTable t = field_table_;
+        if ( t == null )
+            field_table_ = t = new ThriftFieldTable( fields_ );
+        return t;
+    }
+
+    /**
+     * Removes the lookup table, e.g. if the fields were changed.
+     */
+    public final void clearFieldTable()
+    {
+        field_table_ = null;
+    }
+
     @Override
     public String toString()
     {
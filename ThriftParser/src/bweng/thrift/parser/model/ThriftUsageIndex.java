@@ -0,0 +1,261 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Part of the data model, reverse index of type usages.<br>
+ * Maps each type to the fields, functions and types (containers, type-definitions,
+ * structures, unions and exceptions) that use it.<br>
+ * Usages via Type-references are also registered for the referenced type.
+ * Type-definitions are registered as users of their type, so indirect usages
+ * can be found by {@link #getDependents(ThriftType)}.
+ */
+public class ThriftUsageIndex
+{
+    static final class Usages
+    {
+        final List<ThriftField>    fields_    = new ArrayList<>(2);
+        final List<ThriftFunction> functions_ = new ArrayList<>(2);
+        final List<ThriftType>     types_     = new ArrayList<>(2);
+        final List<ThriftObject>   all_       = new ArrayList<>(4);
+        // Identity set of all users, only created for many users.
+        Set<ThriftObject> users_;
+
+        /**
+         * Adds a user to all_, if not already added.
+         * @return false if already added.
+         */
+        boolean add( ThriftObject user )
+        {
+            if ( users_ != null )
+            {
+                if ( !users_.add(user) )
+                    return false;
+            }
+            else
+            {
+                for ( ThriftObject o : all_ )
+                    if ( o == user ) return false;
+                if ( all_.size() >= 8 )
+                {
+                    users_ = Collections.newSetFromMap(new IdentityHashMap<ThriftObject, Boolean>());
+                    users_.addAll(all_);
+                    users_.add(user);
+                }
+            }
+            all_.add(user);
+            return true;
+        }
+    }
+
+    private final Map<ThriftType, Usages> usages_ = new IdentityHashMap<>();
+    private final Set<Object> indexed_ = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+    /**
+     * Adds all usages of the document and its includes to the index.
+     * Documents that are already indexed are ignored.
+     * @param doc The resolved document.
+     */
+    public void add( ThriftDocument doc )
+    {
+        if ( doc == null || !indexed_.add(doc) )
+            return;
+
+        if ( doc.includes_ != null )
+            for ( ThriftInclude i : doc.includes_ ) add( i.doc_ );
+
+        if ( doc.all_types_ != null )
+        {
+            for ( ThriftType t : doc.all_types_.values() )
+            {
+                if ( t instanceof ThriftStructType )
+                    addFields( t, ((ThriftStructType)t).fields_ );
+                else if ( t instanceof ThriftUnionType )
+                    addFields( t, ((ThriftUnionType)t).fields_ );
+                else if ( t instanceof ThriftTypedef )
+                    addUsage( ((ThriftTypedef)t).reftype_, t );
+            }
+        }
+
+        if ( doc.all_services_ != null )
+        {
+            for ( ThriftService s : doc.all_services_ )
+            {
+                for ( ThriftFunction f : s.functions_ )
+                {
+                    addUsage( f.return_type_, f );
+                    addFields( f, f.parameters_ );
+                    addFields( f, f.exceptions_ );
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets all objects that directly use the type.
+     * @param type The used type.
+     * @return Unmodifiable list of fields, functions and types, never null.
+     */
+    public List<ThriftObject> getUsages( ThriftType type )
+    {
+        Usages u = usages_.get(type);
+        return u == null ? Collections.<ThriftObject>emptyList() : Collections.unmodifiableList(u.all_);
+    }
+
+    /**
+     * Gets all fields (structure members, parameters and exceptions) with the type.
+     * @param type The used type.
+     * @return Unmodifiable list, never null.
+     */
+    public List<ThriftField> getFields( ThriftType type )
+    {
+        Usages u = usages_.get(type);
+        return u == null ? Collections.<ThriftField>emptyList() : Collections.unmodifiableList(u.fields_);
+    }
+
+    /**
+     * Gets all functions that use the type as return type, parameter or exception.
+     * @param type The used type.
+     * @return Unmodifiable list, never null.
+     */
+    public List<ThriftFunction> getFunctions( ThriftType type )
+    {
+        Usages u = usages_.get(type);
+        return u == null ? Collections.<ThriftFunction>emptyList() : Collections.unmodifiableList(u.functions_);
+    }
+
+    /**
+     * Gets all containers, type-definitions and structures that use the type.
+     * @param type The used type.
+     * @return Unmodifiable list, never null.
+     */
+    public List<ThriftType> getTypes( ThriftType type )
+    {
+        Usages u = usages_.get(type);
+        return u == null ? Collections.<ThriftType>emptyList() : Collections.unmodifiableList(u.types_);
+    }
+
+    /**
+     * Collects all objects that directly or indirectly depend on the type,
+     * e.g. a function that returns a list of a structure that contains a field of the type.
+     * @param type The type that is changed.
+     * @return All depending objects in breadth-first order.
+     */
+    public Set<ThriftObject> getDependents( ThriftType type )
+    {
+        Set<ThriftObject> result = new LinkedHashSet<>();
+        ArrayDeque<ThriftType> queue = new ArrayDeque<>();
+        queue.add(type);
+        while ( !queue.isEmpty() )
+        {
+            Usages u = usages_.get( queue.poll() );
+            if ( u != null )
+            {
+                for ( ThriftObject o : u.all_ )
+                {
+                    if ( result.add(o) && o instanceof ThriftType )
+                        queue.add( (ThriftType)o );
+                }
+            }
+        }
+        return result;
+    }
+
+    private void addFields( ThriftObject owner, List<ThriftField> fields )
+    {
+        if ( fields != null )
+        {
+            for ( ThriftField f : fields )
+            {
+                addUsage( f.type_, f );
+                addUsage( f.type_, owner );
+            }
+        }
+    }
+
+    private void addUsage( ThriftType used, ThriftObject user )
+    {
+        if ( used == null )
+            return;
+
+        // Register also for the referenced type.
+        int guard = 0;
+        for ( ThriftType t = used ; t != null && guard < 64 ; ++guard )
+        {
+            register( t, user );
+            t = (t instanceof ThriftTypeRef) ? ((ThriftTypeRef)t).resolvedType_ : null;
+        }
+
+        // Containers are used only at this place, add their element types once.
+        if ( used instanceof ThriftListType )
+        {
+            if ( indexed_.add(used) )
+                addUsage( ((ThriftListType)used).value_type_, used );
+        }
+        else if ( used instanceof ThriftSetType )
+        {
+            if ( indexed_.add(used) )
+                addUsage( ((ThriftSetType)used).value_type_, used );
+        }
+        else if ( used instanceof ThriftMapType )
+        {
+            if ( indexed_.add(used) )
+            {
+                addUsage( ((ThriftMapType)used).key_type_, used );
+                addUsage( ((ThriftMapType)used).value_type_, used );
+            }
+        }
+    }
+
+    private void register( ThriftType type, ThriftObject user )
+    {
+        Usages u = usages_.get(type);
+        if ( u == null )
+        {
+            u = new Usages();
+            usages_.put(type, u);
+        }
+        if ( !u.add(user) )
+            return;
+
+        if ( user instanceof ThriftField )
+            u.fields_.add( (ThriftField)user );
+        else if ( user instanceof ThriftFunction )
+            u.functions_.add( (ThriftFunction)user );
+        else if ( user instanceof ThriftType )
+            u.types_.add( (ThriftType)user );
+    }
+
+    /**
+     * Estimates the retained bytes of the index itself, without the indexed objects.
+     * @see ThriftFootprint
+     */
+    long estimateBytes()
+    {
+        long bytes = ThriftFootprint.shallowSize( getClass() )
+                   + ThriftFootprint.identityMapBytes( usages_.size() )
+                   + ThriftFootprint.identityMapBytes( indexed_.size() );
+        for ( Usages u : usages_.values() )
+        {
+            bytes += ThriftFootprint.shallowSize( Usages.class )
+                   + ThriftFootprint.listBytes( Math.max( 2, u.fields_.size() ) )
+                   + ThriftFootprint.listBytes( Math.max( 2, u.functions_.size() ) )
+                   + ThriftFootprint.listBytes( Math.max( 2, u.types_.size() ) )
+                   + ThriftFootprint.listBytes( Math.max( 4, u.all_.size() ) );
+            if ( u.users_ != null )
+                bytes += ThriftFootprint.identityMapBytes( u.users_.size() );
+        }
+        return bytes;
+    }
+}
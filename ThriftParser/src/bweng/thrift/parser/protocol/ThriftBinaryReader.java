@@ -0,0 +1,100 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reader of TBinaryProtocol. Strict and old message headers are not part of
+ * a struct, so both are read the same way.
+ */
+final class ThriftBinaryReader extends ThriftProtocolReader
+{
+    // The protocol is big-endian, the buffer may be set to another order.
+    private boolean swap_;
+
+    @Override
+    void reset( ByteBuffer in )
+    {
+        super.reset( in );
+        swap_ = in.order() != ByteOrder.BIG_ENDIAN;
+    }
+
+    @Override
+    void readStructBegin()
+    {
+    }
+
+    @Override
+    void readStructEnd()
+    {
+    }
+
+    @Override
+    int readFieldBegin() throws IOException
+    {
+        final int type = in_.get();
+        if ( type == ThriftWireType.STOP )
+            return type;
+        fieldId_ = readI16();
+        return type;
+    }
+
+    @Override
+    int readListBegin() throws IOException
+    {
+        elementType_ = in_.get();
+        return checkSize( readI32() );
+    }
+
+    @Override
+    int readMapBegin() throws IOException
+    {
+        elementType_ = in_.get();
+        valueType_ = in_.get();
+        return checkSize( readI32() );
+    }
+
+    @Override
+    boolean readBool()
+    {
+        return in_.get() != 0;
+    }
+
+    @Override
+    short readI16()
+    {
+        final short v = in_.getShort();
+        return swap_ ? Short.reverseBytes( v ) : v;
+    }
+
+    @Override
+    int readI32()
+    {
+        final int v = in_.getInt();
+        return swap_ ? Integer.reverseBytes( v ) : v;
+    }
+
+    @Override
+    long readI64()
+    {
+        final long v = in_.getLong();
+        return swap_ ? Long.reverseBytes( v ) : v;
+    }
+
+    @Override
+    double readDouble()
+    {
+        return Double.longBitsToDouble( readI64() );
+    }
+
+    @Override
+    int readBinaryLength() throws IOException
+    {
+        return checkSize( readI32() );
+    }
+}
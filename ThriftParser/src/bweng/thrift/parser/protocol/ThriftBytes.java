@@ -0,0 +1,47 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte arena of a decoded value tree. Strings and binaries of all values of
+ * the tree are copied here and referenced by offset and length, packed into
+ * one long. The arena is reused by the next decode of the tree.
+ */
+final class ThriftBytes
+{
+    byte[] data_ = new byte[256];
+    int size_;
+
+    /**
+     * Copies bytes from the buffer.
+     * @return Offset and length.
+     */
+    long append( ByteBuffer in, int length )
+    {
+        if ( size_ + length > data_.length )
+        {
+            final byte[] d = new byte[ Math.max( 2*data_.length, size_ + length ) ];
+            System.arraycopy( data_, 0, d, 0, size_ );
+            data_ = d;
+        }
+        in.get( data_, size_, length );
+        final long ref = ((long)size_ << 32) | length;
+        size_ += length;
+        return ref;
+    }
+
+    String getString( long ref )
+    {
+        return new String( data_, (int)(ref >>> 32), (int)ref, StandardCharsets.UTF_8 );
+    }
+
+    ByteBuffer getBinary( long ref )
+    {
+        return ByteBuffer.wrap( data_, (int)(ref >>> 32), (int)ref ).slice().asReadOnlyBuffer();
+    }
+}
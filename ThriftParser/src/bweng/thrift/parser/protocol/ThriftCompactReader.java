@@ -0,0 +1,186 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reader of TCompactProtocol.<br>
+ * Integers are zigzag varints, field ids are deltas to the last id of the struct,
+ * bool fields carry their value in the type of the field header and doubles are little-endian.
+ */
+final class ThriftCompactReader extends ThriftProtocolReader
+{
+    // Wire types by compact type.
+    private final static int[] TYPES =
+    {
+        ThriftWireType.STOP, ThriftWireType.BOOL, ThriftWireType.BOOL, ThriftWireType.BYTE,
+        ThriftWireType.I16, ThriftWireType.I32, ThriftWireType.I64, ThriftWireType.DOUBLE,
+        ThriftWireType.STRING, ThriftWireType.LIST, ThriftWireType.SET, ThriftWireType.MAP,
+        ThriftWireType.STRUCT
+    };
+
+    // Last field ids of the enclosing structs.
+    private final int[] lastIds_ = new int[ MAX_DEPTH+2 ];
+    private int depth_;
+    private int lastId_;
+
+    // Value of a bool field, read with the field header.
+    private boolean bool_;
+    private boolean boolPending_;
+
+    private boolean swap_;
+
+    @Override
+    void reset( ByteBuffer in )
+    {
+        super.reset( in );
+        swap_ = in.order() != ByteOrder.LITTLE_ENDIAN;
+        depth_ = 0;
+        lastId_ = 0;
+        boolPending_ = false;
+    }
+
+    private static int type( int compactType ) throws IOException
+    {
+        if ( compactType < 0 || compactType >= TYPES.length )
+            throw new IOException( "Invalid compact type " + compactType );
+        return TYPES[compactType];
+    }
+
+    @Override
+    void readStructBegin() throws IOException
+    {
+        if ( depth_ >= lastIds_.length )
+            throw new IOException( "Nesting too deep at position " + in_.position() );
+        lastIds_[depth_++] = lastId_;
+        lastId_ = 0;
+    }
+
+    @Override
+    void readStructEnd()
+    {
+        lastId_ = lastIds_[--depth_];
+    }
+
+    @Override
+    int readFieldBegin() throws IOException
+    {
+        final int b = in_.get() & 0xFF;
+        if ( b == 0 )
+            return ThriftWireType.STOP;
+        final int delta = b >>> 4;
+        final int ct = b & 0x0F;
+        lastId_ = fieldId_ = ( delta == 0 ) ? (short)zigzag( readVarint32() ) : lastId_ + delta;
+        if ( ct == 1 || ct == 2 )
+        {
+            bool_ = ( ct == 1 );
+            boolPending_ = true;
+        }
+        return type( ct );
+    }
+
+    @Override
+    int readListBegin() throws IOException
+    {
+        final int b = in_.get() & 0xFF;
+        int size = b >>> 4;
+        if ( size == 15 )
+            size = readVarint32();
+        elementType_ = type( b & 0x0F );
+        return checkSize( size );
+    }
+
+    @Override
+    int readMapBegin() throws IOException
+    {
+        final int size = checkSize( readVarint32() );
+        if ( size == 0 )
+        {
+            elementType_ = valueType_ = ThriftWireType.STOP;
+            return 0;
+        }
+        final int b = in_.get() & 0xFF;
+        elementType_ = type( b >>> 4 );
+        valueType_ = type( b & 0x0F );
+        return size;
+    }
+
+    @Override
+    boolean readBool()
+    {
+        if ( boolPending_ )
+        {
+            boolPending_ = false;
+            return bool_;
+        }
+        return in_.get() == 1;
+    }
+
+    @Override
+    short readI16() throws IOException
+    {
+        return (short)zigzag( readVarint32() );
+    }
+
+    @Override
+    int readI32() throws IOException
+    {
+        return zigzag( readVarint32() );
+    }
+
+    @Override
+    long readI64() throws IOException
+    {
+        final long v = readVarint64();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    @Override
+    double readDouble()
+    {
+        final long v = in_.getLong();
+        return Double.longBitsToDouble( swap_ ? Long.reverseBytes( v ) : v );
+    }
+
+    @Override
+    int readBinaryLength() throws IOException
+    {
+        return checkSize( readVarint32() );
+    }
+
+    private static int zigzag( int v )
+    {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private int readVarint32() throws IOException
+    {
+        int v = 0;
+        for ( int shift = 0 ; shift < 35 ; shift += 7 )
+        {
+            final int b = in_.get();
+            v |= (b & 0x7F) << shift;
+            if ( b >= 0 )
+                return v;
+        }
+        throw new IOException( "Invalid varint at position " + in_.position() );
+    }
+
+    private long readVarint64() throws IOException
+    {
+        long v = 0;
+        for ( int shift = 0 ; shift < 70 ; shift += 7 )
+        {
+            final int b = in_.get();
+            v |= (long)(b & 0x7F) << shift;
+            if ( b >= 0 )
+                return v;
+        }
+        throw new IOException( "Invalid varint at position " + in_.position() );
+    }
+}
@@ -0,0 +1,230 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.protocol;
+
+import bweng.thrift.parser.model.*;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes TBinaryProtocol or TCompactProtocol payloads of a resolved struct,
+ * union or exception type into a generic value tree, without generated classes.<p>
+ * The dispatch tables of all reachable structs are compiled once by the constructor.
+ * Fields are dispatched by id to their slot and stored unboxed. Unknown fields,
+ * fields with unresolved types and fields whose wire type doesn't match the
+ * declaration are skipped, as generated code does.<br>
+ * Decoding into a reused {@link ThriftStructValue} allocates nothing once the
+ * value tree and its arena have grown to the size of the payloads.<p>
+ * A decoder is not thread-safe, use one per thread.
+ */
+public final class ThriftDecoder
+{
+    private final ThriftProtocol protocol_;
+    private final ThriftStructLayout layout_;
+    private final ThriftProtocolReader r_;
+
+    /**
+     * Creates a decoder.
+     * @param type Struct, union or exception, type-references and type-definitions are followed.
+     * @param protocol The wire protocol.
+     * @throws IllegalArgumentException if the type has no fields.
+     */
+    public ThriftDecoder( ThriftType type, ThriftProtocol protocol )
+    {
+        protocol_ = protocol;
+        layout_ = ThriftStructLayout.compile( type );
+        r_ = ThriftProtocolReader.create( protocol );
+    }
+
+    public ThriftProtocol getProtocol()
+    {
+        return protocol_;
+    }
+
+    /**
+     * Gets the decoded type.
+     */
+    public ThriftType getType()
+    {
+        return layout_.type_;
+    }
+
+    /**
+     * Creates an empty value to decode into.
+     */
+    public ThriftStructValue newValue()
+    {
+        return new ThriftStructValue( layout_, new ThriftBytes() );
+    }
+
+    /**
+     * Decodes one struct into a new value.
+     * @see #decode(ByteBuffer, ThriftStructValue)
+     */
+    public ThriftStructValue decode( ByteBuffer in ) throws IOException
+    {
+        final ThriftStructValue v = newValue();
+        decode( in, v );
+        return v;
+    }
+
+    /**
+     * Decodes one struct at the position of the buffer and advances the position behind it.
+     * The previous content of the value is replaced.
+     * @param value A value of {@link #newValue()} of this decoder.
+     * @throws EOFException If the buffer ends within the struct.
+     * @throws IOException If the data is corrupt. The position of the buffer is undefined.
+     */
+    public void decode( ByteBuffer in, ThriftStructValue value ) throws IOException
+    {
+        if ( value.layout_ != layout_ )
+            throw new IllegalArgumentException( "Value of another decoder" );
+        value.bytes_.size_ = 0;
+        r_.reset( in );
+        try
+        {
+            readStruct( value, 0 );
+        }
+        catch ( BufferUnderflowException ex )
+        {
+            throw new EOFException( "Truncated " + layout_.type_.name_ + " at position " + in.position() );
+        }
+        finally
+        {
+            r_.in_ = null;
+        }
+    }
+
+    private void readStruct( ThriftStructValue v, int depth ) throws IOException
+    {
+        if ( depth > ThriftProtocolReader.MAX_DEPTH )
+            throw new IOException( "Nesting too deep at position " + r_.in_.position() );
+        v.begin();
+        final ThriftStructLayout l = v.layout_;
+        final ThriftValueType[] types = l.types_;
+        r_.readStructBegin();
+        int type;
+        while ( (type = r_.readFieldBegin()) != ThriftWireType.STOP )
+        {
+            final int s = l.slot( r_.fieldId_ );
+            final ThriftValueType vt = ( s >= 0 ) ? types[s] : null;
+            if ( vt == null || vt.wire_ != type )
+            {
+                r_.skip( type, depth+1 );
+                ++v.skipped_;
+            }
+            else if ( readValue( v.prims_, v.refs_, s, vt, v.bytes_, depth+1 ) )
+                v.set( s );
+            else
+                ++v.skipped_;
+        }
+        r_.readStructEnd();
+    }
+
+    /**
+     * Reads a value of the expected type into a slot.
+     * @return false if a container holds elements of other wire types, they are skipped.
+     */
+    private boolean readValue( long[] prims, Object[] refs, int i, ThriftValueType vt, ThriftBytes bytes, int depth ) throws IOException
+    {
+        switch ( vt.wire_ )
+        {
+            case ThriftWireType.BOOL:   prims[i] = r_.readBool() ? 1 : 0; return true;
+            case ThriftWireType.BYTE:   prims[i] = r_.readByte(); return true;
+            case ThriftWireType.I16:    prims[i] = r_.readI16(); return true;
+            case ThriftWireType.I32:    prims[i] = r_.readI32(); return true;
+            case ThriftWireType.I64:    prims[i] = r_.readI64(); return true;
+            case ThriftWireType.DOUBLE: prims[i] = Double.doubleToRawLongBits( r_.readDouble() ); return true;
+            case ThriftWireType.STRING: prims[i] = bytes.append( r_.in_, r_.readBinaryLength() ); return true;
+            case ThriftWireType.STRUCT:
+            {
+                ThriftStructValue sv = (ThriftStructValue)refs[i];
+                if ( sv == null )
+                    refs[i] = sv = new ThriftStructValue( vt.struct_, bytes );
+                readStruct( sv, depth );
+                return true;
+            }
+            case ThriftWireType.LIST:
+            case ThriftWireType.SET:
+            {
+                final int n = r_.readListBegin();
+                final int et = r_.elementType_;
+                if ( n > 0 && et != vt.element_.wire_ )
+                {
+                    skipElements( n, et, ThriftWireType.STOP, depth );
+                    return false;
+                }
+                ThriftListValue lv = (ThriftListValue)refs[i];
+                if ( lv == null )
+                    refs[i] = lv = new ThriftListValue( vt.element_, bytes );
+                return readElements( lv, n, depth );
+            }
+            case ThriftWireType.MAP:
+            {
+                final int n = r_.readMapBegin();
+                final int kt = r_.elementType_;
+                final int et = r_.valueType_;
+                if ( n > 0 && ( kt != vt.key_.wire_ || et != vt.element_.wire_ ) )
+                {
+                    skipElements( n, kt, et, depth );
+                    return false;
+                }
+                ThriftMapValue mv = (ThriftMapValue)refs[i];
+                if ( mv == null )
+                    refs[i] = mv = new ThriftMapValue( vt, bytes );
+                final ThriftListValue keys = mv.keys_;
+                final ThriftListValue values = mv.values_;
+                keys.reset( n );
+                values.reset( n );
+                boolean ok = true;
+                for ( int e=0 ; e<n ; ++e )
+                {
+                    ok &= readValue( keys.prims_, keys.refs_, e, keys.type_, bytes, depth+1 );
+                    ok &= readValue( values.prims_, values.refs_, e, values.type_, bytes, depth+1 );
+                }
+                return ok;
+            }
+            default:
+                throw new IOException( "Invalid type " + vt.wire_ );
+        }
+    }
+
+    private boolean readElements( ThriftListValue lv, int n, int depth ) throws IOException
+    {
+        if ( depth > ThriftProtocolReader.MAX_DEPTH )
+            throw new IOException( "Nesting too deep at position " + r_.in_.position() );
+        lv.reset( n );
+        final ThriftValueType et = lv.type_;
+        final long[] prims = lv.prims_;
+        // Fast paths of the most common primitive lists.
+        switch ( et.wire_ )
+        {
+            case ThriftWireType.I32:
+                for ( int e=0 ; e<n ; ++e ) prims[e] = r_.readI32();
+                return true;
+            case ThriftWireType.I64:
+                for ( int e=0 ; e<n ; ++e ) prims[e] = r_.readI64();
+                return true;
+            default:
+                break;
+        }
+        boolean ok = true;
+        for ( int e=0 ; e<n ; ++e )
+            ok &= readValue( prims, lv.refs_, e, et, lv.bytes_, depth+1 );
+        return ok;
+    }
+
+    private void skipElements( int n, int type, int valueType, int depth ) throws IOException
+    {
+        for ( int e=0 ; e<n ; ++e )
+        {
+            r_.skip( type, depth+1 );
+            if ( valueType != ThriftWireType.STOP )
+                r_.skip( valueType, depth+1 );
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.protocol;
+
+import bweng.thrift.parser.model.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Decoded list or set of a {@link ThriftDecoder}, also used for keys and values of maps.<br>
+ * Elements are stored like the fields of {@link ThriftStructValue} and are accessed by index.
+ * Sets keep the order of the wire.
+ */
+public final class ThriftListValue
+{
+    final ThriftValueType type_;
+    final ThriftBytes bytes_;
+
+    long[] prims_;
+    Object[] refs_;
+    int size_;
+
+    ThriftListValue( ThriftValueType elementType, ThriftBytes bytes )
+    {
+        type_ = elementType;
+        bytes_ = bytes;
+    }
+
+    /**
+     * Prepares the storage of n elements, kept elements are reused.
+     */
+    void reset( int n )
+    {
+        if ( type_.isPrimitive() )
+        {
+            if ( prims_ == null || prims_.length < n )
+                prims_ = new long[ Math.max( n, prims_ == null ? 0 : 2*prims_.length ) ];
+        }
+        else
+        {
+            if ( refs_ == null || refs_.length < n )
+            {
+                final Object[] r = new Object[ Math.max( n, refs_ == null ? 0 : 2*refs_.length ) ];
+                if ( refs_ != null )
+                    System.arraycopy( refs_, 0, r, 0, refs_.length );
+                refs_ = r;
+            }
+            // Slots for primitives are not used, but keep the access uniform.
+            if ( prims_ == null || prims_.length < refs_.length )
+                prims_ = new long[ refs_.length ];
+        }
+        size_ = n;
+    }
+
+    /**
+     * Gets the declared element type.
+     */
+    public ThriftType getElementType()
+    {
+        return type_.type_;
+    }
+
+    public int size()
+    {
+        return size_;
+    }
+
+    private int check( int i )
+    {
+        if ( i < 0 || i >= size_ )
+            throw new IndexOutOfBoundsException( "Index " + i + ", size " + size_ );
+        return i;
+    }
+
+    public boolean getBool( int i )
+    {
+        return prims_[check(i)] != 0;
+    }
+
+    public byte getByte( int i )
+    {
+        return (byte)prims_[check(i)];
+    }
+
+    public short getI16( int i )
+    {
+        return (short)prims_[check(i)];
+    }
+
+    public int getI32( int i )
+    {
+        return (int)prims_[check(i)];
+    }
+
+    public long getI64( int i )
+    {
+        return prims_[check(i)];
+    }
+
+    public double getDouble( int i )
+    {
+        return Double.longBitsToDouble( prims_[check(i)] );
+    }
+
+    public String getString( int i )
+    {
+        return bytes_.getString( prims_[check(i)] );
+    }
+
+    public ByteBuffer getBinary( int i )
+    {
+        return bytes_.getBinary( prims_[check(i)] );
+    }
+
+    public ThriftStructValue getStruct( int i )
+    {
+        return (ThriftStructValue)refs_[check(i)];
+    }
+
+    public ThriftListValue getList( int i )
+    {
+        return (ThriftListValue)refs_[check(i)];
+    }
+
+    public ThriftMapValue getMap( int i )
+    {
+        return (ThriftMapValue)refs_[check(i)];
+    }
+
+    /**
+     * Gets an element as object, see {@link ThriftStructValue#get(int)}.
+     */
+    public Object get( int i )
+    {
+        check( i );
+        return ThriftValues.box( type_, prims_[i], refs_ == null ? null : refs_[i], bytes_ );
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder( "[" );
+        for ( int i=0 ; i<size_ ; ++i )
+        {
+            if ( i > 0 ) sb.append( ", " );
+            ThriftValues.append( sb, type_, prims_[i], refs_ == null ? null : refs_[i], bytes_ );
+        }
+        return sb.append( ']' ).toString();
+    }
+}
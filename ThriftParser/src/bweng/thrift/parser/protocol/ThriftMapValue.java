@@ -0,0 +1,50 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.protocol;
+
+/**
+ * Decoded map of a {@link ThriftDecoder}, as parallel lists of keys and values in wire order.<br>
+ * No hash table is built, lookups are up to the caller.
+ */
+public final class ThriftMapValue
+{
+    final ThriftListValue keys_;
+    final ThriftListValue values_;
+
+    ThriftMapValue( ThriftValueType type, ThriftBytes bytes )
+    {
+        keys_ = new ThriftListValue( type.key_, bytes );
+        values_ = new ThriftListValue( type.element_, bytes );
+    }
+
+    public int size()
+    {
+        return keys_.size_;
+    }
+
+    public ThriftListValue getKeys()
+    {
+        return keys_;
+    }
+
+    public ThriftListValue getValues()
+    {
+        return values_;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder( "{" );
+        for ( int i=0 ; i<keys_.size_ ; ++i )
+        {
+            if ( i > 0 ) sb.append( ", " );
+            ThriftValues.append( sb, keys_.type_, keys_.prims_[i], keys_.refs_ == null ? null : keys_.refs_[i], keys_.bytes_ );
+            sb.append( '=' );
+            ThriftValues.append( sb, values_.type_, values_.prims_[i], values_.refs_ == null ? null : values_.refs_[i], values_.bytes_ );
+        }
+        return sb.append( '}' ).toString();
+    }
+}
@@ -0,0 +1,16 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.protocol;
+
+/**
+ * Wire protocols supported by {@link ThriftDecoder}.
+ */
+public enum ThriftProtocol
+{
+    /** TBinaryProtocol, fixed size big-endian values. */
+    BINARY,
+    /** TCompactProtocol, variable length integers and field id deltas. */
+    COMPACT
+}
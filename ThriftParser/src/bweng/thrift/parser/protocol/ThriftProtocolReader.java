@@ -0,0 +1,155 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.protocol;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the primitives of a wire protocol from a ByteBuffer, at its position.<p>
+ * Types are returned as {@link ThriftWireType}. Sizes of strings and containers
+ * are checked against the remaining bytes, so corrupt data can't force huge allocations.
+ * A truncated buffer throws {@link java.nio.BufferUnderflowException}.<br>
+ * Not thread-safe.
+ */
+abstract class ThriftProtocolReader
+{
+    /** Maximal nesting of structs and containers. */
+    final static int MAX_DEPTH = 64;
+
+    ByteBuffer in_;
+
+    /** Id of the last field read by {@link #readFieldBegin()}. */
+    int fieldId_;
+
+    /** Element type of the last list or set, key type of the last map. */
+    int elementType_;
+
+    /** Value type of the last map. */
+    int valueType_;
+
+    static ThriftProtocolReader create( ThriftProtocol protocol )
+    {
+        return ( protocol == ThriftProtocol.COMPACT ) ? new ThriftCompactReader() : new ThriftBinaryReader();
+    }
+
+    /**
+     * Sets the buffer to read from.
+     */
+    void reset( ByteBuffer in )
+    {
+        in_ = in;
+    }
+
+    abstract void readStructBegin() throws IOException;
+
+    abstract void readStructEnd();
+
+    /**
+     * Reads a field header.
+     * @return The wire type or STOP at end of struct.
+     */
+    abstract int readFieldBegin() throws IOException;
+
+    /**
+     * Reads a list or set header.
+     * @return Number of elements.
+     */
+    abstract int readListBegin() throws IOException;
+
+    /**
+     * Reads a map header.
+     * @return Number of entries.
+     */
+    abstract int readMapBegin() throws IOException;
+
+    abstract boolean readBool();
+
+    final byte readByte()
+    {
+        return in_.get();
+    }
+
+    abstract short readI16() throws IOException;
+
+    abstract int readI32() throws IOException;
+
+    abstract long readI64() throws IOException;
+
+    abstract double readDouble();
+
+    /**
+     * Reads the length of a string or binary, the bytes follow.
+     */
+    abstract int readBinaryLength() throws IOException;
+
+    /**
+     * Checks a size read from the wire. Each element needs at least one byte.
+     */
+    final int checkSize( int size ) throws IOException
+    {
+        if ( size < 0 || size > in_.remaining() )
+            throw new IOException( "Invalid size " + size + " at position " + in_.position() );
+        return size;
+    }
+
+    /**
+     * Skips a value.
+     */
+    final void skip( int type, int depth ) throws IOException
+    {
+        if ( depth > MAX_DEPTH )
+            throw new IOException( "Nesting too deep at position " + in_.position() );
+        switch ( type )
+        {
+            case ThriftWireType.BOOL:   readBool(); break;
+            case ThriftWireType.BYTE:   in_.get(); break;
+            case ThriftWireType.I16:    readI16(); break;
+            case ThriftWireType.I32:    readI32(); break;
+            case ThriftWireType.I64:    readI64(); break;
+            case ThriftWireType.DOUBLE: readDouble(); break;
+            case ThriftWireType.STRING:
+            {
+                final int n = readBinaryLength();
+                // Called on Buffer, ByteBuffer.position(int) doesn't exist before Java 9.
+                ((Buffer)in_).position( in_.position() + n );
+                break;
+            }
+            case ThriftWireType.STRUCT:
+            {
+                readStructBegin();
+                int t;
+                while ( (t = readFieldBegin()) != ThriftWireType.STOP )
+                    skip( t, depth+1 );
+                readStructEnd();
+                break;
+            }
+            case ThriftWireType.LIST:
+            case ThriftWireType.SET:
+            {
+                final int n = readListBegin();
+                final int et = elementType_;
+                for ( int i=0 ; i<n ; ++i )
+                    skip( et, depth+1 );
+                break;
+            }
+            case ThriftWireType.MAP:
+            {
+                final int n = readMapBegin();
+                final int kt = elementType_;
+                final int vt = valueType_;
+                for ( int i=0 ; i<n ; ++i )
+                {
+                    skip( kt, depth+1 );
+                    skip( vt, depth+1 );
+                }
+                break;
+            }
+            default:
+                throw new IOException( "Invalid type " + type + " at position " + in_.position() );
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.protocol;
+
+import bweng.thrift.parser.model.*;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precompiled dispatch table of a struct, union or exception.<p>
+ * Field ids are mapped by the {@link ThriftFieldTable} of the type to a slot,
+ * the position of the field in the declaration. Each slot has the precompiled
+ * type of the field, null if the type is unresolved or can't be sent.
+ */
+final class ThriftStructLayout
+{
+    final ThriftType type_;
+    final ThriftFieldTable table_;
+    final ThriftValueType[] types_;
+
+    private ThriftStructLayout( ThriftType type, ThriftFieldTable table )
+    {
+        type_ = type;
+        table_ = table;
+        types_ = new ThriftValueType[ table.size() ];
+    }
+
+    /**
+     * Gets the slot of a field id.
+     * @return The slot or -1.
+     */
+    int slot( int id )
+    {
+        return table_.indexOf( id );
+    }
+
+    /**
+     * Gets the field table of a struct, union or exception.
+     * @return The table or null if the real type has no fields.
+     */
+    static ThriftFieldTable getFieldTable( ThriftType type )
+    {
+        final ThriftType t = ( type != null ) ? type.getRealType() : null;
+        if ( t instanceof ThriftStructType )
+            return ((ThriftStructType)t).getFieldTable();
+        if ( t instanceof ThriftUnionType )
+            return ((ThriftUnionType)t).getFieldTable();
+        return null;
+    }
+
+    /**
+     * Compiles the layouts of a type and all types reachable from it.
+     * @param cache Layouts already compiled, recursive types share them.
+     * @throws IllegalArgumentException if the type is no struct, union or exception.
+     */
+    static ThriftStructLayout compile( ThriftType type, Map<ThriftType, ThriftStructLayout> cache )
+    {
+        final ThriftFieldTable table = getFieldTable( type );
+        if ( table == null )
+            throw new IllegalArgumentException( "Not a struct: " + type );
+        return compileStruct( type.getRealType(), table, cache );
+    }
+
+    static ThriftStructLayout compile( ThriftType type )
+    {
+        return compile( type, new IdentityHashMap<ThriftType, ThriftStructLayout>() );
+    }
+
+    private static ThriftStructLayout compileStruct( ThriftType type, ThriftFieldTable table, Map<ThriftType, ThriftStructLayout> cache )
+    {
+        ThriftStructLayout l = cache.get( type );
+        if ( l != null )
+            return l;
+        l = new ThriftStructLayout( type, table );
+        cache.put( type, l );
+        final List<ThriftField> fields = table.getFields();
+        for ( int i=0 ; i<l.types_.length ; ++i )
+            l.types_[i] = compileValue( fields.get(i).type_, cache );
+        return l;
+    }
+
+    private static ThriftValueType compileValue( ThriftType type, Map<ThriftType, ThriftStructLayout> cache )
+    {
+        final int wire = ThriftWireType.of( type );
+        if ( wire == ThriftWireType.STOP )
+            return null;
+        final ThriftType t = type.getRealType();
+        final ThriftValueType vt = new ThriftValueType( t, wire );
+        switch ( wire )
+        {
+            case ThriftWireType.STRUCT:
+                vt.struct_ = compileStruct( t, getFieldTable( t ), cache );
+                break;
+            case ThriftWireType.LIST:
+                vt.element_ = compileValue( ((ThriftListType)t).value_type_, cache );
+                break;
+            case ThriftWireType.SET:
+                vt.element_ = compileValue( ((ThriftSetType)t).value_type_, cache );
+                break;
+            case ThriftWireType.MAP:
+                vt.key_ = compileValue( ((ThriftMapType)t).key_type_, cache );
+                vt.element_ = compileValue( ((ThriftMapType)t).value_type_, cache );
+                if ( vt.key_ == null )
+                    return null;
+                break;
+            default:
+                break;
+        }
+        // Containers of unknown elements can't be decoded.
+        if ( ( wire == ThriftWireType.LIST || wire == ThriftWireType.SET || wire == ThriftWireType.MAP ) && vt.element_ == null )
+            return null;
+        return vt;
+    }
+}
@@ -0,0 +1,220 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.protocol;
+
+import bweng.thrift.parser.model.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decoded struct, union or exception of a {@link ThriftDecoder}.<p>
+ * Fields are accessed by id. Primitives are stored unboxed, strings and binaries
+ * as bytes in an arena shared by the whole tree. Nested values and the arena are
+ * reused if the value is decoded again, so values are only valid until the next
+ * decode into the same root. Getters of fields that are not set return 0, false or null.
+ */
+public final class ThriftStructValue
+{
+    final ThriftStructLayout layout_;
+    final ThriftBytes bytes_;
+
+    // Per slot: primitives, strings as offset and length.
+    final long[] prims_;
+    // Per slot: nested structs and containers.
+    final Object[] refs_;
+
+    // A slot is set if its mark is the current mark.
+    private final int[] marks_;
+    private int mark_ = 1;
+
+    int skipped_;
+
+    ThriftStructValue( ThriftStructLayout layout, ThriftBytes bytes )
+    {
+        layout_ = layout;
+        bytes_ = bytes;
+        final int n = layout.types_.length;
+        prims_ = new long[n];
+        refs_ = new Object[n];
+        marks_ = new int[n];
+    }
+
+    /**
+     * Clears all fields before decoding.
+     */
+    void begin()
+    {
+        if ( ++mark_ == 0 )
+        {
+            Arrays.fill( marks_, 0 );
+            mark_ = 1;
+        }
+        skipped_ = 0;
+    }
+
+    void set( int slot )
+    {
+        marks_[slot] = mark_;
+    }
+
+    private int setSlot( int id )
+    {
+        final int s = layout_.slot( id );
+        return ( s >= 0 && marks_[s] == mark_ ) ? s : -1;
+    }
+
+    /**
+     * Gets the struct, union or exception type.
+     */
+    public ThriftType getType()
+    {
+        return layout_.type_;
+    }
+
+    /**
+     * Gets the fields of the type.
+     */
+    public ThriftFieldTable getFieldTable()
+    {
+        return layout_.table_;
+    }
+
+    /**
+     * Checks if a field was decoded.
+     */
+    public boolean isSet( int id )
+    {
+        return setSlot( id ) >= 0;
+    }
+
+    /**
+     * Gets the number of fields that were decoded.
+     */
+    public int getSetCount()
+    {
+        int n = 0;
+        for ( int m : marks_ )
+            if ( m == mark_ ) ++n;
+        return n;
+    }
+
+    /**
+     * Gets the number of fields that were skipped, because their id is unknown
+     * or their wire type doesn't match the declaration.
+     */
+    public int getSkippedCount()
+    {
+        return skipped_;
+    }
+
+    public boolean getBool( int id )
+    {
+        final int s = setSlot( id );
+        return s >= 0 && prims_[s] != 0;
+    }
+
+    public byte getByte( int id )
+    {
+        final int s = setSlot( id );
+        return ( s >= 0 ) ? (byte)prims_[s] : 0;
+    }
+
+    public short getI16( int id )
+    {
+        final int s = setSlot( id );
+        return ( s >= 0 ) ? (short)prims_[s] : 0;
+    }
+
+    /**
+     * Gets an i32 or enum field.
+     */
+    public int getI32( int id )
+    {
+        final int s = setSlot( id );
+        return ( s >= 0 ) ? (int)prims_[s] : 0;
+    }
+
+    public long getI64( int id )
+    {
+        final int s = setSlot( id );
+        return ( s >= 0 ) ? prims_[s] : 0;
+    }
+
+    public double getDouble( int id )
+    {
+        final int s = setSlot( id );
+        return ( s >= 0 ) ? Double.longBitsToDouble( prims_[s] ) : 0.0;
+    }
+
+    /**
+     * Gets a string field, decoded as UTF-8.
+     */
+    public String getString( int id )
+    {
+        final int s = setSlot( id );
+        return ( s >= 0 ) ? bytes_.getString( prims_[s] ) : null;
+    }
+
+    /**
+     * Gets a string or binary field as read-only buffer, without decoding.
+     */
+    public ByteBuffer getBinary( int id )
+    {
+        final int s = setSlot( id );
+        return ( s >= 0 ) ? bytes_.getBinary( prims_[s] ) : null;
+    }
+
+    public ThriftStructValue getStruct( int id )
+    {
+        final int s = setSlot( id );
+        return ( s >= 0 ) ? (ThriftStructValue)refs_[s] : null;
+    }
+
+    /**
+     * Gets a list or set field.
+     */
+    public ThriftListValue getList( int id )
+    {
+        final int s = setSlot( id );
+        return ( s >= 0 ) ? (ThriftListValue)refs_[s] : null;
+    }
+
+    public ThriftMapValue getMap( int id )
+    {
+        final int s = setSlot( id );
+        return ( s >= 0 ) ? (ThriftMapValue)refs_[s] : null;
+    }
+
+    /**
+     * Gets a field as object. Primitives are boxed, strings are String,
+     * binaries ByteBuffer, all other values the value objects.
+     * @return The value or null if the field is not set.
+     */
+    public Object get( int id )
+    {
+        final int s = setSlot( id );
+        return ( s >= 0 ) ? ThriftValues.box( layout_.types_[s], prims_[s], refs_[s], bytes_ ) : null;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+        sb.append( layout_.type_.name_ ).append( '{' );
+        final List<ThriftField> fields = layout_.table_.getFields();
+        boolean first = true;
+        for ( int s=0 ; s<prims_.length ; ++s )
+        {
+            if ( marks_[s] != mark_ )
+                continue;
+            if ( !first ) sb.append( ", " );
+            first = false;
+            sb.append( fields.get(s).name_ ).append( '=' );
+            ThriftValues.append( sb, layout_.types_[s], prims_[s], refs_[s], bytes_ );
+        }
+        return sb.append( '}' ).toString();
+    }
+}
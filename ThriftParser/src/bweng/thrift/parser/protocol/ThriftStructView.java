@@ -0,0 +1,439 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.protocol;
+
+import bweng.thrift.parser.model.*;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Flyweight over a TBinaryProtocol struct in a ByteBuffer, bound to a resolved
+ * struct, union or exception type.<p>
+ * Nothing is decoded or copied by {@link #wrap(ByteBuffer, int)}. Field offsets are
+ * indexed lazily: an access scans the field headers only up to the requested field,
+ * skipping the values in between, and remembers the offsets of all fields passed.
+ * Values are read directly from the buffer with absolute access, the position of
+ * the buffer is never changed.<br>
+ * A view and its nested views are reused by the next wrap, so the steady state
+ * allocates nothing, except for {@link #getString(int)}.<p>
+ * Fields with unknown ids or wire types that don't match the declaration are
+ * treated as not set, if an id is used twice the first field wins. Getters of
+ * fields that are not set return 0, false, null or -1.
+ * Accessing a field with a getter of another type is an IllegalArgumentException.<br>
+ * Corrupt or truncated data is reported by the accessor that reaches it.
+ * A view is not thread-safe.
+ */
+public final class ThriftStructView
+{
+    private final ThriftStructLayout layout_;
+    private final int depth_;
+
+    private ByteBuffer buf_;
+    private int limit_;
+    private boolean swap_;
+    private int start_;
+
+    // Position of the next field header not scanned yet.
+    private int scan_;
+    // Position behind the struct, -1 if not scanned so far.
+    private int end_;
+
+    // Offsets of the values per slot, valid if the mark is the current mark.
+    private final int[] offsets_;
+    private final int[] marks_;
+    private int mark_ = 1;
+
+    // Nested views per slot, created on first use.
+    private final ThriftStructView[] children_;
+
+    /**
+     * Creates a view.
+     * @param type Struct, union or exception, type-references and type-definitions are followed.
+     * @throws IllegalArgumentException if the type has no fields.
+     */
+    public ThriftStructView( ThriftType type )
+    {
+        this( ThriftStructLayout.compile( type ), 0 );
+    }
+
+    private ThriftStructView( ThriftStructLayout layout, int depth )
+    {
+        layout_ = layout;
+        depth_ = depth;
+        final int n = layout.types_.length;
+        offsets_ = new int[n];
+        marks_ = new int[n];
+        children_ = new ThriftStructView[n];
+    }
+
+    /**
+     * Wraps the struct at the position of the buffer.
+     * @return this
+     */
+    public ThriftStructView wrap( ByteBuffer buf )
+    {
+        return wrap( buf, buf.position() );
+    }
+
+    /**
+     * Wraps the struct at an offset of the buffer, up to its limit.
+     * @return this
+     */
+    public ThriftStructView wrap( ByteBuffer buf, int offset )
+    {
+        if ( offset < 0 || offset > buf.limit() )
+            throw new IndexOutOfBoundsException( "Offset " + offset + ", limit " + buf.limit() );
+        buf_ = buf;
+        limit_ = buf.limit();
+        swap_ = buf.order() != ByteOrder.BIG_ENDIAN;
+        start_ = scan_ = offset;
+        end_ = -1;
+        if ( ++mark_ == 0 )
+        {
+            Arrays.fill( marks_, 0 );
+            mark_ = 1;
+        }
+        return this;
+    }
+
+    /**
+     * Gets the struct, union or exception type.
+     */
+    public ThriftType getType()
+    {
+        return layout_.type_;
+    }
+
+    /**
+     * Gets the fields of the type.
+     */
+    public ThriftFieldTable getFieldTable()
+    {
+        return layout_.table_;
+    }
+
+    public ByteBuffer getBuffer()
+    {
+        return buf_;
+    }
+
+    /**
+     * Gets the offset of the struct in the buffer.
+     */
+    public int getOffset()
+    {
+        return start_;
+    }
+
+    /**
+     * Gets the encoded size of the struct, including the stop byte.
+     * Scans all remaining fields, e.g. to find the next message of a stream.
+     */
+    public int getLength() throws IOException
+    {
+        if ( end_ < 0 )
+            find( -1 );
+        return end_ - start_;
+    }
+
+    /**
+     * Checks if a field is set.
+     */
+    public boolean isSet( int id ) throws IOException
+    {
+        final int s = layout_.slot( id );
+        return s >= 0 && find( s ) >= 0;
+    }
+
+    /**
+     * Gets the offset of the value of a field in the buffer, e.g. to read containers.
+     * @return The offset or -1 if not set.
+     */
+    public int getFieldOffset( int id ) throws IOException
+    {
+        final int s = layout_.slot( id );
+        return ( s >= 0 ) ? find( s ) : -1;
+    }
+
+    public boolean getBool( int id ) throws IOException
+    {
+        final int p = offsetOf( id, ThriftWireType.BOOL );
+        return p >= 0 && buf_.get( p ) != 0;
+    }
+
+    public byte getByte( int id ) throws IOException
+    {
+        final int p = offsetOf( id, ThriftWireType.BYTE );
+        return ( p >= 0 ) ? buf_.get( p ) : 0;
+    }
+
+    public short getI16( int id ) throws IOException
+    {
+        final int p = offsetOf( id, ThriftWireType.I16 );
+        if ( p < 0 ) return 0;
+        final short v = buf_.getShort( p );
+        return swap_ ? Short.reverseBytes( v ) : v;
+    }
+
+    /**
+     * Gets an i32 or enum field.
+     */
+    public int getI32( int id ) throws IOException
+    {
+        final int p = offsetOf( id, ThriftWireType.I32 );
+        return ( p >= 0 ) ? i32( p ) : 0;
+    }
+
+    public long getI64( int id ) throws IOException
+    {
+        final int p = offsetOf( id, ThriftWireType.I64 );
+        return ( p >= 0 ) ? i64( p ) : 0;
+    }
+
+    public double getDouble( int id ) throws IOException
+    {
+        final int p = offsetOf( id, ThriftWireType.DOUBLE );
+        return ( p >= 0 ) ? Double.longBitsToDouble( i64( p ) ) : 0.0;
+    }
+
+    /**
+     * Gets the offset of the bytes of a string or binary field in the buffer.
+     * @return The offset or -1 if not set.
+     */
+    public int getBinaryOffset( int id ) throws IOException
+    {
+        final int p = offsetOf( id, ThriftWireType.STRING );
+        return ( p >= 0 ) ? p+4 : -1;
+    }
+
+    /**
+     * Gets the number of bytes of a string or binary field.
+     * @return The length or -1 if not set.
+     */
+    public int getBinaryLength( int id ) throws IOException
+    {
+        final int p = offsetOf( id, ThriftWireType.STRING );
+        return ( p >= 0 ) ? i32( p ) : -1;
+    }
+
+    /**
+     * Compares the bytes of a string or binary field, without copying.
+     * @param value The bytes, strings as UTF-8.
+     * @return false if not equal or not set.
+     */
+    public boolean equalsBinary( int id, byte[] value ) throws IOException
+    {
+        final int p = offsetOf( id, ThriftWireType.STRING );
+        if ( p < 0 || i32( p ) != value.length )
+            return false;
+        for ( int i=0 ; i<value.length ; ++i )
+            if ( buf_.get( p+4+i ) != value[i] ) return false;
+        return true;
+    }
+
+    /**
+     * Gets a string field, decoded as UTF-8. This allocates the string.
+     */
+    public String getString( int id ) throws IOException
+    {
+        final int p = offsetOf( id, ThriftWireType.STRING );
+        if ( p < 0 )
+            return null;
+        final int n = i32( p );
+        if ( buf_.hasArray() )
+            return new String( buf_.array(), buf_.arrayOffset() + p+4, n, StandardCharsets.UTF_8 );
+        final byte[] b = new byte[n];
+        for ( int i=0 ; i<n ; ++i )
+            b[i] = buf_.get( p+4+i );
+        return new String( b, StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Gets a nested struct, union or exception as view on the same buffer.
+     * The view is owned by this view and rewrapped on each call.
+     * @return The view or null if not set.
+     */
+    public ThriftStructView getStruct( int id ) throws IOException
+    {
+        final int s = layout_.slot( id );
+        final int p = offsetOf( id, ThriftWireType.STRUCT );
+        if ( p < 0 )
+            return null;
+        ThriftStructView v = children_[s];
+        if ( v == null )
+        {
+            if ( depth_ >= ThriftProtocolReader.MAX_DEPTH )
+                throw new IOException( "Nesting too deep at position " + p );
+            children_[s] = v = new ThriftStructView( layout_.types_[s].struct_, depth_+1 );
+        }
+        return v.wrap( buf_, p );
+    }
+
+    @Override
+    public String toString()
+    {
+        return layout_.type_.name_ + "@" + start_;
+    }
+
+    /**
+     * Gets the offset of a field and checks that it was declared with the wire type.
+     */
+    private int offsetOf( int id, int wire ) throws IOException
+    {
+        final int s = layout_.slot( id );
+        if ( s < 0 )
+            return -1;
+        final ThriftValueType vt = layout_.types_[s];
+        if ( vt != null && vt.wire_ != wire )
+            throw new IllegalArgumentException( "Field " + id + " of " + layout_.type_.name_
+                    + " is " + ThriftWireType.getName( vt.wire_ ) + ", not " + ThriftWireType.getName( wire ) );
+        return find( s );
+    }
+
+    /**
+     * Scans the field headers until the slot is found or the struct ends.
+     * @param slot The slot or -1 to scan all.
+     * @return Offset of the value or -1.
+     */
+    private int find( int slot ) throws IOException
+    {
+        if ( slot >= 0 && marks_[slot] == mark_ )
+            return offsets_[slot];
+        final ThriftValueType[] types = layout_.types_;
+        while ( end_ < 0 )
+        {
+            int p = scan_;
+            need( p, 1 );
+            final int type = buf_.get( p );
+            if ( type == ThriftWireType.STOP )
+            {
+                end_ = p+1;
+                break;
+            }
+            need( p+1, 2 );
+            final short id = swap_ ? Short.reverseBytes( buf_.getShort( p+1 ) ) : buf_.getShort( p+1 );
+            p += 3;
+            scan_ = skip( p, type, depth_+1 );
+
+            final int s = layout_.slot( id );
+            if ( s >= 0 && marks_[s] != mark_ && types[s] != null && types[s].wire_ == type )
+            {
+                offsets_[s] = p;
+                marks_[s] = mark_;
+                if ( s == slot )
+                    return p;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the position behind a value.
+     */
+    private int skip( int p, int type, int depth ) throws IOException
+    {
+        if ( depth > ThriftProtocolReader.MAX_DEPTH )
+            throw new IOException( "Nesting too deep at position " + p );
+        final int size = fixedSize( type );
+        if ( size > 0 )
+            return need( p, size );
+        switch ( type )
+        {
+            case ThriftWireType.STRING:
+            {
+                need( p, 4 );
+                final int n = i32( p );
+                if ( n < 0 )
+                    throw new IOException( "Invalid size " + n + " at position " + p );
+                return need( p+4, n );
+            }
+            case ThriftWireType.STRUCT:
+                while ( true )
+                {
+                    need( p, 1 );
+                    final int t = buf_.get( p );
+                    if ( t == ThriftWireType.STOP )
+                        return p+1;
+                    p = skip( need( p+1, 2 ), t, depth+1 );
+                }
+            case ThriftWireType.LIST:
+            case ThriftWireType.SET:
+            {
+                need( p, 5 );
+                final int et = buf_.get( p );
+                final int n = i32( p+1 );
+                return skipElements( p+5, n, et, ThriftWireType.STOP, depth );
+            }
+            case ThriftWireType.MAP:
+            {
+                need( p, 6 );
+                final int kt = buf_.get( p );
+                final int vt = buf_.get( p+1 );
+                final int n = i32( p+2 );
+                return skipElements( p+6, n, kt, vt, depth );
+            }
+            default:
+                throw new IOException( "Invalid type " + type + " at position " + p );
+        }
+    }
+
+    private int skipElements( int p, int n, int type, int valueType, int depth ) throws IOException
+    {
+        if ( n < 0 || n > limit_ - p )
+            throw new IOException( "Invalid size " + n + " at position " + p );
+        final int size = fixedSize( type );
+        final int valueSize = ( valueType == ThriftWireType.STOP ) ? 0 : fixedSize( valueType );
+        if ( size > 0 && ( valueType == ThriftWireType.STOP || valueSize > 0 ) )
+            return need( p, (long)n * (size + valueSize) );
+        for ( int i=0 ; i<n ; ++i )
+        {
+            p = skip( p, type, depth+1 );
+            if ( valueType != ThriftWireType.STOP )
+                p = skip( p, valueType, depth+1 );
+        }
+        return p;
+    }
+
+    private static int fixedSize( int type )
+    {
+        switch ( type )
+        {
+            case ThriftWireType.BOOL:
+            case ThriftWireType.BYTE:   return 1;
+            case ThriftWireType.I16:    return 2;
+            case ThriftWireType.I32:    return 4;
+            case ThriftWireType.I64:
+            case ThriftWireType.DOUBLE: return 8;
+            default:                    return 0;
+        }
+    }
+
+    /**
+     * Checks that n bytes are available.
+     * @return The position behind them.
+     */
+    private int need( int p, long n ) throws EOFException
+    {
+        if ( p + n > limit_ )
+            throw new EOFException( "Truncated " + layout_.type_.name_ + " at position " + p );
+        return (int)(p + n);
+    }
+
+    private int i32( int p )
+    {
+        final int v = buf_.getInt( p );
+        return swap_ ? Integer.reverseBytes( v ) : v;
+    }
+
+    private long i64( int p )
+    {
+        final long v = buf_.getLong( p );
+        return swap_ ? Long.reverseBytes( v ) : v;
+    }
+}
@@ -0,0 +1,52 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.protocol;
+
+import bweng.thrift.parser.model.*;
+
+/**
+ * Precompiled type of a value: the expected wire type, element types of
+ * containers and the layout of structs.
+ */
+final class ThriftValueType
+{
+    /** The real model type. */
+    final ThriftType type_;
+
+    /** Expected wire type. */
+    final int wire_;
+
+    /** Element type of lists and sets, value type of maps. */
+    ThriftValueType element_;
+
+    /** Key type of maps. */
+    ThriftValueType key_;
+
+    /** Layout of structs. */
+    ThriftStructLayout struct_;
+
+    ThriftValueType( ThriftType type, int wire )
+    {
+        type_ = type;
+        wire_ = wire;
+    }
+
+    /**
+     * Checks if values are stored in the primitive slots.
+     */
+    boolean isPrimitive()
+    {
+        return wire_ != ThriftWireType.STRUCT && wire_ != ThriftWireType.LIST
+            && wire_ != ThriftWireType.SET && wire_ != ThriftWireType.MAP;
+    }
+
+    /**
+     * Checks if strings are declared as binary.
+     */
+    boolean isBinary()
+    {
+        return type_ == ThriftType.BINARY;
+    }
+}
@@ -0,0 +1,68 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.protocol;
+
+import bweng.thrift.parser.model.*;
+
+/**
+ * Helpers shared by the value classes.
+ */
+final class ThriftValues
+{
+    private ThriftValues()
+    {
+    }
+
+    /**
+     * Gets a value as object, primitives are boxed, strings decoded.
+     */
+    static Object box( ThriftValueType vt, long p, Object ref, ThriftBytes bytes )
+    {
+        switch ( vt.wire_ )
+        {
+            case ThriftWireType.BOOL:   return p != 0;
+            case ThriftWireType.BYTE:   return (byte)p;
+            case ThriftWireType.I16:    return (short)p;
+            case ThriftWireType.I32:    return (int)p;
+            case ThriftWireType.I64:    return p;
+            case ThriftWireType.DOUBLE: return Double.longBitsToDouble( p );
+            case ThriftWireType.STRING: return vt.isBinary() ? bytes.getBinary( p ) : bytes.getString( p );
+            default:                    return ref;
+        }
+    }
+
+    /**
+     * Appends a readable form of a value, enums with their names.
+     */
+    static void append( StringBuilder sb, ThriftValueType vt, long p, Object ref, ThriftBytes bytes )
+    {
+        switch ( vt.wire_ )
+        {
+            case ThriftWireType.STRING:
+                if ( vt.isBinary() )
+                    sb.append( "<" ).append( (int)p ).append( " bytes>" );
+                else
+                    sb.append( '"' ).append( bytes.getString( p ) ).append( '"' );
+                break;
+            case ThriftWireType.I32:
+                sb.append( (int)p );
+                if ( vt.type_ instanceof ThriftEnum && ((ThriftEnum)vt.type_).values_ != null )
+                {
+                    for ( ThriftEnumValue ev : ((ThriftEnum)vt.type_).values_ )
+                    {
+                        if ( ev.value_ == (int)p )
+                        {
+                            sb.append( '(' ).append( ev.name_ ).append( ')' );
+                            break;
+                        }
+                    }
+                }
+                break;
+            default:
+                sb.append( box( vt, p, ref, bytes ) );
+                break;
+        }
+    }
+}
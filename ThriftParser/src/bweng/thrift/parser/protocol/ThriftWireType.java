@@ -0,0 +1,81 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.protocol;
+
+import bweng.thrift.parser.model.*;
+
+/**
+ * Wire types of values, same numbers as TType of the Thrift libraries.<br>
+ * The compact protocol uses other numbers on the wire, its reader maps them to these.
+ */
+public final class ThriftWireType
+{
+    public final static int STOP   = 0;
+    public final static int VOID   = 1;
+    public final static int BOOL   = 2;
+    public final static int BYTE   = 3;
+    public final static int DOUBLE = 4;
+    public final static int I16    = 6;
+    public final static int I32    = 8;
+    public final static int I64    = 10;
+    public final static int STRING = 11;
+    public final static int STRUCT = 12;
+    public final static int MAP    = 13;
+    public final static int SET    = 14;
+    public final static int LIST   = 15;
+
+    private ThriftWireType()
+    {
+    }
+
+    /**
+     * Gets the wire type of a model type.
+     * Type-references and Type-definitions are followed, enums are sent as I32,
+     * unsigned types as the signed type of the same size.
+     * @return The wire type or STOP if the type can't be sent.
+     */
+    public static int of( ThriftType type )
+    {
+        final ThriftType t = ( type != null ) ? type.getRealType() : null;
+        if ( t == null )                      return STOP;
+        if ( t == ThriftType.BOOL )           return BOOL;
+        if ( t == ThriftType.INT8  || t == ThriftType.UINT8  ) return BYTE;
+        if ( t == ThriftType.INT16 || t == ThriftType.UINT16 ) return I16;
+        if ( t == ThriftType.INT32 || t == ThriftType.UINT32 ) return I32;
+        if ( t == ThriftType.INT64 || t == ThriftType.UINT64 ) return I64;
+        if ( t == ThriftType.DOUBLE )         return DOUBLE;
+        if ( t == ThriftType.STRING || t == ThriftType.BINARY ) return STRING;
+        if ( t instanceof ThriftEnum )        return I32;
+        if ( t instanceof ThriftStructType || t instanceof ThriftUnionType ) return STRUCT;
+        if ( t instanceof ThriftListType )    return LIST;
+        if ( t instanceof ThriftSetType )     return SET;
+        if ( t instanceof ThriftMapType )     return MAP;
+        return STOP;
+    }
+
+    /**
+     * Gets the name of a wire type.
+     */
+    public static String getName( int type )
+    {
+        switch ( type )
+        {
+            case STOP:   return "stop";
+            case VOID:   return "void";
+            case BOOL:   return "bool";
+            case BYTE:   return "byte";
+            case DOUBLE: return "double";
+            case I16:    return "i16";
+            case I32:    return "i32";
+            case I64:    return "i64";
+            case STRING: return "string";
+            case STRUCT: return "struct";
+            case MAP:    return "map";
+            case SET:    return "set";
+            case LIST:   return "list";
+            default:     return "type" + type;
+        }
+    }
+}
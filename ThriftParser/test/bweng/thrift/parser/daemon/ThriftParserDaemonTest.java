@@ -0,0 +1,194 @@
+/* Copyright (c) 2015-2018 Bernd Wengenroth
+ * Licensed under the MIT License.
+ * See LICENSE file for details.
+ */
+package bweng.thrift.parser.daemon;
+
+import bweng.thrift.parser.ThriftModelGenerator;
+import bweng.thrift.parser.model.ThriftDocument;
+import bweng.thrift.parser.model.ThriftStructType;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the daemon with an in-process instance.
+ */
+public class ThriftParserDaemonTest
+{
+    private Path dir_;
+    private ThriftParserDaemon daemon_;
+    private Thread thread_;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir_ = Files.createTempDirectory( "daemontest" );
+        daemon_ = new ThriftParserDaemon( 0, Collections.<String>emptyList(), dir_.resolve( "daemon.token" ) );
+        thread_ = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                daemon_.run();
+            }
+        });
+        thread_.setDaemon( true );
+        thread_.start();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        daemon_.close();
+        assertFalse( Files.exists( dir_.resolve( "daemon.token" ) ) );
+        thread_.join( 10000 );
+        ThriftModelGenerator.closeArchives();
+        for ( Path p : Files.list( dir_ ).toArray( Path[]::new ) )
+            Files.delete( p );
+        Files.delete( dir_ );
+    }
+
+    private ThriftParserClient connect() throws IOException
+    {
+        return new ThriftParserClient( daemon_.getPort(), dir_.resolve( "daemon.token" ) );
+    }
+
+    private Path createJar( int i ) throws IOException
+    {
+        final Path jar = dir_.resolve( "a" + i + ".jar" );
+        try ( OutputStream os = Files.newOutputStream( jar );
+              ZipOutputStream zip = new ZipOutputStream( os ) )
+        {
+            zip.putNextEntry( new ZipEntry( "idl/t" + i + ".thrift" ) );
+            zip.write( ( "struct S" + i + " { 1: i32 a }\n" ).getBytes( StandardCharsets.UTF_8 ) );
+            zip.closeEntry();
+        }
+        return jar;
+    }
+
+    private static String entry( Path jar, int i )
+    {
+        return "jar:" + jar.toUri() + "!/idl/t" + i + ".thrift";
+    }
+
+    /**
+     * Cached entries of archives that were closed by the registry must not break the daemon.
+     */
+    @Test
+    public void reparseAfterArchiveEviction() throws IOException
+    {
+        // More archives than the registry keeps open without references.
+        final int n = 12;
+        final Path[] jars = new Path[n];
+        for ( int i=0 ; i<n ; ++i )
+            jars[i] = createJar( i );
+
+        try ( ThriftParserClient client = connect() )
+        {
+            for ( int i=0 ; i<n ; ++i )
+            {
+                ThriftDocument doc = client.parse( entry( jars[i], i ), true );
+                assertNotNull( doc );
+                assertFalse( client.wasCached() );
+            }
+            ThriftModelGenerator.closeArchives();
+
+            ThriftDocument doc = client.parse( entry( jars[0], 0 ), true );
+            assertNotNull( doc );
+            assertTrue( "unchanged archive is served from the cache", client.wasCached() );
+        }
+    }
+
+    /**
+     * Connections without the session token are rejected.
+     */
+    @Test
+    public void rejectWrongToken() throws IOException
+    {
+        final Path wrong = dir_.resolve( "wrong.token" );
+        Files.write( wrong, "0123".getBytes( StandardCharsets.US_ASCII ) );
+        try
+        {
+            new ThriftParserClient( daemon_.getPort(), wrong ).close();
+            fail( "wrong token accepted" );
+        }
+        catch (IOException ex)
+        {
+            assertEquals( "Authentication failed", ex.getMessage() );
+        }
+        try ( ThriftParserClient client = connect() )
+        {
+            assertEquals( ThriftDaemonProtocol.VERSION, client.ping() );
+        }
+    }
+
+    /**
+     * A change of the size is detected, even if the modification time is the same.
+     */
+    @Test
+    public void reparseChangedSize() throws IOException
+    {
+        final Path file = dir_.resolve( "t.thrift" );
+        Files.write( file, "struct A { 1: i32 a }\n".getBytes( StandardCharsets.UTF_8 ) );
+        final FileTime time = Files.getLastModifiedTime( file );
+
+        try ( ThriftParserClient client = connect() )
+        {
+            client.parse( file.toString(), true );
+            assertFalse( client.wasCached() );
+            client.parse( file.toString(), true );
+            assertTrue( client.wasCached() );
+
+            Files.write( file, "struct A { 1: i32 a, 2: i32 b }\n".getBytes( StandardCharsets.UTF_8 ) );
+            Files.setLastModifiedTime( file, time );
+            ThriftDocument doc = client.parse( file.toString(), true );
+            assertFalse( client.wasCached() );
+            assertEquals( 2, ((ThriftStructType)doc.types_.get( 0 )).fields_.size() );
+        }
+    }
+
+    /**
+     * The least recently used results are evicted beyond the cache limit.
+     */
+    @Test
+    public void evictBeyondLimit() throws IOException
+    {
+        final Path[] files = new Path[3];
+        for ( int i=0 ; i<files.length ; ++i )
+        {
+            files[i] = dir_.resolve( "e" + i + ".thrift" );
+            Files.write( files[i], ( "struct S" + i + " { 1: i32 a }\n" ).getBytes( StandardCharsets.UTF_8 ) );
+        }
+        try ( ThriftParserClient client = connect() )
+        {
+            client.parse( files[0].toString(), true );
+            final long size = client.stats()[3];
+            // Room for two results.
+            daemon_.setCacheLimit( 2*size + size/2 );
+
+            client.parse( files[1].toString(), true );
+            client.parse( files[0].toString(), true );
+            assertTrue( client.wasCached() );
+            client.parse( files[2].toString(), true );
+
+            long[] stats = client.stats();
+            assertEquals( 2, stats[2] );
+            assertEquals( 1, stats[4] );
+            client.parse( files[0].toString(), true );
+            assertTrue( "recently used result is kept", client.wasCached() );
+            client.parse( files[1].toString(), true );
+            assertFalse( "least recently used result is evicted", client.wasCached() );
+        }
+    }
+}